@@ -0,0 +1,286 @@
+package migrate.common;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static migrate.common.BinaryDataFileWriter.ATTRIBUTE;
+import static migrate.common.BinaryDataFileWriter.BOOLEAN;
+import static migrate.common.BinaryDataFileWriter.DATETIME;
+import static migrate.common.BinaryDataFileWriter.DOUBLE;
+import static migrate.common.BinaryDataFileWriter.ENTITY;
+import static migrate.common.BinaryDataFileWriter.LONG;
+import static migrate.common.BinaryDataFileWriter.MAGIC;
+import static migrate.common.BinaryDataFileWriter.OWNERSHIP;
+import static migrate.common.BinaryDataFileWriter.RELATION;
+import static migrate.common.BinaryDataFileWriter.STRING;
+import static migrate.common.BinaryDataFileWriter.VERSION;
+
+/**
+ * Reads the records of a binary data file written by {@link BinaryDataFileWriter}, handing each of them to a
+ * {@link DataFileWriter}, eg. to decode the file to the text format. The stream is read through the reader's own
+ * buffer, so it does not need to be buffered. Not thread safe
+ */
+public class BinaryDataFileReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    // offset in the file of the first byte of the buffer
+    private long bufferOffset = MAGIC.length + 1;
+    private final List<String> labels = new ArrayList<>();
+    private byte[] scratch = new byte[256];
+    private final char[] numericId = new char[20];
+
+    /**
+     * @throws IOException - if the stream is not a binary data file of a version this reader supports
+     */
+    public BinaryDataFileReader(InputStream in) throws IOException {
+        this.in = in;
+        if (!startsWith(in, MAGIC)) {
+            throw new IOException("Not a binary data file");
+        }
+        int version = in.read();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary data file version: " + version + ", expected: " + VERSION);
+        }
+    }
+
+    /**
+     * @return whether the file starts with the header of a binary data file, rather than with a line of text
+     */
+    public static boolean isBinary(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return startsWith(in, MAGIC);
+        }
+    }
+
+    /**
+     * @return whether the stream starts with the given header, read from the stream
+     */
+    static boolean startsWith(InputStream in, byte[] header) throws IOException {
+        byte[] magic = new byte[header.length];
+        int read = 0;
+        while (read < magic.length) {
+            int count = in.read(magic, read, magic.length - read);
+            if (count < 0) {
+                return false;
+            }
+            read += count;
+        }
+        return Arrays.equals(magic, header);
+    }
+
+    /**
+     * Decode a binary data file to the text format
+     *
+     * @return number of records
+     */
+    public static long decode(Path binaryFile, Path textFile) throws IOException {
+        try (BinaryDataFileReader reader = new BinaryDataFileReader(Files.newInputStream(binaryFile));
+             DataFileWriter writer = new TextDataFileWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(textFile), StandardCharsets.UTF_8)))) {
+            long records = 0;
+            while (reader.next(writer)) {
+                records++;
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Decode one record of a binary data file to its line in the text format, reading the file up to the record as
+     * role labels may have been defined by the records before it
+     *
+     * @param offset - offset of the record in the file, as given by {@link #offset()}
+     * @return the line of the record, without its line break
+     */
+    public static String record(Path binaryFile, long offset) throws IOException {
+        StringWriter line = new StringWriter();
+        try (BinaryDataFileReader reader = new BinaryDataFileReader(Files.newInputStream(binaryFile))) {
+            DataFileWriter writer = new TextDataFileWriter(line);
+            while (reader.offset() < offset) {
+                if (!reader.next(writer)) {
+                    throw new EOFException("No record at offset " + offset + " of " + binaryFile);
+                }
+                line.getBuffer().setLength(0);
+            }
+            if (reader.offset() != offset || !reader.next(writer)) {
+                throw new IOException("No record at offset " + offset + " of " + binaryFile);
+            }
+        }
+        line.getBuffer().setLength(line.getBuffer().length() - 1);
+        return line.toString();
+    }
+
+    /**
+     * @return offset in the file of the next record, which is also the end of the last one read
+     */
+    public long offset() {
+        return bufferOffset + position;
+    }
+
+    /**
+     * Read the next record
+     *
+     * @param target - receives the record
+     * @return false at the end of the file
+     */
+    public boolean next(DataFileWriter target) throws IOException {
+        if (position == limit && !fill()) {
+            return false;
+        }
+        int tag = buffer[position++];
+        if (tag == ENTITY) {
+            target.entity(readId());
+        } else if (tag == ATTRIBUTE) {
+            String id = readId();
+            target.attribute(id, readValue(id));
+        } else if (tag == RELATION) {
+            String id = readId();
+            int roles = (int) readVarint();
+            Map<String, List<String>> rolePlayers = new LinkedHashMap<>();
+            for (int role = 0; role < roles; role++) {
+                String label = readLabel();
+                int players = (int) readVarint();
+                List<String> playerIds = new ArrayList<>(players);
+                for (int player = 0; player < players; player++) {
+                    playerIds.add(readId());
+                }
+                rolePlayers.put(label, playerIds);
+            }
+            target.relation(id, rolePlayers);
+        } else if (tag == OWNERSHIP) {
+            String attributeId = readId();
+            target.ownership(attributeId, readId());
+        } else {
+            throw new IOException("Unknown record tag: " + tag);
+        }
+        return true;
+    }
+
+    private Object readValue(String id) throws IOException {
+        int valueTag = readByte();
+        if (valueTag == LONG) {
+            return unzigzag(readVarint());
+        } else if (valueTag == DOUBLE) {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return Double.longBitsToDouble(bits);
+        } else if (valueTag == BOOLEAN) {
+            return readByte() != 0;
+        } else if (valueTag == DATETIME) {
+            long epochSecond = unzigzag(readVarint());
+            return LocalDateTime.ofEpochSecond(epochSecond, (int) readVarint(), ZoneOffset.UTC);
+        } else if (valueTag == STRING) {
+            return readString();
+        }
+        throw new IOException("Unknown value tag of attribute " + id + ": " + valueTag);
+    }
+
+    private String readId() throws IOException {
+        long encoded = readVarint();
+        if ((encoded & 1) != 0) {
+            return readUtf8((int) (encoded >>> 1));
+        }
+        // V followed by the digits of the number, written from the end
+        long number = encoded >>> 1;
+        int start = numericId.length;
+        do {
+            numericId[--start] = (char) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+        numericId[--start] = 'V';
+        return new String(numericId, start, numericId.length - start);
+    }
+
+    private String readLabel() throws IOException {
+        int index = (int) readVarint();
+        if (index > 0) {
+            return labels.get(index - 1);
+        }
+        String label = readString();
+        labels.add(label);
+        return label;
+    }
+
+    private String readString() throws IOException {
+        return readUtf8((int) readVarint());
+    }
+
+    private String readUtf8(int length) throws IOException {
+        if (limit - position >= length) {
+            String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(scratch.length * 2, length)];
+        }
+        for (int read = 0; read < length; ) {
+            if (position == limit && !fill()) {
+                throw new EOFException("Truncated binary data file");
+            }
+            int count = Math.min(length - read, limit - position);
+            System.arraycopy(buffer, position, scratch, read, count);
+            position += count;
+            read += count;
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException("Truncated binary data file");
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        bufferOffset += limit;
+        position = 0;
+        limit = Math.max(in.read(buffer), 0);
+        return limit > 0;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,174 @@
+package migrate.common;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary data file: a header (`MAGIC` and `VERSION`) followed by records, each starting with its record tag.
+ * <p>
+ * - concept IDs of the form `V[number]` are written as the varint of `number << 1`, any other ID as the varint of
+ * `length << 1 | 1` followed by its UTF-8 bytes
+ * - role labels are dictionary encoded per file: the varint of the label's index + 1 once the label has been written,
+ * or 0 followed by the length-prefixed label the first time, which gives it the next index
+ * - attribute values are a value tag followed by the value: a zigzag varint for longs, 8 bytes for doubles, 1 byte for
+ * booleans, the zigzag varint of the UTC epoch second and the varint of the nanoseconds for datetimes, and the varint
+ * length of the UTF-8 bytes followed by the bytes for strings
+ * - relations are their ID, the number of roles, then for each role its label, the number of players and their IDs
+ * <p>
+ * The format is read by {@link BinaryDataFileReader}. Any change to it must increment `VERSION`
+ */
+public class BinaryDataFileWriter implements DataFileWriter {
+    // the first byte cannot start a line of UTF-8 text, so binary files are told apart from text files
+    static final byte[] MAGIC = {(byte) 0x89, 'G', 'M', 'B'};
+    static final int VERSION = 1;
+
+    static final int ENTITY = 1;
+    static final int ATTRIBUTE = 2;
+    static final int RELATION = 3;
+    static final int OWNERSHIP = 4;
+
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int BOOLEAN = 3;
+    static final int DATETIME = 4;
+    static final int STRING = 5;
+
+    // IDs up to 18 digits fit in a long, shifted
+    private static final int MAX_NUMERIC_ID_DIGITS = 18;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> labels = new HashMap<>();
+
+    /**
+     * @param out - receives the header at once, and the records as they are written
+     */
+    public BinaryDataFileWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(out);
+        this.out.write(MAGIC);
+        this.out.write(VERSION);
+    }
+
+    @Override
+    public void entity(String id) throws IOException {
+        out.write(ENTITY);
+        writeId(id);
+    }
+
+    @Override
+    public void attribute(String id, Object value) throws IOException {
+        out.write(ATTRIBUTE);
+        writeId(id);
+        if (value instanceof Long) {
+            out.write(LONG);
+            writeVarint(zigzag((Long) value));
+        } else if (value instanceof Double) {
+            out.write(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Boolean) {
+            out.write(BOOLEAN);
+            out.write((Boolean) value ? 1 : 0);
+        } else if (value instanceof LocalDateTime) {
+            LocalDateTime dateTime = (LocalDateTime) value;
+            out.write(DATETIME);
+            writeVarint(zigzag(dateTime.toEpochSecond(ZoneOffset.UTC)));
+            writeVarint(dateTime.getNano());
+        } else if (value instanceof String) {
+            out.write(STRING);
+            writeString((String) value);
+        } else {
+            throw new IllegalArgumentException("Unhandled value class of attribute " + id + ": " + value.getClass());
+        }
+    }
+
+    @Override
+    public void relation(String id, Map<String, ? extends Collection<String>> rolePlayers) throws IOException {
+        out.write(RELATION);
+        writeId(id);
+        writeVarint(rolePlayers.size());
+        for (Map.Entry<String, ? extends Collection<String>> roleEntry : rolePlayers.entrySet()) {
+            writeLabel(roleEntry.getKey());
+            writeVarint(roleEntry.getValue().size());
+            for (String player : roleEntry.getValue()) {
+                writeId(player);
+            }
+        }
+    }
+
+    @Override
+    public void ownership(String attributeId, String ownerId) throws IOException {
+        out.write(OWNERSHIP);
+        writeId(attributeId);
+        writeId(ownerId);
+    }
+
+    private void writeId(String id) throws IOException {
+        long number = numericId(id);
+        if (number >= 0) {
+            writeVarint(number << 1);
+        } else {
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            writeVarint(((long) bytes.length << 1) | 1);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return the number of a `V[number]` ID without leading zeros, or -1 if the ID cannot be rebuilt from a number
+     */
+    private static long numericId(String id) {
+        int digits = id.length() - 1;
+        if (digits < 1 || digits > MAX_NUMERIC_ID_DIGITS || id.charAt(0) != 'V' || (digits > 1 && id.charAt(1) == '0')) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 1; i < id.length(); i++) {
+            int digit = id.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    private void writeLabel(String label) throws IOException {
+        Integer index = labels.get(label);
+        if (index != null) {
+            writeVarint(index + 1);
+        } else {
+            labels.put(label, labels.size());
+            writeVarint(0);
+            writeString(label);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
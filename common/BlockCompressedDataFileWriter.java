@@ -0,0 +1,61 @@
+package migrate.common;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes the records of a text or binary data file writer into a {@link BlockCompressedOutputStream}, marking the end
+ * of each record so that no record is split across blocks
+ */
+class BlockCompressedDataFileWriter implements DataFileWriter {
+    private final DataFileWriter records;
+    private final Flushable encoder;
+    private final BlockCompressedOutputStream blocks;
+
+    /**
+     * @param records - writes its records into `blocks`
+     * @param encoder - holds back bytes of the records between them and `blocks`, eg. a character encoder, flushed at
+     * the end of each record
+     */
+    BlockCompressedDataFileWriter(DataFileWriter records, Flushable encoder, BlockCompressedOutputStream blocks) {
+        this.records = records;
+        this.encoder = encoder;
+        this.blocks = blocks;
+    }
+
+    @Override
+    public void entity(String id) throws IOException {
+        records.entity(id);
+        endRecord();
+    }
+
+    @Override
+    public void attribute(String id, Object value) throws IOException {
+        records.attribute(id, value);
+        endRecord();
+    }
+
+    @Override
+    public void relation(String id, Map<String, ? extends Collection<String>> rolePlayers) throws IOException {
+        records.relation(id, rolePlayers);
+        endRecord();
+    }
+
+    @Override
+    public void ownership(String attributeId, String ownerId) throws IOException {
+        records.ownership(attributeId, ownerId);
+        endRecord();
+    }
+
+    private void endRecord() throws IOException {
+        encoder.flush();
+        blocks.endRecord();
+    }
+
+    @Override
+    public void close() throws IOException {
+        records.close();
+    }
+}
@@ -0,0 +1,311 @@
+package migrate.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static migrate.common.BlockCompressedOutputStream.HEADER_BYTES;
+import static migrate.common.BlockCompressedOutputStream.INDEX_ENTRY_BYTES;
+import static migrate.common.BlockCompressedOutputStream.MAGIC;
+import static migrate.common.BlockCompressedOutputStream.TRAILER_BYTES;
+import static migrate.common.BlockCompressedOutputStream.VERSION;
+
+/**
+ * Reads a block compressed data file written by {@link BlockCompressedOutputStream}. The block index is read when the
+ * file is opened, and any block can then be read on its own, from any thread: each block is verified against its
+ * checksum before it is decompressed.
+ * <p>
+ * The importer only uses `decompress`, and decodes whole files to its staging directory even when resuming: reading
+ * from the block at an offset (`blockAt`, `inputStream`) is there for tools reading part of a file, not yet for resume
+ */
+public class BlockCompressedFile implements Closeable {
+
+    /**
+     * Entry of the block index
+     */
+    public static class Block {
+        private final int index;
+        private final long offset;
+        private final int compressedLength;
+        private final long uncompressedOffset;
+        private final int uncompressedLength;
+        private final int records;
+        private final int checksum;
+
+        private Block(int index, long offset, int compressedLength, long uncompressedOffset, int uncompressedLength, int records, int checksum) {
+            this.index = index;
+            this.offset = offset;
+            this.compressedLength = compressedLength;
+            this.uncompressedOffset = uncompressedOffset;
+            this.uncompressedLength = uncompressedLength;
+            this.records = records;
+            this.checksum = checksum;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        public int compressedLength() {
+            return compressedLength;
+        }
+
+        /**
+         * @return offset of the block's first record in the decompressed file
+         */
+        public long uncompressedOffset() {
+            return uncompressedOffset;
+        }
+
+        public int uncompressedLength() {
+            return uncompressedLength;
+        }
+
+        public int records() {
+            return records;
+        }
+    }
+
+    private final Path file;
+    private final FileChannel channel;
+    private final List<Block> blocks;
+
+    /**
+     * @throws IOException - if the file is not a block compressed file of a version this reader supports, or its
+     * index is corrupt
+     */
+    public BlockCompressedFile(Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            this.blocks = readIndex();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the file starts with the header of a block compressed file, rather than with a line of text or
+     * a binary data file header
+     */
+    public static boolean isBlockCompressed(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return BinaryDataFileReader.startsWith(in, MAGIC);
+        }
+    }
+
+    private List<Block> readIndex() throws IOException {
+        byte[] header = read(0, HEADER_BYTES);
+        if (!Arrays.equals(Arrays.copyOf(header, MAGIC.length), MAGIC)) {
+            throw new IOException("Not a block compressed file: " + file);
+        }
+        if (header[MAGIC.length] != VERSION) {
+            throw new IOException("Unsupported block compressed file version: " + header[MAGIC.length] + ", expected: " + VERSION);
+        }
+        long size = channel.size();
+        if (size < HEADER_BYTES + TRAILER_BYTES) {
+            throw new IOException("Truncated block compressed file: " + file);
+        }
+        DataInputStream trailer = new DataInputStream(new ByteArrayInputStream(read(size - TRAILER_BYTES, TRAILER_BYTES)));
+        long indexOffset = trailer.readLong();
+        int blockCount = trailer.readInt();
+        int indexChecksum = trailer.readInt();
+        byte[] trailerMagic = new byte[MAGIC.length];
+        trailer.readFully(trailerMagic);
+        if (!Arrays.equals(trailerMagic, MAGIC) || indexOffset + (long) blockCount * INDEX_ENTRY_BYTES != size - TRAILER_BYTES) {
+            throw new IOException("Truncated block compressed file: " + file);
+        }
+
+        byte[] indexEntries = read(indexOffset, blockCount * INDEX_ENTRY_BYTES);
+        if (checksum(indexEntries) != indexChecksum) {
+            throw new IOException("Corrupt block index of " + file);
+        }
+        DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexEntries));
+        List<Block> blocks = new ArrayList<>(blockCount);
+        long uncompressedOffset = 0;
+        for (int i = 0; i < blockCount; i++) {
+            Block block = new Block(i, index.readLong(), index.readInt(), uncompressedOffset, index.readInt(), index.readInt(), index.readInt());
+            blocks.add(block);
+            uncompressedOffset += block.uncompressedLength;
+        }
+        return Collections.unmodifiableList(blocks);
+    }
+
+    public List<Block> blocks() {
+        return blocks;
+    }
+
+    public long records() {
+        long records = 0;
+        for (Block block : blocks) {
+            records += block.records;
+        }
+        return records;
+    }
+
+    /**
+     * @return size of the decompressed file
+     */
+    public long uncompressedSize() {
+        return blocks.isEmpty() ? 0 : blocks.get(blocks.size() - 1).uncompressedOffset + blocks.get(blocks.size() - 1).uncompressedLength;
+    }
+
+    /**
+     * @param uncompressedOffset - offset in the decompressed file, eg. a journaled offset
+     * @return block holding the offset, whose records can be read from its start
+     */
+    public Block blockAt(long uncompressedOffset) {
+        if (uncompressedOffset < 0 || uncompressedOffset >= uncompressedSize()) {
+            throw new IndexOutOfBoundsException("Offset " + uncompressedOffset + " is outside of the " + uncompressedSize() + " decompressed bytes of " + file);
+        }
+        int low = 0;
+        int high = blocks.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blocks.get(middle).uncompressedOffset <= uncompressedOffset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return blocks.get(low);
+    }
+
+    /**
+     * Verify and decompress one block. Thread safe
+     *
+     * @return the records of the block
+     * @throws IOException - if the block does not match its checksum
+     */
+    public byte[] read(Block block) throws IOException {
+        byte[] compressed = read(block.offset, block.compressedLength);
+        if (checksum(compressed) != block.checksum) {
+            throw new IOException("Corrupt block " + block.index + " of " + file + ": checksum mismatch");
+        }
+        byte[] records = new byte[block.uncompressedLength];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < records.length && !inflater.finished()) {
+                int count = inflater.inflate(records, length, records.length - length);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += count;
+            }
+            if (length != records.length) {
+                throw new IOException("Corrupt block " + block.index + " of " + file + ": " + length + " bytes decompressed, expected: " + records.length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block.index + " of " + file, e);
+        } finally {
+            inflater.end();
+        }
+        return records;
+    }
+
+    /**
+     * @return the decompressed records from the start of the given block to the end of the file, read one block at
+     * a time
+     */
+    public InputStream inputStream(Block from) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next = from.index;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < blocks.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return new ByteArrayInputStream(read(blocks.get(next++)));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decompress a block compressed file. Blocks are verified and decompressed concurrently on the given executor,
+     * and each is written at its own offset, so the result is the same whatever the order they complete in
+     *
+     * @param executor - runs one task per block, eg. a thread pool, or `Runnable::run` to decompress on the caller
+     * @return number of records
+     * @throws IOException - if a block is corrupt
+     */
+    public static long decompress(Path compressedFile, Path target, Executor executor) throws IOException {
+        try (BlockCompressedFile compressed = new BlockCompressedFile(compressedFile);
+             FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<CompletableFuture<Void>> written = new ArrayList<>();
+            for (Block block : compressed.blocks) {
+                written.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        ByteBuffer records = ByteBuffer.wrap(compressed.read(block));
+                        long position = block.uncompressedOffset;
+                        while (records.hasRemaining()) {
+                            position += output.write(records, position);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            }
+            try {
+                CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw e;
+            }
+            return compressed.records();
+        }
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, position + bytes.position()) < 0) {
+                throw new EOFException("Truncated block compressed file: " + file);
+            }
+        }
+        return bytes.array();
+    }
+
+    private static int checksum(byte[] bytes) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes, 0, bytes.length);
+        return (int) checksum.getValue();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,155 @@
+package migrate.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+
+/**
+ * Block compressed data file: a header (`MAGIC` and `VERSION`), the blocks, the block index and a trailer.
+ * <p>
+ * - each block holds whole records, and is compressed on its own with raw deflate, so that it can be verified,
+ * decompressed and read without the blocks before it. A block is cut at the first record end once it holds
+ * `blockSize` bytes
+ * - the index holds one entry per block: its offset in the file (long), its compressed and uncompressed lengths,
+ * its number of records and the CRC32C of its compressed bytes (ints)
+ * - the trailer holds the offset of the index (long), the number of blocks and the CRC32C of the index (ints),
+ * followed by `MAGIC` again, so that the index is found from the end of the file
+ * <p>
+ * The format is read by {@link BlockCompressedFile}. Any change to it must increment `VERSION`
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+    // the first byte cannot start a line of UTF-8 text, so compressed files are told apart from text files
+    static final byte[] MAGIC = {(byte) 0x89, 'G', 'M', 'Z'};
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = MAGIC.length + 1;
+    static final int INDEX_ENTRY_BYTES = 8 + 4 * 4;
+    static final int TRAILER_BYTES = 8 + 4 + 4 + MAGIC.length;
+
+    private final OutputStream out;
+    private final int blockSize;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32C checksum = new CRC32C();
+    private final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    private final DataOutputStream index = new DataOutputStream(indexBytes);
+    private byte[] block;
+    private int length;
+    private int records;
+    private byte[] compressed;
+    private long offset;
+    private int blocks;
+    private boolean closed;
+
+    /**
+     * @param out - receives the header at once, and each block once it is full
+     * @param blockSize - uncompressed bytes of records after which a block is cut
+     */
+    public BlockCompressedOutputStream(OutputStream out, int blockSize) throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive, got: " + blockSize);
+        }
+        this.out = out;
+        this.blockSize = blockSize;
+        // a block overflows its size by the length of its last record
+        this.block = new byte[blockSize + 4096];
+        this.compressed = new byte[blockSize + 4096];
+        out.write(MAGIC);
+        out.write(VERSION);
+        this.offset = HEADER_BYTES;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(length + 1);
+        block[length++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int count) {
+        ensureCapacity(length + count);
+        System.arraycopy(bytes, offset, block, length, count);
+        length += count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > block.length) {
+            block = Arrays.copyOf(block, Math.max(block.length * 2, capacity));
+        }
+    }
+
+    /**
+     * Mark the end of a record: the bytes written since the previous record end belong to one record, and are not
+     * split across blocks
+     */
+    public void endRecord() throws IOException {
+        records++;
+        if (length >= blockSize) {
+            writeBlock();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(block, 0, length);
+        deflater.finish();
+        int compressedLength = 0;
+        while (!deflater.finished()) {
+            if (compressedLength == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+        }
+        checksum.reset();
+        checksum.update(compressed, 0, compressedLength);
+        out.write(compressed, 0, compressedLength);
+
+        index.writeLong(offset);
+        index.writeInt(compressedLength);
+        index.writeInt(length);
+        index.writeInt(records);
+        index.writeInt((int) checksum.getValue());
+        offset += compressedLength;
+        blocks++;
+        length = 0;
+        records = 0;
+    }
+
+    /**
+     * Does not cut a block, nor flush the file: blocks are written as they fill, and the last one on close
+     */
+    @Override
+    public void flush() {
+    }
+
+    /**
+     * Write the last block, the index and the trailer
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (length > 0) {
+                writeBlock();
+            }
+            byte[] indexEntries = indexBytes.toByteArray();
+            out.write(indexEntries);
+            checksum.reset();
+            checksum.update(indexEntries, 0, indexEntries.length);
+            DataOutputStream trailer = new DataOutputStream(out);
+            trailer.writeLong(offset);
+            trailer.writeInt(blocks);
+            trailer.writeInt((int) checksum.getValue());
+            trailer.write(MAGIC);
+            trailer.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package migrate.common;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Number of records and content digest of every type of a migration, labelled by phase (`entity`, `attribute`,
+ * `relation`, `ownership`) and by type. The exporter fills one in as it writes the data files and saves it next to them,
+ * the importer fills in its own as its transactions commit, and the two are compared type by type at the end of the
+ * import.
+ * <p>
+ * Concept IDs change from one keyspace to the next, so the digests only cover what survives a migration: the value of
+ * each attribute, and the roles of each relation with their number of role players. Entities and ownerships carry
+ * nothing but IDs and are compared by count. A digest is the sum of the digests of its records, so records can be added
+ * in any order and from any number of threads
+ */
+public class ChecksumManifest {
+    public static final String FILE_NAME = "manifest";
+
+    private static final String HEADER = "# phase\ttype\tcount\tdigest";
+    private static final String ESCAPING = "escaping";
+
+    // version of the escaping of attribute values in the text data files, see TextDataFileWriter
+    private int escaping = TextDataFileWriter.ESCAPING_VERSION;
+
+    // sorted by phase and type for a stable file
+    private final Map<String, Entry> entries = new ConcurrentSkipListMap<>();
+
+    /**
+     * Records and digest of one type
+     */
+    public static class Entry {
+        private final String phase;
+        private final String type;
+        private final LongAdder records = new LongAdder();
+        private final LongAdder digest = new LongAdder();
+
+        private Entry(String phase, String type) {
+            this.phase = phase;
+            this.type = type;
+        }
+
+        public String phase() {
+            return phase;
+        }
+
+        public String type() {
+            return type;
+        }
+
+        public long records() {
+            return records.sum();
+        }
+
+        public long digest() {
+            return digest.sum();
+        }
+
+        private boolean matches(Entry other) {
+            return other != null && records() == other.records() && digest() == other.digest();
+        }
+
+        @Override
+        public String toString() {
+            return records() + " (digest " + Long.toHexString(digest()) + ")";
+        }
+    }
+
+    /**
+     * @param phase - phase of the type
+     * @param type - type the records belong to
+     * @param records - number of records to add
+     * @param digest - sum of the digests of the records
+     */
+    public void add(String phase, String type, long records, long digest) {
+        Entry entry = entries.computeIfAbsent(phase + "\t" + type, key -> new Entry(phase, type));
+        entry.records.add(records);
+        entry.digest.add(digest);
+    }
+
+    /**
+     * Add the records and digests of every type of another manifest
+     */
+    public void addAll(ChecksumManifest other) {
+        other.entries.values().forEach(entry -> add(entry.phase, entry.type, entry.records(), entry.digest()));
+    }
+
+    /**
+     * @return records and digest of the type, or null if none were added
+     */
+    public Entry entry(String phase, String type) {
+        return entries.get(phase + "\t" + type);
+    }
+
+    /**
+     * @return records and digest of every type, sorted by phase and type
+     */
+    public Collection<Entry> entries() {
+        return entries.values();
+    }
+
+    /**
+     * @return version of the escaping of attribute values in the text data files of the export. Every exporter that
+     * wrote a manifest escaped values, so a manifest without a version is of the first one
+     */
+    public int escaping() {
+        return escaping;
+    }
+
+    /**
+     * Compare the types of this manifest (the expected one) to another
+     *
+     * @return one line per type whose count or digest differs, or that only one of the manifests has
+     */
+    public List<String> mismatches(ChecksumManifest actual) {
+        List<String> mismatches = new ArrayList<>();
+        entries.forEach((key, expected) -> {
+            Entry found = actual.entries.get(key);
+            if (!expected.matches(found)) {
+                mismatches.add(expected.phase + " type: " + expected.type + ", expected: " + expected + ", found: " + (found == null ? "none" : found));
+            }
+        });
+        actual.entries.forEach((key, found) -> {
+            // types without records are not worth reporting
+            if (!entries.containsKey(key) && found.records() > 0) {
+                mismatches.add(found.phase + " type: " + found.type + ", expected: none, found: " + found);
+            }
+        });
+        return mismatches;
+    }
+
+    /**
+     * Write the `escaping, version` line, then one `phase, type, count, digest` line per type, separated by tabs
+     */
+    public void write(Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(ESCAPING + "\t" + escaping + "\n");
+            writer.write(HEADER);
+            writer.write("\n");
+            for (Entry entry : entries.values()) {
+                writer.write(entry.phase + "\t" + entry.type + "\t" + entry.records() + "\t" + Long.toHexString(entry.digest()) + "\n");
+            }
+        }
+    }
+
+    public static ChecksumManifest read(Path file) throws IOException {
+        ChecksumManifest manifest = new ChecksumManifest();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t");
+            if (fields.length == 2 && fields[0].equals(ESCAPING)) {
+                manifest.escaping = Integer.parseInt(fields[1]);
+                continue;
+            }
+            if (fields.length != 4) {
+                throw new IllegalStateException("Unexpected line in checksum manifest " + file + ": " + line);
+            }
+            manifest.add(fields[0], fields[1], Long.parseLong(fields[2]), Long.parseUnsignedLong(fields[3], 16));
+        }
+        return manifest;
+    }
+
+    /**
+     * @param value - value of an attribute, unescaped
+     * @return digest of the attribute
+     */
+    public static long valueDigest(CharSequence value) {
+        // over the UTF-16 chars, so that the exporter's String and the importer's token agree
+        return Hashing.hash(value);
+    }
+
+    /**
+     * @param roles - sum of the `roleDigest`s of the roles of a relation
+     * @return digest of the relation
+     */
+    public static long relationDigest(long roles) {
+        // mixed, so that relations with different roles do not add up to the same sum
+        return Hashing.mix(roles);
+    }
+
+    /**
+     * @param role - label of a role of a relation
+     * @param players - number of distinct role players of the role
+     * @return digest of the role, to be summed over the roles of the relation
+     */
+    public static long roleDigest(String role, int players) {
+        return Hashing.mix(valueDigest(role) + players);
+    }
+}
@@ -0,0 +1,69 @@
+package migrate.common;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Records of an export data file, in the text or the binary format. A data file holds the records of one type of one
+ * phase, so only one kind of record is written to each file
+ */
+public interface DataFileWriter extends Closeable {
+
+    /**
+     * Formats of the data files, chosen when exporting, either of which may be block compressed. The importer reads
+     * all of them
+     */
+    enum Format {
+        TEXT, BINARY;
+
+        /**
+         * @return writer of a new data file in this format
+         */
+        public DataFileWriter open(Path file) throws IOException {
+            if (this == BINARY) {
+                return new BinaryDataFileWriter(new BufferedOutputStream(Files.newOutputStream(file)));
+            }
+            return new TextDataFileWriter(new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8)));
+        }
+
+        /**
+         * @param blockSize - uncompressed bytes of records per compressed block, or 0 to not compress the file
+         * @return writer of a new data file in this format, compressed in blocks by {@link BlockCompressedOutputStream}
+         */
+        public DataFileWriter open(Path file, int blockSize) throws IOException {
+            if (blockSize == 0) {
+                return open(file);
+            }
+            BlockCompressedOutputStream blocks = new BlockCompressedOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), blockSize);
+            if (this == BINARY) {
+                // writes straight through to the blocks
+                return new BlockCompressedDataFileWriter(new BinaryDataFileWriter(blocks), blocks, blocks);
+            }
+            Writer encoder = new OutputStreamWriter(blocks, StandardCharsets.UTF_8);
+            return new BlockCompressedDataFileWriter(new TextDataFileWriter(encoder), encoder, blocks);
+        }
+    }
+
+    void entity(String id) throws IOException;
+
+    /**
+     * @param value - Long, Double, Boolean, LocalDateTime or String
+     */
+    void attribute(String id, Object value) throws IOException;
+
+    /**
+     * @param rolePlayers - role label -> role player IDs
+     */
+    void relation(String id, Map<String, ? extends Collection<String>> rolePlayers) throws IOException;
+
+    void ownership(String attributeId, String ownerId) throws IOException;
+}
@@ -0,0 +1,143 @@
+package migrate.common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sort the lines of a data file that may not fit in memory: sorted runs of up to `maxLinesInMemory` lines
+ * are spilled to temporary files and then k-way merged. Files that fit in one run are sorted in memory
+ */
+public class ExternalSort {
+
+    /**
+     * Order of the lines of an ownership file (`attribute ID, owner ID`) in which the importer reads them: by owner ID,
+     * ties broken by the whole line, so that a file is always sorted the same way, eg. again by a resumed import
+     */
+    public static final Comparator<String> BY_OWNER = Comparator.comparing((String line) -> line.substring(line.indexOf(',') + 1))
+            .thenComparing(Comparator.naturalOrder());
+
+    // bounds the number of run files open at once during a merge
+    private static final int MAX_MERGE_FAN_IN = 128;
+
+    private final int maxLinesInMemory;
+
+    public ExternalSort(int maxLinesInMemory) {
+        this.maxLinesInMemory = maxLinesInMemory;
+    }
+
+    /**
+     * @param input - file to sort, left untouched
+     * @param output - file to write the sorted lines to
+     * @param order - order of the lines in the output
+     * @throws IOException
+     */
+    public void sort(Path input, Path output, Comparator<String> order) throws IOException {
+        List<Path> runs = new ArrayList<>();
+        try {
+            List<String> buffer = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    buffer.add(line);
+                    if (buffer.size() >= maxLinesInMemory) {
+                        runs.add(writeRun(buffer, order, output));
+                        buffer.clear();
+                    }
+                }
+            }
+
+            if (runs.isEmpty()) {
+                buffer.sort(order);
+                writeLines(buffer, output);
+                return;
+            }
+            if (!buffer.isEmpty()) {
+                runs.add(writeRun(buffer, order, output));
+                buffer.clear();
+            }
+
+            while (runs.size() > MAX_MERGE_FAN_IN) {
+                List<Path> merged = new ArrayList<>();
+                for (int start = 0; start < runs.size(); start += MAX_MERGE_FAN_IN) {
+                    List<Path> group = runs.subList(start, Math.min(start + MAX_MERGE_FAN_IN, runs.size()));
+                    Path run = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName() + ".", ".run");
+                    merge(group, run, order);
+                    for (Path mergedRun : group) {
+                        Files.deleteIfExists(mergedRun);
+                    }
+                    merged.add(run);
+                }
+                runs = merged;
+            }
+            merge(runs, output, order);
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    private static Path writeRun(List<String> lines, Comparator<String> order, Path output) throws IOException {
+        lines.sort(order);
+        Path run = Files.createTempFile(output.toAbsolutePath().getParent(), output.getFileName() + ".", ".run");
+        writeLines(lines, run);
+        return run;
+    }
+
+    private static void writeLines(List<String> lines, Path file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+        }
+    }
+
+    private static void merge(List<Path> runs, Path output, Comparator<String> order) throws IOException {
+        PriorityQueue<RunReader> heads = new PriorityQueue<>((first, second) -> order.compare(first.line, second.line));
+        List<RunReader> readers = new ArrayList<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            for (Path run : runs) {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                if (reader.advance()) {
+                    heads.add(reader);
+                }
+            }
+            while (!heads.isEmpty()) {
+                RunReader smallest = heads.poll();
+                writer.write(smallest.line);
+                writer.write("\n");
+                if (smallest.advance()) {
+                    heads.add(smallest);
+                }
+            }
+        } finally {
+            for (RunReader reader : readers) {
+                reader.reader.close();
+            }
+        }
+    }
+
+    private static class RunReader {
+        private final BufferedReader reader;
+        private String line;
+
+        RunReader(Path run) throws IOException {
+            this.reader = Files.newBufferedReader(run, StandardCharsets.UTF_8);
+        }
+
+        boolean advance() throws IOException {
+            line = reader.readLine();
+            return line != null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package migrate.common;
+
+/**
+ * 64 bit FNV-1a hashes, finished with the finaliser of MurmurHash3 (fmix64) so that similar inputs, eg. sequential
+ * concept IDs, spread over all the bits. Hashes are persisted, in the digests of the checksum manifest and in the slot
+ * positions of the mapped ID store, so they must never change
+ */
+public class Hashing {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * @return hash of the UTF-16 chars, so that a String and a token of a data file with the same chars agree
+     */
+    public static long hash(CharSequence chars) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < chars.length(); i++) {
+            hash ^= chars.charAt(i);
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @param length - number of bytes to hash, from the start of `bytes`
+     * @return hash of the bytes, each sign extended. Equal to the hash of the chars for ASCII
+     */
+    public static long hash(byte[] bytes, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < length; i++) {
+            hash ^= bytes[i];
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Finaliser of MurmurHash3 (fmix64)
+     */
+    public static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,121 @@
+package migrate.common;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the metrics of a running migration: on a local HTTP endpoint (`/metrics` in Prometheus text format,
+ * `/metrics.json` as JSON), and as a JSON snapshot file rewritten every `SNAPSHOT_INTERVAL_SECONDS` and once more
+ * on close. Either may be left out
+ */
+public class MetricsReporter implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsReporter.class);
+
+    private static final long SNAPSHOT_INTERVAL_SECONDS = 10;
+
+    private final MigrationMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService serverThread;
+    private final Path snapshotFile;
+    private final ScheduledExecutorService snapshots;
+
+    /**
+     * @param port - port of the HTTP endpoint on the loopback interface, or null for no endpoint
+     * @param snapshotFile - file to write JSON snapshots to, or null for no snapshots
+     */
+    public MetricsReporter(MigrationMetrics metrics, Integer port, Path snapshotFile) throws IOException {
+        this.metrics = metrics;
+        this.snapshotFile = snapshotFile;
+
+        if (port != null) {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            server.createContext("/metrics", exchange -> respond(exchange, "text/plain; version=0.0.4", metrics.prometheusText()));
+            server.createContext("/metrics.json", exchange -> respond(exchange, "application/json", metrics.jsonSnapshot()));
+            serverThread = Executors.newSingleThreadExecutor(daemon("metrics-http"));
+            server.setExecutor(serverThread);
+            server.start();
+            LOG.info("Serving metrics on: http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/metrics");
+        } else {
+            server = null;
+            serverThread = null;
+        }
+
+        if (snapshotFile != null) {
+            snapshots = Executors.newSingleThreadScheduledExecutor(daemon("metrics-snapshot"));
+            snapshots.scheduleAtFixedRate(this::writeSnapshotQuietly, SNAPSHOT_INTERVAL_SECONDS, SNAPSHOT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+            LOG.info("Writing metrics snapshots to: " + snapshotFile);
+        } else {
+            snapshots = null;
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return port the HTTP endpoint is bound to, or -1 if there is none
+     */
+    public int port() {
+        return server == null ? -1 : server.getAddress().getPort();
+    }
+
+    /**
+     * Replace the snapshot file, so that readers never see a partial snapshot
+     */
+    void writeSnapshot() throws IOException {
+        Path temporary = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        Files.write(temporary, metrics.jsonSnapshot().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeSnapshotQuietly() {
+        try {
+            writeSnapshot();
+        } catch (IOException e) {
+            // a missed snapshot must not fail the migration, the next one may succeed
+            LOG.warn("Failed to write metrics snapshot to: " + snapshotFile, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            serverThread.shutdownNow();
+        }
+        if (snapshots != null) {
+            snapshots.shutdownNow();
+            writeSnapshotQuietly();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package migrate.common;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters and latency histograms of an import or export, labelled by phase and by type. They are read while the
+ * migration runs, in Prometheus text format (see {@link MetricsReporter}) or as a JSON snapshot.
+ * <p>
+ * Updates only touch `LongAdder`s, so they are cheap enough for every batch of every writer thread
+ */
+public class MigrationMetrics {
+
+    public enum Metric {
+        LINES_READ("migrate_lines_read_total", "Data file lines read by the importer", false),
+        CONCEPTS_WRITTEN("migrate_concepts_written_total", "Concepts (or ownerships) written to the target keyspace", false),
+        CONCEPTS_EXPORTED("migrate_concepts_exported_total", "Concepts (or ownerships) read from the source keyspace", false),
+        EXPORT_QUERIES("migrate_export_queries_total", "Match queries streamed by the exporter to read role players and owners", false),
+        TRANSACTIONS("migrate_transactions_total", "Transactions committed, or read transactions completed by the exporter", false),
+        INCOMPLETE_RELATIONS("migrate_incomplete_relations_total", "Relations deferred until their role players exist", false),
+        INCOMPLETE_OWNERSHIPS("migrate_incomplete_ownerships_total", "Ownerships deferred until their owner exists", false),
+        RETRIES("migrate_retries_total", "Transactions retried after a failure", false),
+        TRANSACTION_SECONDS("migrate_transaction_seconds", "Latency of one transaction, from opening it to its commit", true);
+
+        private final String name;
+        private final String help;
+        private final boolean histogram;
+
+        Metric(String name, String help, boolean histogram) {
+            this.name = name;
+            this.help = help;
+            this.histogram = histogram;
+        }
+    }
+
+    // upper bounds of the histogram buckets, in seconds
+    private static final double[] BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    // series of each metric, sorted by phase and type for stable output
+    private final Map<Metric, Map<String, Series>> metrics = new ConcurrentHashMap<>();
+
+    public Counter counter(Metric metric, String phase, String type) {
+        if (metric.histogram) {
+            throw new IllegalArgumentException("Not a counter: " + metric.name);
+        }
+        return (Counter) series(metric, phase, type, Counter::new);
+    }
+
+    public Histogram histogram(Metric metric, String phase, String type) {
+        if (!metric.histogram) {
+            throw new IllegalArgumentException("Not a histogram: " + metric.name);
+        }
+        return (Histogram) series(metric, phase, type, Histogram::new);
+    }
+
+    private interface SeriesFactory {
+        Series create(String phase, String type);
+    }
+
+    private Series series(Metric metric, String phase, String type, SeriesFactory factory) {
+        return metrics.computeIfAbsent(metric, key -> new ConcurrentSkipListMap<>())
+                .computeIfAbsent(phase + "\t" + type, key -> factory.create(phase, type));
+    }
+
+    /**
+     * @return every series in the Prometheus text exposition format
+     */
+    public String prometheusText() {
+        StringBuilder text = new StringBuilder();
+        for (Metric metric : Metric.values()) {
+            Map<String, Series> series = metrics.get(metric);
+            if (series == null) {
+                continue;
+            }
+            text.append("# HELP ").append(metric.name).append(' ').append(metric.help).append('\n');
+            text.append("# TYPE ").append(metric.name).append(' ').append(metric.histogram ? "histogram" : "counter").append('\n');
+            for (Series one : series.values()) {
+                one.appendPrometheus(metric.name, text);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return every series as one JSON object, stamped with the current time
+     */
+    public String jsonSnapshot() {
+        StringBuilder json = new StringBuilder("{\"timestamp\":\"").append(Instant.now()).append("\",\"metrics\":[");
+        boolean first = true;
+        for (Metric metric : Metric.values()) {
+            Map<String, Series> series = metrics.get(metric);
+            if (series == null) {
+                continue;
+            }
+            for (Series one : series.values()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append("{\"name\":\"").append(metric.name).append("\",\"phase\":");
+                appendJsonString(one.phase, json);
+                json.append(",\"type\":");
+                appendJsonString(one.type, json);
+                one.appendJson(json);
+                json.append('}');
+            }
+        }
+        return json.append("]}\n").toString();
+    }
+
+    private static void appendJsonString(String value, StringBuilder json) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+    private static String labels(String phase, String type) {
+        return "phase=\"" + escapeLabel(phase) + "\",type=\"" + escapeLabel(type) + "\"";
+    }
+
+    private static String escapeLabel(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private abstract static class Series {
+        final String phase;
+        final String type;
+
+        Series(String phase, String type) {
+            this.phase = phase;
+            this.type = type;
+        }
+
+        abstract void appendPrometheus(String name, StringBuilder text);
+
+        abstract void appendJson(StringBuilder json);
+    }
+
+    public static class Counter extends Series {
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String phase, String type) {
+            super(phase, type);
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long value() {
+            return value.sum();
+        }
+
+        @Override
+        void appendPrometheus(String name, StringBuilder text) {
+            text.append(name).append('{').append(labels(phase, type)).append("} ").append(value.sum()).append('\n');
+        }
+
+        @Override
+        void appendJson(StringBuilder json) {
+            json.append(",\"value\":").append(value.sum());
+        }
+    }
+
+    public static class Histogram extends Series {
+        // the last bucket counts the observations above every bound
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        private Histogram(String phase, String type) {
+            super(phase, type);
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long nanos) {
+            double seconds = nanos / 1_000_000_000.0;
+            int bucket = 0;
+            while (bucket < BUCKETS.length && seconds > BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * @return cumulative counts per bucket bound, the last one being every observation
+         */
+        private List<Long> cumulative() {
+            List<Long> cumulative = new ArrayList<>(buckets.length);
+            long total = 0;
+            for (LongAdder bucket : buckets) {
+                total += bucket.sum();
+                cumulative.add(total);
+            }
+            return cumulative;
+        }
+
+        @Override
+        void appendPrometheus(String name, StringBuilder text) {
+            String labels = labels(phase, type);
+            List<Long> cumulative = cumulative();
+            for (int i = 0; i < BUCKETS.length; i++) {
+                text.append(name).append("_bucket{").append(labels).append(",le=\"").append(BUCKETS[i]).append("\"} ")
+                        .append(cumulative.get(i)).append('\n');
+            }
+            text.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(cumulative.get(BUCKETS.length)).append('\n');
+            text.append(name).append("_sum{").append(labels).append("} ").append(sumNanos.sum() / 1_000_000_000.0).append('\n');
+            text.append(name).append("_count{").append(labels).append("} ").append(cumulative.get(BUCKETS.length)).append('\n');
+        }
+
+        @Override
+        void appendJson(StringBuilder json) {
+            List<Long> cumulative = cumulative();
+            json.append(",\"count\":").append(cumulative.get(BUCKETS.length))
+                    .append(",\"sum\":").append(sumNanos.sum() / 1_000_000_000.0)
+                    .append(",\"buckets\":{");
+            for (int i = 0; i < BUCKETS.length; i++) {
+                json.append('"').append(BUCKETS[i]).append("\":").append(cumulative.get(i)).append(',');
+            }
+            json.append("\"+Inf\":").append(cumulative.get(BUCKETS.length)).append('}');
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package migrate.common;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Comma-separated text data file, one record per line:
+ * <p>
+ * entity: `ID`, attribute: `ID,value`, relation: `ID,(role,player ID,player ID...),(role,player ID...),...`,
+ * ownership: `attribute ID,owner ID`.
+ * <p>
+ * Commas, backslashes and line breaks in attribute values are escaped with a backslash. Exports written before
+ * values were escaped have no checksum manifest, which records the version of the escaping
+ */
+public class TextDataFileWriter implements DataFileWriter {
+    // to be incremented with any change to the escaping, which the importer reads by the version in the manifest
+    public static final int ESCAPING_VERSION = 1;
+
+    private final Writer writer;
+
+    /**
+     * @param writer - receives the lines as they are written, without further buffering
+     */
+    public TextDataFileWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public void entity(String id) throws IOException {
+        writer.write(id);
+        writer.write("\n");
+    }
+
+    @Override
+    public void attribute(String id, Object value) throws IOException {
+        writer.write(id);
+        writer.write(",");
+        writeEscaped(value.toString());
+        writer.write("\n");
+    }
+
+    @Override
+    public void relation(String id, Map<String, ? extends Collection<String>> rolePlayers) throws IOException {
+        writer.write(id);
+        writer.write(",");
+        for (Map.Entry<String, ? extends Collection<String>> roleEntry : rolePlayers.entrySet()) {
+            writer.write("(");
+            writer.write(roleEntry.getKey());
+            writer.write(",");
+            writer.write(String.join(",", roleEntry.getValue()));
+            writer.write("),");
+        }
+        writer.write("\n");
+    }
+
+    @Override
+    public void ownership(String attributeId, String ownerId) throws IOException {
+        writer.write(attributeId);
+        writer.write(",");
+        writer.write(ownerId);
+        writer.write("\n");
+    }
+
+    private void writeEscaped(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c == '\n') {
+                writer.write("\\n");
+            } else if (c == '\r') {
+                writer.write("\\r");
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,137 @@
+package migrate.common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryDataFileTest {
+
+    @Test
+    public void binaryRecordsDecodeToTheTextFormat() throws IOException {
+        StringWriter text = new StringWriter();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        try (DataFileWriter textWriter = new TextDataFileWriter(text);
+             DataFileWriter binaryWriter = new BinaryDataFileWriter(binary)) {
+            for (DataFileWriter writer : Arrays.asList(textWriter, binaryWriter)) {
+                writeRecords(writer);
+            }
+        }
+
+        StringWriter decoded = new StringWriter();
+        try (BinaryDataFileReader reader = new BinaryDataFileReader(new ByteArrayInputStream(binary.toByteArray()));
+             DataFileWriter writer = new TextDataFileWriter(decoded)) {
+            int records = 0;
+            while (reader.next(writer)) {
+                records++;
+            }
+            assertEquals(13, records);
+        }
+        assertEquals(text.toString(), decoded.toString());
+        assertTrue(text.toString(), text.toString().contains("V4,a\\,b\\\\c\\nd\n"));
+        assertTrue(binary.size() + " bytes", binary.size() < text.toString().getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void binaryFilesAreToldApartFromTextFiles() throws IOException {
+        Path binary = Files.createTempFile("binary", "");
+        Path text = Files.createTempFile("text", "");
+        try {
+            try (DataFileWriter writer = DataFileWriter.Format.BINARY.open(binary)) {
+                writer.entity("V1");
+            }
+            try (DataFileWriter writer = DataFileWriter.Format.TEXT.open(text)) {
+                writer.entity("V1");
+            }
+            assertTrue(BinaryDataFileReader.isBinary(binary));
+            assertFalse(BinaryDataFileReader.isBinary(text));
+
+            try {
+                new BinaryDataFileReader(Files.newInputStream(text)).close();
+                fail("Expected a text file to be rejected");
+            } catch (IOException e) {
+                assertEquals("Not a binary data file", e.getMessage());
+            }
+        } finally {
+            Files.delete(binary);
+            Files.delete(text);
+        }
+    }
+
+    @Test
+    public void recordsAreDecodedOnTheirOwnByTheirOffset() throws IOException {
+        Path binary = Files.createTempFile("binary", "");
+        StringWriter text = new StringWriter();
+        try {
+            try (DataFileWriter binaryWriter = DataFileWriter.Format.BINARY.open(binary);
+                 DataFileWriter textWriter = new TextDataFileWriter(text)) {
+                writeRecords(binaryWriter);
+                writeRecords(textWriter);
+            }
+            String[] lines = text.toString().split("\n");
+
+            List<Long> offsets = new ArrayList<>();
+            try (BinaryDataFileReader reader = new BinaryDataFileReader(Files.newInputStream(binary))) {
+                DataFileWriter ignored = new TextDataFileWriter(new StringWriter());
+                do {
+                    offsets.add(reader.offset());
+                } while (reader.next(ignored));
+            }
+            assertEquals(lines.length + 1, offsets.size());
+            assertEquals(Files.size(binary), (long) offsets.get(lines.length));
+            // the relation of V7 refers to the labels defined by the relation of V6
+            for (int i = 0; i < lines.length; i++) {
+                assertEquals(lines[i], BinaryDataFileReader.record(binary, offsets.get(i)));
+            }
+            try {
+                BinaryDataFileReader.record(binary, offsets.get(1) + 1);
+                fail("Expected an offset inside a record to be rejected");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("No record at offset"));
+            }
+        } finally {
+            Files.delete(binary);
+        }
+    }
+
+    private static void writeRecords(DataFileWriter writer) throws IOException {
+        writer.entity("V0");
+        writer.entity("V123456789012345678");
+        // not a plain number, kept as a string
+        writer.entity("V0123");
+        writer.entity("E-relation-edge");
+        writer.attribute("V1", -42L);
+        writer.attribute("V2", 3.25);
+        writer.attribute("V3", true);
+        writer.attribute("V4", "a,b\\c\nd");
+        writer.attribute("V5", LocalDateTime.of(1969, 7, 20, 20, 17, 40, 123_000_000));
+        writer.relation("V6", rolePlayers("husband", Collections.singletonList("V1"), "wife", Arrays.asList("V2", "V3")));
+        writer.relation("V7", rolePlayers("wife", Collections.singletonList("V3"), "husband", Collections.singletonList("V2")));
+        writer.relation("V8", Collections.emptyMap());
+        writer.ownership("V4", "V0");
+    }
+
+    private static Map<String, List<String>> rolePlayers(String firstRole, List<String> firstPlayers, String secondRole, List<String> secondPlayers) {
+        Map<String, List<String>> rolePlayers = new LinkedHashMap<>();
+        rolePlayers.put(firstRole, firstPlayers);
+        rolePlayers.put(secondRole, secondPlayers);
+        return rolePlayers;
+    }
+}
@@ -0,0 +1,159 @@
+package migrate.common;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockCompressedFileTest {
+
+    @Test
+    public void blocksHoldWholeRecordsAndDecompressToTheUncompressedFile() throws IOException {
+        Path text = Files.createTempFile("text", "");
+        Path compressed = Files.createTempFile("compressed", "");
+        Path decompressed = Files.createTempFile("decompressed", "");
+        ExecutorService threads = Executors.newFixedThreadPool(4);
+        try {
+            for (int blockSize : new int[]{0, 1000}) {
+                try (DataFileWriter writer = DataFileWriter.Format.TEXT.open(blockSize == 0 ? text : compressed, blockSize)) {
+                    for (int i = 0; i < 10_000; i++) {
+                        writer.attribute("V" + i, "name,number " + i);
+                    }
+                }
+            }
+            assertTrue(BlockCompressedFile.isBlockCompressed(compressed));
+            assertFalse(BlockCompressedFile.isBlockCompressed(text));
+            assertTrue(Files.size(compressed) < Files.size(text) / 2);
+
+            assertEquals(10_000, BlockCompressedFile.decompress(compressed, decompressed, threads));
+            assertArrayEquals(Files.readAllBytes(text), Files.readAllBytes(decompressed));
+
+            try (BlockCompressedFile file = new BlockCompressedFile(compressed)) {
+                List<BlockCompressedFile.Block> blocks = file.blocks();
+                assertTrue(blocks.size() + " blocks", blocks.size() > 100);
+                assertEquals(Files.size(text), file.uncompressedSize());
+                assertEquals(10_000, file.records());
+
+                BlockCompressedFile.Block middle = blocks.get(blocks.size() / 2);
+                String records = new String(file.read(middle), StandardCharsets.UTF_8);
+                assertTrue(middle.uncompressedLength() >= 1000);
+                assertEquals(middle.records(), records.split("\n").length);
+                assertTrue(records.startsWith("V"));
+                assertTrue(records.endsWith("\n"));
+                assertEquals(middle, file.blockAt(middle.uncompressedOffset()));
+                assertEquals(middle, file.blockAt(middle.uncompressedOffset() + middle.uncompressedLength() - 1));
+
+                // seeking to a block reads the rest of the file from its first record
+                ByteArrayOutputStream rest = new ByteArrayOutputStream();
+                try (InputStream in = file.inputStream(middle)) {
+                    byte[] buffer = new byte[4096];
+                    for (int read; (read = in.read(buffer)) > 0; ) {
+                        rest.write(buffer, 0, read);
+                    }
+                }
+                byte[] textBytes = Files.readAllBytes(text);
+                assertArrayEquals(Arrays.copyOfRange(textBytes, (int) middle.uncompressedOffset(), textBytes.length), rest.toByteArray());
+            }
+        } finally {
+            threads.shutdown();
+            Files.delete(text);
+            Files.delete(compressed);
+            Files.delete(decompressed);
+        }
+    }
+
+    @Test
+    public void binaryRecordsAreCompressedInBlocks() throws IOException {
+        Path compressed = Files.createTempFile("compressed", "");
+        Path binary = Files.createTempFile("binary", "");
+        try {
+            try (DataFileWriter writer = DataFileWriter.Format.BINARY.open(compressed, 100)) {
+                for (int i = 0; i < 1000; i++) {
+                    Map<String, List<String>> rolePlayers = new LinkedHashMap<>();
+                    rolePlayers.put("employee", Collections.singletonList("V" + (2 * i)));
+                    rolePlayers.put("employer", Collections.singletonList("V" + (2 * i + 1)));
+                    writer.relation("V" + i, rolePlayers);
+                }
+            }
+            assertEquals(1000, BlockCompressedFile.decompress(compressed, binary, Runnable::run));
+            assertTrue(BinaryDataFileReader.isBinary(binary));
+            Path text = Files.createTempFile("text", "");
+            try {
+                assertEquals(1000, BinaryDataFileReader.decode(binary, text));
+                assertEquals("V999,(employee,V1998),(employer,V1999),", Files.readAllLines(text).get(999));
+            } finally {
+                Files.delete(text);
+            }
+        } finally {
+            Files.delete(compressed);
+            Files.delete(binary);
+        }
+    }
+
+    @Test
+    public void corruptBlocksAreDetected() throws IOException {
+        Path compressed = Files.createTempFile("compressed", "");
+        try {
+            try (DataFileWriter writer = DataFileWriter.Format.TEXT.open(compressed, 100)) {
+                for (int i = 0; i < 1000; i++) {
+                    writer.ownership("V" + i, "V" + (i + 1));
+                }
+            }
+            // the blocks follow each other from the header on
+            long offset = BlockCompressedOutputStream.HEADER_BYTES;
+            try (BlockCompressedFile file = new BlockCompressedFile(compressed)) {
+                for (BlockCompressedFile.Block block : file.blocks().subList(0, 3)) {
+                    offset += block.compressedLength();
+                }
+            }
+            try (FileChannel channel = FileChannel.open(compressed, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer flipped = ByteBuffer.allocate(1);
+                channel.read(flipped, offset);
+                flipped.put(0, (byte) (flipped.get(0) ^ 0xFF));
+                flipped.rewind();
+                channel.write(flipped, offset);
+            }
+
+            try (BlockCompressedFile file = new BlockCompressedFile(compressed)) {
+                file.read(file.blocks().get(2));
+                try {
+                    file.read(file.blocks().get(3));
+                    fail("Expected the corrupt block to be detected");
+                } catch (IOException e) {
+                    assertTrue(e.getMessage(), e.getMessage().startsWith("Corrupt block 3 of "));
+                }
+            }
+            Path decompressed = Files.createTempFile("decompressed", "");
+            try {
+                BlockCompressedFile.decompress(compressed, decompressed, Runnable::run);
+                fail("Expected the corrupt block to fail decompression");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("checksum mismatch"));
+            } finally {
+                Files.delete(decompressed);
+            }
+        } finally {
+            Files.delete(compressed);
+        }
+    }
+}
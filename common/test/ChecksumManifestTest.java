@@ -0,0 +1,69 @@
+package migrate.common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChecksumManifestTest {
+
+    @Test
+    public void digestsDoNotDependOnRecordOrder() {
+        ChecksumManifest exported = new ChecksumManifest();
+        exported.add("attribute", "name", 1, ChecksumManifest.valueDigest("alice"));
+        exported.add("attribute", "name", 1, ChecksumManifest.valueDigest("bob"));
+
+        ChecksumManifest imported = new ChecksumManifest();
+        imported.add("attribute", "name", 2, ChecksumManifest.valueDigest("bob") + ChecksumManifest.valueDigest("alice"));
+        assertTrue(exported.mismatches(imported).isEmpty());
+
+        // the same roles, split differently between two relations
+        long husbandAndTwoWives = ChecksumManifest.relationDigest(ChecksumManifest.roleDigest("husband", 1) + ChecksumManifest.roleDigest("wife", 2));
+        long twoHusbandsAndWife = ChecksumManifest.relationDigest(ChecksumManifest.roleDigest("husband", 2) + ChecksumManifest.roleDigest("wife", 1));
+        long husbandAndWife = ChecksumManifest.relationDigest(ChecksumManifest.roleDigest("husband", 1) + ChecksumManifest.roleDigest("wife", 1));
+        long twoHusbandsAndTwoWives = ChecksumManifest.relationDigest(ChecksumManifest.roleDigest("husband", 2) + ChecksumManifest.roleDigest("wife", 2));
+        assertTrue(husbandAndTwoWives + twoHusbandsAndWife != husbandAndWife + twoHusbandsAndTwoWives);
+    }
+
+    @Test
+    public void divergingTypesAreReported() {
+        ChecksumManifest exported = new ChecksumManifest();
+        exported.add("entity", "person", 3, 0);
+        exported.add("attribute", "name", 2, ChecksumManifest.valueDigest("alice") + ChecksumManifest.valueDigest("bob"));
+        exported.add("ownership", "name", 2, 0);
+
+        ChecksumManifest imported = new ChecksumManifest();
+        imported.add("entity", "person", 3, 0);
+        imported.add("attribute", "name", 2, ChecksumManifest.valueDigest("alice") + ChecksumManifest.valueDigest("bobby"));
+        imported.add("relation", "marriage", 1, 0);
+
+        List<String> mismatches = exported.mismatches(imported);
+        assertEquals(3, mismatches.size());
+        assertTrue(mismatches.get(0), mismatches.get(0).startsWith("attribute type: name, expected: 2"));
+        assertTrue(mismatches.get(1), mismatches.get(1).startsWith("ownership type: name, expected: 2") && mismatches.get(1).endsWith("found: none"));
+        assertTrue(mismatches.get(2), mismatches.get(2).startsWith("relation type: marriage, expected: none"));
+    }
+
+    @Test
+    public void manifestIsWrittenAndRead() throws IOException {
+        ChecksumManifest manifest = new ChecksumManifest();
+        manifest.add("relation", "employment", 4, -42);
+        manifest.add("attribute", "name", 2, ChecksumManifest.valueDigest("a,b\n"));
+
+        Path file = Files.createTempFile("manifest", "");
+        try {
+            manifest.write(file);
+            ChecksumManifest read = ChecksumManifest.read(file);
+            assertTrue(manifest.mismatches(read).isEmpty());
+            assertEquals(-42, read.entry("relation", "employment").digest());
+            assertEquals(TextDataFileWriter.ESCAPING_VERSION, read.escaping());
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package migrate.common;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class HashingTest {
+
+    @Test
+    public void hashesMatchTheReferenceFunctions() {
+        // reference values of MurmurHash3's fmix64, and of FNV-1a 64 for "a" (0xaf63dc4c8601ec8c) then mixed
+        assertEquals(0L, Hashing.mix(0));
+        assertEquals(0xb456bcfc34c2cb2cL, Hashing.mix(1));
+        assertEquals(Hashing.mix(0xaf63dc4c8601ec8cL), Hashing.hash("a"));
+        assertEquals(0x82a2a958a9bece5bL, Hashing.hash("a"));
+    }
+
+    @Test
+    public void charsAndBytesHashTheSameForAscii() {
+        byte[] bytes = "V123456".getBytes(StandardCharsets.UTF_8);
+        assertEquals(Hashing.hash("V123456"), Hashing.hash(bytes, bytes.length));
+        assertEquals(Hashing.hash("V123"), Hashing.hash(bytes, 4));
+    }
+}
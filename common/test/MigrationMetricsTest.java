@@ -0,0 +1,60 @@
+package migrate.common;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MigrationMetricsTest {
+
+    @Test
+    public void countersAndHistogramsAreRenderedForPrometheus() {
+        MigrationMetrics metrics = new MigrationMetrics();
+        metrics.counter(MigrationMetrics.Metric.CONCEPTS_WRITTEN, "entity", "person").add(5);
+        metrics.counter(MigrationMetrics.Metric.CONCEPTS_WRITTEN, "entity", "person").increment();
+        MigrationMetrics.Histogram latency = metrics.histogram(MigrationMetrics.Metric.TRANSACTION_SECONDS, "entity", "person");
+        latency.record(3_000_000);
+        latency.record(200_000_000);
+        latency.record(120_000_000_000L);
+
+        String text = metrics.prometheusText();
+        assertTrue(text, text.contains("# TYPE migrate_concepts_written_total counter\n"));
+        assertTrue(text, text.contains("migrate_concepts_written_total{phase=\"entity\",type=\"person\"} 6\n"));
+        assertTrue(text, text.contains("# TYPE migrate_transaction_seconds histogram\n"));
+        // buckets are cumulative
+        assertTrue(text, text.contains("migrate_transaction_seconds_bucket{phase=\"entity\",type=\"person\",le=\"0.005\"} 1\n"));
+        assertTrue(text, text.contains("migrate_transaction_seconds_bucket{phase=\"entity\",type=\"person\",le=\"0.25\"} 2\n"));
+        assertTrue(text, text.contains("migrate_transaction_seconds_bucket{phase=\"entity\",type=\"person\",le=\"+Inf\"} 3\n"));
+        assertTrue(text, text.contains("migrate_transaction_seconds_count{phase=\"entity\",type=\"person\"} 3\n"));
+    }
+
+    @Test
+    public void snapshotIsWrittenAndEndpointServesMetrics() throws IOException {
+        MigrationMetrics metrics = new MigrationMetrics();
+        metrics.counter(MigrationMetrics.Metric.INCOMPLETE_RELATIONS, "relation", "employment \"x\"").add(2);
+        Path snapshot = Files.createTempFile("metrics", ".json");
+        try (MetricsReporter reporter = new MetricsReporter(metrics, 0, snapshot)) {
+            reporter.writeSnapshot();
+            String json = new String(Files.readAllBytes(snapshot), StandardCharsets.UTF_8);
+            assertTrue(json, json.contains("{\"name\":\"migrate_incomplete_relations_total\",\"phase\":\"relation\",\"type\":\"employment \\\"x\\\"\",\"value\":2}"));
+
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + reporter.port() + "/metrics").openConnection();
+            assertEquals(200, connection.getResponseCode());
+            try (InputStream in = connection.getInputStream(); Scanner scanner = new Scanner(in, "UTF-8")) {
+                String text = scanner.useDelimiter("\\A").next();
+                assertTrue(text, text.contains("migrate_incomplete_relations_total{phase=\"relation\",type=\"employment \\\"x\\\"\"} 2"));
+            }
+        } finally {
+            Files.delete(snapshot);
+        }
+    }
+}
@@ -1,7 +1,8 @@
 package migrate.exporter;
 
 import grakn.client.GraknClient;
-import grakn.client.answer.Numeric;
+import grakn.client.answer.ConceptMap;
+import grakn.client.concept.ConceptId;
 import grakn.client.concept.Label;
 import grakn.client.concept.SchemaConcept;
 import grakn.client.concept.thing.Attribute;
@@ -13,45 +14,65 @@ import grakn.client.concept.type.EntityType;
 import grakn.client.concept.type.RelationType;
 import grakn.client.concept.type.Role;
 import graql.lang.Graql;
-import graql.lang.query.GraqlCompute;
+import migrate.common.BinaryDataFileReader;
+import migrate.common.BlockCompressedFile;
+import migrate.common.ChecksumManifest;
+import migrate.common.DataFileWriter;
+import migrate.common.ExternalSort;
+import migrate.common.MetricsReporter;
+import migrate.common.MigrationMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static migrate.exporter.Schema.exportSchema;
 
 public class Export {
     private static final Logger LOG = LoggerFactory.getLogger(Export.class);
 
+    // answers of a streamed match query sent by the server per round trip
+    private static final int STREAM_BATCH_SIZE = 1000;
+
     public static void main(String[] args) throws IOException {
 
-        if (args.length != 3) {
-            System.out.println("Error - correct arguments: [absolute export directory] [grakn URI] [source keyspace]");
+        ExportOptions options = ExportOptions.parse(args);
+        if (options == null) {
+            System.out.println(ExportOptions.USAGE);
             System.exit(1);
         }
 
-        String destination = args[0];
-        String graknUri = args[1];
-        String sourceKeyspace = args[2];
+        String destination = options.destination();
+        String graknUri = options.graknUri();
+        String sourceKeyspace = options.sourceKeyspace();
 
         GraknClient client = new GraknClient(graknUri);
         GraknClient.Session session = client.session(sourceKeyspace);
 
+        MigrationMetrics metrics = new MigrationMetrics();
+        MetricsReporter metricsReporter = new MetricsReporter(metrics, options.metricsPort(), options.metricsSnapshot());
+        ChecksumManifest manifest = new ChecksumManifest();
+
         Path exportParent = Paths.get(destination);
         Path exportRoot = exportParent.resolve("data");
         Files.createDirectories(exportRoot);
@@ -62,241 +83,397 @@ public class Export {
 
         GraqlSchemaBuilder graqlSchemaBuilder = new GraqlSchemaBuilder(session);
 
-        // export data
-        writeEntities(session, exportRoot);
-        writeAttributes(session, exportRoot);
-        writeExplicitRelations(session, exportRoot);
-        writeOwnerships(session, exportRoot);
+        // export data: the types of all four phases are independent, and exported concurrently
+        Path entityFolder = Files.createDirectories(exportRoot.resolve("entity"));
+        Path attributeFolder = Files.createDirectories(exportRoot.resolve("attribute"));
+        Path relationFolder = Files.createDirectories(exportRoot.resolve("relation"));
+        Path ownershipFolder = Files.createDirectories(exportRoot.resolve("ownership"));
+        Path ownershipByOwnerFolder = options.ownershipsByOwner() ? Files.createDirectories(exportRoot.resolve("ownership-by-owner")) : null;
+        ExternalSort sorter = new ExternalSort(options.sortBufferLines());
+        // temporary files are kept out of the system temporary directory, which may be too small for them
+        boolean createdScratchFolder = !Files.exists(options.scratchPath());
+        Path scratchFolder = Files.createDirectories(options.scratchPath());
+        DataFileWriter.Format format = options.format();
+        int blockSize = options.compressBlockSize();
+        LOG.info("Writing data files in the " + format.name().toLowerCase() + " format" +
+                (blockSize > 0 ? ", compressed in blocks of " + blockSize + " bytes" : ""));
+        // without a previous manifest, the phases costing the most per instance start first: relations read their role
+        // players with several queries and sort them, ownerships are sorted too
+        List<ExportWorkerPool.Task> tasks = new ArrayList<>();
+        for (Label relationType : concreteTypes(session, "relation")) {
+            tasks.add(new ExportWorkerPool.Task("relation", relationType, workerSession ->
+                    writeExplicitRelationType(workerSession, relationType, relationFolder, format, blockSize, metrics, manifest, sorter,
+                            scratchFolder)));
+        }
+        Set<Label> attributeTypes = concreteTypes(session, "attribute");
+        for (Label attributeType : attributeTypes) {
+            tasks.add(new ExportWorkerPool.Task("ownership", attributeType, workerSession ->
+                    writeImplicitRelationType(workerSession, attributeType, ownershipFolder, format, blockSize, metrics, manifest, sorter,
+                            ownershipByOwnerFolder, scratchFolder)));
+        }
+        for (Label attributeType : attributeTypes) {
+            tasks.add(new ExportWorkerPool.Task("attribute", attributeType, workerSession ->
+                    writeAttributeType(workerSession, attributeType, attributeFolder, format, blockSize, metrics, manifest)));
+        }
+        for (Label entityType : concreteTypes(session, "entity")) {
+            tasks.add(new ExportWorkerPool.Task("entity", entityType, workerSession ->
+                    writeEntityType(workerSession, entityType, entityFolder, format, blockSize, metrics, manifest)));
+        }
+        Path manifestFile = exportRoot.resolve(ChecksumManifest.FILE_NAME);
+        ChecksumManifest previousManifest = Files.exists(manifestFile) ? ChecksumManifest.read(manifestFile) : null;
+        try (ExportWorkerPool workers = new ExportWorkerPool(client, sourceKeyspace, options.workers())) {
+            workers.run(tasks, previousManifest);
+        }
+        if (createdScratchFolder) {
+            Files.delete(scratchFolder);
+        }
 
-        LOG.info("Writing checksums...");
-        writeChecksums(session, exportRoot);
+        // counted and digested while the data files were written, so that verifying the import costs no extra queries
+        LOG.info("Writing checksum manifest...");
+        manifest.write(manifestFile);
 
+        metricsReporter.close();
         session.close();
         client.close();
     }
 
 
-    private static void writeEntities(GraknClient.Session session, Path root) throws IOException {
-        GraknClient.Transaction tx = session.transaction().write();
-        Set<Label> entityTypes = tx.getSchemaConcept(Label.of("entity")).subs()
-                .filter(type -> !type.asEntityType().isAbstract())
-                .map(SchemaConcept::label)
-                .collect(Collectors.toSet());
-        tx.close();
-
-        Path outputFolder = root.resolve("entity");
-        Files.createDirectories(outputFolder);
-        for (Label entityType : entityTypes) {
-            int exportedEntities = writeEntityType(session, entityType, outputFolder);
-            LOG.info("Exported entity type: " + entityType + ", count: " + exportedEntities);
+    /**
+     * @return labels of the types under the meta type that can have instances
+     */
+    private static Set<Label> concreteTypes(GraknClient.Session session, String metaType) {
+        try (GraknClient.Transaction tx = session.transaction().read()) {
+            return tx.getSchemaConcept(Label.of(metaType)).subs()
+                    .filter(type -> !type.asType().isAbstract())
+                    .map(SchemaConcept::label)
+                    .collect(Collectors.toSet());
         }
     }
 
     /**
-     * Write one entity concept ID per line
+     * Write one entity concept ID per record
      */
-    private static int writeEntityType(GraknClient.Session session, Label entityTypeLabel, Path root) throws IOException {
+    private static long writeEntityType(GraknClient.Session session, Label entityTypeLabel, Path root, DataFileWriter.Format format, int blockSize, MigrationMetrics metrics,
+                                        ChecksumManifest manifest) throws IOException {
+        MigrationMetrics.Counter exported = metrics.counter(MigrationMetrics.Metric.CONCEPTS_EXPORTED, "entity", entityTypeLabel.toString());
+        long start = System.nanoTime();
         try (GraknClient.Transaction tx = session.transaction().read()) {
             EntityType entityType = tx.getEntityType(entityTypeLabel.toString());
-            File outputFile = root.resolve(entityType.label().toString()).toFile();
-            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
-
-                List<Entity> entities = entityType.asRemote(tx).instances()
-                        .filter(concept -> concept.type().label().equals(entityTypeLabel))
-                        .collect(Collectors.toList());
-
-                for (Entity entity : entities) {
-                    writer.write(entity.id().toString());
-                    writer.write("\n");
-                }
-
-                return entities.size();
+            try (DataFileWriter writer = format.open(root.resolve(entityType.label().toString()), blockSize)) {
+                Stream<? extends Entity> entities = entityType.asRemote(tx).instances()
+                        .filter(concept -> concept.type().label().equals(entityTypeLabel));
+                return writeEntities(entityTypeLabel.toString(), entities, writer, exported, manifest);
             }
+        } finally {
+            recordTransaction(metrics, "entity", entityTypeLabel, start);
         }
     }
 
-    private static void writeAttributes(GraknClient.Session session, Path root) throws IOException {
-        GraknClient.Transaction tx = session.transaction().write();
-        Set<Label> attributeTypes = tx.getSchemaConcept(Label.of("attribute")).subs()
-                .filter(type -> !type.asAttributeType().isAbstract())
-                .map(SchemaConcept::label)
-                .collect(Collectors.toSet());
-        tx.close();
-
-        Path outputFolder = root.resolve("attribute");
-        Files.createDirectories(outputFolder);
-        for (Label attributeType : attributeTypes) {
-            int insertedAttributes = writeAttributeType(session, attributeType, outputFolder);
-            LOG.info("Exported attribute type: " + attributeType + ", count: " + insertedAttributes);
+    /**
+     * Write the entities as they are read from the server, counting them as they are written
+     */
+    static long writeEntities(String type, Stream<? extends Entity> entities, DataFileWriter writer, MigrationMetrics.Counter exported,
+                              ChecksumManifest manifest) throws IOException {
+        long count = 0;
+        Iterator<? extends Entity> iterator = entities.iterator();
+        while (iterator.hasNext()) {
+            writer.entity(iterator.next().id().toString());
+            exported.increment();
+            count++;
         }
+        manifest.add("entity", type, count, 0);
+        return count;
+    }
+
+    private static void recordTransaction(MigrationMetrics metrics, String phase, Label type, long start) {
+        metrics.histogram(MigrationMetrics.Metric.TRANSACTION_SECONDS, phase, type.toString()).record(System.nanoTime() - start);
+        metrics.counter(MigrationMetrics.Metric.TRANSACTIONS, phase, type.toString()).increment();
     }
 
     /**
-     * Write one attribute ID, attribute value per line
+     * Write one attribute ID, attribute value per record
      */
-    private static int writeAttributeType(GraknClient.Session session, Label attributeTypeLabel, Path root) throws IOException {
+    private static long writeAttributeType(GraknClient.Session session, Label attributeTypeLabel, Path root, DataFileWriter.Format format, int blockSize, MigrationMetrics metrics,
+                                           ChecksumManifest manifest) throws IOException {
+        MigrationMetrics.Counter exported = metrics.counter(MigrationMetrics.Metric.CONCEPTS_EXPORTED, "attribute", attributeTypeLabel.toString());
+        long start = System.nanoTime();
         try (GraknClient.Transaction tx = session.transaction().read()) {
             AttributeType<? extends Object> attributeType = tx.getAttributeType(attributeTypeLabel.toString());
-
-            File outputFile = root.resolve(attributeType.label().toString()).toFile();
-            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
-
-                List<Attribute<? extends Object>> attributes = attributeType.asRemote(tx).instances()
-                        .filter(concept -> concept.type().label().equals(attributeTypeLabel))
-                        .collect(Collectors.toList());
-
-                for (Attribute<? extends Object> attribute : attributes) {
-                    String id = attribute.id().toString();
-                    String value = attribute.value().toString();
-                    writer.write(id);
-                    writer.write(",");
-                    writer.write(value);
-                    writer.write("\n");
-                }
-
-                return attributes.size();
+            try (DataFileWriter writer = format.open(root.resolve(attributeType.label().toString()), blockSize)) {
+                Stream<? extends Attribute<? extends Object>> attributes = attributeType.asRemote(tx).instances()
+                        .filter(concept -> concept.type().label().equals(attributeTypeLabel));
+                return writeAttributes(attributeTypeLabel.toString(), attributes, writer, exported, manifest);
             }
+        } finally {
+            recordTransaction(metrics, "attribute", attributeTypeLabel, start);
         }
     }
 
-
-    private static void writeExplicitRelations(GraknClient.Session session, Path root) throws IOException {
-        GraknClient.Transaction tx = session.transaction().write();
-        Set<Label> explicitRelationTypes = tx.getSchemaConcept(Label.of("relation")).subs()
-                .filter(type -> !type.asRelationType().isAbstract())
-                .map(SchemaConcept::label)
-                .collect(Collectors.toSet());
-        tx.close();
-
-        Path outputFolder = root.resolve("relation");
-        Files.createDirectories(outputFolder);
-        for (Label explicitRelationType : explicitRelationTypes) {
-            int exportedRelations = writeExplicitRelationType(session, explicitRelationType, outputFolder);
-            LOG.info("Exported relation type: " + explicitRelationType + ", count: " + exportedRelations);
+    /**
+     * Write the attributes as they are read from the server, counting and digesting them as they are written
+     */
+    static long writeAttributes(String type, Stream<? extends Attribute<?>> attributes, DataFileWriter writer, MigrationMetrics.Counter exported,
+                                ChecksumManifest manifest) throws IOException {
+        long count = 0;
+        long digest = 0;
+        Iterator<? extends Attribute<?>> iterator = attributes.iterator();
+        while (iterator.hasNext()) {
+            Attribute<?> attribute = iterator.next();
+            Object value = attribute.value();
+            writer.attribute(attribute.id().toString(), value);
+            // digested as text, so that the digest does not depend on the format
+            digest += ChecksumManifest.valueDigest(value.toString());
+            exported.increment();
+            count++;
         }
+        manifest.add("attribute", type, count, digest);
+        return count;
     }
 
     /**
-     * on each line:
+     * in each record:
      * relation ID, (role #1 name, role player ID, role player ID...), (role #2 name, role player ID...), (role #3 name, RP ID...)...
+     * <p>
+     * The role players of the whole type are read with one streamed match query per role, plus one for the relation IDs
+     * (so that relations without role players keep their line), instead of one `rolePlayersMap` call per relation.
+     * The (relation ID, role, role player ID) tuples are spilled to a temporary file in `scratchFolder`, sorted by
+     * relation ID with an external sort and grouped back into one line per relation. A player of a sub-role also
+     * matches its super roles, so a relation with the same player under a role and one of its sub-roles has its
+     * roles read with `rolePlayersMap`, which tells the roles the player was assigned
      */
-    private static int writeExplicitRelationType(GraknClient.Session session, Label relationTypeLabel, Path root) throws IOException {
+    private static long writeExplicitRelationType(GraknClient.Session session, Label relationTypeLabel, Path root, DataFileWriter.Format format, int blockSize,
+                                                  MigrationMetrics metrics, ChecksumManifest manifest, ExternalSort sorter, Path scratchFolder) throws IOException {
+        MigrationMetrics.Counter exported = metrics.counter(MigrationMetrics.Metric.CONCEPTS_EXPORTED, "relation", relationTypeLabel.toString());
+        MigrationMetrics.Counter queries = metrics.counter(MigrationMetrics.Metric.EXPORT_QUERIES, "relation", relationTypeLabel.toString());
+        long start = System.nanoTime();
+        Path tuples = Files.createTempFile(scratchFolder, relationTypeLabel + ".", ".role-players");
+        Path sortedTuples = Files.createTempFile(scratchFolder, relationTypeLabel + ".", ".by-relation");
         try (GraknClient.Transaction tx = session.transaction().read()) {
             RelationType relationType = tx.getRelationType(relationTypeLabel.toString());
-            File outputFile = root.resolve(relationType.label().toString()).toFile();
-
-            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
-
-                List<Relation> relations = relationType.asRemote(tx).instances()
-                        .filter(concept -> concept.type().label().equals(relationTypeLabel)) // filter out subtypes
-                        .collect(Collectors.toList());
-
-                for (Relation relation : relations) {
-                    String id = relation.id().toString();
-                    writer.write(id);
-                    writer.write(",");
-
-                    Map<Role.Remote, List<Thing.Remote<?,?>>> roleSetMap = relation.asRemote(tx).rolePlayersMap();
-                    for (Map.Entry<Role.Remote, List<Thing.Remote<?,?>>> roleSetEntry : roleSetMap.entrySet()) {
-                        writer.write("(");
-                        writer.write(roleSetEntry.getKey().label().toString());
-                        writer.write(",");
-                        String rolePlayers = String.join(",", roleSetEntry.getValue().stream().map(thing -> thing.id().toString()).collect(Collectors.toSet()));
-                        writer.write(rolePlayers);
-                        writer.write("),");
-                    }
-                    writer.write("\n");
+            Map<String, Set<String>> subRoles = subRoles(relationType.asRemote(tx).roles().collect(Collectors.toList()));
+
+            long queryCount = 0;
+            try (Writer writer = Files.newBufferedWriter(tuples, StandardCharsets.UTF_8)) {
+                // isa! filters out subtypes
+                streamTuples(tx, "match $r isa! " + relationTypeLabel + "; get $r;", null, writer);
+                queryCount++;
+                for (String role : subRoles.keySet()) {
+                    streamTuples(tx, "match $r (" + role + ": $p) isa! " + relationTypeLabel + "; get $r, $p;", role, writer);
+                    queryCount++;
                 }
-
-                return relations.size();
             }
+            queries.add(queryCount);
+            sorter.sort(tuples, sortedTuples, Comparator.naturalOrder());
+
+            try (BufferedReader reader = Files.newBufferedReader(sortedTuples, StandardCharsets.UTF_8);
+                 DataFileWriter writer = format.open(root.resolve(relationType.label().toString()), blockSize)) {
+                AtomicLong lookups = new AtomicLong();
+                long count = writeRelations(relationTypeLabel.toString(), reader, subRoles, relationId -> {
+                    Relation.Remote relation = tx.getConcept(ConceptId.of(relationId)).asRelation().asRemote(tx);
+                    Map<String, Set<String>> rolePlayers = new TreeMap<>();
+                    for (Map.Entry<Role.Remote, List<Thing.Remote<?, ?>>> roleEntry : relation.rolePlayersMap().entrySet()) {
+                        Set<String> players = rolePlayers.computeIfAbsent(roleEntry.getKey().label().toString(), role -> new LinkedHashSet<>());
+                        roleEntry.getValue().forEach(player -> players.add(player.id().toString()));
+                    }
+                    queries.increment();
+                    lookups.incrementAndGet();
+                    return rolePlayers;
+                }, writer, exported, manifest);
+                queryCount += lookups.get();
+                LOG.info("Read the role players of " + count + " relations of type: " + relationTypeLabel + " with " + queryCount +
+                        " queries, " + String.format("%.4f", count == 0 ? 0.0 : (double) queryCount / count) +
+                        " per relation (was 1 rolePlayersMap call per relation), including " + lookups.get() +
+                        " rolePlayersMap calls for players matched by a role and its sub-role");
+                return count;
+            }
+        } finally {
+            Files.deleteIfExists(tuples);
+            Files.deleteIfExists(sortedTuples);
+            recordTransaction(metrics, "relation", relationTypeLabel, start);
         }
     }
 
-    private static void writeOwnerships(GraknClient.Session session, Path root) throws IOException {
-        GraknClient.Transaction tx = session.transaction().write();
-        Set<Label> attributeTypes = tx.getSchemaConcept(Label.of("attribute")).subs()
-                .filter(type -> !type.asAttributeType().isAbstract())
-                .map(SchemaConcept::label)
-                .collect(Collectors.toSet());
-        tx.close();
-
-        Path outputFolder = root.resolve("ownership");
-        Files.createDirectories(outputFolder);
-        for (Label attributeType : attributeTypes) {
-            int exportedOwnerships = writeImplicitRelationType(session, attributeType, outputFolder);
-            LOG.info("Exported ownerships type: " + attributeType + ", count: " + exportedOwnerships);
+    /**
+     * @param roles - roles of a relation type
+     * @return label of each role -> labels of the other roles of the type that are below it in the role hierarchy
+     */
+    private static Map<String, Set<String>> subRoles(List<? extends Role.Remote> roles) {
+        Map<String, Set<String>> subRoles = new LinkedHashMap<>();
+        for (Role.Remote role : roles) {
+            subRoles.put(role.label().toString(), new HashSet<>());
         }
+        for (Role.Remote role : roles) {
+            for (SchemaConcept.Remote<Role> sup = role.sup(); sup != null; sup = sup.sup()) {
+                Set<String> below = subRoles.get(sup.label().toString());
+                if (below != null) {
+                    below.add(role.label().toString());
+                }
+            }
+        }
+        return subRoles;
     }
 
     /**
-     * on each line:
-     * attribute ID, owner ID
+     * Write a `relation ID` line per answer, or a `relation ID, role, role player ID` line if the role is given
      */
-    private static int writeImplicitRelationType(GraknClient.Session session, Label attributeTypeLabel, Path root) throws IOException {
-        try (GraknClient.Transaction tx = session.transaction().read()) {
-            AttributeType<? extends Object> attributeType = tx.getAttributeType(attributeTypeLabel.toString());
+    private static void streamTuples(GraknClient.Transaction tx, String query, String role, Writer writer) throws IOException {
+        Iterator<ConceptMap> answers = matchAnswers(tx, query);
+        while (answers.hasNext()) {
+            ConceptMap answer = answers.next();
+            writer.write(answer.get("r").id().toString());
+            if (role != null) {
+                writer.write(",");
+                writer.write(role);
+                writer.write(",");
+                writer.write(answer.get("p").id().toString());
+            }
+            writer.write("\n");
+        }
+    }
 
-            File outputFile = root.resolve(attributeType.label().toString()).toFile();
-            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(outputFile), StandardCharsets.UTF_8))) {
+    /**
+     * Stream the answers of a match query, in batches of `STREAM_BATCH_SIZE` answers per round trip. Reasoning is
+     * off, so that only the stored data is exported and not what rules infer from it
+     */
+    private static Iterator<ConceptMap> matchAnswers(GraknClient.Transaction tx, String query) {
+        return tx.stream(Graql.parse(query).asGet(), GraknClient.Transaction.Options.infer(false).batchSize(STREAM_BATCH_SIZE)).get().iterator();
+    }
 
-                // TODO work out how to also store the implicit relation ID so we can handle concepts attached to implicit relations
+    /**
+     * Reads the roles the players of one relation were assigned, without the super roles they also match
+     */
+    interface AssignedRoles {
+        /**
+         * @return role label -> role player IDs
+         */
+        Map<String, Set<String>> of(String relationId);
+    }
 
-                List<Attribute<? extends Object>> attributes = attributeType.asRemote(tx).instances()
-                        .filter(concept -> concept.type().label().equals(attributeTypeLabel))
-                        .collect(Collectors.toList());
+    /**
+     * Group the tuples of each relation into its line, counting and digesting the relations as they are written
+     *
+     * @param sortedTuples - `relation ID` and `relation ID, role, role player ID` lines, sorted so that the lines of a
+     *                     relation are consecutive. Concept IDs contain no comma, which sorts before any character of an
+     *                     ID, so the natural order of the lines is enough
+     * @param subRoles - roles of the type -> roles below them, as a player of a sub-role also matches its super roles
+     * @param assignedRoles - reads the roles of a relation whose tuples cannot tell them apart, a player being matched
+     *                      by a role and one of its sub-roles, whether or not it was assigned both
+     */
+    static long writeRelations(String type, BufferedReader sortedTuples, Map<String, Set<String>> subRoles, AssignedRoles assignedRoles,
+                               DataFileWriter writer, MigrationMetrics.Counter exported, ChecksumManifest manifest) throws IOException {
+        long count = 0;
+        long digest = 0;
+        String relation = null;
+        Map<String, Set<String>> rolePlayers = new LinkedHashMap<>();
+        while (true) {
+            String line = sortedTuples.readLine();
+            String[] fields = line == null ? null : line.split(",");
+            if (relation != null && (fields == null || !fields[0].equals(relation))) {
+                digest += writeRelation(relation, rolePlayers, subRoles, assignedRoles, writer);
+                exported.increment();
+                count++;
+                rolePlayers.clear();
+            }
+            if (fields == null) {
+                break;
+            }
+            relation = fields[0];
+            if (fields.length == 3) {
+                rolePlayers.computeIfAbsent(fields[1], role -> new LinkedHashSet<>()).add(fields[2]);
+            }
+        }
+        manifest.add("relation", type, count, digest);
+        return count;
+    }
 
+    /**
+     * @return digest of the relation
+     */
+    private static long writeRelation(String relation, Map<String, Set<String>> rolePlayers, Map<String, Set<String>> subRoles,
+                                      AssignedRoles assignedRoles, DataFileWriter writer) throws IOException {
+        Map<String, Set<String>> written = matchedBySubRoles(rolePlayers, subRoles) ? assignedRoles.of(relation) : rolePlayers;
+        long roles = 0;
+        for (Map.Entry<String, Set<String>> roleEntry : written.entrySet()) {
+            roles += ChecksumManifest.roleDigest(roleEntry.getKey(), roleEntry.getValue().size());
+        }
+        writer.relation(relation, written);
+        return ChecksumManifest.relationDigest(roles);
+    }
 
-                for (Attribute<? extends Object> attribute: attributes) {
-                    String id = attribute.id().toString();
-                    List<Thing> attributeOwners = attribute.asRemote(tx).owners().collect(Collectors.toList());
-                    for (Thing owner : attributeOwners) {
-                        writer.write(id);
-                        writer.write(",");
-                        writer.write(owner.id().toString());
-                        writer.write("\n");
+    /**
+     * @return whether a player matched by a role is also matched by one of its sub-roles, so that the tuples cannot
+     * tell if it was assigned the role itself
+     */
+    private static boolean matchedBySubRoles(Map<String, Set<String>> rolePlayers, Map<String, Set<String>> subRoles) {
+        for (Map.Entry<String, Set<String>> roleEntry : rolePlayers.entrySet()) {
+            for (String subRole : subRoles.getOrDefault(roleEntry.getKey(), Collections.emptySet())) {
+                for (String player : rolePlayers.getOrDefault(subRole, Collections.emptySet())) {
+                    if (roleEntry.getValue().contains(player)) {
+                        return true;
                     }
                 }
-                return attributes.size();
             }
         }
+        return false;
     }
 
     /**
-     * Some kind of export checksums that can be compared against on import
-     * To start with, simply use a compute count of `entity`, `relation` and `attribute`
-     * and write them in this order to a file
+     * in each record:
+     * attribute ID, owner ID
+     * <p>
+     * The ownerships of the whole type are read with one streamed match query rather than an `owners()` request per
+     * attribute. If `byOwnerFolder` is given, an owner-sorted copy of the file is also written there for the importer,
+     * always in the uncompressed text format. Binary or compressed files are decoded to text in `scratchFolder` to be sorted
      */
-    private static void writeChecksums(GraknClient.Session session, Path exportRoot) throws IOException {
-
-        GraknClient.Transaction tx = session.transaction().write();
-
-        // count number of entities
-        GraqlCompute.Statistics query = Graql.compute().count().in("entity");
-        List<Numeric> execute = tx.execute(query).get();
-        int entities = execute.get(0).number().intValue();
-        // count number of explicit relations
-        query = Graql.compute().count().in("relation");
-        execute = tx.execute(query).get();
-        int explicitRelations = execute.get(0).number().intValue();
-        // count number of attributes
-        query = Graql.compute().count().in("attribute");
-        execute = tx.execute(query).get();
-        int attributes = execute.get(0).number().intValue();
-        tx.close();
-
-        Files.write(
-                exportRoot.resolve("checksums"),
-                Arrays.asList(
-                        Integer.toString(entities),
-                        Integer.toString(explicitRelations),
-                        Integer.toString(attributes)
-                )
-        );
+    private static long writeImplicitRelationType(GraknClient.Session session, Label attributeTypeLabel, Path root, DataFileWriter.Format format, int blockSize,
+                                                  MigrationMetrics metrics, ChecksumManifest manifest, ExternalSort sorter, Path byOwnerFolder,
+                                                  Path scratchFolder) throws IOException {
+        MigrationMetrics.Counter exported = metrics.counter(MigrationMetrics.Metric.CONCEPTS_EXPORTED, "ownership", attributeTypeLabel.toString());
+        long start = System.nanoTime();
+        Path outputFile = root.resolve(attributeTypeLabel.toString());
+        long ownerships = 0;
+        try (GraknClient.Transaction tx = session.transaction().read();
+             DataFileWriter writer = format.open(outputFile, blockSize)) {
+
+            // TODO work out how to also store the implicit relation ID so we can handle concepts attached to implicit relations
+
+            // isa! filters out subtypes
+            Iterator<ConceptMap> answers = matchAnswers(tx, "match $a isa! " + attributeTypeLabel + "; $o has " + attributeTypeLabel + " $a; get $a, $o;");
+            metrics.counter(MigrationMetrics.Metric.EXPORT_QUERIES, "ownership", attributeTypeLabel.toString()).increment();
+            while (answers.hasNext()) {
+                ConceptMap answer = answers.next();
+                writer.ownership(answer.get("a").id().toString(), answer.get("o").id().toString());
+                exported.increment();
+                ownerships++;
+            }
+            manifest.add("ownership", attributeTypeLabel.toString(), ownerships, 0);
+        } finally {
+            recordTransaction(metrics, "ownership", attributeTypeLabel, start);
+        }
 
+        if (byOwnerFolder != null) {
+            if (format == DataFileWriter.Format.TEXT && blockSize == 0) {
+                sorter.sort(outputFile, byOwnerFolder.resolve(attributeTypeLabel.toString()), ExternalSort.BY_OWNER);
+            } else {
+                Path textFile = Files.createTempFile(scratchFolder, attributeTypeLabel + ".", ".ownerships");
+                Path binaryFile = format == DataFileWriter.Format.BINARY && blockSize > 0 ? Files.createTempFile(scratchFolder, attributeTypeLabel + ".", ".binary") : outputFile;
+                try {
+                    if (blockSize > 0) {
+                        // the exporter's workers are busy with other types, so the blocks are decompressed in turn
+                        BlockCompressedFile.decompress(outputFile, format == DataFileWriter.Format.BINARY ? binaryFile : textFile, Runnable::run);
+                    }
+                    if (format == DataFileWriter.Format.BINARY) {
+                        BinaryDataFileReader.decode(binaryFile, textFile);
+                    }
+                    sorter.sort(textFile, byOwnerFolder.resolve(attributeTypeLabel.toString()), ExternalSort.BY_OWNER);
+                } finally {
+                    Files.deleteIfExists(textFile);
+                    if (!binaryFile.equals(outputFile)) {
+                        Files.deleteIfExists(binaryFile);
+                    }
+                }
+            }
+        }
+        return ownerships;
     }
 }
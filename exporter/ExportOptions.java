@@ -0,0 +1,178 @@
+package migrate.exporter;
+
+import migrate.common.DataFileWriter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command line configuration of the exporter:
+ * [absolute export directory] [grakn URI] [source keyspace] [--option=value ...]
+ */
+public class ExportOptions {
+
+    static final String USAGE = "Error - correct arguments: [absolute export directory] [grakn URI] [source keyspace] " +
+            "[--workers=N] [--format=text|binary] [--compress] [--compress-block-size=N] [--sort-buffer-lines=N] [--scratch-path=DIR] [--ownerships-by-owner] [--metrics-port=N] [--metrics-snapshot=FILE]";
+
+    private static final int DEFAULT_SORT_BUFFER_LINES = 1_000_000;
+    private static final int DEFAULT_COMPRESS_BLOCK_SIZE = 1 << 20;
+
+    private final String destination;
+    private final String graknUri;
+    private final String sourceKeyspace;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private DataFileWriter.Format format = DataFileWriter.Format.TEXT;
+    private boolean compress;
+    private int compressBlockSize = DEFAULT_COMPRESS_BLOCK_SIZE;
+    private int sortBufferLines = DEFAULT_SORT_BUFFER_LINES;
+    private Path scratchPath;
+    private boolean ownershipsByOwner;
+    private Integer metricsPort;
+    private Path metricsSnapshot;
+
+    private ExportOptions(String destination, String graknUri, String sourceKeyspace) {
+        this.destination = destination;
+        this.graknUri = graknUri;
+        this.sourceKeyspace = sourceKeyspace;
+    }
+
+    /**
+     * @return parsed options, or null if the arguments are not valid
+     */
+    static ExportOptions parse(String[] args) {
+        List<String> positional = new ArrayList<>();
+        List<String> flags = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                flags.add(arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (positional.size() != 3) {
+            return null;
+        }
+
+        ExportOptions options = new ExportOptions(positional.get(0), positional.get(1), positional.get(2));
+        for (String flag : flags) {
+            String[] keyValue = flag.substring(2).split("=", 2);
+            String key = keyValue[0];
+            String value = keyValue.length > 1 ? keyValue[1] : null;
+
+            if (key.equals("workers")) {
+                options.workers = positiveInt(key, value);
+            } else if (key.equals("format")) {
+                options.format = DataFileWriter.Format.valueOf(required(key, value).toUpperCase());
+            } else if (key.equals("compress")) {
+                options.compress = true;
+            } else if (key.equals("compress-block-size")) {
+                options.compressBlockSize = positiveInt(key, value);
+            } else if (key.equals("sort-buffer-lines")) {
+                options.sortBufferLines = positiveInt(key, value);
+            } else if (key.equals("scratch-path")) {
+                options.scratchPath = Paths.get(required(key, value));
+            } else if (key.equals("ownerships-by-owner")) {
+                options.ownershipsByOwner = true;
+            } else if (key.equals("metrics-port")) {
+                options.metricsPort = positiveInt(key, value);
+            } else if (key.equals("metrics-snapshot")) {
+                options.metricsSnapshot = Paths.get(required(key, value));
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + flag);
+            }
+        }
+        return options;
+    }
+
+    private static String required(String key, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Option --" + key + " requires a value");
+        }
+        return value;
+    }
+
+    private static int positiveInt(String key, String value) {
+        int parsed = Integer.parseInt(required(key, value));
+        if (parsed <= 0) {
+            throw new IllegalArgumentException("Option --" + key + " must be positive, got: " + value);
+        }
+        return parsed;
+    }
+
+    String destination() {
+        return destination;
+    }
+
+    String graknUri() {
+        return graknUri;
+    }
+
+    String sourceKeyspace() {
+        return sourceKeyspace;
+    }
+
+    /**
+     * @return number of types exported concurrently, each worker with its own session and read transaction
+     */
+    int workers() {
+        return workers;
+    }
+
+    /**
+     * @return format of the data files
+     */
+    DataFileWriter.Format format() {
+        return format;
+    }
+
+    /**
+     * @return uncompressed bytes of records per independently compressed block of the data files, or 0 to not
+     * compress them
+     */
+    int compressBlockSize() {
+        return compress ? compressBlockSize : 0;
+    }
+
+    /**
+     * @return lines sorted in memory before spilling sorted runs to disk, when sorting role player tuples or ownerships
+     */
+    int sortBufferLines() {
+        return sortBufferLines;
+    }
+
+    /**
+     * @return directory of the temporary files written while exporting, eg. the role player tuples and their sorted
+     * runs, by default `scratch` in the export directory, next to `data`
+     */
+    Path scratchPath() {
+        if (scratchPath == null) {
+            return Paths.get(destination).resolve("scratch");
+        }
+        return scratchPath;
+    }
+
+    /**
+     * @return whether to also write a copy of each ownership file sorted by owner, which the importer reads instead
+     * of sorting the file itself
+     */
+    boolean ownershipsByOwner() {
+        return ownershipsByOwner;
+    }
+
+    /**
+     * @return port of the local metrics endpoint, or null to not serve metrics
+     */
+    Integer metricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return file to write periodic JSON metrics snapshots to, or null to not write them
+     */
+    Path metricsSnapshot() {
+        return metricsSnapshot;
+    }
+}
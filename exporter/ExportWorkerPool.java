@@ -0,0 +1,182 @@
+package migrate.exporter;
+
+import grakn.client.GraknClient;
+import grakn.client.concept.Label;
+import migrate.common.ChecksumManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed pool of export workers, each holding its own Grakn session and reading one type at a time in its own read
+ * transaction, so that at most `workers` read transactions are open at once.
+ * <p>
+ * The phases of an export (entities, attributes, relations, ownerships) only read the source keyspace and write their
+ * own files, so the types of every phase are exported together. Idle workers take the next task as soon as they finish
+ * one, and the largest types are started first so that a few large types do not hold up the end of the export. Types are
+ * not counted before the export, which would cost a traversal of the keyspace: their sizes come from the checksum
+ * manifest of a previous export, if any
+ */
+class ExportWorkerPool implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ExportWorkerPool.class);
+
+    /**
+     * Exports one type to its file using the calling worker's session
+     */
+    interface TypeExport {
+        long export(GraknClient.Session session) throws IOException;
+    }
+
+    /**
+     * Export of one type in one phase
+     */
+    static class Task {
+        private final String phase;
+        private final Label type;
+        private final TypeExport export;
+
+        /**
+         * @param phase - phase of the type, for the log
+         * @param type - type to export, looked up in the previous manifest to schedule the task
+         * @param export - writes the file of the type
+         */
+        Task(String phase, Label type, TypeExport export) {
+            this.phase = phase;
+            this.type = type;
+            this.export = export;
+        }
+    }
+
+    private final GraknClient client;
+    private final String keyspace;
+    private final ExecutorService executor;
+    private final ThreadLocal<GraknClient.Session> workerSession = new ThreadLocal<>();
+    private final List<GraknClient.Session> openSessions = new ArrayList<>();
+
+    ExportWorkerPool(GraknClient client, String keyspace, int workers) {
+        this.client = client;
+        this.keyspace = keyspace;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "export-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run every task, largest type first, and wait for all of them to complete. Once a task fails, the tasks not
+     * started yet are skipped and the running ones are waited for, so that their sessions are not closed under them
+     *
+     * @param tasks - in the order to start them when there is no previous manifest
+     * @param previous - checksum manifest of a previous export of the keyspace, or null. Types it does not have are
+     * started first, as nothing is known of their size
+     */
+    void run(List<Task> tasks, ChecksumManifest previous) {
+        long start = System.currentTimeMillis();
+        List<Task> largestFirst = new ArrayList<>(tasks);
+        if (previous != null) {
+            // stable, so that types of the same size keep the given order
+            largestFirst.sort(Comparator.comparing((Task task) -> previousRecords(previous, task)).reversed());
+            LOG.info("Exporting " + tasks.size() + " types, largest first in the previous export");
+        } else {
+            LOG.info("Exporting " + tasks.size() + " types");
+        }
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<?>> futures = new ArrayList<>();
+        for (Task task : largestFirst) {
+            futures.add(executor.submit(() -> {
+                if (failed.get()) {
+                    return null;
+                }
+                try {
+                    long exported = task.export.export(session());
+                    LOG.info("Exported " + task.phase + " type: " + task.type + ", count: " + exported);
+                } catch (IOException | RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+                return null;
+            }));
+        }
+        await(largestFirst, futures, failed);
+        LOG.info("Exported " + tasks.size() + " types in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static long previousRecords(ChecksumManifest previous, Task task) {
+        ChecksumManifest.Entry entry = previous.entry(task.phase, task.type.toString());
+        return entry == null ? Long.MAX_VALUE : entry.records();
+    }
+
+    /**
+     * Wait for every task to complete or be skipped
+     *
+     * @throws RuntimeException - naming the type of the first failed task, with the failures of the others suppressed
+     */
+    private static void await(List<Task> tasks, List<Future<?>> futures, AtomicBoolean failed) {
+        RuntimeException failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            Task task = tasks.get(i);
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.set(true);
+                throw new RuntimeException("Interrupted during export of " + task.phase + " type: " + task.type, e);
+            } catch (ExecutionException e) {
+                RuntimeException typeFailure = new RuntimeException("Failed to export " + task.phase + " type: " + task.type, e.getCause());
+                if (failure == null) {
+                    failure = typeFailure;
+                } else {
+                    failure.addSuppressed(typeFailure);
+                }
+            }
+        }
+        if (failure != null) {
+            // the data files of the failed types are partial, and those of the skipped types missing
+            LOG.error("Export failed, its data files are incomplete: " + failure.getMessage());
+            throw failure;
+        }
+    }
+
+    private GraknClient.Session session() {
+        GraknClient.Session session = workerSession.get();
+        if (session == null) {
+            session = client.session(keyspace);
+            workerSession.set(session);
+            synchronized (openSessions) {
+                openSessions.add(session);
+            }
+        }
+        return session;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        // running tasks finish before their sessions are closed, they skip their export once one has failed
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.info("Waiting for running exports to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (openSessions) {
+            openSessions.forEach(GraknClient.Session::close);
+            openSessions.clear();
+        }
+    }
+}
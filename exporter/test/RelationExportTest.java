@@ -0,0 +1,93 @@
+package migrate.exporter;
+
+import migrate.common.ChecksumManifest;
+import migrate.common.ExternalSort;
+import migrate.common.MigrationMetrics;
+import migrate.common.TextDataFileWriter;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class RelationExportTest {
+
+    @Test
+    public void roleTuplesAreGroupedIntoOneLinePerRelation() throws IOException {
+        // as streamed: the relation IDs first, then the players of each role, across relations
+        Path tuples = Files.createTempFile("marriage.", ".role-players");
+        Path sortedTuples = Files.createTempFile("marriage.", ".by-relation");
+        try {
+            Files.write(tuples, Arrays.asList(
+                    "V12", "V123", "V7",
+                    "V123,husband,V1", "V12,husband,V2", "V123,husband,V3",
+                    "V12,wife,V4", "V123,wife,V5", "V9,husband,V2", "V9,wife,V4",
+                    // players of the sub-role also match its super role
+                    "V12,partner,V2", "V12,partner,V4", "V12,partner,V6", "V9,partner,V2", "V9,partner,V4"), StandardCharsets.UTF_8);
+            new ExternalSort(2).sort(tuples, sortedTuples, Comparator.naturalOrder());
+
+            Map<String, Set<String>> subRoles = new LinkedHashMap<>();
+            subRoles.put("partner", new HashSet<>(Arrays.asList("husband", "wife")));
+            subRoles.put("husband", Collections.emptySet());
+            subRoles.put("wife", Collections.emptySet());
+
+            MigrationMetrics.Counter exported = new MigrationMetrics().counter(MigrationMetrics.Metric.CONCEPTS_EXPORTED, "relation", "marriage");
+            ChecksumManifest manifest = new ChecksumManifest();
+            // as the server assigned them: V2 of V9 was also assigned the super role itself
+            Map<String, Map<String, Set<String>>> assigned = new HashMap<>();
+            assigned.put("V12", rolePlayers("husband", "V2", "partner", "V6", "wife", "V4"));
+            assigned.put("V9", rolePlayers("husband", "V2", "partner", "V2", "wife", "V4"));
+            List<String> lookedUp = new ArrayList<>();
+            StringWriter file = new StringWriter();
+            long count;
+            try (BufferedReader reader = Files.newBufferedReader(sortedTuples, StandardCharsets.UTF_8)) {
+                count = Export.writeRelations("marriage", reader, subRoles, relationId -> {
+                    lookedUp.add(relationId);
+                    return assigned.get(relationId);
+                }, new TextDataFileWriter(file), exported, manifest);
+            }
+
+            assertEquals(4, count);
+            assertEquals(4, exported.value());
+            // only the relations whose tuples cannot tell the assigned roles apart are looked up
+            assertEquals(Arrays.asList("V12", "V9"), lookedUp);
+            assertEquals("V12,(husband,V2),(partner,V6),(wife,V4),\n" +
+                    "V123,(husband,V1,V3),(wife,V5),\n" +
+                    "V7,\n" +
+                    "V9,(husband,V2),(partner,V2),(wife,V4),\n", file.toString());
+            long digest = 2 * ChecksumManifest.relationDigest(ChecksumManifest.roleDigest("husband", 1) +
+                    ChecksumManifest.roleDigest("partner", 1) + ChecksumManifest.roleDigest("wife", 1)) +
+                    ChecksumManifest.relationDigest(ChecksumManifest.roleDigest("husband", 2) + ChecksumManifest.roleDigest("wife", 1)) +
+                    ChecksumManifest.relationDigest(0);
+            assertEquals(4, manifest.entry("relation", "marriage").records());
+            assertEquals(digest, manifest.entry("relation", "marriage").digest());
+        } finally {
+            Files.deleteIfExists(tuples);
+            Files.deleteIfExists(sortedTuples);
+        }
+    }
+
+    private static Map<String, Set<String>> rolePlayers(String... rolesAndPlayers) {
+        Map<String, Set<String>> rolePlayers = new LinkedHashMap<>();
+        for (int i = 0; i < rolesAndPlayers.length; i += 2) {
+            rolePlayers.computeIfAbsent(rolesAndPlayers[i], role -> new LinkedHashSet<>()).add(rolesAndPlayers[i + 1]);
+        }
+        return rolePlayers;
+    }
+}
@@ -0,0 +1,94 @@
+package migrate.exporter;
+
+import grakn.client.concept.ConceptId;
+import grakn.client.concept.thing.Attribute;
+import migrate.common.ChecksumManifest;
+import migrate.common.MigrationMetrics;
+import migrate.common.TextDataFileWriter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Proxy;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs with a heap far too small to hold the instances of the type at once (see BUILD), so it only passes if the
+ * instances are written as they are streamed
+ */
+public class StreamingExportTest {
+
+    private static final long INSTANCES = 20_000_000;
+
+    @Test
+    public void typeLargerThanTheHeapIsStreamedToItsFile() throws IOException {
+        MigrationMetrics metrics = new MigrationMetrics();
+        MigrationMetrics.Counter exported = metrics.counter(MigrationMetrics.Metric.CONCEPTS_EXPORTED, "attribute", "name");
+        ChecksumManifest manifest = new ChecksumManifest();
+        LineCounter file = new LineCounter();
+
+        long count = Export.writeAttributes("name", attributes(INSTANCES), new TextDataFileWriter(file), exported, manifest);
+
+        assertEquals(INSTANCES, count);
+        assertEquals(INSTANCES, file.lines);
+        assertEquals(INSTANCES, exported.value());
+        assertEquals(INSTANCES, manifest.entry("attribute", "name").records());
+        long digest = 0;
+        for (long i = 0; i < INSTANCES; i++) {
+            digest += ChecksumManifest.valueDigest("name-" + i);
+        }
+        assertEquals(digest, manifest.entry("attribute", "name").digest());
+    }
+
+    /**
+     * @return stream of attributes created as they are read, as from the server
+     */
+    @SuppressWarnings("unchecked")
+    private static Stream<Attribute<?>> attributes(long count) {
+        return LongStream.range(0, count).mapToObj(i -> (Attribute<?>) Proxy.newProxyInstance(Attribute.class.getClassLoader(),
+                new Class<?>[]{Attribute.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("id")) {
+                        return ConceptId.of("V" + i);
+                    } else if (method.getName().equals("value")) {
+                        return "name-" + i;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+
+    /**
+     * Output file that only counts its lines, so that the test does not need gigabytes of disk
+     */
+    private static class LineCounter extends Writer {
+        private long lines;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (buffer[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+
+        @Override
+        public void write(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    lines++;
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
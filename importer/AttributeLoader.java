@@ -0,0 +1,241 @@
+package migrate.importer;
+
+import grakn.client.GraknClient;
+import grakn.client.concept.ConceptId;
+import grakn.client.concept.type.AttributeType;
+import migrate.common.ChecksumManifest;
+import migrate.common.ExternalSort;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Import attribute files (`old ID, value` lines), `batchSize` attributes per write transaction. The value type is resolved
+ * once per file to a decoder, and values are decoded by the pipeline reader while the previous batch is being written.
+ * <p>
+ * An export can contain several old IDs with the same value, while Grakn keeps one attribute per value. Each file is
+ * therefore first sorted by value (spilling to disk for large files) and grouped into one line per distinct value,
+ * so that each value is created once and all its old IDs are mapped to the one new ID
+ */
+class AttributeLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(AttributeLoader.class);
+    static final String STAGE = "attribute";
+
+    // ties are broken by the whole line, so that a resumed import groups the file the same way again
+    private static final Comparator<String> BY_VALUE = Comparator.comparing(AttributeLoader::valueOf).thenComparing(Comparator.naturalOrder());
+
+    /**
+     * Turns the value field of a line into the value class of one attribute type
+     */
+    interface ValueDecoder {
+        Object decode(DataFileTokenizer.Token value);
+    }
+
+    private final IdMapping idRemapping;
+    private final SchemaCache schema;
+    private final int batchSize;
+    private final ExternalSort sorter;
+    private final Path stagingFolder;
+    private final GraqlBulkInsert graqlInsert;
+    private final ImportPipeline pipeline;
+    private final ImportJournal journal;
+
+    /**
+     * @param batchSize - attributes created per write transaction
+     * @param sorter - sorts the attribute files by value
+     * @param stagingFolder - directory of the grouped copies of the attribute files and of their sort runs
+     * @param graqlInsert - write batches as Graql insert queries, or through the concept API if null
+     * @param pipeline - reads the grouped files and hands batches to the writers
+     * @param journal - records committed batches, and the batches committed by a previous run to skip
+     */
+    AttributeLoader(IdMapping idRemapping, SchemaCache schema, int batchSize, ExternalSort sorter, Path stagingFolder, GraqlBulkInsert graqlInsert,
+                    ImportPipeline pipeline, ImportJournal journal) {
+        this.idRemapping = idRemapping;
+        this.schema = schema;
+        this.batchSize = batchSize;
+        this.sorter = sorter;
+        this.stagingFolder = stagingFolder;
+        this.graqlInsert = graqlInsert;
+        this.pipeline = pipeline;
+        this.journal = journal;
+    }
+
+    /**
+     * @param session - session of the calling worker
+     * @param attributeFile - attributes of one type
+     * @return - number of attributes imported
+     * @throws IOException
+     */
+    long importAttributeType(GraknClient.Session session, Path attributeFile) throws IOException {
+        String attributeName = attributeFile.getFileName().toString();
+        long start = System.nanoTime();
+
+        ValueDecoder decoder;
+        try (GraknClient.Transaction tx = session.transaction().read()) {
+            decoder = decoder(schema.attributeType(tx, attributeName).valueType().valueClass());
+        }
+
+        // next to the grouped file, as are the sorted copy and its runs
+        Path groupedFile = Files.createTempFile(stagingFolder, attributeName + ".", ".by-value");
+        long lines;
+        long imported;
+        try {
+            lines = groupByValue(attributeFile, groupedFile);
+
+            // every value appears once in the grouped file, so batches can be written concurrently
+            // without racing each other to create the same value
+            imported = pipeline.run(STAGE, attributeName, groupedFile, batchSize, pipeline.writersPerFile(), journal.committed(STAGE, attributeName), line -> {
+                String[] oldIds = line.nextField().toString().split(" ");
+                for (String oldId : oldIds) {
+                    idRemapping.checkId(oldId);
+                }
+                // the value is the rest of the line, with its commas escaped by the exporter
+                DataFileTokenizer.Token value = line.nextField();
+                return new ParsedAttribute(oldIds, decoder.decode(value), ChecksumManifest.valueDigest(value));
+            }, batch -> insertBatch(session, attributeName, batch));
+        } finally {
+            Files.deleteIfExists(groupedFile);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        LOG.info("Imported attribute type: " + attributeName + ", count: " + imported + ", " +
+                String.format("%.1f", seconds) + "s (" + String.format("%.1f", imported / Math.max(seconds, 0.001)) + " attributes/sec)" +
+                ", duplicate values: " + (lines - imported) + " of " + lines + " (" +
+                String.format("%.1f", 100.0 * (lines - imported) / Math.max(lines, 1)) + "%)");
+        return imported;
+    }
+
+    /**
+     * Write one `old ID old ID..., value` line per distinct value of the attribute file, in value order
+     *
+     * @return number of lines in the attribute file
+     */
+    long groupByValue(Path attributeFile, Path groupedFile) throws IOException {
+        Path sortedFile = Files.createTempFile(groupedFile.toAbsolutePath().getParent(), groupedFile.getFileName() + ".", ".sorted");
+        long lines = 0;
+        try {
+            sorter.sort(attributeFile, sortedFile, BY_VALUE);
+            try (BufferedReader reader = Files.newBufferedReader(sortedFile, StandardCharsets.UTF_8);
+                 BufferedWriter writer = Files.newBufferedWriter(groupedFile, StandardCharsets.UTF_8)) {
+                StringBuilder oldIds = new StringBuilder();
+                String value = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    // old IDs never contain commas, so the value is everything after the first one
+                    int separator = line.indexOf(',');
+                    String lineValue = line.substring(separator + 1);
+                    if (!lineValue.equals(value)) {
+                        writeGroup(writer, oldIds, value);
+                        oldIds.setLength(0);
+                        value = lineValue;
+                    } else {
+                        oldIds.append(' ');
+                    }
+                    oldIds.append(line, 0, separator);
+                }
+                writeGroup(writer, oldIds, value);
+            }
+        } finally {
+            Files.deleteIfExists(sortedFile);
+        }
+        return lines;
+    }
+
+    private static void writeGroup(BufferedWriter writer, StringBuilder oldIds, String value) throws IOException {
+        if (value != null) {
+            writer.append(oldIds).append(',').append(value).append('\n');
+        }
+    }
+
+    private static String valueOf(String line) {
+        return line.substring(line.indexOf(',') + 1);
+    }
+
+    /**
+     * Create the attributes of one batch in a single transaction. The old->new IDs are only recorded once the
+     * transaction commits
+     */
+    private void insertBatch(GraknClient.Session session, String attributeName, ImportPipeline.Batch<ParsedAttribute> batch) {
+        List<ParsedAttribute> attributes = batch.records();
+        List<ConceptId> newIds;
+        try (GraknClient.Transaction tx = session.transaction().write()) {
+            if (graqlInsert != null) {
+                List<Object> values = new ArrayList<>(attributes.size());
+                for (ParsedAttribute attribute : attributes) {
+                    values.add(attribute.value);
+                }
+                newIds = graqlInsert.insertAttributes(tx, attributeName, values);
+            } else {
+                newIds = new ArrayList<>(attributes.size());
+                AttributeType.Remote<Object> attributeType = schema.attributeType(tx, attributeName);
+                for (ParsedAttribute attribute : attributes) {
+                    newIds.add(attributeType.create(attribute.value).id());
+                }
+            }
+            tx.commit();
+        }
+
+        CommitRetry.afterCommit(() -> {
+            ImportJournal.Checkpoint checkpoint = journal.checkpoint(STAGE, attributeName);
+            // every old ID is counted, as the export listed each of them as an attribute of the value
+            long mapped = 0;
+            long digest = 0;
+            for (int i = 0; i < attributes.size(); i++) {
+                ParsedAttribute attribute = attributes.get(i);
+                for (String oldId : attribute.oldIds) {
+                    idRemapping.put(oldId, newIds.get(i));
+                    checkpoint.mapped(oldId, newIds.get(i));
+                }
+                mapped += attribute.oldIds.length;
+                digest += attribute.digest * attribute.oldIds.length;
+            }
+            checkpoint.counted(STAGE, attributeName, mapped, digest).commit(batch.start(), batch.end());
+        });
+    }
+
+    /**
+     * @param valueClass - value class of an attribute type
+     * @return decoder of the values of the attribute type
+     */
+    static ValueDecoder decoder(Class<?> valueClass) {
+        if (valueClass.equals(Long.class)) {
+            return DataFileTokenizer.Token::parseLong;
+        } else if (valueClass.equals(Double.class)) {
+            return DataFileTokenizer.Token::parseDouble;
+        } else if (valueClass.equals(String.class)) {
+            return DataFileTokenizer.Token::toString;
+        } else if (valueClass.equals(Boolean.class)) {
+            return DataFileTokenizer.Token::parseBoolean;
+        } else if (valueClass.equals(LocalDateTime.class)) {
+            return LocalDateTime::parse;
+        } else {
+            throw new RuntimeException("Unhandled valuetype: " + valueClass);
+        }
+    }
+
+    /**
+     * One distinct value of an attribute file, with every old ID that had the value and the digest of the value as exported
+     */
+    private static class ParsedAttribute {
+        private final String[] oldIds;
+        private final Object value;
+        private final long digest;
+
+        ParsedAttribute(String[] oldIds, Object value, long digest) {
+            this.oldIds = oldIds;
+            this.value = value;
+            this.digest = digest;
+        }
+    }
+}
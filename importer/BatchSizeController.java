@@ -0,0 +1,129 @@
+package migrate.importer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batch size of one type, adapted to how long its commits take: batches grow while commits are well under the target
+ * latency and shrink when they go over it, each step at most doubling or halving the size. Batches are also capped by
+ * the bytes of data file they were parsed from, so that a few large values or relations with many role players do not
+ * make one transaction too large. A batch that failed every attempt to commit cuts the size to a quarter.
+ * <p>
+ * The size is read by the pipeline reader while the writers report their commits, so it only applies to the batches
+ * built after a commit is reported. Every change is logged with its reason
+ */
+class BatchSizeController {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchSizeController.class);
+
+    private static final int MIN_BATCH_SIZE = 1;
+    // weight of the latest commit in the average time per record
+    private static final double SMOOTHING = 0.3;
+    // changes smaller than this fraction of the size are not worth making
+    private static final double MIN_CHANGE = 0.1;
+
+    /**
+     * Bounds shared by the controllers of every type
+     */
+    static class Limits {
+        private final boolean adaptive;
+        private final long targetLatencyNanos;
+        private final int maxBatchSize;
+        private final long maxBatchBytes;
+
+        /**
+         * @param adaptive - false to keep every batch size as configured, only capped by bytes
+         * @param targetLatencyMs - commit latency the batch sizes are adapted towards
+         * @param maxBatchSize - largest number of records per batch
+         * @param maxBatchBytes - largest batch, in bytes of data file
+         */
+        Limits(boolean adaptive, long targetLatencyMs, int maxBatchSize, long maxBatchBytes) {
+            this.adaptive = adaptive;
+            this.targetLatencyNanos = targetLatencyMs * 1_000_000;
+            this.maxBatchSize = maxBatchSize;
+            this.maxBatchBytes = maxBatchBytes;
+        }
+
+        /**
+         * @return limits that keep batches at their configured size
+         */
+        static Limits fixed() {
+            return new Limits(false, 0, Integer.MAX_VALUE, Long.MAX_VALUE);
+        }
+    }
+
+    private final String stage;
+    private final String name;
+    private final Limits limits;
+    private volatile int batchSize;
+    private double nanosPerRecord;
+
+    /**
+     * @param stage - stage of the type, for the log
+     * @param name - type whose batches are sized
+     * @param initialSize - batch size to start from
+     */
+    BatchSizeController(String stage, String name, int initialSize, Limits limits) {
+        this.stage = stage;
+        this.name = name;
+        this.limits = limits;
+        this.batchSize = Math.max(MIN_BATCH_SIZE, Math.min(initialSize, limits.maxBatchSize));
+    }
+
+    /**
+     * @return number of records the next batch may hold
+     */
+    int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return bytes of data file the next batch may be parsed from
+     */
+    long maxBatchBytes() {
+        return limits.maxBatchBytes;
+    }
+
+    /**
+     * Adapt the batch size to a committed batch
+     *
+     * @param records - records in the batch
+     * @param nanos - time taken to write and commit the batch
+     */
+    synchronized void committed(int records, long nanos) {
+        if (!limits.adaptive || records == 0) {
+            return;
+        }
+        double perRecord = (double) nanos / records;
+        nanosPerRecord = nanosPerRecord == 0 ? perRecord : SMOOTHING * perRecord + (1 - SMOOTHING) * nanosPerRecord;
+
+        long ideal = Math.round(limits.targetLatencyNanos / nanosPerRecord);
+        long next = ideal > batchSize ? Math.min(ideal, 2L * batchSize) : Math.max(ideal, batchSize / 2);
+        next = Math.max(MIN_BATCH_SIZE, Math.min(next, limits.maxBatchSize));
+        if (Math.abs(next - batchSize) < Math.max(1, MIN_CHANGE * batchSize)) {
+            return;
+        }
+        String reason = String.format("commits of %d records take %.0fms, %s the %dms target", records, nanos / 1_000_000.0,
+                next > batchSize ? "under" : "over", limits.targetLatencyNanos / 1_000_000);
+        change((int) next, reason);
+    }
+
+    /**
+     * Back off sharply after a batch failed every attempt to commit
+     */
+    synchronized void failed() {
+        if (!limits.adaptive) {
+            return;
+        }
+        // the failure says nothing reliable about the time per record
+        nanosPerRecord = 0;
+        int next = Math.max(MIN_BATCH_SIZE, batchSize / 4);
+        if (next != batchSize) {
+            change(next, "commit failed");
+        }
+    }
+
+    private void change(int next, String reason) {
+        LOG.info("Batch size of " + stage + " type: " + name + " changed from " + batchSize + " to " + next + ", " + reason);
+        batchSize = next;
+    }
+}
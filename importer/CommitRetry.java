@@ -0,0 +1,128 @@
+package migrate.importer;
+
+import migrate.common.MigrationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.UncheckedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries write transactions that failed, typically because the server was busy, waiting an exponentially growing
+ * and randomly jittered time between attempts so that the writers of a busy server do not all come back at once.
+ * <p>
+ * A transaction is retried as a whole: the loaders only record their old->new IDs once a transaction commits, so an
+ * attempt that failed leaves nothing behind to undo. Failures of the importer's own files (the journal, the mapped ID
+ * store), and any failure while the loaders record a committed transaction (see `afterCommit`), are not retried, as
+ * that would write the batch twice
+ */
+class CommitRetry {
+    private static final Logger LOG = LoggerFactory.getLogger(CommitRetry.class);
+
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final int attempts;
+    private final long backoffMs;
+    private final MigrationMetrics metrics;
+
+    /**
+     * @param attempts - attempts per transaction, including the first one
+     * @param backoffMs - longest wait before the first retry, doubling for every retry after it
+     * @param metrics - live metrics of the import, counting the retries
+     */
+    CommitRetry(int attempts, long backoffMs, MigrationMetrics metrics) {
+        this.attempts = attempts;
+        this.backoffMs = backoffMs;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return attempts per transaction, including the first one
+     */
+    int attempts() {
+        return attempts;
+    }
+
+    /**
+     * Failure while recording a transaction that has committed, which must not be retried
+     */
+    static class CommittedException extends RuntimeException {
+        CommittedException(String message, RuntimeException cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * @return false for failures that must not be retried
+     */
+    static boolean retryable(RuntimeException failure) {
+        return !(failure instanceof UncheckedIOException || failure instanceof CommittedException);
+    }
+
+    /**
+     * Record what a committed transaction created, from within the transaction passed to `run`
+     *
+     * @param recording - puts the old->new IDs and journals the transaction
+     * @throws CommittedException - if the recording fails, so that the committed transaction is not run again
+     */
+    static void afterCommit(Runnable recording) {
+        try {
+            recording.run();
+        } catch (RuntimeException e) {
+            if (!retryable(e)) {
+                throw e;
+            }
+            throw new CommittedException("Failed to record a committed transaction: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Run a transaction, retrying it up to the configured number of attempts
+     *
+     * @param stage - stage of the transaction, for the log and the metrics
+     * @param name - type written by the transaction, for the log and the metrics
+     * @param transaction - opens, writes and commits one transaction
+     * @throws RuntimeException - the failure of the last attempt, or the first failure that is not retryable
+     */
+    void run(String stage, String name, Runnable transaction) {
+        run(stage, name, attempts, transaction);
+    }
+
+    /**
+     * Run a transaction, retrying it up to `attempts` times
+     */
+    void run(String stage, String name, int attempts, Runnable transaction) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transaction.run();
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= attempts || !retryable(e)) {
+                    throw e;
+                }
+                long backoff = backoff(attempt);
+                LOG.warn("Retrying transaction of " + stage + " type: " + name + " in " + backoff + "ms, attempt " +
+                        attempt + " of " + attempts + " failed: " + e);
+                metrics.counter(MigrationMetrics.Metric.RETRIES, stage, name).increment();
+                sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * @return random wait after the failed attempt, up to a bound that doubles with every attempt ("full jitter")
+     */
+    long backoff(int attempt) {
+        long bound = Math.min(MAX_BACKOFF_MS, backoffMs << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting to retry a transaction", e);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+import migrate.common.Hashing;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Heap-backed ID mapping that stores concept IDs as primitive longs rather than Strings and ConceptIds.
+ * <p>
+ * Grakn concept IDs are a one letter prefix followed by a decimal number (eg. `V123456`), which are encoded as
+ * (prefix << 56 | number). Mappings live in open-addressing tables of interleaved key/value longs, costing roughly
+ * 16 bytes per slot instead of the 150+ bytes of a HashMap entry with String keys and ConceptId values.
+ * <p>
+ * The key space is split over independently locked stripes, so concurrent import workers rarely contend;
+ * lookups use optimistic reads and are lock-free unless they race with a write to the same stripe.
+ * IDs that do not fit the encoding fall back to a ConcurrentHashMap.
+ */
+class CompactIdMapping implements IdMapping {
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+    private static final int INITIAL_STRIPE_CAPACITY = 1 << 10;
+    private static final double MAX_LOAD = 0.6;
+
+    private static final long EMPTY = 0L;
+    // stored as the value of an encodable key whose new ID is not encodable, which then lives in the fallback map
+    private static final long IN_FALLBACK = -1L;
+
+    private static final int MAX_DIGITS = 15;
+    private static final long NUMBER_MASK = (1L << 56) - 1;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final Map<String, ConceptId> fallback = new ConcurrentHashMap<>();
+
+    CompactIdMapping() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    @Override
+    public void put(String oldId, ConceptId newId) {
+        long key = encode(oldId);
+        if (key == EMPTY) {
+            fallback.put(oldId, newId);
+            return;
+        }
+
+        long value = encode(newId.getValue());
+        if (value == EMPTY) {
+            fallback.put(oldId, newId);
+            value = IN_FALLBACK;
+        }
+        long hash = mix(key);
+        stripe(hash).put(key, value, hash);
+    }
+
+    @Override
+    public ConceptId get(String oldId) {
+        long key = encode(oldId);
+        if (key == EMPTY) {
+            return fallback.get(oldId);
+        }
+
+        long hash = mix(key);
+        long value = stripe(hash).get(key, hash);
+        if (value == EMPTY) {
+            return null;
+        } else if (value == IN_FALLBACK) {
+            return fallback.get(oldId);
+        } else {
+            return ConceptId.of(decode(value));
+        }
+    }
+
+    @Override
+    public boolean contains(String oldId) {
+        long key = encode(oldId);
+        if (key == EMPTY) {
+            return fallback.containsKey(oldId);
+        }
+        long hash = mix(key);
+        return stripe(hash).get(key, hash) != EMPTY;
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        // encodable keys with unencodable values are counted in both
+        for (String oldId : fallback.keySet()) {
+            if (encode(oldId) == EMPTY) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+        fallback.clear();
+    }
+
+    /**
+     * @param encodable - mappings whose old and new IDs both fit the encoding
+     * @return heap taken by the tables holding them once the key space is evenly spread over the stripes. Other
+     * mappings take as much as in a {@link InMemoryIdMapping}
+     */
+    static long tableBytes(long encodable) {
+        long perStripe = (encodable + STRIPES - 1) / STRIPES;
+        long capacity = INITIAL_STRIPE_CAPACITY;
+        while (perStripe > capacity * MAX_LOAD) {
+            capacity <<= 1;
+        }
+        // a key and a value per slot
+        return STRIPES * capacity * 2 * Long.BYTES;
+    }
+
+    private Stripe stripe(long hash) {
+        return stripes[(int) (hash >>> (64 - STRIPE_BITS))];
+    }
+
+    /**
+     * @return the ID encoded as (prefix << 56 | number), or 0 if the ID does not have the form
+     * [ASCII letter][decimal number without leading zeros]
+     */
+    static long encode(CharSequence id) {
+        int length = id.length();
+        if (length < 2 || length > MAX_DIGITS + 1) {
+            return EMPTY;
+        }
+        char prefix = id.charAt(0);
+        if (!((prefix >= 'A' && prefix <= 'Z') || (prefix >= 'a' && prefix <= 'z'))) {
+            return EMPTY;
+        }
+        if (id.charAt(1) == '0' && length > 2) {
+            return EMPTY;
+        }
+        long number = 0;
+        for (int i = 1; i < length; i++) {
+            char digit = id.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return EMPTY;
+            }
+            number = number * 10 + (digit - '0');
+        }
+        return ((long) prefix << 56) | number;
+    }
+
+    static String decode(long encoded) {
+        char prefix = (char) (encoded >>> 56);
+        return prefix + Long.toString(encoded & NUMBER_MASK);
+    }
+
+    /**
+     * The top bits pick the stripe, the bottom bits the slot
+     */
+    private static long mix(long key) {
+        return Hashing.mix(key);
+    }
+
+    /**
+     * One open-addressing table with linear probing. Keys and values are interleaved in a single array so that an
+     * optimistic reader always sees a key and value array of the same generation
+     */
+    private static class Stripe {
+        private final StampedLock lock = new StampedLock();
+        private long[] table = new long[INITIAL_STRIPE_CAPACITY * 2];
+        private int size;
+
+        long get(long key, long hash) {
+            long stamp = lock.tryOptimisticRead();
+            long value = find(table, key, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    value = find(table, key, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return value;
+        }
+
+        void put(long key, long value, long hash) {
+            long stamp = lock.writeLock();
+            try {
+                int capacity = table.length / 2;
+                if (size + 1 > capacity * MAX_LOAD) {
+                    table = resized(table, capacity * 2);
+                }
+                if (insert(table, key, value, hash)) {
+                    size++;
+                }
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private static long find(long[] table, long key, long hash) {
+            int mask = table.length / 2 - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                long slotKey = table[slot * 2];
+                if (slotKey == key) {
+                    return table[slot * 2 + 1];
+                } else if (slotKey == EMPTY) {
+                    return EMPTY;
+                }
+            }
+        }
+
+        /**
+         * @return true if the key was not present yet
+         */
+        private static boolean insert(long[] table, long key, long value, long hash) {
+            int mask = table.length / 2 - 1;
+            for (int slot = (int) hash & mask; ; slot = (slot + 1) & mask) {
+                long slotKey = table[slot * 2];
+                if (slotKey == key) {
+                    table[slot * 2 + 1] = value;
+                    return false;
+                } else if (slotKey == EMPTY) {
+                    table[slot * 2 + 1] = value;
+                    table[slot * 2] = key;
+                    return true;
+                }
+            }
+        }
+
+        private static long[] resized(long[] table, int newCapacity) {
+            long[] larger = new long[newCapacity * 2];
+            for (int slot = 0; slot < table.length / 2; slot++) {
+                long key = table[slot * 2];
+                if (key != EMPTY) {
+                    insert(larger, key, table[slot * 2 + 1], mix(key));
+                }
+            }
+            return larger;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package migrate.importer;
+
+import migrate.common.ChecksumManifest;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streaming tokenizer over a memory-mapped export data file, one line at a time.
+ * <p>
+ * Fields are separated by commas, and relation lines group a role label with its role players in parentheses:
+ * `id,(role,id,id),(role,id),`. In exports whose values are escaped, a backslash escapes the next character, so
+ * attribute values may contain commas (`\,`), backslashes (`\\`) and line breaks (`\n`, `\r`). Exports written
+ * before values were escaped (see {@link ChecksumManifest#escaping()}) are read with backslashes as plain characters.
+ * Fields are returned as a single reused {@link Token} that views the mapped bytes, so nothing is allocated per line
+ * unless a token is turned into a String. Not thread safe
+ */
+class DataFileTokenizer implements AutoCloseable {
+    // files are mapped in windows of this size, which is also the longest line supported
+    private static final long WINDOW_SIZE = 1L << 28;
+
+    private final FileChannel channel;
+    // whether backslashes escape the next character
+    private final boolean escaped;
+    private final long size;
+    // lines starting at or after this offset are left to the next range
+    private final long rangeEnd;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLimit;
+
+    // window indices of the current line and of the line after it
+    private int lineStart;
+    private int contentEnd;
+    private int nextLine;
+    private int position;
+    private boolean inGroup;
+    // whether the last field ended at a comma, so that an empty field follows at the end of the line
+    private boolean afterSeparator;
+
+    private final Token token = new Token();
+    private byte[] scratch = new byte[256];
+
+    DataFileTokenizer(Path file) throws IOException {
+        this(file, 0, Long.MAX_VALUE, true);
+    }
+
+    /**
+     * @param escaped - whether attribute values are escaped, as in every export with a manifest
+     */
+    DataFileTokenizer(Path file, boolean escaped) throws IOException {
+        this(file, 0, Long.MAX_VALUE, escaped);
+    }
+
+    DataFileTokenizer(Path file, long from, long to) throws IOException {
+        this(file, from, to, true);
+    }
+
+    /**
+     * Tokenize the lines that start within a byte range of the file, so that a file can be read in parallel by
+     * splitting it into ranges at any offsets
+     *
+     * @param from - offset of the range; a line that started before it is left to the previous range
+     * @param to - offset after the range; the last line starting before it is read to its end
+     * @param escaped - whether attribute values are escaped, as in every export with a manifest
+     */
+    DataFileTokenizer(Path file, long from, long to, boolean escaped) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.escaped = escaped;
+        this.size = channel.size();
+        this.rangeEnd = Math.min(to, size);
+        if (from == 0 || from >= size) {
+            map(Math.min(from, size));
+        } else {
+            // the range starts after the first line feed from the byte before it
+            map(from - 1);
+            nextLine = Math.min(find(0) + 1, windowLimit);
+        }
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        windowLimit = (int) Math.min(WINDOW_SIZE, size - start);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, windowLimit);
+    }
+
+    /**
+     * Move to the next line
+     *
+     * @return false at the end of the file
+     */
+    boolean nextLine() throws IOException {
+        if (windowStart + nextLine >= rangeEnd) {
+            return false;
+        }
+
+        int lineFeed = find(nextLine);
+        if (lineFeed == windowLimit && windowStart + windowLimit < size) {
+            // the line continues past the window, so map a new window starting at the line
+            map(windowStart + nextLine);
+            nextLine = 0;
+            lineFeed = find(0);
+            if (lineFeed == windowLimit && windowStart + windowLimit < size) {
+                throw new IOException("Line at byte " + windowStart + " is longer than " + WINDOW_SIZE + " bytes");
+            }
+        }
+
+        lineStart = nextLine;
+        position = nextLine;
+        contentEnd = lineFeed;
+        if (contentEnd > lineStart && window.get(contentEnd - 1) == '\r') {
+            contentEnd--;
+        }
+        nextLine = Math.min(lineFeed + 1, windowLimit);
+        inGroup = false;
+        afterSeparator = false;
+        return true;
+    }
+
+    private int find(int from) {
+        for (int i = from; i < windowLimit; i++) {
+            if (window.get(i) == '\n') {
+                return i;
+            }
+        }
+        return windowLimit;
+    }
+
+    /**
+     * @return offset in the file of the first byte of the current line
+     */
+    long lineStart() {
+        return windowStart + lineStart;
+    }
+
+    /**
+     * @return offset in the file of the first byte of the next line
+     */
+    long offset() {
+        return windowStart + nextLine;
+    }
+
+    /**
+     * @return the next field of the line or of the current role group, or null at the end of either. A line ending in
+     * a comma ends with an empty field, eg. the empty value of `V1,`. The token is only valid until the next call to
+     * the tokenizer
+     */
+    Token nextField() {
+        if (position >= contentEnd) {
+            if (afterSeparator) {
+                afterSeparator = false;
+                token.set(contentEnd, contentEnd, false, true);
+                return token;
+            }
+            return null;
+        }
+        if (inGroup && window.get(position) == ')') {
+            inGroup = false;
+            position++;
+            if (position < contentEnd && window.get(position) == ',') {
+                position++;
+            }
+            return null;
+        }
+
+        int start = position;
+        boolean escaped = false;
+        boolean ascii = true;
+        while (position < contentEnd) {
+            byte b = window.get(position);
+            if (this.escaped && b == '\\' && position + 1 < contentEnd) {
+                escaped = true;
+                position += 2;
+                continue;
+            }
+            if (b == ',' || (inGroup && b == ')')) {
+                break;
+            }
+            if (b < 0) {
+                ascii = false;
+            }
+            position++;
+        }
+        token.set(start, position, escaped, ascii);
+        afterSeparator = false;
+        if (position < contentEnd && window.get(position) == ',') {
+            position++;
+            // the groups of relation lines are each followed by a comma, but are not read as fields
+            afterSeparator = !inGroup;
+        }
+        return token;
+    }
+
+    /**
+     * Move into the next `(role, player, player...)` group of a relation line, whose fields are then
+     * returned by `nextField` until it returns null at the closing parenthesis
+     *
+     * @return false if the line has no more groups
+     */
+    boolean nextGroup() {
+        while (position < contentEnd && window.get(position) != '(') {
+            position++;
+        }
+        if (position == contentEnd) {
+            return false;
+        }
+        position++;
+        inGroup = true;
+        afterSeparator = false;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Flyweight view of one field of the current line. The escape sequences of an escaped data file are decoded by
+     * `toString` and the other accessors
+     */
+    class Token implements CharSequence {
+        private int start;
+        private int end;
+        private boolean escaped;
+        private boolean ascii;
+        private String decoded;
+
+        private void set(int start, int end, boolean escaped, boolean ascii) {
+            this.start = start;
+            this.end = end;
+            this.escaped = escaped;
+            this.ascii = ascii;
+            this.decoded = null;
+        }
+
+        // plain tokens can be read byte by byte as characters
+        private boolean plain() {
+            return ascii && !escaped;
+        }
+
+        @Override
+        public int length() {
+            return plain() ? end - start : toString().length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return plain() ? (char) window.get(start + index) : toString().charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().subSequence(from, to);
+        }
+
+        boolean contentEquals(String other) {
+            if (!plain()) {
+                return toString().equals(other);
+            }
+            if (other.length() != end - start) {
+                return false;
+            }
+            for (int i = 0; i < other.length(); i++) {
+                if (window.get(start + i) != other.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long parseLong() {
+            int i = start;
+            boolean negative = i < end && window.get(i) == '-';
+            if (negative || (i < end && window.get(i) == '+')) {
+                i++;
+            }
+            // up to 18 digits cannot overflow, longer numbers take the JDK's checks
+            if (!plain() || i == end || end - i > 18) {
+                return Long.parseLong(toString());
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = window.get(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("For input string: \"" + this + "\"");
+                }
+                value = value * 10 + digit;
+            }
+            return negative ? -value : value;
+        }
+
+        double parseDouble() {
+            return Double.parseDouble(toString());
+        }
+
+        boolean parseBoolean() {
+            if (!plain() || end - start != 4) {
+                return Boolean.parseBoolean(toString());
+            }
+            String expected = "true";
+            for (int i = 0; i < 4; i++) {
+                if (Character.toLowerCase((char) window.get(start + i)) != expected.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            if (decoded == null) {
+                int length = 0;
+                if (scratch.length < end - start) {
+                    scratch = Arrays.copyOf(scratch, Math.max(scratch.length * 2, end - start));
+                }
+                for (int i = start; i < end; i++) {
+                    byte b = window.get(i);
+                    if (escaped && b == '\\' && i + 1 < end) {
+                        byte next = window.get(++i);
+                        if (next == 'n') {
+                            b = '\n';
+                        } else if (next == 'r') {
+                            b = '\r';
+                        } else if (next == '\\' || next == ',') {
+                            b = next;
+                        } else {
+                            // not an escape written by the exporter: keep it as it is
+                            scratch[length++] = '\\';
+                            b = next;
+                        }
+                    }
+                    scratch[length++] = b;
+                }
+                decoded = new String(scratch, 0, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+            }
+            return decoded;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package migrate.importer;
+
+import grakn.client.GraknClient;
+import grakn.client.concept.ConceptId;
+import grakn.client.concept.type.EntityType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Import entity files (one old entity ID per line), creating `batchSize` entities per write transaction.
+ * Safe to use from several import workers at once, and batches of one file are written by several pipeline writers
+ */
+class EntityLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(EntityLoader.class);
+    static final String STAGE = "entity";
+
+    private final IdMapping idRemapping;
+    private final SchemaCache schema;
+    private final int batchSize;
+    private final GraqlBulkInsert graqlInsert;
+    private final ImportPipeline pipeline;
+    private final ImportJournal journal;
+
+    /**
+     * @param graqlInsert - write batches as Graql insert queries, or through the concept API if null
+     * @param pipeline - reads the files and hands batches to the writers
+     * @param journal - records committed batches, and the batches committed by a previous run to skip
+     */
+    EntityLoader(IdMapping idRemapping, SchemaCache schema, int batchSize, GraqlBulkInsert graqlInsert, ImportPipeline pipeline, ImportJournal journal) {
+        this.idRemapping = idRemapping;
+        this.schema = schema;
+        this.batchSize = batchSize;
+        this.graqlInsert = graqlInsert;
+        this.pipeline = pipeline;
+        this.journal = journal;
+    }
+
+    /**
+     * @param session - session of the calling worker
+     * @param entityName - entity type to create instances of
+     * @param entityFile - file of old entity IDs, in the text or the binary format
+     * @return - number of entities imported
+     * @throws IOException
+     */
+    long importEntityType(GraknClient.Session session, String entityName, Path entityFile) throws IOException {
+        long start = System.nanoTime();
+        // each line is an old ID, and blank lines (eg. a trailing one) hold no entity
+        long imported = pipeline.run(STAGE, entityName, entityFile, batchSize, pipeline.writersPerFile(), journal.committed(STAGE, entityName),
+                line -> {
+                    DataFileTokenizer.Token oldId = line.nextField();
+                    return oldId == null ? null : checked(oldId.toString());
+                }, new ImportPipeline.RecordParser<String>() {
+                    @Override
+                    public void entity(String oldId) {
+                        parsed(checked(oldId));
+                    }
+                }, batch -> insertBatch(session, entityName, batch));
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        LOG.info("Imported entity type: " + entityName + ", count: " + imported + ", " +
+                String.format("%.1f", seconds) + "s (" + String.format("%.1f", imported / Math.max(seconds, 0.001)) + " entities/sec)");
+        return imported;
+    }
+
+    private String checked(String oldId) {
+        idRemapping.checkId(oldId);
+        return oldId;
+    }
+
+    /**
+     * Create one entity per old ID in a single transaction. The old->new IDs are only
+     * recorded once the transaction commits, so a failed batch leaves no dangling mappings
+     */
+    private void insertBatch(GraknClient.Session session, String entityName, ImportPipeline.Batch<String> batch) {
+        List<String> oldIds = batch.records();
+        List<ConceptId> newIds;
+        try (GraknClient.Transaction tx = session.transaction().write()) {
+            if (graqlInsert != null) {
+                newIds = graqlInsert.insertEntities(tx, entityName, oldIds.size());
+            } else {
+                newIds = new ArrayList<>(oldIds.size());
+                EntityType.Remote entityType = schema.entityType(tx, entityName);
+                for (int i = 0; i < oldIds.size(); i++) {
+                    newIds.add(entityType.create().id());
+                }
+            }
+            tx.commit();
+        }
+
+        CommitRetry.afterCommit(() -> {
+            ImportJournal.Checkpoint checkpoint = journal.checkpoint(STAGE, entityName);
+            for (int i = 0; i < newIds.size(); i++) {
+                idRemapping.put(oldIds.get(i), newIds.get(i));
+                checkpoint.mapped(oldIds.get(i), newIds.get(i));
+            }
+            checkpoint.counted(STAGE, entityName, newIds.size(), 0).commit(batch.start(), batch.end());
+        });
+    }
+}
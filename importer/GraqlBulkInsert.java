@@ -0,0 +1,138 @@
+package migrate.importer;
+
+import grakn.client.GraknClient;
+import grakn.client.answer.ConceptMap;
+import grakn.client.concept.ConceptId;
+import graql.lang.Graql;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Alternative to the concept API for writing a batch of concepts: the whole batch is rendered as one multi-statement
+ * Graql `insert` query (with a `match ... id` clause for existing role players and owners), executed in one round trip,
+ * and the new concept IDs are read back from the single answer
+ */
+class GraqlBulkInsert {
+
+    /**
+     * @return the IDs of `count` new entities of the given type
+     */
+    List<ConceptId> insertEntities(GraknClient.Transaction tx, String entityType, int count) {
+        StringBuilder query = new StringBuilder("insert ");
+        for (int i = 0; i < count; i++) {
+            query.append("$x").append(i).append(" isa ").append(entityType).append("; ");
+        }
+        return newIds(execute(tx, query), count);
+    }
+
+    /**
+     * @return the IDs of the attributes with the given values, in the same order
+     */
+    List<ConceptId> insertAttributes(GraknClient.Transaction tx, String attributeType, List<Object> values) {
+        StringBuilder query = new StringBuilder("insert ");
+        for (int i = 0; i < values.size(); i++) {
+            query.append("$x").append(i).append(" ").append(literal(values.get(i))).append(" isa ").append(attributeType).append("; ");
+        }
+        return newIds(execute(tx, query), values.size());
+    }
+
+    /**
+     * @param rolePlayers - for each relation to insert, the new IDs of the players of each role
+     * @return the IDs of the new relations, in the same order
+     */
+    List<ConceptId> insertRelations(GraknClient.Transaction tx, String relationType, List<Map<String, Set<ConceptId>>> rolePlayers) {
+        StringBuilder match = new StringBuilder("match ");
+        Map<ConceptId, String> playerVariables = new HashMap<>();
+        StringBuilder insert = new StringBuilder("insert ");
+        for (int i = 0; i < rolePlayers.size(); i++) {
+            insert.append("$x").append(i).append(" (");
+            boolean first = true;
+            for (Map.Entry<String, Set<ConceptId>> role : rolePlayers.get(i).entrySet()) {
+                for (ConceptId player : role.getValue()) {
+                    if (!first) {
+                        insert.append(", ");
+                    }
+                    first = false;
+                    insert.append(role.getKey()).append(": ").append(variable(player, playerVariables, match));
+                }
+            }
+            insert.append(") isa ").append(relationType).append("; ");
+        }
+        return newIds(execute(tx, matchInsert(match, playerVariables, insert)), rolePlayers.size());
+    }
+
+    /**
+     * Attach each attribute to the owner at the same position
+     */
+    void insertOwnerships(GraknClient.Transaction tx, String attributeType, List<ConceptId> owners, List<ConceptId> attributes) {
+        StringBuilder match = new StringBuilder("match ");
+        Map<ConceptId, String> variables = new HashMap<>();
+        StringBuilder insert = new StringBuilder("insert ");
+        for (int i = 0; i < owners.size(); i++) {
+            insert.append(variable(owners.get(i), variables, match)).append(" has ").append(attributeType).append(" ")
+                    .append(variable(attributes.get(i), variables, match)).append("; ");
+        }
+        execute(tx, matchInsert(match, variables, insert));
+    }
+
+    /**
+     * @return the variable bound to the existing concept, adding it to the match clause the first time it is seen
+     */
+    private static String variable(ConceptId id, Map<ConceptId, String> variables, StringBuilder match) {
+        String variable = variables.get(id);
+        if (variable == null) {
+            variable = "$m" + variables.size();
+            variables.put(id, variable);
+            match.append(variable).append(" id ").append(id.getValue()).append("; ");
+        }
+        return variable;
+    }
+
+    private static StringBuilder matchInsert(StringBuilder match, Map<ConceptId, String> variables, StringBuilder insert) {
+        return variables.isEmpty() ? insert : match.append(insert);
+    }
+
+    private static ConceptMap execute(GraknClient.Transaction tx, StringBuilder query) {
+        List<ConceptMap> answers = tx.execute(Graql.parse(query.toString()).asInsert()).get();
+        if (answers.size() != 1) {
+            throw new IllegalStateException("Expected one answer to bulk insert, got " + answers.size() + ": a matched concept may not exist");
+        }
+        return answers.get(0);
+    }
+
+    private static List<ConceptId> newIds(ConceptMap answer, int count) {
+        List<ConceptId> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(answer.get("x" + i).id());
+        }
+        return ids;
+    }
+
+    /**
+     * Render a value parsed from an attribute file as a Graql literal
+     */
+    static String literal(Object value) {
+        if (value instanceof String) {
+            String escaped = ((String) value).replace("\\", "\\\\").replace("\"", "\\\"");
+            return "\"" + escaped + "\"";
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                throw new IllegalArgumentException("Cannot write " + number + " as a Graql literal");
+            }
+            // avoid the scientific notation of Double.toString, which Graql does not parse
+            String plain = new BigDecimal(Double.toString(number)).toPlainString();
+            return plain.contains(".") ? plain : plain + ".0";
+        } else if (value instanceof Long || value instanceof Boolean || value instanceof LocalDateTime) {
+            return value.toString();
+        } else {
+            throw new IllegalArgumentException("Unhandled value type: " + value.getClass());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+
+/**
+ * Store of old concept ID (from the exported keyspace) to new concept ID (in the target keyspace).
+ * Implementations must be safe to use from several import workers concurrently
+ */
+interface IdMapping extends AutoCloseable {
+
+    void put(String oldId, ConceptId newId);
+
+    /**
+     * @return the new concept ID, or null if the old ID has not been imported yet
+     */
+    ConceptId get(String oldId);
+
+    default boolean contains(String oldId) {
+        return get(oldId) != null;
+    }
+
+    /**
+     * Check that the old ID can be put, when its record is parsed: a put that fails once the record is committed
+     * stops the import
+     *
+     * @throws IllegalArgumentException - if the store cannot hold the ID
+     */
+    default void checkId(String oldId) {
+    }
+
+    long size();
+
+    /**
+     * @return length of the import journal whose mappings were all durably in the store when it was opened, so that
+     * only the mappings journaled after it need to be restored on resume. 0 for stores that do not persist mappings
+     */
+    default long journalOffset() {
+        return 0;
+    }
+
+    /**
+     * Make every mapping put so far durable, as covering the import journal up to the given length. Ignored by stores
+     * that do not persist mappings
+     */
+    default void sync(long journalOffset) {
+    }
+
+    @Override
+    void close();
+}
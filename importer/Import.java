@@ -2,86 +2,214 @@ package migrate.importer;
 
 import grakn.client.GraknClient;
 import grakn.client.answer.Numeric;
-import grakn.client.concept.Concept;
-import grakn.client.concept.ConceptId;
-import grakn.client.concept.thing.Attribute;
-import grakn.client.concept.thing.Relation;
-import grakn.client.concept.type.AttributeType;
-import grakn.client.concept.type.EntityType;
-import grakn.client.concept.type.RelationType;
-import grakn.client.concept.type.Role;
 import graql.lang.Graql;
 import graql.lang.query.GraqlCompute;
+import migrate.common.ChecksumManifest;
+import migrate.common.ExternalSort;
+import migrate.common.MetricsReporter;
+import migrate.common.MigrationMetrics;
+import migrate.common.TextDataFileWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+import static migrate.importer.ImportWorkerPool.dataFiles;
 import static migrate.importer.Schema.importSchema;
 
 
 public class Import {
     private static final Logger LOG = LoggerFactory.getLogger(Import.class);
+    static final long MAPPED_ID_STORE_INITIAL_SIZE = 1 << 20;
 
     public static void main(String[] args) throws IOException {
 
-        if (args.length != 3) {
-            System.out.println("Error - correct arguments: [absolute data directory] [grakn URI] [target keyspace]");
+        ImportOptions options = ImportOptions.parse(args);
+        if (options == null) {
+            System.out.println(ImportOptions.USAGE);
             System.exit(1);
         }
 
-        String importDirectory = args[0];
-        String graknUri = args[1];
-        String targetKeyspace = args[2];
+        String graknUri = options.graknUri();
+        String targetKeyspace = options.targetKeyspace();
 
         GraknClient client = new GraknClient(graknUri);
-        Path importPath = Paths.get(importDirectory);
+        Path importPath = options.importPath();
 
         GraknClient.Session session = client.session(targetKeyspace);
 
-        LOG.info("Importing schema...");
-        importSchema(session, importPath);
+        MigrationMetrics metrics = new MigrationMetrics();
+        MetricsReporter metricsReporter = new MetricsReporter(metrics, options.metricsPort(), options.metricsSnapshot());
 
-        List<Integer> startingCounts = computeCounts(session);
+        // shared between all import workers
+        IdMapping idRemapping = openIdMapping(options);
+        ImportJournal journal = options.resume() ?
+                ImportJournal.resume(options.journalPath(), idRemapping) :
+                ImportJournal.create(options.journalPath(), idRemapping);
 
-        Map<String, ConceptId> idRemapping = new HashMap<>();
+        if (!journal.isComplete(ImportJournal.SCHEMA_PHASE)) {
+            LOG.info("Importing schema...");
+            importSchema(session, importPath);
+            journal.completePhase(ImportJournal.SCHEMA_PHASE);
+        }
 
-        LOG.info("\nImporting entities...");
-        importEntities(session, importPath, idRemapping);
-        LOG.info("\nImporting attributes...");
-        importAttributes(session, importPath, idRemapping);
-        LOG.info("\nImporting complete relations and ownerships...");
-        List<IncompleteRelation> incompleteRelations = importRelations(session, importPath, idRemapping);
-        List<IncompleteOwnership> incompleteOwnerships = importOwnerships(session, importPath, idRemapping);
+        // exports without a checksum manifest can only be checked by counting the keyspace before and after the import
+        Path manifestFile = importPath.resolve(ChecksumManifest.FILE_NAME);
+        boolean hasManifest = Files.exists(manifestFile);
+        ChecksumManifest exported = hasManifest ? ChecksumManifest.read(manifestFile) : null;
+        // exports without a manifest were written before attribute values were escaped
+        boolean escapedValues = hasManifest;
+        if (hasManifest && exported.escaping() > TextDataFileWriter.ESCAPING_VERSION) {
+            throw new IllegalStateException("Unsupported escaping of attribute values: " + exported.escaping() + ", expected up to: " +
+                    TextDataFileWriter.ESCAPING_VERSION);
+        }
+        List<Integer> startingCounts = journal.startingCounts();
+        if (!hasManifest && startingCounts == null) {
+            startingCounts = computeCounts(session);
+            journal.startingCounts(startingCounts);
+        }
+        SchemaCache schema = SchemaCache.load(session);
+
+        CommitRetry retry = new CommitRetry(options.commitAttempts(), options.retryBackoffMs(), metrics);
+        Quarantine quarantine = Quarantine.create(options.quarantinePath(), options.maxQuarantined());
+        ImportPipeline pipeline = new ImportPipeline(options.pipelineQueueCapacity(), options.pipelineWriters(), options.batchLimits(), metrics,
+                retry, quarantine, escapedValues);
+        ExternalSort sorter = new ExternalSort(options.sortBufferLines());
+        // sorted copies of the data files are as large as the files, so they are kept out of the temporary directory
+        Path stagingPath = Files.createDirectories(options.stagingPath());
+        OwnershipLoader ownershipLoader = new OwnershipLoader(idRemapping, options.batchSize(), sorter, importPath.resolve(OwnershipLoader.BY_OWNER_FOLDER),
+                stagingPath, graqlInsert(options, ImportOptions.Phase.OWNERSHIP), pipeline, journal);
+
+        List<IncompleteRelation> incompleteRelations;
+        List<IncompleteOwnership> incompleteOwnerships;
+        if (journal.isComplete(ImportJournal.DATA_PHASE)) {
+            LOG.info("\nData files were imported by a previous run, restoring incomplete relations and ownerships...");
+            incompleteRelations = journal.incompleteRelations();
+            incompleteOwnerships = journal.incompleteOwnerships();
+        } else {
+            incompleteRelations = Collections.synchronizedList(new ArrayList<>());
+            incompleteOwnerships = Collections.synchronizedList(new ArrayList<>());
+
+            try (ImportWorkerPool workers = new ImportWorkerPool(client, targetKeyspace, options.workers(), stagingPath)) {
+                LOG.info("\nImporting entities and attributes...");
+                EntityLoader entityLoader = new EntityLoader(idRemapping, schema, options.batchSize(), graqlInsert(options, ImportOptions.Phase.ENTITY), pipeline, journal);
+                AttributeLoader attributeLoader = new AttributeLoader(idRemapping, schema, options.attributeBatchSize(), sorter, stagingPath,
+                        graqlInsert(options, ImportOptions.Phase.ATTRIBUTE), pipeline, journal);
+                workers.startPhase("entities and attributes")
+                        .submitRecords(dataFiles(importPath.resolve("entity")), (workerSession, entityFile) ->
+                                entityLoader.importEntityType(workerSession, entityFile.getFileName().toString(), entityFile))
+                        .submit(dataFiles(importPath.resolve("attribute")), attributeLoader::importAttributeType)
+                        .await();
+                pipeline.logStage(EntityLoader.STAGE);
+                pipeline.logStage(AttributeLoader.STAGE);
+
+                LOG.info("\nImporting complete relations...");
+                RelationLoader relationLoader = new RelationLoader(idRemapping, schema, options.batchSize(), graqlInsert(options, ImportOptions.Phase.RELATION), pipeline, journal);
+                workers.startPhase("relations")
+                        .submitRecords(dataFiles(importPath.resolve("relation")), (workerSession, relationFile) ->
+                                relationLoader.importRelationType(workerSession, relationFile, incompleteRelations))
+                        .await();
+                pipeline.logStage(RelationLoader.STAGE);
+
+                LOG.info("\nImporting complete ownerships...");
+                workers.startPhase("ownerships")
+                        .submit(dataFiles(importPath.resolve("ownership")), (workerSession, ownershipFile) ->
+                                ownershipLoader.importOwnershipType(workerSession, ownershipFile, incompleteOwnerships))
+                        .await();
+                pipeline.logStage(OwnershipLoader.STAGE);
+            }
+            journal.completeDataPhase(incompleteRelations, incompleteOwnerships);
+        }
+        pipeline.close();
 
-        LOG.info("\nImporting incomplete relations and ownerships...");
-        handleIncomplete(session, incompleteRelations, incompleteOwnerships, idRemapping);
+        if (!journal.isComplete(ImportJournal.INCOMPLETE_PHASE)) {
+            LOG.info("\nImporting incomplete relations and ownerships...");
+            handleIncomplete(session, incompleteRelations, incompleteOwnerships, idRemapping, options.batchSize(), ownershipLoader, schema, journal,
+                    metrics, retry);
+            journal.completePhase(ImportJournal.INCOMPLETE_PHASE);
+        }
+        LOG.info("Schema lookups answered from cache: " + schema.rpcsSaved());
 
         LOG.info("\nPerforming checks...");
-        performChecksum(session, startingCounts, importPath);
+        if (hasManifest) {
+            verifyManifest(exported, journal.imported(), journal.skipped());
+        } else {
+            performChecksum(session, startingCounts, importPath);
+        }
 
-        LOG.info("Completed import into keyspace: " + targetKeyspace);
+        LOG.info("Completed import into keyspace: " + targetKeyspace + ", concepts mapped: " + idRemapping.size() +
+                ", records quarantined: " + quarantine.size());
 
+        quarantine.close();
+        metricsReporter.close();
+        journal.close();
+        idRemapping.close();
         session.close();
         client.close();
     }
 
     /**
+     * @return the Graql bulk insert engine if it was selected for the phase, or null to use the concept API
+     */
+    private static GraqlBulkInsert graqlInsert(ImportOptions options, ImportOptions.Phase phase) {
+        if (options.graqlInsertPhases().contains(phase)) {
+            LOG.info("Using Graql bulk insert queries for phase: " + phase.name().toLowerCase());
+            return new GraqlBulkInsert();
+        }
+        return null;
+    }
+
+    private static IdMapping openIdMapping(ImportOptions options) throws IOException {
+        if (options.idStore() == ImportOptions.IdStore.MAPPED) {
+            // a new import must not pick up mappings left behind by a previous one, and a resumed one continues its own,
+            // only restoring from the journal the mappings put after the store was last synced
+            if (!options.resume()) {
+                Files.deleteIfExists(options.idStorePath());
+            }
+            LOG.info("Storing ID mapping in memory-mapped file: " + options.idStorePath());
+            return new MappedIdMapping(options.idStorePath(), MAPPED_ID_STORE_INITIAL_SIZE);
+        } else if (options.idStore() == ImportOptions.IdStore.COMPACT) {
+            return new CompactIdMapping();
+        } else {
+            return new InMemoryIdMapping();
+        }
+    }
+
+    /**
+     * Compare the records written by the import to the checksum manifest of the export, type by type
+     *
+     * @param exported - manifest written by the exporter
+     * @param imported - records committed by this import, and by the runs it resumed
+     * @param skipped - records that could not be imported, and are reported as mismatches whether or not the counts match
+     */
+    static boolean verifyManifest(ChecksumManifest exported, ChecksumManifest imported, ChecksumManifest skipped) {
+        List<String> mismatches = exported.mismatches(imported);
+        for (String mismatch : mismatches) {
+            LOG.error("Mismatch: " + mismatch);
+        }
+        for (ChecksumManifest.Entry entry : skipped.entries()) {
+            LOG.error("Mismatch: " + entry.phase() + " type: " + entry.type() + ", skipped: " + entry.records() +
+                    " records whose role players, owner or attribute were not imported");
+        }
+        boolean matches = mismatches.isEmpty() && skipped.entries().isEmpty();
+        if (matches) {
+            LOG.info("Success: counts and digests of every type match the export");
+        }
+        return matches;
+    }
+
+    /**
+     * Check an export without a checksum manifest against `compute count` queries
+     *
      * @param session - Grakn session to import keyspace
      * @param startingCounts - entity/explicit relation/attribute counts before import began
      * @param importRoot - path to obtain checksum data file from
@@ -90,7 +218,7 @@ public class Import {
     private static void performChecksum(GraknClient.Session session, List<Integer> startingCounts, Path importRoot) throws IOException {
         List<Integer> endingCounts = computeCounts(session);
 
-        List<Integer> checksums = Files.lines(importRoot.resolve("checksums")).map(Integer::parseInt).collect(Collectors.toList());
+        List<Integer> checksums = Files.readAllLines(importRoot.resolve("checksums")).stream().map(Integer::parseInt).collect(Collectors.toList());
 
         String[] checksumDescriptions = {"entity", "relation", "attribute"};
 
@@ -128,97 +256,24 @@ public class Import {
     /**
      *
      * @param session - Session to import keyspace
-     * @param incompleteRelations - relations that were not imported due to cyclical dependencies
+     * @param incompleteRelations - relations that were not imported due to missing or cyclical dependencies
      * @param incompleteOwnerships - ownerships that were not imported due to cyclical dependencies
      * @param idRemapping - mapping from old concept IDs to new concept IDs
+     * @param batchSize - maximum number of relations per transaction, where cycles allow it
+     * @param ownershipLoader - loader to import the remaining ownerships with
+     * @param schema - cached types and roles
+     * @param journal - records the progress through the incomplete relations
+     * @param metrics - live metrics of the import
+     * @param retry - retries the transactions that fail to commit
      */
-    private static void handleIncomplete(GraknClient.Session session, List<IncompleteRelation> incompleteRelations, List<IncompleteOwnership> incompleteOwnerships, Map<String, ConceptId> idRemapping) {
-        // use one big tx to import all the remaining relations and ownerships
-        GraknClient.Transaction tx = session.transaction().write();
-
-        // create all the relation instances first
-        for (IncompleteRelation incompleteRelation : incompleteRelations) {
-            String relationTypeName = incompleteRelation.relationType;
-            RelationType.Remote relationType = tx.getRelationType(relationTypeName);
-            Relation relation = relationType.create();
-            String oldRelationId = incompleteRelation.oldId;
-            idRemapping.put(oldRelationId, relation.id());
-            incompleteRelation.savePartialRelation(relation);
-        }
-
-        // since we don't allow anything to be attached to implicit ownerships, we can just loop around again and guarantee
-        // all the IDs now exist
-
-        for (IncompleteRelation incompleteRelation : incompleteRelations) {
-            Relation.Remote partialRelationInstance = incompleteRelation.incompleteRelation.asRemote(tx);
-
-            for (String roleName : incompleteRelation.oldIdsPerRole.keySet()) {
-                Role role = tx.getRole(roleName);
-                for (String oldRolePlayerId : incompleteRelation.oldIdsPerRole.get(roleName)) {
-                    partialRelationInstance.assign(role, tx.getConcept(idRemapping.get(oldRolePlayerId)).asThing());
-                }
-            }
-        }
-
-        tx.commit();
-
-        // all IDs now exist, all ownerships can be assigned
-        for (IncompleteOwnership incompleteOwnership : incompleteOwnerships) {
-            tx = session.transaction().write();
-            ConceptId newOwnerId = idRemapping.get(incompleteOwnership.ownerId);
-            ConceptId newAttrId = idRemapping.get(incompleteOwnership.attributeId);
-            Concept owner = tx.getConcept(newOwnerId);
-            Concept value = tx.getConcept(newAttrId);
-            owner.asThing().asRemote(tx).has(value.asAttribute());
-            tx.commit();
-        }
-
-    }
-
-    /**
-     * Import the ownerships of each attribute
-     *
-     * @param session - Session to import keyspace
-     * @param importRoot - path to data files
-     * @param idRemapping
-     * @return - incomplete ownerships of attributes (ownerships for which the owner did not exist yet)
-     * @throws IOException
-     */
-    private static List<IncompleteOwnership> importOwnerships(GraknClient.Session session, Path importRoot, Map<String, ConceptId> idRemapping) throws IOException {
-        List<IncompleteOwnership> incompleteOwnerships = new ArrayList<>();
-
-        Path ownershipRoot = importRoot.resolve("ownership");
-
-        Files.list(ownershipRoot).filter(path -> Files.isRegularFile(path)).forEach(ownershipFile -> {
-            String attributeOwnedName = ownershipFile.getFileName().toString();
-            LOG.info("Import ownerships of attribute: " + attributeOwnedName);
-
-            try {
-                Stream<String> lines = Files.lines(ownershipFile);
-                lines.forEach(line -> {
-                    String[] ids = line.split(",");
-                    String oldOwnerId = ids[1];
-                    String oldAttrId = ids[0];
-
-                    // ids are all loaded, check if owner exists already
-                    if (idRemapping.containsKey(oldOwnerId)) {
-                        GraknClient.Transaction tx = session.transaction().write();
-                        ConceptId newOwnerId = idRemapping.get(oldOwnerId);
-                        ConceptId newAttrId = idRemapping.get(oldAttrId);
-                        Concept owner = tx.getConcept(newOwnerId);
-                        Concept value = tx.getConcept(newAttrId);
-                        owner.asThing().asRemote(tx).has(value.asAttribute());
-                        tx.commit();
-                    } else {
-                        incompleteOwnerships.add(new IncompleteOwnership(oldOwnerId, oldAttrId));
-                    }
-
-                });
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
-        return incompleteOwnerships;
+    private static void handleIncomplete(GraknClient.Session session, List<IncompleteRelation> incompleteRelations, List<IncompleteOwnership> incompleteOwnerships,
+                                         IdMapping idRemapping, int batchSize, OwnershipLoader ownershipLoader, SchemaCache schema, ImportJournal journal,
+                                         MigrationMetrics metrics, CommitRetry retry) {
+        // insert relations in dependency order, only grouping relations that depend on each other circularly
+        new IncompleteRelationLoader(idRemapping, schema, batchSize, journal, metrics, retry).importRelations(session, incompleteRelations);
+
+        // all IDs that will ever exist now do, the ownerships of the records that were not imported are skipped
+        ownershipLoader.importOwnerships(session, incompleteOwnerships);
     }
 
     /**
@@ -227,10 +282,24 @@ public class Import {
     static class IncompleteOwnership {
         private String ownerId;
         private String attributeId;
+        private String attributeType;
 
-        IncompleteOwnership(String ownerId, String attributeId) {
+        IncompleteOwnership(String ownerId, String attributeId, String attributeType) {
             this.ownerId = ownerId;
             this.attributeId = attributeId;
+            this.attributeType = attributeType;
+        }
+
+        String ownerId() {
+            return ownerId;
+        }
+
+        String attributeId() {
+            return attributeId;
+        }
+
+        String attributeType() {
+            return attributeType;
         }
     }
 
@@ -242,7 +311,6 @@ public class Import {
         private String relationType;
         private String oldId;
         private Map<String, Set<String>> oldIdsPerRole;
-        private Relation incompleteRelation;
 
         IncompleteRelation(String relationType, String oldId, Map<String, Set<String>> oldIdsPerRole) {
             this.relationType = relationType;
@@ -250,167 +318,28 @@ public class Import {
             this.oldIdsPerRole = oldIdsPerRole;
         }
 
-        void savePartialRelation(Relation relation) {
-            this.incompleteRelation = relation;
+        String relationType() {
+            return relationType;
         }
-    }
 
-    /**
-     * Import explicit relations with the given role types and role player IDs
-     *
-     * @param session
-     * @param importRoot
-     * @param idRemapping
-     * @return - incomplete relations that could not be inserted yet due to some required role players not existing yet
-     * @throws IOException
-     */
-    private static List<IncompleteRelation> importRelations(GraknClient.Session session, Path importRoot, Map<String, ConceptId> idRemapping) throws IOException {
-
-        List<IncompleteRelation> incompleteRelations = new ArrayList<>();
-
-        Path relationsRoot = importRoot.resolve("relation");
-
-        Files.list(relationsRoot).filter(path -> Files.isRegularFile(path)).forEach(relationFile -> {
-
-            String relationName = relationFile.getFileName().toString();
-            LOG.info("Import relations of type: " + relationName);
-
-            try {
-                Stream<String> lines = Files.lines(relationFile);
-                lines.forEach(line -> {
-
-                    // chunk the line into `old id`, `roleName, rolePlayerId1, playerId2...`, `roleName, ...`, ...
-                    List<String> substrings = parseRelationSubstrings(line);
-                    String oldId = substrings.get(0);
-
-                    // parse the IDs playing each role into a map
-                    Map<String, Set<String>> oldIdsPerRole = new HashMap<>();
-                    for (String roleStrings : substrings.subList(1, substrings.size())) {
-                        String[] roleAndIds = roleStrings.split(",");
-                        String roleName = roleAndIds[0];
-                        oldIdsPerRole.put(roleName, new HashSet<>());
-                        for (int i = 1; i < roleAndIds.length; i++) {
-                            oldIdsPerRole.get(roleName).add(roleAndIds[i]);
-                        }
-                    }
-
-                    // check if any of the role players are missing in the ID remapping. If so, we cannot insert this relation yet
-                    Optional<String> anyRolePlayersMissing = oldIdsPerRole.values().stream().
-                            flatMap(Collection::stream).
-                            filter(oldRolePlayerId -> !idRemapping.containsKey(oldRolePlayerId)).
-                            findAny();
-
-                    if (anyRolePlayersMissing.isPresent()) {
-                        incompleteRelations.add(new IncompleteRelation(relationName, oldId, oldIdsPerRole));
-                    } else {
-                        // insert the complete relation with all its role players
-                        GraknClient.Transaction tx = session.transaction().write();
-                        RelationType.Remote relationType = tx.getRelationType(relationName).asRemote(tx);
-                        Relation.Remote newRelation = relationType.create();
-                        for (String roleLabel : oldIdsPerRole.keySet()) {
-                            Role role = tx.getRole(roleLabel);
-                            for (String oldRolePlayerId : oldIdsPerRole.get(roleLabel)) {
-                                ConceptId newId = idRemapping.get(oldRolePlayerId);
-                                newRelation.assign(role, tx.getConcept(newId).asThing());
-                            }
-                        }
-                        idRemapping.put(oldId, newRelation.id());
-                        tx.commit();
-                    }
-
-                });
-
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-        });
-        return incompleteRelations;
-    }
-
-    private static List<String> parseRelationSubstrings(String s) {
-        int index = s.indexOf(",");
-        // relation ID
-        List<String> substrings = new ArrayList<>();
-        substrings.add(s.substring(0, index));
-
-        while (true) {
-            index = s.indexOf("(", index);
-            if (index == -1) {
-                break;
-            }
-            int indexEnd = s.indexOf(")", index);
-            substrings.add(s.substring(index + 1, indexEnd));
-            index = indexEnd;
+        String oldId() {
+            return oldId;
         }
 
-        return substrings;
-    }
-
-    private static void importEntities(GraknClient.Session session, Path importRoot, Map<String, ConceptId> idRemapping) throws IOException {
-        Path entitiesRoot = importRoot.resolve("entity");
-
-        Files.list(entitiesRoot).filter(path -> Files.isRegularFile(path)).forEach(entityFile -> {
-            String entityName = entityFile.getFileName().toString();
-            LOG.info("Importing entities of type " + entityName);
-            try {
-                Stream<String> lines = Files.lines(entityFile);
-
-                lines.forEach(id -> {
-                    GraknClient.Transaction tx = session.transaction().write();
-                    EntityType.Remote entityType = tx.getEntityType(entityName);
-                    ConceptId newId = entityType.create().id();
-                    idRemapping.put(id, newId);
-                    tx.commit();
-                });
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
-    }
+        Map<String, Set<String>> oldIdsPerRole() {
+            return oldIdsPerRole;
+        }
 
-    private static void importAttributes(GraknClient.Session session, Path importRoot, Map<String, ConceptId> idRemapping) throws IOException {
-        // probably have to import 1 attr per tx to enforce IDs are valid and not deduplicated
-
-        Path attributesRoot = importRoot.resolve("attribute");
-
-        Files.list(attributesRoot).filter(path -> Files.isRegularFile(path)).forEach(attributeFile -> {
-            String attributeName = attributeFile.getFileName().toString();
-            GraknClient.Transaction tx = session.transaction().write();
-            AttributeType.Remote<Object> attributeType = tx.getAttributeType(attributeName);
-            LOG.info("Import attributes of type: " + attributeName);
-            try {
-                Stream<String> lines = Files.lines(attributeFile);
-                lines.forEach(line -> {
-                    /* TODO be cleverer than split by comma - attributes may contain commas */
-                    String[] split = line.split(",");
-                    String oldId = split[0];
-                    String value = split[1];
-
-
-                    Class<Object> dataClass = attributeType.valueType().valueClass();
-                    Attribute<Object> attrInstance;
-                    if (dataClass.equals(Long.class)) {
-                        attrInstance = attributeType.create(Long.parseLong(value));
-                    } else if (dataClass.equals(Double.class)) {
-                        attrInstance = attributeType.create(Double.parseDouble(value));
-                    } else if (dataClass.equals(String.class)) {
-                        attrInstance = attributeType.create(value);
-                    } else if (dataClass.equals(Boolean.class)) {
-                        attrInstance = attributeType.create(Boolean.parseBoolean(value));
-                    } else if (dataClass.equals(LocalDateTime.class)) {
-                        attrInstance = attributeType.create(LocalDateTime.parse(value));
-                    } else {
-                        throw new RuntimeException("Unhandled valuetype: " + dataClass);
-                    }
-
-                    idRemapping.put(oldId, attrInstance.id());
-                });
-                tx.commit();
-            } catch (IOException e) {
-                e.printStackTrace();
+        /**
+         * @return digest of the relation for the checksum manifest, from its roles and their numbers of role players
+         */
+        long digest() {
+            long roles = 0;
+            for (Map.Entry<String, Set<String>> rolePlayers : oldIdsPerRole.entrySet()) {
+                roles += ChecksumManifest.roleDigest(rolePlayers.getKey(), rolePlayers.getValue().size());
             }
-        });
+            return ChecksumManifest.relationDigest(roles);
+        }
     }
 
 }
@@ -0,0 +1,476 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+import migrate.common.ChecksumManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Append-only record of the committed work of an import, so that an import that dies partway can be resumed
+ * (`--resume`) without dropping the target keyspace.
+ * <p>
+ * Every committed transaction appends one checkpoint: the old->new IDs it created (`M` lines) and any role players it
+ * deferred (`D` lines) and the records it wrote of each type with their digest (`K` lines), or the relations and
+ * ownerships it skipped because they cannot be imported (`X` lines), closed by a `C` line naming the stage, the type and the range of the data file (byte offsets,
+ * or list indices for the incomplete passes) it covered. Only complete checkpoints are replayed, so a checkpoint torn
+ * by a crash is ignored. The incomplete relations and ownerships are saved next to the journal once the first pass
+ * over the data files is done.
+ * <p>
+ * The journal is written after the transaction commits, so the transactions committed in the moment before a crash
+ * may be imported a second time on resume. It is flushed on every checkpoint but only synced to disk once per
+ * `SYNC_INTERVAL_MS`, to keep its cost small next to the transaction commits
+ */
+class ImportJournal implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ImportJournal.class);
+
+    static final String SCHEMA_PHASE = "schema";
+    static final String DATA_PHASE = "data";
+    static final String INCOMPLETE_PHASE = "incomplete";
+
+    private static final String JOURNAL_FILE = "journal";
+    private static final String INCOMPLETE_RELATIONS_FILE = "incomplete-relations";
+    private static final String INCOMPLETE_OWNERSHIPS_FILE = "incomplete-ownerships";
+    private static final long SYNC_INTERVAL_MS = 1000;
+    // forcing a persistent ID store writes out every page dirtied since, so it is synced less often than the journal
+    private static final long ID_MAPPING_SYNC_INTERVAL_MS = 60_000;
+
+    private final Path directory;
+    private final IdMapping idRemapping;
+    private FileChannel channel;
+    private OutputStream out;
+    private long lastSync = System.currentTimeMillis();
+    private long lastIdMappingSync = System.currentTimeMillis();
+
+    // state replayed from a previous run
+    private final Map<String, Ranges> committed = new HashMap<>();
+    private final Set<String> completedPhases = new HashSet<>();
+    private final List<IncompleteRelationLoader.DeferredRolePlayer> deferredRolePlayers = new ArrayList<>();
+    private List<Integer> startingCounts;
+    // records of every committed checkpoint, of this run and the previous ones
+    private final ChecksumManifest imported = new ChecksumManifest();
+    // old IDs of the records that could not be imported per phase, and their records
+    private final Map<String, Set<String>> skippedIds = new HashMap<>();
+    private final ChecksumManifest skipped = new ChecksumManifest();
+
+    private ImportJournal(Path directory, IdMapping idRemapping) {
+        this.directory = directory;
+        this.idRemapping = idRemapping;
+    }
+
+    private ImportJournal openForAppend() throws IOException {
+        channel = FileChannel.open(directory.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        out = Channels.newOutputStream(channel);
+        return this;
+    }
+
+    /**
+     * Start a new journal, discarding the journal of any previous import in the directory
+     *
+     * @param idRemapping - store the journaled mappings are put in, synced along with the journal if it persists them
+     */
+    static ImportJournal create(Path directory, IdMapping idRemapping) throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve(JOURNAL_FILE));
+        Files.deleteIfExists(directory.resolve(INCOMPLETE_RELATIONS_FILE));
+        Files.deleteIfExists(directory.resolve(INCOMPLETE_OWNERSHIPS_FILE));
+        LOG.info("Journaling import progress to: " + directory);
+        return new ImportJournal(directory, idRemapping).openForAppend();
+    }
+
+    /**
+     * Continue the journal of a previous import, restoring the committed ID mappings into `idRemapping`, except those
+     * that the store already held durably
+     */
+    static ImportJournal resume(Path directory, IdMapping idRemapping) throws IOException {
+        Path journalFile = directory.resolve(JOURNAL_FILE);
+        if (!Files.exists(journalFile)) {
+            throw new IllegalStateException("No import journal to resume from in: " + directory);
+        }
+        ImportJournal journal = new ImportJournal(directory, idRemapping);
+        long mappings = journal.replay(journalFile);
+        journal.openForAppend();
+        LOG.info("Resuming import from journal: " + directory + ", restored ID mappings: " + mappings +
+                ", ID mappings in the store: " + idRemapping.size() + ", completed phases: " + journal.completedPhases);
+        return journal;
+    }
+
+    /**
+     * Restore the complete checkpoints, then cut off whatever a crash left after the last one so that new
+     * checkpoints are not appended to a partial one
+     */
+    private long replay(Path journalFile) throws IOException {
+        long mappings = 0;
+        long completeLength = 0;
+        long length = Files.size(journalFile);
+        // the mappings journaled up to here are already in a persistent store
+        long storedLength = idRemapping.journalOffset();
+        if (storedLength > length) {
+            LOG.warn("The ID store covers more of the journal than there is, restoring every mapping from the journal");
+            storedLength = 0;
+        }
+        // only the last line can have been cut off by a crash
+        boolean lastLineComplete = length == 0 || endsWithLineFeed(journalFile, length);
+        // old and new IDs, alternating
+        List<String> pendingMappings = new ArrayList<>();
+        List<IncompleteRelationLoader.DeferredRolePlayer> pendingDeferred = new ArrayList<>();
+        List<String[]> pendingCounts = new ArrayList<>();
+        List<String[]> pendingSkipped = new ArrayList<>();
+        try (LineReader reader = new LineReader(journalFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (reader.offset() == length && !lastLineComplete) {
+                    break;
+                }
+                if (line.startsWith("M\t")) {
+                    if (reader.offset() <= storedLength) {
+                        continue;
+                    }
+                    // by far the most common record, parsed without splitting
+                    int separator = line.indexOf('\t', 2);
+                    pendingMappings.add(line.substring(2, separator));
+                    pendingMappings.add(line.substring(separator + 1));
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                switch (fields[0]) {
+                    case "D":
+                        pendingDeferred.add(new IncompleteRelationLoader.DeferredRolePlayer(fields[1], fields[2], fields[3]));
+                        break;
+                    case "K":
+                        pendingCounts.add(fields);
+                        break;
+                    case "X":
+                        pendingSkipped.add(fields);
+                        break;
+                    case "C":
+                        for (int i = 0; i < pendingMappings.size(); i += 2) {
+                            idRemapping.put(pendingMappings.get(i), ConceptId.of(pendingMappings.get(i + 1)));
+                        }
+                        mappings += pendingMappings.size() / 2;
+                        deferredRolePlayers.addAll(pendingDeferred);
+                        for (String[] counted : pendingCounts) {
+                            imported.add(counted[1], counted[2], Long.parseLong(counted[3]), Long.parseUnsignedLong(counted[4], 16));
+                        }
+                        for (String[] skippedRelation : pendingSkipped) {
+                            skippedIds.computeIfAbsent(skippedRelation[1], phase -> new HashSet<>()).add(skippedRelation[3]);
+                            skipped.add(skippedRelation[1], skippedRelation[2], 1, Long.parseUnsignedLong(skippedRelation[4], 16));
+                        }
+                        committed.computeIfAbsent(key(fields[1], fields[2]), key -> new Ranges())
+                                .add(Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+                        pendingMappings.clear();
+                        pendingDeferred.clear();
+                        pendingCounts.clear();
+                        pendingSkipped.clear();
+                        completeLength = reader.offset();
+                        break;
+                    case "P":
+                        completedPhases.add(fields[1]);
+                        completeLength = reader.offset();
+                        break;
+                    case "S":
+                        startingCounts = Arrays.stream(fields, 1, fields.length).map(Integer::parseInt).collect(Collectors.toList());
+                        completeLength = reader.offset();
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected record in import journal: " + line);
+                }
+            }
+        }
+        if (completeLength < length) {
+            LOG.info("Ignoring the last checkpoint of the journal, which was not completely written");
+            try (FileChannel journal = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                journal.truncate(completeLength);
+            }
+        }
+        return mappings;
+    }
+
+    private static boolean endsWithLineFeed(Path journalFile, long length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(journalFile.toFile(), "r")) {
+            file.seek(length - 1);
+            return file.read() == '\n';
+        }
+    }
+
+    private static String key(String stage, String name) {
+        return stage + "/" + name;
+    }
+
+    /**
+     * Start a checkpoint for one transaction of the given stage and type (or data file)
+     */
+    Checkpoint checkpoint(String stage, String name) {
+        return new Checkpoint(stage, name);
+    }
+
+    /**
+     * @return ranges of the stage and type committed by a previous run, or null if none
+     */
+    Ranges committed(String stage, String name) {
+        return committed.get(key(stage, name));
+    }
+
+    /**
+     * @return role players of cyclic relations that were deferred by a previous run
+     */
+    List<IncompleteRelationLoader.DeferredRolePlayer> deferredRolePlayers() {
+        return deferredRolePlayers;
+    }
+
+    /**
+     * @return records written by the committed checkpoints, including those of a previous run, to verify against the
+     * checksum manifest of the export
+     */
+    ChecksumManifest imported() {
+        return imported;
+    }
+
+    /**
+     * @return old IDs of the relations skipped by the committed checkpoints, including those of a previous run
+     */
+    Set<String> skippedRelations() {
+        return skippedIds(RelationLoader.STAGE);
+    }
+
+    /**
+     * @return old IDs of the records of the phase skipped by the committed checkpoints, including those of a previous run
+     */
+    Set<String> skippedIds(String phase) {
+        return skippedIds.getOrDefault(phase, Collections.emptySet());
+    }
+
+    /**
+     * @return records skipped by the committed checkpoints, including those of a previous run, which are missing from
+     * `imported`
+     */
+    ChecksumManifest skipped() {
+        return skipped;
+    }
+
+    boolean isComplete(String phase) {
+        return completedPhases.contains(phase);
+    }
+
+    void completePhase(String phase) throws IOException {
+        append("P\t" + phase + "\n", true);
+        completedPhases.add(phase);
+    }
+
+    /**
+     * @return concept counts of the target keyspace from before the data import began, or null if not recorded yet
+     */
+    List<Integer> startingCounts() {
+        return startingCounts;
+    }
+
+    void startingCounts(List<Integer> counts) throws IOException {
+        append("S\t" + counts.stream().map(String::valueOf).collect(Collectors.joining("\t")) + "\n", true);
+        startingCounts = counts;
+    }
+
+    /**
+     * Save the relations and ownerships left over from the first pass, and mark the first pass as complete
+     */
+    void completeDataPhase(List<Import.IncompleteRelation> incompleteRelations, List<Import.IncompleteOwnership> incompleteOwnerships) throws IOException {
+        List<String> relationLines = new ArrayList<>();
+        for (Import.IncompleteRelation relation : incompleteRelations) {
+            StringBuilder line = new StringBuilder(relation.relationType()).append('\t').append(relation.oldId());
+            relation.oldIdsPerRole().forEach((role, players) -> line.append('\t').append(role).append('\t').append(String.join(",", players)));
+            relationLines.add(line.toString());
+        }
+        writeAtomically(directory.resolve(INCOMPLETE_RELATIONS_FILE), relationLines);
+
+        List<String> ownershipLines = new ArrayList<>();
+        for (Import.IncompleteOwnership ownership : incompleteOwnerships) {
+            ownershipLines.add(ownership.attributeType() + "\t" + ownership.ownerId() + "\t" + ownership.attributeId());
+        }
+        writeAtomically(directory.resolve(INCOMPLETE_OWNERSHIPS_FILE), ownershipLines);
+
+        completePhase(DATA_PHASE);
+    }
+
+    List<Import.IncompleteRelation> incompleteRelations() throws IOException {
+        List<Import.IncompleteRelation> relations = new ArrayList<>();
+        for (String line : Files.readAllLines(directory.resolve(INCOMPLETE_RELATIONS_FILE), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t", -1);
+            Map<String, Set<String>> oldIdsPerRole = new HashMap<>();
+            for (int i = 2; i + 1 < fields.length; i += 2) {
+                oldIdsPerRole.put(fields[i], new HashSet<>(Arrays.asList(fields[i + 1].split(","))));
+            }
+            relations.add(new Import.IncompleteRelation(fields[0], fields[1], oldIdsPerRole));
+        }
+        return relations;
+    }
+
+    List<Import.IncompleteOwnership> incompleteOwnerships() throws IOException {
+        List<Import.IncompleteOwnership> ownerships = new ArrayList<>();
+        for (String line : Files.readAllLines(directory.resolve(INCOMPLETE_OWNERSHIPS_FILE), StandardCharsets.UTF_8)) {
+            String[] fields = line.split("\t");
+            ownerships.add(new Import.IncompleteOwnership(fields[1], fields[2], fields[0]));
+        }
+        return ownerships;
+    }
+
+    private static void writeAtomically(Path file, List<String> lines) throws IOException {
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write("\n");
+            }
+        }
+        try (FileChannel written = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            written.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void append(String records, boolean sync) throws IOException {
+        out.write(records.getBytes(StandardCharsets.UTF_8));
+        long now = System.currentTimeMillis();
+        if (sync || now - lastSync >= SYNC_INTERVAL_MS) {
+            channel.force(false);
+            lastSync = now;
+            // every mapping journaled so far was put in the store before its checkpoint was appended
+            if (sync || now - lastIdMappingSync >= ID_MAPPING_SYNC_INTERVAL_MS) {
+                idRemapping.sync(channel.size());
+                lastIdMappingSync = now;
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.force(false);
+        idRemapping.sync(channel.size());
+        out.close();
+    }
+
+    /**
+     * The records of one committed transaction, appended to the journal as a whole by `commit`
+     */
+    class Checkpoint {
+        private final String stage;
+        private final String name;
+        private final StringBuilder records = new StringBuilder();
+        private final ChecksumManifest counts = new ChecksumManifest();
+        private final List<String[]> skippedIds = new ArrayList<>();
+        private final ChecksumManifest skippedCounts = new ChecksumManifest();
+
+        private Checkpoint(String stage, String name) {
+            this.stage = stage;
+            this.name = name;
+        }
+
+        Checkpoint mapped(String oldId, ConceptId newId) {
+            records.append("M\t").append(oldId).append('\t').append(newId.getValue()).append('\n');
+            return this;
+        }
+
+        Checkpoint deferred(IncompleteRelationLoader.DeferredRolePlayer rolePlayer) {
+            records.append("D\t").append(rolePlayer.relationId()).append('\t').append(rolePlayer.role()).append('\t')
+                    .append(rolePlayer.rolePlayerId()).append('\n');
+            return this;
+        }
+
+        /**
+         * @param phase - phase of the checksum manifest the records belong to
+         * @param type - type of the records
+         * @param count - number of records the transaction wrote of the type
+         * @param digest - sum of the digests of the records
+         */
+        Checkpoint counted(String phase, String type, long count, long digest) {
+            records.append("K\t").append(phase).append('\t').append(type).append('\t').append(count).append('\t')
+                    .append(Long.toHexString(digest)).append('\n');
+            counts.add(phase, type, count, digest);
+            return this;
+        }
+
+        /**
+         * @param phase - phase of the checksum manifest the record belongs to
+         * @param type - type of the record
+         * @param oldId - ID of the record in the export, unique within its phase
+         * @param digest - digest of the record
+         */
+        Checkpoint skipped(String phase, String type, String oldId, long digest) {
+            records.append("X\t").append(phase).append('\t').append(type).append('\t').append(oldId).append('\t')
+                    .append(Long.toHexString(digest)).append('\n');
+            skippedIds.add(new String[]{phase, oldId});
+            skippedCounts.add(phase, type, 1, digest);
+            return this;
+        }
+
+        /**
+         * @param start - first byte offset (or index) covered by the transaction
+         * @param end - byte offset (or index) after the last one covered by the transaction
+         */
+        void commit(long start, long end) {
+            records.append("C\t").append(stage).append('\t').append(name).append('\t').append(start).append('\t').append(end).append('\n');
+            try {
+                append(records.toString(), false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write to the import journal", e);
+            }
+            imported.addAll(counts);
+            // only the incomplete passes skip records, on one thread
+            for (String[] skippedId : skippedIds) {
+                ImportJournal.this.skippedIds.computeIfAbsent(skippedId[0], phase -> new HashSet<>()).add(skippedId[1]);
+            }
+            skipped.addAll(skippedCounts);
+        }
+    }
+
+    /**
+     * Committed ranges of one data file or list, as half-open [start, end) intervals
+     */
+    static class Ranges {
+        private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+        void add(long start, long end) {
+            if (start >= end) {
+                return;
+            }
+            // merge with the overlapping or adjacent ranges
+            Map.Entry<Long, Long> before = ranges.floorEntry(start);
+            if (before != null && before.getValue() >= start) {
+                start = before.getKey();
+                end = Math.max(end, before.getValue());
+            }
+            Map.Entry<Long, Long> after = ranges.ceilingEntry(start);
+            while (after != null && after.getKey() <= end) {
+                end = Math.max(end, after.getValue());
+                ranges.remove(after.getKey());
+                after = ranges.ceilingEntry(start);
+            }
+            ranges.put(start, end);
+        }
+
+        boolean contains(long position) {
+            Map.Entry<Long, Long> range = ranges.floorEntry(position);
+            return range != null && position < range.getValue();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package migrate.importer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Command line configuration of the importer:
+ * [absolute data directory] [grakn URI] [target keyspace] [--option=value ...]
+ */
+public class ImportOptions {
+
+    /**
+     * Data import phases that can be switched between the concept API and Graql bulk insert queries
+     */
+    enum Phase {
+        ENTITY,
+        ATTRIBUTE,
+        RELATION,
+        OWNERSHIP
+    }
+
+    enum IdStore {
+        MEMORY,
+        COMPACT,
+        MAPPED
+    }
+
+    static final String USAGE = "Error - correct arguments: [absolute data directory] [grakn URI] [target keyspace] " +
+            "[--batch-size=N] [--attribute-batch-size=N] [--batch-target-ms=N] [--max-batch-size=N] [--max-batch-bytes=N] " +
+            "[--fixed-batch-size] [--workers=N] [--id-store=memory|compact|mapped] [--id-store-path=FILE] [--sort-buffer-lines=N] " +
+            "[--graql-insert=entity,attribute,relation,ownership] [--pipeline-writers=N] [--pipeline-queue=N] " +
+            "[--journal-path=DIR] [--staging-path=DIR] [--resume] [--commit-attempts=N] [--retry-backoff-ms=N] [--quarantine-path=FILE] " +
+            "[--max-quarantined=N] [--metrics-port=N] [--metrics-snapshot=FILE]";
+
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int DEFAULT_SORT_BUFFER_LINES = 1_000_000;
+    private static final int DEFAULT_PIPELINE_WRITERS = 2;
+    private static final int DEFAULT_PIPELINE_QUEUE = 4;
+    private static final int DEFAULT_BATCH_TARGET_MS = 2000;
+    private static final int DEFAULT_MAX_BATCH_SIZE_FACTOR = 10;
+    private static final int DEFAULT_MAX_BATCH_BYTES = 4 << 20;
+    private static final int DEFAULT_COMMIT_ATTEMPTS = 5;
+    private static final int DEFAULT_RETRY_BACKOFF_MS = 100;
+    private static final int DEFAULT_MAX_QUARANTINED = 100;
+
+    private final Path importPath;
+    private final String graknUri;
+    private final String targetKeyspace;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private Integer attributeBatchSize;
+    private int batchTargetMs = DEFAULT_BATCH_TARGET_MS;
+    private Integer maxBatchSize;
+    private int maxBatchBytes = DEFAULT_MAX_BATCH_BYTES;
+    private boolean fixedBatchSize;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private IdStore idStore = IdStore.MEMORY;
+    private Path idStorePath;
+    private int sortBufferLines = DEFAULT_SORT_BUFFER_LINES;
+    private Set<Phase> graqlInsertPhases = EnumSet.noneOf(Phase.class);
+    private int pipelineWriters = DEFAULT_PIPELINE_WRITERS;
+    private int pipelineQueueCapacity = DEFAULT_PIPELINE_QUEUE;
+    private Path journalPath;
+    private Path stagingPath;
+    private boolean resume;
+    private int commitAttempts = DEFAULT_COMMIT_ATTEMPTS;
+    private int retryBackoffMs = DEFAULT_RETRY_BACKOFF_MS;
+    private Path quarantinePath;
+    private int maxQuarantined = DEFAULT_MAX_QUARANTINED;
+    private Integer metricsPort;
+    private Path metricsSnapshot;
+
+    private ImportOptions(Path importPath, String graknUri, String targetKeyspace) {
+        this.importPath = importPath;
+        this.graknUri = graknUri;
+        this.targetKeyspace = targetKeyspace;
+    }
+
+    /**
+     * @return parsed options, or null if the arguments are not valid
+     */
+    static ImportOptions parse(String[] args) {
+        List<String> positional = new ArrayList<>();
+        List<String> flags = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                flags.add(arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (positional.size() != 3) {
+            return null;
+        }
+
+        ImportOptions options = new ImportOptions(Paths.get(positional.get(0)), positional.get(1), positional.get(2));
+        for (String flag : flags) {
+            String[] keyValue = flag.substring(2).split("=", 2);
+            String key = keyValue[0];
+            String value = keyValue.length > 1 ? keyValue[1] : null;
+
+            if (key.equals("batch-size")) {
+                options.batchSize = positiveInt(key, value);
+            } else if (key.equals("attribute-batch-size")) {
+                options.attributeBatchSize = positiveInt(key, value);
+            } else if (key.equals("batch-target-ms")) {
+                options.batchTargetMs = positiveInt(key, value);
+            } else if (key.equals("max-batch-size")) {
+                options.maxBatchSize = positiveInt(key, value);
+            } else if (key.equals("max-batch-bytes")) {
+                options.maxBatchBytes = positiveInt(key, value);
+            } else if (key.equals("fixed-batch-size")) {
+                options.fixedBatchSize = true;
+            } else if (key.equals("workers")) {
+                options.workers = positiveInt(key, value);
+            } else if (key.equals("id-store")) {
+                options.idStore = IdStore.valueOf(required(key, value).toUpperCase());
+            } else if (key.equals("id-store-path")) {
+                options.idStorePath = Paths.get(required(key, value));
+            } else if (key.equals("sort-buffer-lines")) {
+                options.sortBufferLines = positiveInt(key, value);
+            } else if (key.equals("graql-insert")) {
+                for (String phase : required(key, value).split(",")) {
+                    options.graqlInsertPhases.add(Phase.valueOf(phase.trim().toUpperCase()));
+                }
+            } else if (key.equals("pipeline-writers")) {
+                options.pipelineWriters = positiveInt(key, value);
+            } else if (key.equals("pipeline-queue")) {
+                options.pipelineQueueCapacity = positiveInt(key, value);
+            } else if (key.equals("journal-path")) {
+                options.journalPath = Paths.get(required(key, value));
+            } else if (key.equals("staging-path")) {
+                options.stagingPath = Paths.get(required(key, value));
+            } else if (key.equals("resume")) {
+                options.resume = true;
+            } else if (key.equals("commit-attempts")) {
+                options.commitAttempts = positiveInt(key, value);
+            } else if (key.equals("retry-backoff-ms")) {
+                options.retryBackoffMs = positiveInt(key, value);
+            } else if (key.equals("quarantine-path")) {
+                options.quarantinePath = Paths.get(required(key, value));
+            } else if (key.equals("max-quarantined")) {
+                options.maxQuarantined = positiveInt(key, value);
+            } else if (key.equals("metrics-port")) {
+                options.metricsPort = positiveInt(key, value);
+            } else if (key.equals("metrics-snapshot")) {
+                options.metricsSnapshot = Paths.get(required(key, value));
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + flag);
+            }
+        }
+        return options;
+    }
+
+    private static String required(String key, String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Option --" + key + " requires a value");
+        }
+        return value;
+    }
+
+    private static int positiveInt(String key, String value) {
+        int parsed = Integer.parseInt(required(key, value));
+        if (parsed <= 0) {
+            throw new IllegalArgumentException("Option --" + key + " must be positive, got: " + value);
+        }
+        return parsed;
+    }
+
+    Path importPath() {
+        return importPath;
+    }
+
+    String graknUri() {
+        return graknUri;
+    }
+
+    String targetKeyspace() {
+        return targetKeyspace;
+    }
+
+    /**
+     * @return number of concepts created per write transaction
+     */
+    int batchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @return number of attributes created per write transaction, by default the batch size
+     */
+    int attributeBatchSize() {
+        if (attributeBatchSize == null) {
+            return batchSize;
+        }
+        return attributeBatchSize;
+    }
+
+    /**
+     * @return bounds of the batch sizes of the data files, which adapt to the commit latency unless `--fixed-batch-size`
+     * is given. The largest batch is by default ten times the larger of the configured batch sizes
+     */
+    BatchSizeController.Limits batchLimits() {
+        int largest = maxBatchSize != null ? maxBatchSize : DEFAULT_MAX_BATCH_SIZE_FACTOR * Math.max(batchSize, attributeBatchSize());
+        return new BatchSizeController.Limits(!fixedBatchSize, batchTargetMs, largest, maxBatchBytes);
+    }
+
+    /**
+     * @return number of concurrent import workers, each with its own session
+     */
+    int workers() {
+        return workers;
+    }
+
+    IdStore idStore() {
+        return idStore;
+    }
+
+    /**
+     * @return file backing the `mapped` ID store, by default `[target keyspace].idmap` next to the data directory
+     */
+    Path idStorePath() {
+        if (idStorePath == null) {
+            return importPath.toAbsolutePath().resolveSibling(targetKeyspace + ".idmap");
+        }
+        return idStorePath;
+    }
+
+    /**
+     * @return number of lines sorted in memory before spilling to disk when sorting data files
+     */
+    int sortBufferLines() {
+        return sortBufferLines;
+    }
+
+    /**
+     * @return phases that write batches as Graql insert queries rather than through the concept API
+     */
+    Set<Phase> graqlInsertPhases() {
+        return graqlInsertPhases;
+    }
+
+    /**
+     * @return number of threads writing the batches of one data file concurrently
+     */
+    int pipelineWriters() {
+        return pipelineWriters;
+    }
+
+    /**
+     * @return number of parsed batches of one data file that may wait for a writer
+     */
+    int pipelineQueueCapacity() {
+        return pipelineQueueCapacity;
+    }
+
+    /**
+     * @return directory of the import journal, by default `[target keyspace].journal` next to the data directory
+     */
+    Path journalPath() {
+        if (journalPath == null) {
+            return importPath.toAbsolutePath().resolveSibling(targetKeyspace + ".journal");
+        }
+        return journalPath;
+    }
+
+    /**
+     * @return directory that compressed data files are decompressed to (and binary attribute and ownership files decoded
+     * to text) before they are imported, and that the sorted copies
+     * of the attribute and ownership files are written to, by default `[target keyspace].staging` next to the data
+     * directory
+     */
+    Path stagingPath() {
+        if (stagingPath == null) {
+            return importPath.toAbsolutePath().resolveSibling(targetKeyspace + ".staging");
+        }
+        return stagingPath;
+    }
+
+    /**
+     * @return true to continue the import recorded in the journal rather than start a new one
+     */
+    boolean resume() {
+        return resume;
+    }
+
+    /**
+     * @return attempts at each write transaction before it is given up, including the first one
+     */
+    int commitAttempts() {
+        return commitAttempts;
+    }
+
+    /**
+     * @return longest wait before the first retry of a transaction, doubling for every retry after it
+     */
+    int retryBackoffMs() {
+        return retryBackoffMs;
+    }
+
+    /**
+     * @return file listing the records that could not be written, by default `[target keyspace].quarantine` next to
+     * the data directory
+     */
+    Path quarantinePath() {
+        if (quarantinePath == null) {
+            return importPath.toAbsolutePath().resolveSibling(targetKeyspace + ".quarantine");
+        }
+        return quarantinePath;
+    }
+
+    /**
+     * @return number of records that may be quarantined before the import is stopped
+     */
+    int maxQuarantined() {
+        return maxQuarantined;
+    }
+
+    /**
+     * @return port of the local metrics endpoint, or null to not serve metrics
+     */
+    Integer metricsPort() {
+        return metricsPort;
+    }
+
+    /**
+     * @return file to write periodic JSON metrics snapshots to, or null to not write them
+     */
+    Path metricsSnapshot() {
+        return metricsSnapshot;
+    }
+}
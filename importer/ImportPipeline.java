@@ -0,0 +1,669 @@
+package migrate.importer;
+
+import migrate.common.BinaryDataFileReader;
+import migrate.common.DataFileWriter;
+import migrate.common.MigrationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Staged import of one data file: a reader thread reads and parses lines (or the records of a binary data file, read
+ * as they are when the loader can parse them) into batches of records, which are handed
+ * over a bounded queue to the writers. Reading, parsing and writing to the server therefore overlap, and with more
+ * than one writer per file, building the next batch overlaps with the commit of the previous one.
+ * <p>
+ * A full queue blocks the reader (backpressure), so at most `queueCapacity` parsed batches are held in memory per file.
+ * Each batch carries the range of the file it was read from, for the import journal. Batches are sized per type by
+ * a {@link BatchSizeController}, from the commit latencies the writers report.
+ * Time spent working and waiting is recorded per stage, and logged with `logStage` to show whether the readers or
+ * the writers are the bottleneck. Lines read, records written and transaction latencies are also published live
+ * to the migration metrics, per stage and type.
+ * <p>
+ * A batch that fails to commit is retried by {@link CommitRetry}. If it keeps failing it is split in halves, each
+ * written in its own transaction, and halves that fail are split again until the records that cannot be written on
+ * their own are isolated and put in the {@link Quarantine}. The other writers carry on meanwhile, and every part
+ * committed is journaled with its own range of the file
+ */
+class ImportPipeline implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ImportPipeline.class);
+
+    // how often a blocked reader checks if the writers have given up
+    private static final long OFFER_TIMEOUT_MS = 100;
+
+    /**
+     * Parses one line of a data file on the reader thread
+     */
+    interface LineParser<R> {
+        /**
+         * @param line - tokenizer positioned at the start of the line; its tokens must not be kept past the call
+         * @return the parsed record, or null if the line is not to be written in this phase
+         */
+        R parse(DataFileTokenizer line);
+    }
+
+    /**
+     * Parses the records of a binary data file on the reader thread, straight from the values the
+     * {@link BinaryDataFileReader} hands to it. Kinds of record the parser does not override are rejected
+     */
+    abstract static class RecordParser<R> implements DataFileWriter {
+        private R parsed;
+
+        /**
+         * @param record - the record parsed from the one handed over, or null if it is not to be written in this phase
+         */
+        void parsed(R record) {
+            parsed = record;
+        }
+
+        private R take() {
+            R record = parsed;
+            parsed = null;
+            return record;
+        }
+
+        @Override
+        public void entity(String id) throws IOException {
+            throw new IOException("Unexpected entity record: " + id);
+        }
+
+        @Override
+        public void attribute(String id, Object value) throws IOException {
+            throw new IOException("Unexpected attribute record: " + id);
+        }
+
+        @Override
+        public void relation(String id, Map<String, ? extends Collection<String>> rolePlayers) throws IOException {
+            throw new IOException("Unexpected relation record: " + id);
+        }
+
+        @Override
+        public void ownership(String attributeId, String ownerId) throws IOException {
+            throw new IOException("Unexpected ownership record: " + attributeId + "," + ownerId);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Writes one batch of records on a writer thread
+     */
+    interface BatchWriter<R> {
+        void write(Batch<R> batch);
+    }
+
+    /**
+     * Records parsed from the byte range [start, end) of a data file, the offsets being those of the records
+     * themselves in binary data files
+     */
+    static class Batch<R> {
+        private final List<R> records;
+        // start and end offsets of the line (or binary record) of each record
+        private long[] lines;
+        private final long start;
+        private long end;
+        // bytes of the lines of the records
+        private long bytes;
+
+        Batch(int capacity, long start) {
+            this.records = new ArrayList<>(capacity);
+            this.lines = new long[2 * capacity];
+            this.start = start;
+        }
+
+        private Batch(List<R> records, long[] lines, long start, long end) {
+            this.records = records;
+            this.lines = lines;
+            this.start = start;
+            this.end = end;
+        }
+
+        private void add(R record, long lineStart, long lineEnd) {
+            int index = 2 * records.size();
+            if (index == lines.length) {
+                lines = Arrays.copyOf(lines, Math.max(2, 2 * lines.length));
+            }
+            lines[index] = lineStart;
+            lines[index + 1] = lineEnd;
+            records.add(record);
+            bytes += lineEnd - lineStart;
+        }
+
+        /**
+         * @return the first and the second half of the records, the first covering the file up to the line of the
+         * first record of the second
+         */
+        private List<Batch<R>> split() {
+            int middle = records.size() / 2;
+            long at = lines[2 * middle];
+            List<Batch<R>> halves = new ArrayList<>(2);
+            halves.add(new Batch<>(new ArrayList<>(records.subList(0, middle)), Arrays.copyOfRange(lines, 0, 2 * middle), start, at));
+            halves.add(new Batch<>(new ArrayList<>(records.subList(middle, records.size())),
+                    Arrays.copyOfRange(lines, 2 * middle, 2 * records.size()), at, end));
+            return halves;
+        }
+
+        List<R> records() {
+            return records;
+        }
+
+        int size() {
+            return records.size();
+        }
+
+        long start() {
+            return start;
+        }
+
+        long end() {
+            return end;
+        }
+    }
+
+    private final int queueCapacity;
+    private final int writersPerFile;
+    private final ExecutorService threads;
+    private final Map<String, StageMetrics> metrics = new ConcurrentHashMap<>();
+    private final BatchSizeController.Limits batchLimits;
+    private final MigrationMetrics migrationMetrics;
+    private final CommitRetry retry;
+    private final Quarantine quarantine;
+    private final boolean escapedValues;
+
+    /**
+     * @param queueCapacity - parsed batches that may wait for a writer, per file
+     * @param writersPerFile - threads writing the batches of one file concurrently, including the calling worker
+     * @param batchLimits - bounds of the batch sizes, and whether they adapt to commit latency
+     * @param migrationMetrics - live metrics of the import
+     * @param retry - retries the batches that fail to commit
+     * @param quarantine - receives the records that cannot be written
+     * @param escapedValues - whether the attribute values of the data files are escaped, see {@link DataFileTokenizer}
+     */
+    ImportPipeline(int queueCapacity, int writersPerFile, BatchSizeController.Limits batchLimits, MigrationMetrics migrationMetrics,
+                   CommitRetry retry, Quarantine quarantine, boolean escapedValues) {
+        this.queueCapacity = queueCapacity;
+        this.writersPerFile = writersPerFile;
+        this.batchLimits = batchLimits;
+        this.migrationMetrics = migrationMetrics;
+        this.retry = retry;
+        this.quarantine = quarantine;
+        this.escapedValues = escapedValues;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.threads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "import-pipeline-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return configured number of writers for files whose batches can be written concurrently
+     */
+    int writersPerFile() {
+        return writersPerFile;
+    }
+
+    /**
+     * @return live metrics of the import, for the loaders to record what the pipeline cannot see
+     */
+    MigrationMetrics migrationMetrics() {
+        return migrationMetrics;
+    }
+
+    /**
+     * @return retry policy of the pipeline, for the loaders to retry the transactions they write outside of it
+     */
+    CommitRetry commitRetry() {
+        return retry;
+    }
+
+    /**
+     * Import one text data file, returning once every batch has been written. The calling thread is one of the writers
+     *
+     * @see #run(String, String, Path, int, int, ImportJournal.Ranges, LineParser, RecordParser, BatchWriter)
+     */
+    <R> long run(String stage, String name, Path file, int batchSize, int writers, ImportJournal.Ranges committed,
+                 LineParser<R> parser, BatchWriter<R> writer) throws IOException {
+        return run(stage, name, file, batchSize, writers, committed, parser, null, writer);
+    }
+
+    /**
+     * Import one data file in the text or the binary format, returning once every batch has been written. The calling
+     * thread is one of the writers
+     *
+     * @param stage - name under which the metrics are recorded
+     * @param name - type the file holds, under which the live metrics are recorded
+     * @param file - data file to read
+     * @param batchSize - records per batch handed to the writer, to start from if batch sizes adapt
+     * @param writers - number of threads writing batches of this file concurrently; the writer must be thread safe if more than 1
+     * @param committed - ranges of the file committed by a previous run, whose records are parsed but not written, or null
+     * @param parser - turns a line into a record
+     * @param recordParser - turns a binary record into a record, or null if the file can only be text
+     * @param writer - writes a batch of records in one transaction, recording what it created only once it commits
+     * @return - number of records written
+     * @throws IOException
+     */
+    <R> long run(String stage, String name, Path file, int batchSize, int writers, ImportJournal.Ranges committed,
+                 LineParser<R> parser, RecordParser<R> recordParser, BatchWriter<R> writer) throws IOException {
+        StageMetrics stageMetrics = metrics.computeIfAbsent(stage, key -> new StageMetrics());
+        TypeMetrics typeMetrics = new TypeMetrics(stage, name);
+        BatchSizeController sizer = new BatchSizeController(stage, name, batchSize, batchLimits);
+        Committer<R> committer = new Committer<>(stage, name, file, writer, sizer, stageMetrics, typeMetrics);
+        BlockingQueue<Batch<R>> queue = new ArrayBlockingQueue<>(queueCapacity);
+        // identity sentinel, one per writer, queued after the last batch
+        Batch<R> endOfFile = new Batch<>(0, 0);
+        AtomicBoolean cancelled = new AtomicBoolean(false);
+
+        Future<?> reading = threads.submit(() -> {
+            try {
+                read(file, sizer, committed, parser, recordParser, queue, cancelled, stageMetrics, typeMetrics);
+            } finally {
+                for (int i = 0; i < writers; i++) {
+                    offer(queue, endOfFile, cancelled, stageMetrics);
+                }
+            }
+            return null;
+        });
+
+        List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < writers; i++) {
+            helpers.add(threads.submit(() -> {
+                write(queue, endOfFile, committer, stageMetrics);
+                return null;
+            }));
+        }
+
+        try {
+            write(queue, endOfFile, committer, stageMetrics);
+            for (Future<?> helper : helpers) {
+                await(helper);
+            }
+            await(reading);
+        } finally {
+            // unblocks the reader if a writer failed
+            cancelled.set(true);
+            queue.clear();
+            helpers.forEach(helper -> helper.cancel(true));
+        }
+        return committer.written.sum();
+    }
+
+    private <R> void read(Path file, BatchSizeController sizer, ImportJournal.Ranges committed, LineParser<R> parser, RecordParser<R> recordParser,
+                          BlockingQueue<Batch<R>> queue, AtomicBoolean cancelled, StageMetrics stageMetrics, TypeMetrics typeMetrics) throws IOException {
+        long busyStart = System.nanoTime();
+        try (RecordSource<R> source = RecordSource.open(file, escapedValues, parser, recordParser)) {
+            Batch<R> batch = new Batch<>(sizer.batchSize(), 0);
+            while (source.next()) {
+                stageMetrics.linesRead.increment();
+                typeMetrics.linesRead.increment();
+                R record = source.record();
+                if (record != null && (committed == null || !committed.contains(source.start()))) {
+                    batch.add(record, source.start(), source.end());
+                }
+                // a batch covers every line up to its last record, including the lines that were not written
+                batch.end = source.end();
+                if (batch.size() >= sizer.batchSize() || batch.bytes >= sizer.maxBatchBytes()) {
+                    stageMetrics.readerBusyNanos.add(System.nanoTime() - busyStart);
+                    if (!offer(queue, batch, cancelled, stageMetrics)) {
+                        return;
+                    }
+                    busyStart = System.nanoTime();
+                    batch = new Batch<>(sizer.batchSize(), source.end());
+                }
+            }
+            stageMetrics.readerBusyNanos.add(System.nanoTime() - busyStart);
+            if (batch.size() > 0) {
+                offer(queue, batch, cancelled, stageMetrics);
+            }
+        }
+    }
+
+    /**
+     * Records of a data file in the order they are read, each parsed with the range of the file it was read from
+     */
+    private interface RecordSource<R> extends Closeable {
+        /**
+         * @return false at the end of the file
+         */
+        boolean next() throws IOException;
+
+        /**
+         * @return the record parsed from the current line or binary record, or null if it is not to be written
+         */
+        R record();
+
+        long start();
+
+        long end();
+
+        /**
+         * @param recordParser - parses the records of a binary file, which is read without its text form
+         * @throws IOException - if the file is binary and there is no parser for its records
+         */
+        static <R> RecordSource<R> open(Path file, boolean escapedValues, LineParser<R> parser, RecordParser<R> recordParser) throws IOException {
+            if (!BinaryDataFileReader.isBinary(file)) {
+                return new TextSource<>(new DataFileTokenizer(file, escapedValues), parser);
+            }
+            if (recordParser == null) {
+                throw new IOException("Binary data file must be decoded to text to be read: " + file);
+            }
+            return new BinarySource<>(new BinaryDataFileReader(Files.newInputStream(file)), recordParser);
+        }
+    }
+
+    private static class TextSource<R> implements RecordSource<R> {
+        private final DataFileTokenizer line;
+        private final LineParser<R> parser;
+        private R record;
+
+        TextSource(DataFileTokenizer line, LineParser<R> parser) {
+            this.line = line;
+            this.parser = parser;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (!line.nextLine()) {
+                return false;
+            }
+            record = parser.parse(line);
+            return true;
+        }
+
+        @Override
+        public R record() {
+            return record;
+        }
+
+        @Override
+        public long start() {
+            return line.lineStart();
+        }
+
+        @Override
+        public long end() {
+            return line.offset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            line.close();
+        }
+    }
+
+    private static class BinarySource<R> implements RecordSource<R> {
+        private final BinaryDataFileReader reader;
+        private final RecordParser<R> parser;
+        private long start;
+        private R record;
+
+        BinarySource(BinaryDataFileReader reader, RecordParser<R> parser) {
+            this.reader = reader;
+            this.parser = parser;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            start = reader.offset();
+            if (!reader.next(parser)) {
+                return false;
+            }
+            record = parser.take();
+            return true;
+        }
+
+        @Override
+        public R record() {
+            return record;
+        }
+
+        @Override
+        public long start() {
+            return start;
+        }
+
+        @Override
+        public long end() {
+            return reader.offset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return false if the writers gave up before the batch could be queued
+     */
+    private static <R> boolean offer(BlockingQueue<Batch<R>> queue, Batch<R> batch, AtomicBoolean cancelled, StageMetrics stageMetrics) {
+        long waitStart = System.nanoTime();
+        try {
+            while (!cancelled.get()) {
+                if (queue.offer(batch, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            stageMetrics.readerBlockedNanos.add(System.nanoTime() - waitStart);
+        }
+    }
+
+    private static <R> void write(BlockingQueue<Batch<R>> queue, Batch<R> endOfFile, Committer<R> committer, StageMetrics stageMetrics) {
+        while (true) {
+            Batch<R> batch;
+            long waitStart = System.nanoTime();
+            try {
+                stageMetrics.queueDepth(queue.size());
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for parsed records", e);
+            }
+            stageMetrics.writerIdleNanos.add(System.nanoTime() - waitStart);
+            if (batch == endOfFile) {
+                return;
+            }
+
+            long writeStart = System.nanoTime();
+            committer.commit(batch);
+            stageMetrics.writerBusyNanos.add(System.nanoTime() - writeStart);
+        }
+    }
+
+    /**
+     * Writes the batches of one file, retrying and splitting the batches that fail
+     */
+    private class Committer<R> {
+        private final String stage;
+        private final String name;
+        private final Path file;
+        private final BatchWriter<R> writer;
+        private final BatchSizeController sizer;
+        private final StageMetrics stageMetrics;
+        private final TypeMetrics typeMetrics;
+        private final LongAdder written = new LongAdder();
+
+        Committer(String stage, String name, Path file, BatchWriter<R> writer, BatchSizeController sizer,
+                  StageMetrics stageMetrics, TypeMetrics typeMetrics) {
+            this.stage = stage;
+            this.name = name;
+            this.file = file;
+            this.writer = writer;
+            this.sizer = sizer;
+            this.stageMetrics = stageMetrics;
+            this.typeMetrics = typeMetrics;
+        }
+
+        void commit(Batch<R> batch) {
+            try {
+                retry.run(stage, name, () -> writeOnce(batch));
+            } catch (RuntimeException e) {
+                if (!CommitRetry.retryable(e)) {
+                    throw e;
+                }
+                // one failing batch is enough to back off, however many parts it is split into
+                sizer.failed();
+                bisect(batch, e);
+            }
+        }
+
+        /**
+         * Write the halves of a batch that failed every attempt. Halves are only tried once, as most failures left
+         * at this point come from the records rather than from the server, except for single records which get
+         * every attempt before they are quarantined
+         */
+        private void bisect(Batch<R> batch, RuntimeException failure) {
+            if (batch.size() == 1) {
+                quarantine.add(stage, name, file, batch.lines[0], batch.lines[1], failure);
+                return;
+            }
+            LOG.warn("Splitting batch of " + stage + " type: " + name + ", records: " + batch.size() + ", after failure: " + failure);
+            for (Batch<R> half : batch.split()) {
+                try {
+                    retry.run(stage, name, half.size() == 1 ? retry.attempts() : 1, () -> writeOnce(half));
+                } catch (RuntimeException e) {
+                    if (!CommitRetry.retryable(e)) {
+                        throw e;
+                    }
+                    bisect(half, e);
+                }
+            }
+        }
+
+        private void writeOnce(Batch<R> batch) {
+            long writeStart = System.nanoTime();
+            writer.write(batch);
+            long writeNanos = System.nanoTime() - writeStart;
+            sizer.committed(batch.size(), writeNanos);
+            stageMetrics.batchesWritten.increment();
+            stageMetrics.recordsWritten.add(batch.size());
+            // batches are written in one transaction each
+            typeMetrics.transactionSeconds.record(writeNanos);
+            typeMetrics.transactions.increment();
+            typeMetrics.conceptsWritten.add(batch.size());
+            written.add(batch.size());
+        }
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while importing", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Log the throughput and waiting times of the reader and writer stages over every file imported under the stage name
+     */
+    void logStage(String stage) {
+        StageMetrics stageMetrics = metrics.get(stage);
+        if (stageMetrics == null) {
+            return;
+        }
+        double readerBusy = seconds(stageMetrics.readerBusyNanos);
+        double readerBlocked = seconds(stageMetrics.readerBlockedNanos);
+        double writerBusy = seconds(stageMetrics.writerBusyNanos);
+        double writerIdle = seconds(stageMetrics.writerIdleNanos);
+        long depthSamples = stageMetrics.depthSamples.sum();
+        double averageDepth = depthSamples == 0 ? 0 : (double) stageMetrics.depthTotal.sum() / depthSamples;
+
+        // readers waiting on a full queue means the writers cannot keep up, and the other way round
+        String bottleneck = readerBlocked > writerIdle ? "writers" : "readers";
+        LOG.info("Pipeline stage: " + stage +
+                ", read " + stageMetrics.linesRead.sum() + " lines in " + String.format("%.1f", readerBusy) + "s (" +
+                String.format("%.1f", stageMetrics.linesRead.sum() / Math.max(readerBusy, 0.001)) + " lines/sec), " +
+                String.format("%.1f", readerBlocked) + "s blocked on a full queue" +
+                "; wrote " + stageMetrics.recordsWritten.sum() + " records in " + stageMetrics.batchesWritten.sum() + " batches in " +
+                String.format("%.1f", writerBusy) + "s (" + String.format("%.1f", stageMetrics.recordsWritten.sum() / Math.max(writerBusy, 0.001)) + " records/sec), " +
+                String.format("%.1f", writerIdle) + "s waiting for records" +
+                "; queue depth avg " + String.format("%.1f", averageDepth) + ", max " + stageMetrics.maxDepth.get() + " of " + queueCapacity +
+                "; bottleneck: " + bottleneck);
+    }
+
+    private static double seconds(LongAdder nanos) {
+        return nanos.sum() / 1_000_000_000.0;
+    }
+
+    @Override
+    public void close() {
+        threads.shutdownNow();
+    }
+
+    /**
+     * Live metrics of the file being imported
+     */
+    private class TypeMetrics {
+        private final MigrationMetrics.Counter linesRead;
+        private final MigrationMetrics.Counter conceptsWritten;
+        private final MigrationMetrics.Counter transactions;
+        private final MigrationMetrics.Histogram transactionSeconds;
+
+        TypeMetrics(String stage, String name) {
+            linesRead = migrationMetrics.counter(MigrationMetrics.Metric.LINES_READ, stage, name);
+            conceptsWritten = migrationMetrics.counter(MigrationMetrics.Metric.CONCEPTS_WRITTEN, stage, name);
+            transactions = migrationMetrics.counter(MigrationMetrics.Metric.TRANSACTIONS, stage, name);
+            transactionSeconds = migrationMetrics.histogram(MigrationMetrics.Metric.TRANSACTION_SECONDS, stage, name);
+        }
+    }
+
+    /**
+     * Counters of one stage, summed over all the files and threads of the stage. Times are in thread-nanoseconds,
+     * so with several writers the writer times add up to more than the wall clock time
+     */
+    private static class StageMetrics {
+        private final LongAdder linesRead = new LongAdder();
+        private final LongAdder readerBusyNanos = new LongAdder();
+        private final LongAdder readerBlockedNanos = new LongAdder();
+        private final LongAdder batchesWritten = new LongAdder();
+        private final LongAdder recordsWritten = new LongAdder();
+        private final LongAdder writerBusyNanos = new LongAdder();
+        private final LongAdder writerIdleNanos = new LongAdder();
+        private final LongAdder depthTotal = new LongAdder();
+        private final LongAdder depthSamples = new LongAdder();
+        private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+        void queueDepth(int depth) {
+            depthTotal.add(depth);
+            depthSamples.increment();
+            maxDepth.accumulate(depth);
+        }
+    }
+}
@@ -0,0 +1,773 @@
+package migrate.importer;
+
+import migrate.common.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static migrate.importer.ImportWorkerPool.dataFiles;
+import static migrate.importer.ImportWorkerPool.textFile;
+
+/**
+ * Offline plan of an import: scans the `data` directory of an export, without connecting to Grakn, to tell what
+ * importing it will cost before a migration is started. It reports the records and bytes of each type, histograms of
+ * the role players per relation and per role, the relations that will be incomplete (some role player not imported
+ * yet) when the relation files are imported in their current order, the largest cycle among them, which may have to
+ * be inserted in one transaction, and the memory the ID mapping will take with each `--id-store`.
+ * <p>
+ * Files are split into ranges of `chunkBytes`, tokenized in parallel straight from the memory-mapped files, in three
+ * passes: every file for the counts and the positions of the relations, the relation files for the role players that
+ * are relations, then the incomplete relations and the ownerships. Only the relations, as hashes of their IDs, the
+ * role players that are relations and the incomplete relations are held in memory.
+ * <p>
+ * Binary and block compressed data files are decoded to uncompressed text in the staging directory before the first
+ * pass, one file per thread, and kept until the last pass: the staging directory needs free space for the text of all
+ * of them at once
+ */
+public class ImportPlan {
+    private static final Logger LOG = LoggerFactory.getLogger(ImportPlan.class);
+
+    static final String USAGE = "Error - correct arguments: [absolute data directory] [--workers=N] [--staging-path=DIR]";
+
+    private static final long DEFAULT_CHUNK_BYTES = 64L << 20;
+    private static final String[] PHASES = {EntityLoader.STAGE, AttributeLoader.STAGE, RelationLoader.STAGE, OwnershipLoader.STAGE};
+    // positions are (relation file index << FILE_SHIFT | line offset), so they are ordered as the importer reads the lines
+    private static final int FILE_SHIFT = 40;
+    private static final long NO_POSITION = -1;
+    // histogram buckets: no role players, then powers of two
+    private static final int BUCKETS = 66;
+
+    private final Path importPath;
+    private final int workers;
+    private final long chunkBytes;
+    private final Path stagingPath;
+
+    /**
+     * @param importPath - data directory of an export
+     * @param workers - threads decoding the files and scanning ranges of them concurrently
+     * @param chunkBytes - size of the ranges the files are split into
+     * @param stagingPath - directory to decode binary and compressed data files to
+     */
+    ImportPlan(Path importPath, int workers, long chunkBytes, Path stagingPath) {
+        this.importPath = importPath;
+        this.workers = workers;
+        this.chunkBytes = chunkBytes;
+        this.stagingPath = stagingPath;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> positional = new ArrayList<>();
+        int workers = Runtime.getRuntime().availableProcessors();
+        Path stagingPath = null;
+        for (String arg : args) {
+            if (arg.startsWith("--workers=")) {
+                workers = Integer.parseInt(arg.substring("--workers=".length()));
+            } else if (arg.startsWith("--staging-path=")) {
+                stagingPath = Paths.get(arg.substring("--staging-path=".length()));
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                positional.add(arg);
+            }
+        }
+        if (positional.size() != 1 || workers <= 0) {
+            System.out.println(USAGE);
+            System.exit(1);
+        }
+
+        Path importPath = Paths.get(positional.get(0));
+        if (stagingPath == null) {
+            stagingPath = importPath.toAbsolutePath().resolveSibling(importPath.getFileName() + ".plan-staging");
+        }
+        new ImportPlan(importPath, workers, DEFAULT_CHUNK_BYTES, stagingPath).scan().log();
+    }
+
+    /**
+     * A byte range of one data file, scanned by one task
+     */
+    private static class Chunk {
+        private final TypeStats type;
+        private final int fileIndex;
+        private final Path file;
+        private final long from;
+        private final long to;
+
+        Chunk(TypeStats type, int fileIndex, Path file, long from, long to) {
+            this.type = type;
+            this.fileIndex = fileIndex;
+            this.file = file;
+            this.from = from;
+            this.to = to;
+        }
+
+        boolean isRelation() {
+            return type.phase.equals(RelationLoader.STAGE);
+        }
+
+        boolean isOwnership() {
+            return type.phase.equals(OwnershipLoader.STAGE);
+        }
+    }
+
+    private interface ChunkTask<T> {
+        T scan(Chunk chunk) throws IOException;
+    }
+
+    Report scan() throws IOException {
+        long start = System.nanoTime();
+        Report report = new Report(importPath);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "import-plan-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Path> staged = new ArrayList<>();
+        try {
+            List<Chunk> chunks = new ArrayList<>();
+            for (Map.Entry<String, List<Path>> phase : textFiles(threads, staged).entrySet()) {
+                List<Path> files = phase.getValue();
+                for (int fileIndex = 0; fileIndex < files.size(); fileIndex++) {
+                    Path file = files.get(fileIndex);
+                    TypeStats type = new TypeStats(phase.getKey(), file.getFileName().toString());
+                    report.types.put(phase.getKey() + "/" + type.name, type);
+                    long size = Files.size(file);
+                    type.bytes = size;
+                    report.bytes += size;
+                    for (long from = 0; from < size; from += chunkBytes) {
+                        chunks.add(new Chunk(type, fileIndex, file, from, from + chunkBytes));
+                    }
+                }
+            }
+            List<Chunk> relationChunks = new ArrayList<>();
+            List<Chunk> thirdPassChunks = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                if (chunk.isRelation()) {
+                    relationChunks.add(chunk);
+                }
+                if (chunk.isRelation() || chunk.isOwnership()) {
+                    thirdPassChunks.add(chunk);
+                }
+            }
+
+            LOG.info("Scanning " + report.types.size() + " data files, " + size(report.bytes) + " in " + chunks.size() +
+                    " ranges with " + workers + " threads...");
+            LongTable relations = new LongTable();
+            for (ChunkCounts counts : parallel(threads, chunks, this::count)) {
+                counts.addTo(report, relations);
+            }
+
+            LOG.info("Finding the role players of " + report.relations + " relations...");
+            LongTable incomplete = new LongTable();
+            for (LongList rolePlayers : parallel(threads, relationChunks, chunk -> relationRolePlayers(chunk, relations))) {
+                markIncomplete(rolePlayers, incomplete);
+            }
+
+            LOG.info("Collecting " + incomplete.size() + " incomplete relations...");
+            for (List<Import.IncompleteRelation> found : parallel(threads, thirdPassChunks, chunk -> incomplete(chunk, relations, incomplete))) {
+                report.incompleteRelations.addAll(found);
+            }
+        } finally {
+            threads.shutdownNow();
+            for (Path file : staged) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        for (List<Import.IncompleteRelation> component : new RelationDependencyGraph(report.incompleteRelations).stronglyConnectedComponents()) {
+            if (component.size() > 1 || IncompleteRelationLoader.dependsOnItself(component.get(0))) {
+                report.cycles++;
+                report.largestCycle = Math.max(report.largestCycle, component.size());
+            }
+        }
+        report.nanos = System.nanoTime() - start;
+        return report;
+    }
+
+    /**
+     * Decode the binary and compressed data files of every phase to text in the staging directory, one file per thread
+     *
+     * @param staged - receives the decoded files, including those of a failed decoding, to delete after the scan
+     * @return the data files of each phase as text, in the order the importer reads them in with one worker
+     */
+    private Map<String, List<Path>> textFiles(ExecutorService threads, List<Path> staged) throws IOException {
+        Map<String, List<Path>> dataFiles = new LinkedHashMap<>();
+        Map<Path, Future<Path>> decoding = new HashMap<>();
+        for (String phase : PHASES) {
+            Path directory = importPath.resolve(phase);
+            if (!Files.isDirectory(directory)) {
+                continue;
+            }
+            List<Path> files = dataFiles(directory);
+            dataFiles.put(phase, files);
+            for (Path file : files) {
+                // the blocks of a compressed file are decompressed by the thread decoding it, the others decode other files
+                decoding.put(file, threads.submit(() -> textFile(file, stagingPath, Runnable::run)));
+            }
+        }
+
+        Map<String, List<Path>> textFiles = new LinkedHashMap<>();
+        long stagedBytes = 0;
+        // every file is awaited before a failure is thrown, so that the files decoded by then are deleted
+        Exception failure = null;
+        for (Map.Entry<String, List<Path>> phase : dataFiles.entrySet()) {
+            List<Path> files = new ArrayList<>();
+            for (Path file : phase.getValue()) {
+                try {
+                    Path textFile = result(decoding.get(file));
+                    if (!textFile.equals(file)) {
+                        staged.add(textFile);
+                        stagedBytes += Files.size(textFile);
+                    }
+                    files.add(textFile);
+                } catch (IOException | RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            textFiles.put(phase.getKey(), files);
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+        if (!staged.isEmpty()) {
+            LOG.info("Decoded " + staged.size() + " binary or compressed data files to " + size(stagedBytes) + " of text in " + stagingPath);
+        }
+        return textFiles;
+    }
+
+    private static <T> List<T> parallel(ExecutorService threads, List<Chunk> chunks, ChunkTask<T> task) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            futures.add(threads.submit(() -> task.scan(chunk)));
+        }
+        // in chunk order, which is the order of the files and of the lines in them
+        List<T> results = new ArrayList<>(chunks.size());
+        for (Future<T> future : futures) {
+            results.add(result(future));
+        }
+        return results;
+    }
+
+    private static <T> T result(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while scanning the data files", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Counts of one range, merged into the report in chunk order
+     */
+    private static class ChunkCounts {
+        private final TypeStats type;
+        private long records;
+        private final long[] arity = new long[BUCKETS];
+        private final long[] playersPerRole = new long[BUCKETS];
+        private long ids;
+        private long idBytes;
+        private long encodableIds;
+        private long unencodableIdBytes;
+        private long idsTooLongToMap;
+        // hash and position of each relation, alternating
+        private final LongList relations = new LongList();
+
+        ChunkCounts(TypeStats type) {
+            this.type = type;
+        }
+
+        void id(DataFileTokenizer.Token id) {
+            ids++;
+            idBytes += id.length();
+            if (CompactIdMapping.encode(id) != 0) {
+                encodableIds++;
+            } else {
+                unencodableIdBytes += id.length();
+            }
+            if (id.length() > MappedIdMapping.MAX_ID_BYTES) {
+                idsTooLongToMap++;
+            }
+        }
+
+        void addTo(Report report, LongTable relationPositions) {
+            type.records += records;
+            for (int i = 0; i < BUCKETS; i++) {
+                type.arity[i] += arity[i];
+                type.playersPerRole[i] += playersPerRole[i];
+            }
+            report.ids += ids;
+            report.idBytes += idBytes;
+            report.encodableIds += encodableIds;
+            report.unencodableIdBytes += unencodableIdBytes;
+            report.idsTooLongToMap += idsTooLongToMap;
+            report.relations += relations.size() / 2;
+            for (int i = 0; i < relations.size(); i += 2) {
+                relationPositions.put(relations.get(i), relations.get(i + 1));
+            }
+        }
+    }
+
+    /**
+     * First pass: records, IDs and role players of any data file
+     */
+    private ChunkCounts count(Chunk chunk) throws IOException {
+        ChunkCounts counts = new ChunkCounts(chunk.type);
+        try (DataFileTokenizer line = new DataFileTokenizer(chunk.file, chunk.from, chunk.to)) {
+            while (line.nextLine()) {
+                counts.records++;
+                if (chunk.isOwnership()) {
+                    continue;
+                }
+                DataFileTokenizer.Token id = line.nextField();
+                if (id == null) {
+                    continue;
+                }
+                counts.id(id);
+                if (!chunk.isRelation()) {
+                    continue;
+                }
+                counts.relations.add(Hashing.hash(id));
+                counts.relations.add(position(chunk.fileIndex, line.lineStart()));
+
+                int players = 0;
+                while (line.nextGroup()) {
+                    if (line.nextField() == null) {
+                        continue;
+                    }
+                    int rolePlayers = 0;
+                    while (line.nextField() != null) {
+                        rolePlayers++;
+                    }
+                    counts.playersPerRole[bucket(rolePlayers)]++;
+                    players += rolePlayers;
+                }
+                counts.arity[bucket(players)]++;
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Second pass: the role players of each relation that are relations themselves
+     *
+     * @return the position of each relation that has any, then their number and their positions
+     */
+    private static LongList relationRolePlayers(Chunk chunk, LongTable relations) throws IOException {
+        LongList rolePlayers = new LongList();
+        try (DataFileTokenizer line = new DataFileTokenizer(chunk.file, chunk.from, chunk.to)) {
+            while (line.nextLine()) {
+                if (line.nextField() == null) {
+                    continue;
+                }
+                int start = rolePlayers.size();
+                rolePlayers.add(position(chunk.fileIndex, line.lineStart()));
+                rolePlayers.add(0);
+                while (line.nextGroup()) {
+                    if (line.nextField() == null) {
+                        continue;
+                    }
+                    DataFileTokenizer.Token player;
+                    while ((player = line.nextField()) != null) {
+                        long position = relations.get(Hashing.hash(player));
+                        if (position != NO_POSITION) {
+                            rolePlayers.add(position);
+                        }
+                    }
+                }
+                int count = rolePlayers.size() - start - 2;
+                if (count == 0) {
+                    rolePlayers.truncate(start);
+                } else {
+                    rolePlayers.set(start + 1, count);
+                }
+            }
+        }
+        return rolePlayers;
+    }
+
+    /**
+     * Relations are read in position order, so a relation is incomplete if a role player is a relation that comes
+     * later (or itself), or that was incomplete already. Entities and attributes are all imported before the relations
+     */
+    private static void markIncomplete(LongList rolePlayers, LongTable incomplete) {
+        for (int i = 0; i < rolePlayers.size(); ) {
+            long position = rolePlayers.get(i);
+            int count = (int) rolePlayers.get(i + 1);
+            for (int j = i + 2; j < i + 2 + count; j++) {
+                long rolePlayer = rolePlayers.get(j);
+                if (rolePlayer >= position || incomplete.get(rolePlayer) != NO_POSITION) {
+                    incomplete.put(position, position);
+                    break;
+                }
+            }
+            i += 2 + count;
+        }
+    }
+
+    /**
+     * Third pass: the incomplete relations as the importer will hold them, and the ownerships of incomplete relations
+     */
+    private static List<Import.IncompleteRelation> incomplete(Chunk chunk, LongTable relations, LongTable incomplete) throws IOException {
+        List<Import.IncompleteRelation> found = new ArrayList<>();
+        long incompleteOwnerships = 0;
+        try (DataFileTokenizer line = new DataFileTokenizer(chunk.file, chunk.from, chunk.to)) {
+            while (line.nextLine()) {
+                if (chunk.isOwnership()) {
+                    if (line.nextField() == null) {
+                        continue;
+                    }
+                    DataFileTokenizer.Token owner = line.nextField();
+                    if (owner != null && incomplete.get(relations.get(Hashing.hash(owner))) != NO_POSITION) {
+                        incompleteOwnerships++;
+                    }
+                    continue;
+                }
+
+                if (incomplete.get(position(chunk.fileIndex, line.lineStart())) == NO_POSITION) {
+                    continue;
+                }
+                DataFileTokenizer.Token id = line.nextField();
+                if (id == null) {
+                    continue;
+                }
+                String oldId = id.toString();
+                Map<String, Set<String>> oldIdsPerRole = new HashMap<>();
+                while (line.nextGroup()) {
+                    DataFileTokenizer.Token role = line.nextField();
+                    if (role == null) {
+                        continue;
+                    }
+                    Set<String> players = oldIdsPerRole.computeIfAbsent(role.toString(), key -> new HashSet<>());
+                    DataFileTokenizer.Token player;
+                    while ((player = line.nextField()) != null) {
+                        players.add(player.toString());
+                    }
+                }
+                found.add(new Import.IncompleteRelation(chunk.type.name, oldId, oldIdsPerRole));
+            }
+        }
+        // chunks of one file are scanned concurrently
+        synchronized (chunk.type) {
+            chunk.type.incomplete += chunk.isOwnership() ? incompleteOwnerships : found.size();
+        }
+        return found;
+    }
+
+    private static long position(int fileIndex, long lineStart) {
+        return ((long) fileIndex << FILE_SHIFT) | lineStart;
+    }
+
+    private static int bucket(int count) {
+        return count == 0 ? 0 : 65 - Long.numberOfLeadingZeros(count - 1);
+    }
+
+    private static String bucketLabel(int bucket) {
+        if (bucket < 2) {
+            return Integer.toString(bucket);
+        }
+        long low = (1L << (bucket - 2)) + 1;
+        long high = 1L << (bucket - 1);
+        return low == high ? Long.toString(high) : low + "-" + high;
+    }
+
+    private static String histogram(long[] buckets) {
+        StringBuilder histogram = new StringBuilder("[");
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] > 0) {
+                if (histogram.length() > 1) {
+                    histogram.append(", ");
+                }
+                histogram.append(bucketLabel(i)).append(": ").append(buckets[i]);
+            }
+        }
+        return histogram.append(']').toString();
+    }
+
+    static String size(long bytes) {
+        if (bytes < 1 << 10) {
+            return bytes + "B";
+        } else if (bytes < 1 << 20) {
+            return String.format("%.1fKB", bytes / 1024.0);
+        } else if (bytes < 1 << 30) {
+            return String.format("%.1fMB", bytes / (1024.0 * 1024));
+        }
+        return String.format("%.1fGB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    /**
+     * Records of one data file
+     */
+    static class TypeStats {
+        private final String phase;
+        private final String name;
+        private long records;
+        private long bytes;
+        // relations, or ownerships of incomplete relations
+        private long incomplete;
+        // role players per relation, and per role of a relation
+        private final long[] arity = new long[BUCKETS];
+        private final long[] playersPerRole = new long[BUCKETS];
+
+        TypeStats(String phase, String name) {
+            this.phase = phase;
+            this.name = name;
+        }
+
+        long records() {
+            return records;
+        }
+
+        long incomplete() {
+            return incomplete;
+        }
+    }
+
+    /**
+     * What the scan found, and the estimates made from it
+     */
+    static class Report {
+        private final Path importPath;
+        // in the order the importer reads them
+        private final Map<String, TypeStats> types = new LinkedHashMap<>();
+        private final List<Import.IncompleteRelation> incompleteRelations = new ArrayList<>();
+        private long bytes;
+        private long relations;
+        private long ids;
+        private long idBytes;
+        private long encodableIds;
+        private long unencodableIdBytes;
+        private long idsTooLongToMap;
+        private int cycles;
+        private int largestCycle;
+        private long nanos;
+
+        Report(Path importPath) {
+            this.importPath = importPath;
+        }
+
+        /**
+         * @param phase - stage of the importer that reads the type
+         * @param name - type
+         */
+        TypeStats type(String phase, String name) {
+            return types.get(phase + "/" + name);
+        }
+
+        long ids() {
+            return ids;
+        }
+
+        long incompleteRelations() {
+            return incompleteRelations.size();
+        }
+
+        long incompleteOwnerships() {
+            return types.values().stream().filter(type -> type.phase.equals(OwnershipLoader.STAGE)).mapToLong(type -> type.incomplete).sum();
+        }
+
+        int cycles() {
+            return cycles;
+        }
+
+        int largestCycle() {
+            return largestCycle;
+        }
+
+        /**
+         * @return rough heap taken by the ID mapping with `--id-store=memory`
+         */
+        long memoryIdStoreBytes() {
+            return InMemoryIdMapping.heapBytes(ids, idBytes);
+        }
+
+        /**
+         * @return rough heap taken by the ID mapping with `--id-store=compact`
+         */
+        long compactIdStoreBytes() {
+            return CompactIdMapping.tableBytes(encodableIds) + InMemoryIdMapping.heapBytes(ids - encodableIds, unencodableIdBytes);
+        }
+
+        /**
+         * @return size of the file backing the ID mapping with `--id-store=mapped`
+         */
+        long mappedIdStoreBytes() {
+            return MappedIdMapping.fileBytes(Import.MAPPED_ID_STORE_INITIAL_SIZE, ids);
+        }
+
+        void log() {
+            LOG.info("Import plan of: " + importPath);
+            for (TypeStats type : types.values()) {
+                StringBuilder line = new StringBuilder(type.phase).append(" type: ").append(type.name).append(", records: ").append(type.records)
+                        .append(", size: ").append(size(type.bytes));
+                if (type.phase.equals(RelationLoader.STAGE)) {
+                    line.append(", incomplete: ").append(type.incomplete)
+                            .append(", role players per relation: ").append(histogram(type.arity))
+                            .append(", per role: ").append(histogram(type.playersPerRole));
+                } else if (type.phase.equals(OwnershipLoader.STAGE)) {
+                    line.append(", of incomplete relations: ").append(type.incomplete);
+                }
+                LOG.info(line.toString());
+            }
+            for (String phase : PHASES) {
+                long records = 0;
+                long bytes = 0;
+                long files = 0;
+                for (TypeStats type : types.values()) {
+                    if (type.phase.equals(phase)) {
+                        records += type.records;
+                        bytes += type.bytes;
+                        files++;
+                    }
+                }
+                LOG.info("Total " + phase + " types: " + files + ", records: " + records + ", size: " + size(bytes));
+            }
+
+            LOG.info("Incomplete relations: " + incompleteRelations.size() + " of " + relations + ", in " + cycles +
+                    " cycles, the largest of " + largestCycle + " relations (inserted in one transaction at worst)" +
+                    ", incomplete ownerships: " + incompleteOwnerships());
+            LOG.info("Concept IDs to map: " + ids + ", average length: " + String.format("%.1f", (double) idBytes / Math.max(ids, 1)) +
+                    ", not encodable by the compact store: " + (ids - encodableIds) + ", too long for the mapped store: " + idsTooLongToMap);
+            LOG.info("ID mapping size: --id-store=memory ~" + size(memoryIdStoreBytes()) + " heap, compact ~" + size(compactIdStoreBytes()) +
+                    " heap, mapped " + size(mappedIdStoreBytes()) + " file (up to 1.5 times while it grows)");
+            double seconds = nanos / 1_000_000_000.0;
+            LOG.info("Scanned " + size(bytes) + " in " + String.format("%.1f", seconds) + "s (" + size((long) (bytes / Math.max(seconds, 0.001))) + "/sec). " +
+                    "Incomplete relations assume the relation files are imported one after the other (--workers=1) in the order above; " +
+                    "role players missing from the data make more relations incomplete");
+        }
+    }
+
+    /**
+     * Growable list of primitive longs
+     */
+    private static class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        void set(int index, long value) {
+            values[index] = value;
+        }
+
+        void truncate(int newSize) {
+            size = newSize;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * Open-addressing table of long keys to non-negative long values, with linear probing. Built by one thread and
+     * read concurrently once it is complete
+     */
+    private static class LongTable {
+        private static final double MAX_LOAD = 0.5;
+
+        private long[] keys = new long[1024];
+        private long[] values = new long[1024];
+        private boolean[] used = new boolean[1024];
+        private int size;
+
+        void put(long key, long value) {
+            if (size + 1 > keys.length * MAX_LOAD) {
+                resize();
+            }
+            if (insert(keys, values, used, key, value)) {
+                size++;
+            }
+        }
+
+        long get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = (int) mix(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return NO_POSITION;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void resize() {
+            int capacity = keys.length * 2;
+            long[] newKeys = new long[capacity];
+            long[] newValues = new long[capacity];
+            boolean[] newUsed = new boolean[capacity];
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (used[slot]) {
+                    insert(newKeys, newValues, newUsed, keys[slot], values[slot]);
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+            used = newUsed;
+        }
+
+        /**
+         * @return true if the key was not present yet
+         */
+        private static boolean insert(long[] keys, long[] values, boolean[] used, long key, long value) {
+            int mask = keys.length - 1;
+            for (int slot = (int) mix(key) & mask; ; slot = (slot + 1) & mask) {
+                if (!used[slot]) {
+                    used[slot] = true;
+                    keys[slot] = key;
+                    values[slot] = value;
+                    return true;
+                } else if (keys[slot] == key) {
+                    values[slot] = value;
+                    return false;
+                }
+            }
+        }
+
+        // positions are not spread at all, hashes already are
+        private static long mix(long key) {
+            return key ^ (key >>> 29) ^ (key >>> 47);
+        }
+    }
+}
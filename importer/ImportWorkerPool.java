@@ -0,0 +1,272 @@
+package migrate.importer;
+
+import grakn.client.GraknClient;
+import migrate.common.BinaryDataFileReader;
+import migrate.common.BlockCompressedFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Fixed pool of import workers, each holding its own Grakn session (and therefore its own transaction stream).
+ * <p>
+ * Work is submitted one phase at a time: every file of a phase is imported concurrently, and each phase
+ * is awaited before the next one starts, so that the ordering between phases is preserved
+ * (entities and attributes before relations, relations before ownerships). Once a file of a phase fails, the files not
+ * started yet are skipped, and the phase fails once the running ones are done, so no session is closed under them.
+ * <p>
+ * Block compressed files are decompressed into a staging directory just before they are imported, and the copy is
+ * deleted once the file is imported. Binary files are read as they are by the loaders that parse binary records
+ * (entities and relations), and decoded to uncompressed text in the staging directory for the others, which sort a
+ * text copy of the file. The blocks of a compressed file are verified and decompressed on a pool of their own, one
+ * thread per core
+ */
+class ImportWorkerPool implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ImportWorkerPool.class);
+
+    /**
+     * Imports one data file using the calling worker's session
+     */
+    interface FileTask {
+        void importFile(GraknClient.Session session, Path file) throws IOException;
+    }
+
+    private final GraknClient client;
+    private final String keyspace;
+    private final Path stagingPath;
+    private final ExecutorService executor;
+    private final ExecutorService blockThreads;
+    private final ThreadLocal<GraknClient.Session> workerSession = new ThreadLocal<>();
+    private final List<GraknClient.Session> openSessions = new ArrayList<>();
+
+    /**
+     * @param stagingPath - directory to decode binary and block compressed data files to
+     */
+    ImportWorkerPool(GraknClient client, String keyspace, int workers, Path stagingPath) {
+        this.client = client;
+        this.keyspace = keyspace;
+        this.stagingPath = stagingPath;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "import-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger blockThreadCount = new AtomicInteger();
+        this.blockThreads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "import-decompress-" + blockThreadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start a new phase. Files submitted to the phase are imported concurrently, and `await` blocks
+     * until all of them have completed
+     *
+     * @param name - name of the phase for logging
+     */
+    Phase startPhase(String name) {
+        return new Phase(name);
+    }
+
+    class Phase {
+        private final String name;
+        private final long start = System.currentTimeMillis();
+        private final List<Path> files = new ArrayList<>();
+        private final List<Future<?>> futures = new ArrayList<>();
+        private final AtomicBoolean failed = new AtomicBoolean(false);
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @param files - data files, one per type
+         * @param task - import to perform on each file, given as uncompressed text
+         */
+        Phase submit(List<Path> files, FileTask task) {
+            return submit(files, task, false);
+        }
+
+        /**
+         * @param files - data files, one per type
+         * @param task - import to perform on each file, given uncompressed, in the text or the binary format
+         */
+        Phase submitRecords(List<Path> files, FileTask task) {
+            return submit(files, task, true);
+        }
+
+        private Phase submit(List<Path> files, FileTask task, boolean binary) {
+            for (Path file : files) {
+                this.files.add(file);
+                futures.add(executor.submit(() -> {
+                    if (failed.get()) {
+                        return null;
+                    }
+                    try {
+                        Path stagedFile = binary ? uncompressedFile(file, stagingPath, blockThreads) : textFile(file, stagingPath, blockThreads);
+                        try {
+                            task.importFile(session(), stagedFile);
+                        } finally {
+                            if (!stagedFile.equals(file)) {
+                                Files.deleteIfExists(stagedFile);
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+            return this;
+        }
+
+        /**
+         * Wait for every file of the phase to be imported or skipped
+         *
+         * @throws RuntimeException - naming the file of the first failed import, with the failures of the others suppressed
+         */
+        void await() {
+            RuntimeException failure = null;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failed.set(true);
+                    throw new RuntimeException("Interrupted during import phase: " + name, e);
+                } catch (ExecutionException e) {
+                    RuntimeException fileFailure = new RuntimeException("Failed import phase: " + name + ", file: " + files.get(i), e.getCause());
+                    if (failure == null) {
+                        failure = fileFailure;
+                    } else {
+                        failure.addSuppressed(fileFailure);
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            LOG.info("Finished " + name + " (" + futures.size() + " files) in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    /**
+     * @return the regular files directly under the given directory
+     */
+    static List<Path> dataFiles(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> Files.isRegularFile(path)).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * @param file - data file in the text or the binary format, block compressed or not
+     * @param stagingPath - directory to decode binary and compressed files to, under the name of their phase directory
+     * @param blockThreads - decompress the blocks of compressed files concurrently
+     * @return the file itself if it is uncompressed text, or a copy decoded to uncompressed text under the same name,
+     * as the loaders take the type from the file name. Decoding is deterministic, so the offsets journaled by a
+     * previous run still apply to the copy
+     */
+    static Path textFile(Path file, Path stagingPath, Executor blockThreads) throws IOException {
+        boolean compressed = BlockCompressedFile.isBlockCompressed(file);
+        if (!compressed && !BinaryDataFileReader.isBinary(file)) {
+            return file;
+        }
+        Path decoded = stagedFile(file, stagingPath);
+        Path binaryFile = file;
+        if (compressed) {
+            Path decompressed = decompress(file, decoded.resolveSibling(decoded.getFileName() + ".decompressed"), blockThreads);
+            if (!BinaryDataFileReader.isBinary(decompressed)) {
+                return Files.move(decompressed, decoded, StandardCopyOption.REPLACE_EXISTING);
+            }
+            binaryFile = decompressed;
+        }
+        try {
+            long start = System.nanoTime();
+            long records = BinaryDataFileReader.decode(binaryFile, decoded);
+            LOG.info("Decoded binary data file: " + file + ", records: " + records + ", " + Files.size(binaryFile) + " bytes to " +
+                    Files.size(decoded) + " bytes of text in " + String.format("%.1f", (System.nanoTime() - start) / 1_000_000_000.0) + "s");
+        } finally {
+            if (!binaryFile.equals(file)) {
+                Files.delete(binaryFile);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * @param file - data file in the text or the binary format, block compressed or not
+     * @param stagingPath - directory to decompress compressed files to, under the name of their phase directory
+     * @param blockThreads - decompress the blocks of compressed files concurrently
+     * @return the file itself if it is uncompressed, or a decompressed copy under the same name. Decompression is
+     * deterministic, so the offsets journaled by a previous run still apply to the copy
+     */
+    static Path uncompressedFile(Path file, Path stagingPath, Executor blockThreads) throws IOException {
+        if (!BlockCompressedFile.isBlockCompressed(file)) {
+            return file;
+        }
+        return decompress(file, stagedFile(file, stagingPath), blockThreads);
+    }
+
+    private static Path stagedFile(Path file, Path stagingPath) throws IOException {
+        return Files.createDirectories(stagingPath.resolve(file.toAbsolutePath().getParent().getFileName().toString()))
+                .resolve(file.getFileName().toString());
+    }
+
+    private static Path decompress(Path file, Path decompressed, Executor blockThreads) throws IOException {
+        long start = System.nanoTime();
+        long records = BlockCompressedFile.decompress(file, decompressed, blockThreads);
+        LOG.info("Decompressed data file: " + file + ", records: " + records + ", " + Files.size(file) + " bytes to " +
+                Files.size(decompressed) + " bytes in " + String.format("%.1f", (System.nanoTime() - start) / 1_000_000_000.0) + "s");
+        return decompressed;
+    }
+
+    private GraknClient.Session session() {
+        GraknClient.Session session = workerSession.get();
+        if (session == null) {
+            session = client.session(keyspace);
+            workerSession.set(session);
+            synchronized (openSessions) {
+                openSessions.add(session);
+            }
+        }
+        return session;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        blockThreads.shutdown();
+        // running imports finish before their sessions are closed, those of a failed phase skip their file
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                LOG.info("Waiting for running imports to finish");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (openSessions) {
+            openSessions.forEach(GraknClient.Session::close);
+            openSessions.clear();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Heap-backed ID mapping, suitable for keyspaces whose mapping comfortably fits in memory
+ */
+class InMemoryIdMapping implements IdMapping {
+    // map node, its share of the table, and the headers of the key String, the ConceptId and its String (compressed oops)
+    private static final long ENTRY_OVERHEAD_BYTES = 136;
+
+    private final Map<String, ConceptId> mapping = new ConcurrentHashMap<>();
+
+    /**
+     * @param mappings - number of mappings
+     * @param idBytes - total length of the old IDs, assumed to be the same as that of the new IDs
+     * @return rough heap taken by the mappings
+     */
+    static long heapBytes(long mappings, long idBytes) {
+        // the ID strings are padded to 8 bytes, half of it on average
+        return mappings * (ENTRY_OVERHEAD_BYTES + 2 * 4) + 2 * idBytes;
+    }
+
+    @Override
+    public void put(String oldId, ConceptId newId) {
+        mapping.put(oldId, newId);
+    }
+
+    @Override
+    public ConceptId get(String oldId) {
+        return mapping.get(oldId);
+    }
+
+    @Override
+    public boolean contains(String oldId) {
+        return mapping.containsKey(oldId);
+    }
+
+    @Override
+    public long size() {
+        return mapping.size();
+    }
+
+    @Override
+    public void close() {
+        mapping.clear();
+    }
+}
@@ -0,0 +1,327 @@
+package migrate.importer;
+
+import grakn.client.GraknClient;
+import grakn.client.concept.ConceptId;
+import grakn.client.concept.thing.Relation;
+import grakn.client.concept.type.RelationType;
+import grakn.client.concept.type.Role;
+import migrate.common.MigrationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Import the relations that could not be inserted in the first pass because some role players did not exist yet.
+ * <p>
+ * Relations are inserted in the dependency order given by the strongly connected components of their
+ * {@link RelationDependencyGraph}, in transactions of up to `batchSize` relations. Relations that are not part
+ * of a cycle always have all their role players available by the time they are inserted.
+ * <p>
+ * A cycle is split across transactions where it allows: a transaction may be committed once every relation in it
+ * has at least one role player (committed, or created in the same transaction), since a relation without role
+ * players cannot be committed. Role players that do not exist yet at that point are assigned afterwards, once every
+ * relation has been created. In the worst case (eg. relations whose only role players are each other) the whole
+ * component ends up in one transaction.
+ * <p>
+ * Relations none of whose role players exist anywhere in the data cannot be committed at all. They are left out of
+ * their transaction, so that they do not fail it together with the rest of the batch, and recorded as skipped in the
+ * journal, which reports them as mismatches of their relation type.
+ */
+class IncompleteRelationLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(IncompleteRelationLoader.class);
+    private static final String STAGE = "incomplete-relation";
+    private static final String DEFERRED_STAGE = "deferred-role-player";
+    private static final String SKIPPED_STAGE = "skipped-relation";
+
+    private final IdMapping idRemapping;
+    private final SchemaCache schema;
+    private final int batchSize;
+    private final ImportJournal journal;
+    private final MigrationMetrics metrics;
+    private final CommitRetry retry;
+
+    // role players that did not exist yet when their relation was committed
+    private final List<DeferredRolePlayer> deferred = new ArrayList<>();
+
+    /**
+     * @param journal - records committed batches and deferred role players, and restores those of a previous run
+     * @param metrics - live metrics of the import
+     * @param retry - retries the transactions that fail to commit
+     */
+    IncompleteRelationLoader(IdMapping idRemapping, SchemaCache schema, int batchSize, ImportJournal journal, MigrationMetrics metrics,
+                             CommitRetry retry) {
+        this.idRemapping = idRemapping;
+        this.schema = schema;
+        this.batchSize = batchSize;
+        this.journal = journal;
+        this.metrics = metrics;
+        this.retry = retry;
+        deferred.addAll(journal.deferredRolePlayers());
+    }
+
+    void importRelations(GraknClient.Session session, List<Import.IncompleteRelation> incompleteRelations) {
+        Plan plan = plan(incompleteRelations);
+        skip(plan.skipped);
+        for (List<Import.IncompleteRelation> batch : plan.batches) {
+            commitBatch(session, batch);
+        }
+        assignDeferredRolePlayers(session);
+    }
+
+    /**
+     * Transactions the incomplete relations are inserted in, and relations that cannot be inserted
+     */
+    static class Plan {
+        private final List<List<Import.IncompleteRelation>> batches = new ArrayList<>();
+        private final List<Import.IncompleteRelation> skipped = new ArrayList<>();
+
+        List<List<Import.IncompleteRelation>> batches() {
+            return batches;
+        }
+
+        /**
+         * @return relations none of whose role players exist anywhere in the data, nor can be created before them
+         */
+        List<Import.IncompleteRelation> skipped() {
+            return skipped;
+        }
+    }
+
+    /**
+     * Group the relations not committed by a previous run into transactions, in dependency order. A transaction is
+     * only cut once every relation in it has at least one role player committed or created in the same transaction.
+     * Relations left without any such role player once their component is done are taken out of their transaction,
+     * since Grakn would reject it, and so are, in later components, the relations that depend on them alone
+     */
+    Plan plan(List<Import.IncompleteRelation> incompleteRelations) {
+        List<List<Import.IncompleteRelation>> components = new RelationDependencyGraph(incompleteRelations).stronglyConnectedComponents();
+        int cycles = 0;
+        int largestCycle = 0;
+        for (List<Import.IncompleteRelation> component : components) {
+            if (component.size() > 1 || dependsOnItself(component.get(0))) {
+                cycles++;
+                largestCycle = Math.max(largestCycle, component.size());
+            }
+        }
+        LOG.info("Incomplete relations: " + incompleteRelations.size() + ", cycles: " + cycles + ", largest cycle: " + largestCycle);
+
+        Plan plan = new Plan();
+        // relations of the planned transactions, which are committed before the transaction being built
+        Set<String> planned = new HashSet<>();
+        List<Import.IncompleteRelation> batch = new ArrayList<>();
+        // relations in the batch that have no role player available yet, and the role players they are waiting on
+        Set<Import.IncompleteRelation> unsatisfied = new LinkedHashSet<>();
+        Map<String, List<Import.IncompleteRelation>> waitingOn = new HashMap<>();
+        for (List<Import.IncompleteRelation> component : components) {
+            for (Import.IncompleteRelation relation : component) {
+                if (idRemapping.contains(relation.oldId())) {
+                    // committed by a previous run
+                    continue;
+                }
+                batch.add(relation);
+                planned.add(relation.oldId());
+
+                // relations that were waiting on this one now have a role player in the same transaction
+                List<Import.IncompleteRelation> waiting = waitingOn.remove(relation.oldId());
+                if (waiting != null) {
+                    unsatisfied.removeAll(waiting);
+                }
+                boolean anyAvailable = false;
+                for (Set<String> rolePlayers : relation.oldIdsPerRole().values()) {
+                    for (String rolePlayer : rolePlayers) {
+                        if (planned.contains(rolePlayer) || idRemapping.contains(rolePlayer)) {
+                            anyAvailable = true;
+                        } else {
+                            waitingOn.computeIfAbsent(rolePlayer, id -> new ArrayList<>()).add(relation);
+                        }
+                    }
+                }
+                if (!anyAvailable) {
+                    unsatisfied.add(relation);
+                }
+
+                if (batch.size() >= batchSize && unsatisfied.isEmpty()) {
+                    plan.batches.add(batch);
+                    batch = new ArrayList<>();
+                    waitingOn.clear();
+                }
+            }
+
+            // every relation this component depends on is now committed or planned, so relations still waiting
+            // have role players that do not exist anywhere in the data
+            for (Import.IncompleteRelation relation : unsatisfied) {
+                batch.remove(relation);
+                planned.remove(relation.oldId());
+                plan.skipped.add(relation);
+            }
+            unsatisfied.clear();
+            waitingOn.clear();
+        }
+        if (!batch.isEmpty()) {
+            plan.batches.add(batch);
+        }
+        return plan;
+    }
+
+    /**
+     * Record the relations that cannot be inserted in the journal, where they are counted as mismatches of their
+     * relation type, unless a previous run already did
+     */
+    private void skip(List<Import.IncompleteRelation> skipped) {
+        if (skipped.isEmpty()) {
+            return;
+        }
+        ImportJournal.Checkpoint checkpoint = journal.checkpoint(SKIPPED_STAGE, "-");
+        for (Import.IncompleteRelation relation : skipped) {
+            if (!journal.skippedRelations().contains(relation.oldId())) {
+                LOG.warn("Skipping relation " + relation.oldId() + " of type: " + relation.relationType() +
+                        ", none of its role players exist in the data");
+                checkpoint.skipped(RelationLoader.STAGE, relation.relationType(), relation.oldId(), relation.digest());
+            }
+        }
+        checkpoint.commit(0, 0);
+        LOG.warn("Skipped relations without any role player in the data: " + skipped.size());
+    }
+
+    static boolean dependsOnItself(Import.IncompleteRelation relation) {
+        return relation.oldIdsPerRole().values().stream().anyMatch(rolePlayers -> rolePlayers.contains(relation.oldId()));
+    }
+
+    /**
+     * Create every relation in the batch, then assign all the role players that exist. The old->new IDs are only
+     * recorded once the transaction commits, so a failed attempt is retried from scratch
+     */
+    private void commitBatch(GraknClient.Session session, List<Import.IncompleteRelation> batch) {
+        Map<String, ConceptId> created = new HashMap<>();
+        List<DeferredRolePlayer> batchDeferred = new ArrayList<>();
+
+        long start = System.nanoTime();
+        retry.run(STAGE, "-", () -> {
+            created.clear();
+            batchDeferred.clear();
+            createRelations(session, batch, created, batchDeferred);
+        });
+        metrics.histogram(MigrationMetrics.Metric.TRANSACTION_SECONDS, STAGE, "-").record(System.nanoTime() - start);
+        metrics.counter(MigrationMetrics.Metric.TRANSACTIONS, STAGE, "-").increment();
+        metrics.counter(MigrationMetrics.Metric.CONCEPTS_WRITTEN, STAGE, "-").add(created.size());
+
+        ImportJournal.Checkpoint checkpoint = journal.checkpoint(STAGE, "-");
+        created.forEach((oldId, newId) -> {
+            idRemapping.put(oldId, newId);
+            checkpoint.mapped(oldId, newId);
+        });
+        batchDeferred.forEach(checkpoint::deferred);
+        // records and digest per relation type, the batch mixing types
+        Map<String, long[]> counts = new HashMap<>();
+        for (Import.IncompleteRelation relation : batch) {
+            long[] count = counts.computeIfAbsent(relation.relationType(), type -> new long[2]);
+            count[0]++;
+            count[1] += relation.digest();
+        }
+        counts.forEach((type, count) -> checkpoint.counted(RelationLoader.STAGE, type, count[0], count[1]));
+        checkpoint.commit(0, 0);
+        deferred.addAll(batchDeferred);
+    }
+
+    /**
+     * One attempt at the transaction of the batch, collecting the relations it created and the role players it deferred
+     */
+    private void createRelations(GraknClient.Session session, List<Import.IncompleteRelation> batch, Map<String, ConceptId> created,
+                                 List<DeferredRolePlayer> batchDeferred) {
+        try (GraknClient.Transaction tx = session.transaction().write()) {
+            Map<String, Relation.Remote> relations = new HashMap<>();
+            for (Import.IncompleteRelation incompleteRelation : batch) {
+                RelationType.Remote relationType = schema.relationType(tx, incompleteRelation.relationType());
+                Relation.Remote relation = relationType.create();
+                relations.put(incompleteRelation.oldId(), relation);
+                created.put(incompleteRelation.oldId(), relation.id());
+            }
+
+            for (Import.IncompleteRelation incompleteRelation : batch) {
+                Relation.Remote relation = relations.get(incompleteRelation.oldId());
+                for (Map.Entry<String, Set<String>> roleEntry : incompleteRelation.oldIdsPerRole().entrySet()) {
+                    Role role = schema.role(tx, roleEntry.getKey());
+                    for (String oldRolePlayerId : roleEntry.getValue()) {
+                        ConceptId newRolePlayerId = created.containsKey(oldRolePlayerId) ? created.get(oldRolePlayerId) : idRemapping.get(oldRolePlayerId);
+                        if (newRolePlayerId == null) {
+                            batchDeferred.add(new DeferredRolePlayer(incompleteRelation.oldId(), roleEntry.getKey(), oldRolePlayerId));
+                        } else {
+                            relation.assign(role, tx.getConcept(newRolePlayerId).asThing());
+                        }
+                    }
+                }
+            }
+            tx.commit();
+        }
+    }
+
+    /**
+     * All relations now exist, so the role players left out of earlier transactions can be assigned
+     */
+    private void assignDeferredRolePlayers(GraknClient.Session session) {
+        if (deferred.isEmpty()) {
+            return;
+        }
+        LOG.info("Assigning " + deferred.size() + " role players of cyclic relations");
+        ImportJournal.Ranges committed = journal.committed(DEFERRED_STAGE, "-");
+
+        for (int start = 0; start < deferred.size(); start += batchSize) {
+            int batchStart = start;
+            int end = Math.min(start + batchSize, deferred.size());
+            retry.run(DEFERRED_STAGE, "-", () -> {
+                try (GraknClient.Transaction tx = session.transaction().write()) {
+                    for (int i = batchStart; i < end; i++) {
+                        if (committed != null && committed.contains(i)) {
+                            continue;
+                        }
+                        DeferredRolePlayer assignment = deferred.get(i);
+                        ConceptId rolePlayerId = idRemapping.get(assignment.rolePlayerId);
+                        if (rolePlayerId == null) {
+                            LOG.warn("Role player " + assignment.rolePlayerId + " of relation " + assignment.relationId + " does not exist in the data, skipping");
+                            continue;
+                        }
+                        Relation.Remote relation = tx.getConcept(idRemapping.get(assignment.relationId)).asRelation().asRemote(tx);
+                        relation.assign(schema.role(tx, assignment.role), tx.getConcept(rolePlayerId).asThing());
+                    }
+                    tx.commit();
+                }
+            });
+            journal.checkpoint(DEFERRED_STAGE, "-").commit(start, end);
+        }
+        deferred.clear();
+    }
+
+    /**
+     * A role player of a cyclic relation that did not exist yet when the relation was committed
+     */
+    static class DeferredRolePlayer {
+        private final String relationId;
+        private final String role;
+        private final String rolePlayerId;
+
+        DeferredRolePlayer(String relationId, String role, String rolePlayerId) {
+            this.relationId = relationId;
+            this.role = role;
+            this.rolePlayerId = rolePlayerId;
+        }
+
+        String relationId() {
+            return relationId;
+        }
+
+        String role() {
+            return role;
+        }
+
+        String rolePlayerId() {
+            return rolePlayerId;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package migrate.importer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads the UTF-8 lines of a data file like `BufferedReader.readLine`, while keeping track of the byte offset
+ * in the file, so that the import journal can record how far into a file a batch reaches
+ */
+class LineReader implements AutoCloseable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    // offset in the file of buffer[0]
+    private long bufferOffset;
+    private byte[] line = new byte[256];
+
+    LineReader(Path file) throws IOException {
+        this.in = Files.newInputStream(file);
+    }
+
+    /**
+     * @return the next line without its line terminator, or null at the end of the file
+     */
+    String readLine() throws IOException {
+        int length = 0;
+        boolean any = false;
+        while (true) {
+            if (position == limit) {
+                bufferOffset += limit;
+                position = 0;
+                limit = Math.max(in.read(buffer), 0);
+                if (limit == 0) {
+                    return any ? decode(length) : null;
+                }
+            }
+            any = true;
+
+            int start = position;
+            while (position < limit && buffer[position] != '\n') {
+                position++;
+            }
+            length = append(start, position - start, length);
+            if (position < limit) {
+                // consume the line feed
+                position++;
+                return decode(length);
+            }
+        }
+    }
+
+    /**
+     * @return offset in the file of the first byte of the next line
+     */
+    long offset() {
+        return bufferOffset + position;
+    }
+
+    private int append(int start, int count, int length) {
+        if (length + count > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+        }
+        System.arraycopy(buffer, start, line, length, count);
+        return length + count;
+    }
+
+    private String decode(int length) {
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,386 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+import migrate.common.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Off-heap ID mapping: an open-addressing (linear probing) hash table stored in a memory-mapped file.
+ * <p>
+ * The heap footprint is constant regardless of the number of mappings. The file is re-opened by a resumed import:
+ * `sync` forces the table to disk and records the length of the import journal it covers, so that only the mappings
+ * journaled after that point are restored from the journal. Mappings put after the last sync may or may not have
+ * reached the disk after a crash, and are put again from the journal.
+ * <p>
+ * File layout:
+ * header (4KB): magic, capacity in slots, number of mappings, journal length covered by the last sync
+ * slots (64 bytes each): key length, key bytes (max 31), value length, value bytes (max 31)
+ * A slot with key length 0 is empty. The table doubles (into a new file) once it is 70% full
+ */
+class MappedIdMapping implements IdMapping {
+    private static final Logger LOG = LoggerFactory.getLogger(MappedIdMapping.class);
+
+    private static final long MAGIC = 0x49444d4150000002L; // "IDMAP" + format version 2
+    private static final int HEADER_BYTES = 4096;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 16;
+    private static final int JOURNAL_OFFSET_OFFSET = 24;
+
+    private static final int SLOT_BYTES = 64;
+    static final int MAX_ID_BYTES = SLOT_BYTES / 2 - 1;
+    private static final int VALUE_OFFSET = SLOT_BYTES / 2;
+    // 2^20 slots of 64 bytes = 64MB per mapped region, keeping each region well under the 2GB mapping limit
+    private static final int SEGMENT_SHIFT = 20;
+    private static final int SLOTS_PER_SEGMENT = 1 << SEGMENT_SHIFT;
+    private static final long MIN_CAPACITY = 1 << 10;
+    private static final double MAX_LOAD = 0.7;
+
+    private final Path file;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Table table;
+
+    /**
+     * Open the table at the given path, creating it if it does not exist yet
+     *
+     * @param file - backing file, re-used if it already holds a table
+     * @param expectedMappings - number of mappings to size a new table for, avoiding resizes
+     */
+    MappedIdMapping(Path file, long expectedMappings) {
+        this.file = file;
+        try {
+            if (Files.exists(file) && Files.size(file) > 0) {
+                table = Table.open(file);
+                LOG.info("Re-opened ID mapping at " + file + " with " + table.size + " mappings");
+            } else {
+                table = Table.create(file, capacityFor(expectedMappings));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open ID mapping at " + file, e);
+        }
+    }
+
+    /**
+     * @return size of the file holding `mappings` mappings, in a table created for `expectedMappings`
+     */
+    static long fileBytes(long expectedMappings, long mappings) {
+        return HEADER_BYTES + capacityFor(Math.max(expectedMappings, mappings)) * SLOT_BYTES;
+    }
+
+    private static long capacityFor(long mappings) {
+        long capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < mappings) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    @Override
+    public void put(String oldId, ConceptId newId) {
+        byte[] key = encode(oldId);
+        byte[] value = encode(newId.getValue());
+
+        lock.writeLock().lock();
+        try {
+            if (table.size + 1 > table.capacity * MAX_LOAD) {
+                resize(table.capacity << 1);
+            }
+            table.put(key, value, hash(key));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public ConceptId get(String oldId) {
+        byte[] key = encode(oldId);
+        lock.readLock().lock();
+        try {
+            byte[] value = table.get(key, hash(key));
+            return value == null ? null : ConceptId.of(new String(value, StandardCharsets.UTF_8));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String oldId) {
+        byte[] key = encode(oldId);
+        lock.readLock().lock();
+        try {
+            return table.find(key, hash(key)) >= 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void checkId(String oldId) {
+        encode(oldId);
+    }
+
+    @Override
+    public long size() {
+        lock.readLock().lock();
+        try {
+            return table.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long journalOffset() {
+        lock.readLock().lock();
+        try {
+            return table.header.getLong(JOURNAL_OFFSET_OFFSET);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Lookups and puts wait for the table to be forced to disk
+     */
+    @Override
+    public void sync(long journalOffset) {
+        lock.writeLock().lock();
+        try {
+            table.force();
+            table.header.putLong(JOURNAL_OFFSET_OFFSET, journalOffset);
+            table.header.force();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            table.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not close ID mapping at " + file, e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Rehash every mapping into a table of the new capacity, written next to the current file and then
+     * moved over it. Must hold the write lock
+     */
+    private void resize(long newCapacity) {
+        Path resized = file.resolveSibling(file.getFileName() + ".resize");
+        try {
+            Table larger = Table.create(resized, newCapacity);
+            byte[] key = new byte[MAX_ID_BYTES];
+            byte[] value = new byte[MAX_ID_BYTES];
+            for (long slot = 0; slot < table.capacity; slot++) {
+                int keyLength = table.keyLength(slot);
+                if (keyLength > 0) {
+                    table.read(slot, 1, key, keyLength);
+                    int valueLength = table.valueLength(slot);
+                    table.read(slot, VALUE_OFFSET + 1, value, valueLength);
+                    larger.insertNew(key, keyLength, value, valueLength, Hashing.hash(key, keyLength));
+                }
+            }
+            // the larger table holds the same mappings, and is forced to disk by closing it before it replaces the file
+            larger.header.putLong(JOURNAL_OFFSET_OFFSET, table.header.getLong(JOURNAL_OFFSET_OFFSET));
+            larger.close();
+            table.close();
+            Files.move(resized, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            table = Table.open(file);
+            LOG.info("Resized ID mapping to " + newCapacity + " slots");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not resize ID mapping at " + file, e);
+        }
+    }
+
+    private static byte[] encode(String id) {
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length == 0 || bytes.length > MAX_ID_BYTES) {
+            throw new IllegalArgumentException("Concept ID must be between 1 and " + MAX_ID_BYTES + " bytes to be held by " +
+                    "--id-store=mapped, import with --id-store=memory or compact instead: " + id);
+        }
+        return bytes;
+    }
+
+    /**
+     * The hash is persisted implicitly in slot positions, so it must never change for a given format version
+     */
+    private static long hash(byte[] bytes) {
+        return Hashing.hash(bytes, bytes.length);
+    }
+
+    /**
+     * The mapped file itself. Not thread safe, guarded by the enclosing lock
+     */
+    private static class Table {
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] segments;
+        private final long capacity;
+        private long size;
+
+        private Table(FileChannel channel, long capacity) throws IOException {
+            this.channel = channel;
+            this.capacity = capacity;
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            int segmentCount = (int) ((capacity + SLOTS_PER_SEGMENT - 1) >>> SEGMENT_SHIFT);
+            this.segments = new MappedByteBuffer[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                long slots = Math.min(SLOTS_PER_SEGMENT, capacity - ((long) i << SEGMENT_SHIFT));
+                long offset = HEADER_BYTES + ((long) i << SEGMENT_SHIFT) * SLOT_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, offset, slots * SLOT_BYTES);
+            }
+        }
+
+        static Table create(Path file, long capacity) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Table table = new Table(channel, capacity);
+            table.header.putLong(MAGIC_OFFSET, MAGIC);
+            table.header.putLong(CAPACITY_OFFSET, capacity);
+            table.header.putLong(SIZE_OFFSET, 0);
+            table.header.putLong(JOURNAL_OFFSET_OFFSET, 0);
+            return table;
+        }
+
+        static Table open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getLong(MAGIC_OFFSET) != MAGIC) {
+                channel.close();
+                throw new IOException("Not an ID mapping file: " + file);
+            }
+            Table table = new Table(channel, header.getLong(CAPACITY_OFFSET));
+            table.size = header.getLong(SIZE_OFFSET);
+            return table;
+        }
+
+        void put(byte[] key, byte[] value, long hash) {
+            long slot = find(key, hash);
+            if (slot >= 0) {
+                writeValue(slot, value, value.length);
+            } else {
+                insertNew(key, key.length, value, value.length, hash);
+            }
+        }
+
+        byte[] get(byte[] key, long hash) {
+            long slot = find(key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            byte[] value = new byte[valueLength(slot)];
+            read(slot, VALUE_OFFSET + 1, value, value.length);
+            return value;
+        }
+
+        /**
+         * @return the slot holding the key, or -1 if it is not present
+         */
+        long find(byte[] key, long hash) {
+            long mask = capacity - 1;
+            for (long slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int keyLength = keyLength(slot);
+                if (keyLength == 0) {
+                    return -1;
+                }
+                if (keyLength == key.length && keyEquals(slot, key)) {
+                    return slot;
+                }
+            }
+        }
+
+        /**
+         * Insert a key known not to be present yet
+         */
+        void insertNew(byte[] key, int keyLength, byte[] value, int valueLength, long hash) {
+            long mask = capacity - 1;
+            long slot = hash & mask;
+            while (keyLength(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            MappedByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            for (int i = 0; i < keyLength; i++) {
+                segment.put(offset + 1 + i, key[i]);
+            }
+            writeValue(slot, value, valueLength);
+            // the key length marks the slot as occupied, so it is written last
+            segment.put(offset, (byte) keyLength);
+            size++;
+            header.putLong(SIZE_OFFSET, size);
+        }
+
+        private void writeValue(long slot, byte[] value, int valueLength) {
+            MappedByteBuffer segment = segment(slot);
+            int offset = offset(slot) + VALUE_OFFSET;
+            for (int i = 0; i < valueLength; i++) {
+                segment.put(offset + 1 + i, value[i]);
+            }
+            segment.put(offset, (byte) valueLength);
+        }
+
+        private boolean keyEquals(long slot, byte[] key) {
+            MappedByteBuffer segment = segment(slot);
+            int offset = offset(slot) + 1;
+            for (int i = 0; i < key.length; i++) {
+                if (segment.get(offset + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int keyLength(long slot) {
+            return segment(slot).get(offset(slot));
+        }
+
+        int valueLength(long slot) {
+            return segment(slot).get(offset(slot) + VALUE_OFFSET);
+        }
+
+        void read(long slot, int slotOffset, byte[] destination, int length) {
+            MappedByteBuffer segment = segment(slot);
+            int offset = offset(slot) + slotOffset;
+            for (int i = 0; i < length; i++) {
+                destination[i] = segment.get(offset + i);
+            }
+        }
+
+        private MappedByteBuffer segment(long slot) {
+            return segments[(int) (slot >>> SEGMENT_SHIFT)];
+        }
+
+        private static int offset(long slot) {
+            return (int) (slot & (SLOTS_PER_SEGMENT - 1)) * SLOT_BYTES;
+        }
+
+        void force() {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+            header.force();
+        }
+
+        void close() throws IOException {
+            force();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package migrate.importer;
+
+import grakn.client.GraknClient;
+import grakn.client.concept.ConceptId;
+import grakn.client.concept.thing.Attribute;
+import grakn.client.concept.thing.Thing;
+import migrate.common.ExternalSort;
+import migrate.common.MigrationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Import attribute ownerships (`attribute ID, owner ID` lines) in transactions of `batchSize` ownerships.
+ * <p>
+ * Ownership files are first sorted by owner ID (spilling to disk for large files), so that all the ownerships of an
+ * owner arrive together and the owner concept is only fetched once per transaction rather than once per ownership.
+ * If the export includes an owner-sorted copy of the file (in `ownership-by-owner`), the copy is read instead
+ */
+class OwnershipLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(OwnershipLoader.class);
+
+    static final String STAGE = "ownership";
+    static final String BY_OWNER_FOLDER = "ownership-by-owner";
+
+    private static final String INCOMPLETE_STAGE = "incomplete-ownership";
+    private static final String SKIPPED_STAGE = "skipped-ownership";
+
+    private final IdMapping idRemapping;
+    private final int batchSize;
+    private final ExternalSort sorter;
+    private final Path byOwnerFolder;
+    private final Path stagingFolder;
+    private final GraqlBulkInsert graqlInsert;
+    private final ImportPipeline pipeline;
+    private final ImportJournal journal;
+
+    /**
+     * @param byOwnerFolder - directory of the owner-sorted copies of the ownership files, which may not exist
+     * @param stagingFolder - directory of the owner-sorted copies made when the export has none, and of their sort runs
+     * @param graqlInsert - write batches as Graql insert queries, or through the concept API if null
+     * @param pipeline - reads the sorted files and hands batches to the writers
+     * @param journal - records committed batches, and the batches committed by a previous run to skip
+     */
+    OwnershipLoader(IdMapping idRemapping, int batchSize, ExternalSort sorter, Path byOwnerFolder, Path stagingFolder, GraqlBulkInsert graqlInsert,
+                    ImportPipeline pipeline, ImportJournal journal) {
+        this.idRemapping = idRemapping;
+        this.batchSize = batchSize;
+        this.sorter = sorter;
+        this.byOwnerFolder = byOwnerFolder;
+        this.stagingFolder = stagingFolder;
+        this.graqlInsert = graqlInsert;
+        this.pipeline = pipeline;
+        this.journal = journal;
+    }
+
+    /**
+     * @param session - session of the calling worker
+     * @param ownershipFile - ownerships of one attribute type
+     * @param incompleteOwnerships - collects ownerships for which the owner does not exist yet
+     * @return - number of ownerships imported
+     * @throws IOException
+     */
+    long importOwnershipType(GraknClient.Session session, Path ownershipFile, List<Import.IncompleteOwnership> incompleteOwnerships) throws IOException {
+        String attributeName = ownershipFile.getFileName().toString();
+        long start = System.nanoTime();
+
+        // sorted by the exporter in the same order
+        Path exportedSortedFile = byOwnerFolder.resolve(attributeName);
+        boolean presorted = Files.isRegularFile(exportedSortedFile);
+        Path sortedFile = presorted ? exportedSortedFile : Files.createTempFile(stagingFolder, attributeName + ".", ".by-owner");
+        LongAdder inserted = new LongAdder();
+        LongAdder ownersFetched = new LongAdder();
+        MigrationMetrics.Counter incomplete = pipeline.migrationMetrics().counter(MigrationMetrics.Metric.INCOMPLETE_OWNERSHIPS, STAGE, attributeName);
+        try {
+            if (presorted) {
+                LOG.info("Reading the owner-sorted copy of the ownerships of attribute: " + attributeName);
+            } else {
+                sorter.sort(ownershipFile, sortedFile, ExternalSort.BY_OWNER);
+            }
+
+            // the owners exist or not regardless of what was committed, so the incomplete ownerships of committed ranges are found again
+            pipeline.run(STAGE, attributeName, sortedFile, batchSize, pipeline.writersPerFile(), journal.committed(STAGE, attributeName), line -> {
+                String oldAttrId = line.nextField().toString();
+                String oldOwnerId = line.nextField().toString();
+
+                // ids are all loaded, check if owner exists already
+                if (!idRemapping.contains(oldOwnerId)) {
+                    incompleteOwnerships.add(new Import.IncompleteOwnership(oldOwnerId, oldAttrId, attributeName));
+                    incomplete.increment();
+                    return null;
+                }
+                return new String[]{oldAttrId, oldOwnerId};
+            }, ownerships -> {
+                Batch batch = new Batch();
+                for (String[] ids : ownerships.records()) {
+                    batch.add(ids[1], ids[0], attributeName);
+                }
+                batch.insert(session);
+                CommitRetry.afterCommit(() -> journal.checkpoint(STAGE, attributeName).counted(STAGE, attributeName, ownerships.records().size(), 0)
+                        .commit(ownerships.start(), ownerships.end()));
+                inserted.add(batch.inserted);
+                ownersFetched.add(batch.ownersFetched);
+            });
+        } finally {
+            if (!presorted) {
+                Files.deleteIfExists(sortedFile);
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        LOG.info("Imported ownerships of attribute: " + attributeName + ", count: " + inserted.sum() + ", owners fetched: " + ownersFetched.sum() +
+                ", " + String.format("%.1f", seconds) + "s (" + String.format("%.1f", inserted.sum() / Math.max(seconds, 0.001)) + " ownerships/sec)");
+        return inserted.sum();
+    }
+
+    /**
+     * Import the ownerships left over from the first pass, once the incomplete relations have been imported.
+     * Ownerships whose owner or attribute was not imported (a relation skipped for lack of role players, or a record
+     * quarantined) cannot be written on any attempt, so they are left out of the transactions and recorded as
+     * skipped in the journal, which reports them as mismatches of their attribute type
+     *
+     * @return - number of ownerships imported
+     */
+    long importOwnerships(GraknClient.Session session, List<Import.IncompleteOwnership> ownerships) {
+        List<Import.IncompleteOwnership> byOwner = new ArrayList<>(ownerships);
+        // Graql inserts are rendered per attribute type, so keep each type together within the owner order.
+        // The order is total, so that the journal can refer to ownerships by their index
+        byOwner.sort(Comparator.comparing(Import.IncompleteOwnership::attributeType)
+                .thenComparing(Import.IncompleteOwnership::ownerId)
+                .thenComparing(Import.IncompleteOwnership::attributeId));
+        ImportJournal.Ranges committed = journal.committed(INCOMPLETE_STAGE, "-");
+        skip(byOwner);
+
+        Batch batch = new Batch();
+        int batchStart = 0;
+        for (int i = 0; i < byOwner.size(); i++) {
+            Import.IncompleteOwnership ownership = byOwner.get(i);
+            if (batch.size() >= batchSize || (batch.size() > 0 && !batch.attributeType.equals(ownership.attributeType()))) {
+                insertIncomplete(session, batch, batchStart, i);
+                batchStart = i;
+            }
+            if ((committed == null || !committed.contains(i)) && skipReason(ownership) == null) {
+                batch.add(ownership.ownerId(), ownership.attributeId(), ownership.attributeType());
+            }
+        }
+        if (batch.size() > 0) {
+            insertIncomplete(session, batch, batchStart, byOwner.size());
+        }
+        return batch.inserted;
+    }
+
+    /**
+     * Record the ownerships that cannot be imported in the journal, unless a previous run already did
+     */
+    private void skip(List<Import.IncompleteOwnership> ownerships) {
+        ImportJournal.Checkpoint checkpoint = journal.checkpoint(SKIPPED_STAGE, "-");
+        int skipped = 0;
+        for (Import.IncompleteOwnership ownership : ownerships) {
+            String reason = skipReason(ownership);
+            if (reason == null) {
+                continue;
+            }
+            skipped++;
+            String oldId = ownershipId(ownership);
+            if (!journal.skippedIds(STAGE).contains(oldId)) {
+                LOG.warn("Skipping ownership of attribute " + ownership.attributeId() + " of type: " + ownership.attributeType() +
+                        " by " + ownership.ownerId() + ", " + reason);
+                // ownerships carry nothing but IDs, so are compared by count
+                checkpoint.skipped(STAGE, ownership.attributeType(), oldId, 0);
+            }
+        }
+        if (skipped > 0) {
+            checkpoint.commit(0, 0);
+            LOG.warn("Skipped ownerships whose owner or attribute was not imported: " + skipped);
+        }
+    }
+
+    /**
+     * @return why the ownership cannot be imported, or null if its owner and attribute both exist
+     */
+    private String skipReason(Import.IncompleteOwnership ownership) {
+        if (journal.skippedRelations().contains(ownership.ownerId())) {
+            return "its owner was skipped";
+        } else if (!idRemapping.contains(ownership.ownerId())) {
+            return "its owner was not imported";
+        } else if (!idRemapping.contains(ownership.attributeId())) {
+            return "its attribute was not imported";
+        }
+        return null;
+    }
+
+    /**
+     * @return ID of the ownership in the journal, from the IDs of its attribute and owner as in the data file
+     */
+    static String ownershipId(Import.IncompleteOwnership ownership) {
+        return ownership.attributeId() + "," + ownership.ownerId();
+    }
+
+    private void insertIncomplete(GraknClient.Session session, Batch batch, int start, int end) {
+        long insertStart = System.nanoTime();
+        int size = batch.size();
+        pipeline.commitRetry().run(INCOMPLETE_STAGE, batch.attributeType, () -> batch.insert(session));
+        journal.checkpoint(INCOMPLETE_STAGE, "-").counted(STAGE, batch.attributeType, size, 0).commit(start, end);
+
+        MigrationMetrics metrics = pipeline.migrationMetrics();
+        metrics.histogram(MigrationMetrics.Metric.TRANSACTION_SECONDS, INCOMPLETE_STAGE, batch.attributeType).record(System.nanoTime() - insertStart);
+        metrics.counter(MigrationMetrics.Metric.TRANSACTIONS, INCOMPLETE_STAGE, batch.attributeType).increment();
+        metrics.counter(MigrationMetrics.Metric.CONCEPTS_WRITTEN, INCOMPLETE_STAGE, batch.attributeType).add(size);
+    }
+
+    /**
+     * Ownerships of one attribute type in one transaction, in owner order
+     */
+    private class Batch {
+        private final List<String> ownerIds = new ArrayList<>();
+        private final List<String> attributeIds = new ArrayList<>();
+        private String attributeType;
+        private long inserted;
+        private long ownersFetched;
+
+        void add(String oldOwnerId, String oldAttributeId, String attributeType) {
+            ownerIds.add(oldOwnerId);
+            attributeIds.add(oldAttributeId);
+            this.attributeType = attributeType;
+        }
+
+        int size() {
+            return ownerIds.size();
+        }
+
+        void insert(GraknClient.Session session) {
+            try (GraknClient.Transaction tx = session.transaction().write()) {
+                if (graqlInsert != null) {
+                    List<ConceptId> owners = new ArrayList<>(ownerIds.size());
+                    List<ConceptId> attributes = new ArrayList<>(attributeIds.size());
+                    for (int i = 0; i < ownerIds.size(); i++) {
+                        owners.add(idRemapping.get(ownerIds.get(i)));
+                        attributes.add(idRemapping.get(attributeIds.get(i)));
+                    }
+                    graqlInsert.insertOwnerships(tx, attributeType, owners, attributes);
+                    tx.commit();
+                    finish();
+                    return;
+                }
+
+                Map<String, Attribute<?>> attributes = new HashMap<>();
+                String currentOwnerId = null;
+                Thing.Remote<?, ?> owner = null;
+                for (int i = 0; i < ownerIds.size(); i++) {
+                    if (!ownerIds.get(i).equals(currentOwnerId)) {
+                        currentOwnerId = ownerIds.get(i);
+                        owner = tx.getConcept(idRemapping.get(currentOwnerId)).asThing().asRemote(tx);
+                        ownersFetched++;
+                    }
+                    Attribute<?> attribute = attributes.computeIfAbsent(attributeIds.get(i), oldAttributeId -> {
+                        ConceptId newAttributeId = idRemapping.get(oldAttributeId);
+                        return tx.getConcept(newAttributeId).asAttribute();
+                    });
+                    owner.has(attribute);
+                }
+                tx.commit();
+            }
+            finish();
+        }
+
+        private void finish() {
+            inserted += ownerIds.size();
+            ownerIds.clear();
+            attributeIds.clear();
+        }
+    }
+}
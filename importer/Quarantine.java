@@ -0,0 +1,118 @@
+package migrate.importer;
+
+import migrate.common.BinaryDataFileReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File of the records that could not be written even on their own, so that one bad record does not stop the import.
+ * Each is written on one line as `stage, type, error, data file line`, separated by tabs, the line being copied as it
+ * is from the file the stage read (for attributes and ownerships, a sorted copy of the data file). Records read from a
+ * binary data file are decoded to their line in the text format.
+ * <p>
+ * Quarantined records are not recorded in the import journal, so a resumed import tries them again and the file is
+ * started afresh by every run. Past `maxRecords` the import is stopped instead: that many failing records point at
+ * a problem with the server or the data as a whole, rather than at a few bad records
+ */
+class Quarantine implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(Quarantine.class);
+
+    private final Path file;
+    private final int maxRecords;
+    private final BufferedWriter writer;
+    private int records;
+
+    private Quarantine(Path file, int maxRecords) throws IOException {
+        this.file = file;
+        this.maxRecords = maxRecords;
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param file - file to write, replacing the one of any previous run
+     * @param maxRecords - number of records quarantined before the import is stopped
+     */
+    static Quarantine create(Path file, int maxRecords) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return new Quarantine(file, maxRecords);
+    }
+
+    /**
+     * Quarantine the record parsed from one line, or one binary record, of a data file
+     *
+     * @param stage - stage that failed to write the record
+     * @param name - type of the record
+     * @param dataFile - file the line was read from
+     * @param lineStart - offset of the first byte of the line or record
+     * @param lineEnd - offset of the first byte after the line or record
+     * @param failure - failure of the last attempt to write the record
+     * @throws IllegalStateException - if more than `maxRecords` records have been quarantined
+     */
+    synchronized void add(String stage, String name, Path dataFile, long lineStart, long lineEnd, RuntimeException failure) {
+        records++;
+        LOG.error("Quarantined record of " + stage + " type: " + name + " at byte " + lineStart + " of " + dataFile +
+                ", quarantined records: " + records + ", failed with: " + failure);
+        try {
+            writer.append(stage).append('\t').append(name).append('\t').append(singleLine(String.valueOf(failure))).append('\t')
+                    .append(readLine(dataFile, lineStart, lineEnd)).append('\n');
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write to the quarantine file: " + file, e);
+        }
+        if (records > maxRecords) {
+            throw new IllegalStateException("More than " + maxRecords + " records could not be written, stopping the import. " +
+                    "The records are listed in: " + file, failure);
+        }
+    }
+
+    /**
+     * @return number of records quarantined so far
+     */
+    synchronized int size() {
+        return records;
+    }
+
+    private static String singleLine(String text) {
+        return text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+    }
+
+    private static String readLine(Path dataFile, long lineStart, long lineEnd) throws IOException {
+        if (BinaryDataFileReader.isBinary(dataFile)) {
+            return BinaryDataFileReader.record(dataFile, lineStart);
+        }
+        ByteBuffer line = ByteBuffer.allocate((int) (lineEnd - lineStart));
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            while (line.hasRemaining()) {
+                if (channel.read(line, lineStart + line.position()) < 0) {
+                    break;
+                }
+            }
+        }
+        int length = line.position();
+        while (length > 0 && (line.get(length - 1) == '\n' || line.get(length - 1) == '\r')) {
+            length--;
+        }
+        return new String(line.array(), 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+        if (records > 0) {
+            LOG.warn("Records that could not be written: " + records + ", listed in: " + file);
+        }
+    }
+}
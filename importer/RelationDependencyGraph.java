@@ -0,0 +1,112 @@
+package migrate.importer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dependency graph between incomplete relations: there is an edge from relation R to relation S if
+ * S is a role player in R, so S must exist before R's role players can all be assigned.
+ * <p>
+ * Relations that depend on each other circularly form strongly connected components (SCCs), found with an
+ * iterative version of Tarjan's algorithm so that long dependency chains cannot overflow the stack.
+ */
+class RelationDependencyGraph {
+
+    private final List<Import.IncompleteRelation> relations;
+    private final int[][] dependencies;
+
+    RelationDependencyGraph(List<Import.IncompleteRelation> relations) {
+        this.relations = relations;
+        Map<String, Integer> indexById = new HashMap<>();
+        for (int i = 0; i < relations.size(); i++) {
+            indexById.put(relations.get(i).oldId(), i);
+        }
+
+        dependencies = new int[relations.size()][];
+        for (int i = 0; i < relations.size(); i++) {
+            List<Integer> dependsOn = new ArrayList<>();
+            for (Set<String> rolePlayers : relations.get(i).oldIdsPerRole().values()) {
+                for (String rolePlayer : rolePlayers) {
+                    Integer dependency = indexById.get(rolePlayer);
+                    if (dependency != null) {
+                        dependsOn.add(dependency);
+                    }
+                }
+            }
+            dependencies[i] = dependsOn.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * @return the strongly connected components in dependency order: every relation that a component depends on is
+     * either in the component itself or in an earlier component
+     */
+    List<List<Import.IncompleteRelation>> stronglyConnectedComponents() {
+        int n = relations.size();
+        int[] index = new int[n];
+        int[] lowLink = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+
+        // Tarjan's component stack
+        int[] stack = new int[n];
+        int stackSize = 0;
+        // explicit DFS call stack: the node, and the next dependency of it to visit
+        int[] callNode = new int[n];
+        int[] callEdge = new int[n];
+        int nextIndex = 0;
+
+        // Tarjan emits a component only after all components reachable from it, which is dependency order
+        List<List<Import.IncompleteRelation>> components = new ArrayList<>();
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int depth = 0;
+            callNode[0] = root;
+            callEdge[0] = 0;
+            index[root] = lowLink[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+
+            while (depth >= 0) {
+                int node = callNode[depth];
+                if (callEdge[depth] < dependencies[node].length) {
+                    int dependency = dependencies[node][callEdge[depth]++];
+                    if (index[dependency] == -1) {
+                        index[dependency] = lowLink[dependency] = nextIndex++;
+                        stack[stackSize++] = dependency;
+                        onStack[dependency] = true;
+                        depth++;
+                        callNode[depth] = dependency;
+                        callEdge[depth] = 0;
+                    } else if (onStack[dependency]) {
+                        lowLink[node] = Math.min(lowLink[node], index[dependency]);
+                    }
+                } else {
+                    if (lowLink[node] == index[node]) {
+                        List<Import.IncompleteRelation> component = new ArrayList<>();
+                        int member;
+                        do {
+                            member = stack[--stackSize];
+                            onStack[member] = false;
+                            component.add(relations.get(member));
+                        } while (member != node);
+                        components.add(component);
+                    }
+                    depth--;
+                    if (depth >= 0) {
+                        int parent = callNode[depth];
+                        lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+}
@@ -0,0 +1,232 @@
+package migrate.importer;
+
+import grakn.client.GraknClient;
+import grakn.client.concept.ConceptId;
+import grakn.client.concept.thing.Relation;
+import grakn.client.concept.type.RelationType;
+import grakn.client.concept.type.Role;
+import migrate.common.ChecksumManifest;
+import migrate.common.MigrationMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Import explicit relations whose role players all exist already, `batchSize` relations per write transaction.
+ * Relations with a role player that has not been imported yet are collected as incomplete, to be inserted later
+ */
+class RelationLoader {
+    private static final Logger LOG = LoggerFactory.getLogger(RelationLoader.class);
+    static final String STAGE = "relation";
+
+    private final IdMapping idRemapping;
+    private final SchemaCache schema;
+    private final int batchSize;
+    private final GraqlBulkInsert graqlInsert;
+    private final ImportPipeline pipeline;
+    private final ImportJournal journal;
+
+    /**
+     * @param graqlInsert - write batches as Graql insert queries, or through the concept API if null
+     * @param pipeline - reads the files and hands batches to the writers
+     * @param journal - records committed batches
+     */
+    RelationLoader(IdMapping idRemapping, SchemaCache schema, int batchSize, GraqlBulkInsert graqlInsert, ImportPipeline pipeline, ImportJournal journal) {
+        this.idRemapping = idRemapping;
+        this.schema = schema;
+        this.batchSize = batchSize;
+        this.graqlInsert = graqlInsert;
+        this.pipeline = pipeline;
+        this.journal = journal;
+    }
+
+    /**
+     * @param session - session of the calling worker
+     * @param relationFile - relations of one type, in the text or the binary format
+     * @param incompleteRelations - collects relations that could not be inserted yet due to some required role players not existing yet
+     * @return - number of relations imported
+     * @throws IOException
+     */
+    long importRelationType(GraknClient.Session session, Path relationFile, List<Import.IncompleteRelation> incompleteRelations) throws IOException {
+        String relationName = relationFile.getFileName().toString();
+        long start = System.nanoTime();
+
+        // committed ranges are not skipped: a relation that was incomplete when first read may have all its role players by
+        // the time the import is resumed, so relations are skipped by their ID instead, and the rest are checked again
+        MigrationMetrics.Counter incomplete = pipeline.migrationMetrics().counter(MigrationMetrics.Metric.INCOMPLETE_RELATIONS, STAGE, relationName);
+        // reused for every line by the reader thread
+        List<String> roleLabels = new ArrayList<>();
+        List<String> roles = new ArrayList<>();
+        List<String> players = new ArrayList<>();
+        long imported = pipeline.run(STAGE, relationName, relationFile, batchSize, pipeline.writersPerFile(), null, line -> {
+            // the line is `old id`, then `(roleName, rolePlayerId1, playerId2...)`, `(roleName, ...)`, ...
+            String oldId = line.nextField().toString();
+            if (idRemapping.contains(oldId)) {
+                return null;
+            }
+
+            roles.clear();
+            players.clear();
+            long roleDigests = 0;
+            while (line.nextGroup()) {
+                DataFileTokenizer.Token roleToken = line.nextField();
+                if (roleToken == null) {
+                    continue;
+                }
+                String role = label(roleLabels, roleToken);
+                int rolePlayers = 0;
+                DataFileTokenizer.Token player;
+                while ((player = line.nextField()) != null) {
+                    roles.add(role);
+                    players.add(player.toString());
+                    rolePlayers++;
+                }
+                roleDigests += ChecksumManifest.roleDigest(role, rolePlayers);
+            }
+            return complete(relationName, oldId, roles, players, roleDigests, incompleteRelations, incomplete);
+        }, new ImportPipeline.RecordParser<ParsedRelation>() {
+            @Override
+            public void relation(String oldId, Map<String, ? extends Collection<String>> rolePlayers) {
+                if (idRemapping.contains(oldId)) {
+                    parsed(null);
+                    return;
+                }
+
+                // role labels come from the dictionary of the file, so each is one String already
+                roles.clear();
+                players.clear();
+                long roleDigests = 0;
+                for (Map.Entry<String, ? extends Collection<String>> roleEntry : rolePlayers.entrySet()) {
+                    for (String player : roleEntry.getValue()) {
+                        roles.add(roleEntry.getKey());
+                        players.add(player);
+                    }
+                    roleDigests += ChecksumManifest.roleDigest(roleEntry.getKey(), roleEntry.getValue().size());
+                }
+                parsed(complete(relationName, oldId, roles, players, roleDigests, incompleteRelations, incomplete));
+            }
+        }, batch -> insertBatch(session, relationName, batch));
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        LOG.info("Imported relation type: " + relationName + ", count: " + imported + ", " +
+                String.format("%.1f", seconds) + "s (" + String.format("%.1f", imported / Math.max(seconds, 0.001)) + " relations/sec)");
+        return imported;
+    }
+
+    /**
+     * @param roles - role of each role player, at the same index
+     * @return the relation, or null if any of its role players is missing in the ID remapping, in which case it
+     * cannot be inserted yet and is collected as incomplete
+     */
+    private ParsedRelation complete(String relationName, String oldId, List<String> roles, List<String> players, long roleDigests,
+                                    List<Import.IncompleteRelation> incompleteRelations, MigrationMetrics.Counter incomplete) {
+        // the role players are checked by looking them up
+        idRemapping.checkId(oldId);
+        boolean anyMissing = false;
+        for (String player : players) {
+            anyMissing |= !idRemapping.contains(player);
+        }
+        ParsedRelation relation = new ParsedRelation(oldId, roles.toArray(new String[0]), players.toArray(new String[0]),
+                ChecksumManifest.relationDigest(roleDigests));
+        if (anyMissing) {
+            incompleteRelations.add(new Import.IncompleteRelation(relationName, oldId, relation.oldIdsPerRole()));
+            incomplete.increment();
+            return null;
+        }
+        return relation;
+    }
+
+    /**
+     * @return the known role label equal to the token, so that each label is only turned into a String once per file
+     */
+    private static String label(List<String> roleLabels, DataFileTokenizer.Token token) {
+        for (String label : roleLabels) {
+            if (token.contentEquals(label)) {
+                return label;
+            }
+        }
+        String label = token.toString();
+        roleLabels.add(label);
+        return label;
+    }
+
+    /**
+     * Insert complete relations with all their role players. The old->new IDs are only recorded once the transaction commits
+     */
+    private void insertBatch(GraknClient.Session session, String relationName, ImportPipeline.Batch<ParsedRelation> batch) {
+        List<ParsedRelation> relations = batch.records();
+        List<ConceptId> newIds;
+        try (GraknClient.Transaction tx = session.transaction().write()) {
+            if (graqlInsert != null) {
+                List<Map<String, Set<ConceptId>>> newRolePlayers = new ArrayList<>(relations.size());
+                for (ParsedRelation relation : relations) {
+                    Map<String, Set<ConceptId>> newIdsPerRole = new HashMap<>();
+                    for (int i = 0; i < relation.players.length; i++) {
+                        newIdsPerRole.computeIfAbsent(relation.roles[i], role -> new HashSet<>()).add(idRemapping.get(relation.players[i]));
+                    }
+                    newRolePlayers.add(newIdsPerRole);
+                }
+                newIds = graqlInsert.insertRelations(tx, relationName, newRolePlayers);
+            } else {
+                newIds = new ArrayList<>(relations.size());
+                RelationType.Remote relationType = schema.relationType(tx, relationName);
+                for (ParsedRelation relation : relations) {
+                    Relation.Remote newRelation = relationType.create();
+                    for (int i = 0; i < relation.players.length; i++) {
+                        Role role = schema.role(tx, relation.roles[i]);
+                        ConceptId newId = idRemapping.get(relation.players[i]);
+                        newRelation.assign(role, tx.getConcept(newId).asThing());
+                    }
+                    newIds.add(newRelation.id());
+                }
+            }
+            tx.commit();
+        }
+
+        CommitRetry.afterCommit(() -> {
+            ImportJournal.Checkpoint checkpoint = journal.checkpoint(STAGE, relationName);
+            long digest = 0;
+            for (int i = 0; i < relations.size(); i++) {
+                idRemapping.put(relations.get(i).oldId, newIds.get(i));
+                checkpoint.mapped(relations.get(i).oldId, newIds.get(i));
+                digest += relations.get(i).digest;
+            }
+            checkpoint.counted(STAGE, relationName, relations.size(), digest).commit(batch.start(), batch.end());
+        });
+    }
+
+    /**
+     * A relation whose role players all exist, as parsed by the pipeline reader. Each role player is stored with its role
+     * at the same index
+     */
+    private static class ParsedRelation {
+        private final String oldId;
+        private final String[] roles;
+        private final String[] players;
+        private final long digest;
+
+        ParsedRelation(String oldId, String[] roles, String[] players, long digest) {
+            this.oldId = oldId;
+            this.roles = roles;
+            this.players = players;
+            this.digest = digest;
+        }
+
+        Map<String, Set<String>> oldIdsPerRole() {
+            Map<String, Set<String>> oldIdsPerRole = new HashMap<>();
+            for (int i = 0; i < players.length; i++) {
+                oldIdsPerRole.computeIfAbsent(roles[i], role -> new HashSet<>()).add(players[i]);
+            }
+            return oldIdsPerRole;
+        }
+    }
+}
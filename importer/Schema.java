@@ -1,210 +1,373 @@
 package migrate.importer;
 
 import grakn.client.GraknClient;
-import grakn.client.concept.Label;
-import grakn.client.concept.SchemaConcept;
-import grakn.client.concept.ValueType;
-import grakn.client.concept.type.AttributeType;
-import grakn.client.concept.type.EntityType;
-import grakn.client.concept.type.RelationType;
-import grakn.client.concept.type.Role;
 import graql.lang.Graql;
+import graql.lang.query.GraqlDefine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDateTime;
-import java.util.Iterator;
-import java.util.stream.Stream;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Import the schema files of an export as a single Graql `define` query, executed in one transaction. The files are
+ * read and checked against each other first, so that a missing or inconsistent file fails the import before anything
+ * is written, and the query is parsed before the transaction is opened. The `when` and `then` patterns of the rules
+ * are exported in braces of their own, which are unwrapped, and each rule is parsed on its own as the files are read.
+ * <p>
+ * The query declares the roles, then the attribute, entity and relation types with the attributes they own and the
+ * roles they play, then the rules. Implicit types (labelled `@...`) are created by Grakn from the ownerships, so they
+ * are not declared
+ */
 public class Schema {
 
     private static final Logger LOG = LoggerFactory.getLogger(Schema.class);
 
-    public static void importSchema(GraknClient.Session session, Path importPathRoot) throws IOException {
-        Path schemaRoot = importPathRoot.resolve("schema");
-
-        // import roles and relations in one go - otherwise invalid to commit
-        GraknClient.Transaction tx = session.transaction().write();
-        importRoles(tx, schemaRoot);
-        importRelations(tx, schemaRoot);
-        tx.commit();
-
-        importAttributes(session, schemaRoot);
-        importEntities(session, schemaRoot);
-
-        importAttributeOwnership(session, schemaRoot);
+    // value classes written by the exporter, and their Graql value types
+    private static final Map<String, String> VALUE_TYPES = new HashMap<>();
+    static {
+        VALUE_TYPES.put("Long", "long");
+        VALUE_TYPES.put("Double", "double");
+        VALUE_TYPES.put("String", "string");
+        VALUE_TYPES.put("Boolean", "boolean");
+        VALUE_TYPES.put("LocalDateTime", "datetime");
+    }
 
-        importRolePlayers(session, schemaRoot);
+    private static final int MAX_PROBLEMS_REPORTED = 20;
 
-        importRules(session, schemaRoot);
+    public static void importSchema(GraknClient.Session session, Path importPathRoot) throws IOException {
+        long start = System.nanoTime();
+        Definition definition = Definition.read(importPathRoot.resolve("schema"));
+        String define = definition.toGraql();
+        GraqlDefine query = Graql.parse(define).asDefine();
+
+        try (GraknClient.Transaction tx = session.transaction().write()) {
+            tx.execute(query).get();
+            tx.commit();
+        }
+        LOG.info("Imported schema: " + definition.types() + " types and " + definition.rules.size() + " rules in one define query of " +
+                define.length() + " characters, " + String.format("%.1f", (System.nanoTime() - start) / 1_000_000_000.0) + "s");
     }
 
     /**
-     *
-     * @param session
-     * @param schemaRoot
-     * @throws IOException
+     * @param schemaRoot - `schema` directory of an export
+     * @return the schema as one Graql `define` query
+     * @throws IllegalStateException - if the schema files are missing, malformed or refer to types they do not declare
      */
-    private static void importRules(GraknClient.Session session, Path schemaRoot) throws IOException {
-        Path rules = schemaRoot.resolve("rule");
-        Stream<String> lines = Files.lines(rules);
-        GraknClient.Transaction tx = session.transaction().write();
-
-        Iterator<String> linesIterator = lines.iterator();
-        while (linesIterator.hasNext()) {
-            String ruleName = linesIterator.next();
-            String ruleWhen = linesIterator.next();
-            String ruleThen = linesIterator.next();
-
-            tx.putRule(ruleName, Graql.parsePattern(ruleWhen), Graql.parsePattern(ruleThen));
-        }
-
-        tx.commit();
+    static String define(Path schemaRoot) throws IOException {
+        return Definition.read(schemaRoot).toGraql();
     }
 
-    private static void importRolePlayers(GraknClient.Session session, Path schemaRoot) throws IOException {
-        Path rolesPlayed = schemaRoot.resolve("plays");
-        Stream<String> lines = Files.lines(rolesPlayed);
-
-        GraknClient.Transaction tx = session.transaction().write();
-
-        lines.forEach(line -> {
-            String[] split = line.split(",");
-            String rolePlayerName = split[0];
-            String roleName = split[1];
+    /**
+     * The schema files of an export, checked against each other
+     */
+    static class Definition {
+        private final Path schemaRoot;
+        // type or role label -> super type label, in file order (super types first)
+        private final Map<String, String> roles = new LinkedHashMap<>();
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private final Map<String, String> entities = new LinkedHashMap<>();
+        private final Map<String, String> relations = new LinkedHashMap<>();
+        private final Map<String, String> valueTypes = new HashMap<>();
+        private final Map<String, List<String>> relates = new HashMap<>();
+        // owner or player label -> attribute types owned, roles played
+        private final Map<String, Set<String>> has = new LinkedHashMap<>();
+        private final Map<String, Set<String>> plays = new LinkedHashMap<>();
+        // the statement defining each rule
+        private final List<String> rules = new ArrayList<>();
+        private final Map<String, String> declaredIn = new HashMap<>();
+        private final List<String> problems = new ArrayList<>();
+
+        private Definition(Path schemaRoot) {
+            this.schemaRoot = schemaRoot;
+        }
 
-            Role role = tx.getRole(roleName);
-            tx.getSchemaConcept(Label.of(rolePlayerName)).asType().plays(role);
-        });
+        static Definition read(Path schemaRoot) throws IOException {
+            Definition definition = new Definition(schemaRoot);
+            definition.readHierarchy("role", 2, 2, definition.roles);
+            definition.readHierarchy("attribute", 3, 3, definition.attributes);
+            definition.readHierarchy("entity", 2, 2, definition.entities);
+            definition.readHierarchy("relation", 2, Integer.MAX_VALUE, definition.relations);
+            definition.readPairs("has", definition.has);
+            definition.readPairs("plays", definition.plays);
+            definition.readRules();
+            definition.check();
+            if (!definition.problems.isEmpty()) {
+                List<String> reported = definition.problems.subList(0, Math.min(MAX_PROBLEMS_REPORTED, definition.problems.size()));
+                throw new IllegalStateException("Invalid schema files in " + schemaRoot + ", " + definition.problems.size() +
+                        " problems:\n" + String.join("\n", reported));
+            }
+            return definition;
+        }
 
-        tx.commit();
-    }
+        /**
+         * Read `type, super type, ...` lines, keeping the rest of the fields of attributes (value type) and relations (roles)
+         */
+        private void readHierarchy(String fileName, int minFields, int maxFields, Map<String, String> hierarchy) throws IOException {
+            List<String> lines = lines(fileName);
+            for (int i = 0; i < lines.size(); i++) {
+                String[] fields = lines.get(i).split(",");
+                if (fields.length < minFields || fields.length > maxFields) {
+                    problem(fileName, i, "unexpected number of fields: " + lines.get(i));
+                    continue;
+                }
+                String label = fields[0];
+                if (label.startsWith("@")) {
+                    continue;
+                }
+                String previous = declaredIn.putIfAbsent(label, fileName);
+                if (previous != null) {
+                    problem(fileName, i, label + " is already declared in: " + previous);
+                    continue;
+                }
+                hierarchy.put(label, fields[1]);
+                if (fileName.equals("attribute")) {
+                    String valueType = VALUE_TYPES.get(fields[2]);
+                    if (valueType == null) {
+                        problem(fileName, i, "unhandled value type of " + label + ": " + fields[2]);
+                    }
+                    valueTypes.put(label, valueType);
+                } else if (fileName.equals("relation")) {
+                    List<String> relationRoles = new ArrayList<>();
+                    for (int field = 2; field < fields.length; field++) {
+                        if (!fields[field].startsWith("@")) {
+                            relationRoles.add(fields[field]);
+                        }
+                    }
+                    relates.put(label, relationRoles);
+                }
+            }
+        }
 
-    private static void importAttributeOwnership(GraknClient.Session session, Path schemaRoot) throws IOException {
-        Path attributeOwnership = schemaRoot.resolve("has");
-        Stream<String> lines = Files.lines(attributeOwnership);
+        /**
+         * Read `type, attribute type` or `type, role` lines
+         */
+        private void readPairs(String fileName, Map<String, Set<String>> pairs) throws IOException {
+            List<String> lines = lines(fileName);
+            for (int i = 0; i < lines.size(); i++) {
+                String[] fields = lines.get(i).split(",");
+                if (fields.length != 2) {
+                    problem(fileName, i, "expected 2 fields: " + lines.get(i));
+                    continue;
+                }
+                // roles of implicit relations are played through the ownership
+                if (fileName.equals("plays") && fields[1].startsWith("@")) {
+                    continue;
+                }
+                pairs.computeIfAbsent(fields[0], owner -> new LinkedHashSet<>()).add(fields[1]);
+            }
+        }
 
-        GraknClient.Transaction tx = session.transaction().write();
+        private void readRules() throws IOException {
+            List<String> lines = lines("rule");
+            if (lines.size() % 3 != 0) {
+                problem("rule", lines.size() - 1, "expected 3 lines per rule (name, when, then), found " + lines.size() + " lines");
+                return;
+            }
+            for (int i = 0; i < lines.size(); i += 3) {
+                String name = lines.get(i);
+                String previous = declaredIn.putIfAbsent(name, "rule");
+                if (previous != null) {
+                    problem("rule", i, name + " is already declared in: " + previous);
+                }
+                String when = statements(lines.get(i + 1));
+                String then = statements(lines.get(i + 2));
+                if (when == null || then == null) {
+                    problem("rule", when == null ? i + 1 : i + 2, name + " has a malformed pattern: " + lines.get(when == null ? i + 1 : i + 2));
+                    continue;
+                }
+                String rule = rule(name, when, then);
+                try {
+                    Graql.parse("define\n" + rule);
+                } catch (RuntimeException e) {
+                    problem("rule", i, name + " does not parse: " + e.getMessage());
+                    continue;
+                }
+                rules.add(rule);
+            }
+        }
 
-        lines.forEach(line -> {
-            String[] split = line.split(",");
-            String ownerName = split[0];
-            String attributeTypeName = split[1];
+        /**
+         * @param pattern - `when` or `then` of a rule as exported by `Pattern.toString()`, which puts a conjunction in
+         *                braces of its own
+         * @return the statements of the pattern, to be put in the braces of the rule, or null if its braces do not balance
+         * or it does not end with a statement
+         */
+        static String statements(String pattern) {
+            String statements = pattern.trim();
+            String braced = statements.endsWith("};") ? statements.substring(0, statements.length() - 1) : statements;
+            int close = closingBrace(braced);
+            if (close == -2) {
+                return null;
+            }
+            // `{ a; } or { b; };` is a disjunction, whose first brace closes before its end
+            if (close == braced.length() - 1) {
+                statements = braced.substring(1, close).trim();
+            }
+            return statements.endsWith(";") ? statements : null;
+        }
 
-            SchemaConcept<?> owner = tx.getSchemaConcept(Label.of(ownerName));
-            AttributeType<?> attributeType = tx.getAttributeType(attributeTypeName);
-            owner.asType().asRemote(tx).has(attributeType);
-        });
+        /**
+         * @return index of the brace closing the one the pattern starts with, -1 if it does not start with a brace and
+         * its braces balance, or -2 if they do not. Braces in string values are skipped
+         */
+        private static int closingBrace(String pattern) {
+            int depth = 0;
+            int closing = -1;
+            // quote of the string value the character is in, or 0
+            char quote = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                if (quote != 0) {
+                    if (c == '\\') {
+                        i++;
+                    } else if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}') {
+                    depth--;
+                    if (depth < 0) {
+                        return -2;
+                    }
+                    if (depth == 0 && closing == -1 && pattern.charAt(0) == '{') {
+                        closing = i;
+                    }
+                }
+            }
+            return depth != 0 || quote != 0 ? -2 : closing;
+        }
 
-        tx.commit();
-    }
+        private static String rule(String name, String when, String then) {
+            return name + " sub rule, when { " + when + " }, then { " + then + " };\n";
+        }
 
-    private static void importAttributes(GraknClient.Session session, Path schemaRoot) throws IOException {
-        Path attributeHierarchy = schemaRoot.resolve("attribute");
-        Stream<String> lines = Files.lines(attributeHierarchy);
-
-        GraknClient.Transaction tx = session.transaction().write();
-        lines.forEach(line -> {
-            String[] split = line.split(",");
-            String subAttributeName = split[0];
-            String superAttributeName = split[1];
-
-            String valuetype = split[2];
-
-            if (valuetype.equals("Long")) {
-                AttributeType.Remote<Long> subAttribute = tx.putAttributeType(subAttributeName, ValueType.LONG);
-                if (!superAttributeName.equals("attribute")) {
-                    AttributeType<Long> superAttribute = tx.getAttributeType(superAttributeName);
-                    subAttribute.sup(superAttribute);
-                }
-            } else if (valuetype.equals("String")) {
-                AttributeType.Remote<String> subAttribute = tx.putAttributeType(subAttributeName, ValueType.STRING);
-                if (!superAttributeName.equals("attribute")) {
-                    AttributeType<String> superAttribute = tx.getAttributeType(superAttributeName);
-                    subAttribute.sup(superAttribute);
-                }
-            } else if (valuetype.equals("Double")) {
-                AttributeType.Remote<Double> subAttribute = tx.putAttributeType(subAttributeName, ValueType.DOUBLE);
-                if (!superAttributeName.equals("attribute")) {
-                    AttributeType<Double> superAttribute = tx.getAttributeType(superAttributeName);
-                    subAttribute.sup(superAttribute);
-                }
-            } else if (valuetype.equals("LocalDateTime")) {
-                AttributeType.Remote<LocalDateTime> subAttribute = tx.putAttributeType(subAttributeName, ValueType.DATETIME);
-                if (!superAttributeName.equals("attribute")) {
-                    AttributeType<LocalDateTime> superAttribute = tx.getAttributeType(superAttributeName);
-                    subAttribute.sup(superAttribute);
-                }
-            } else if (valuetype.equals("Boolean")) {
-
-                AttributeType.Remote<Boolean> subAttribute = tx.putAttributeType(subAttributeName, ValueType.BOOLEAN);
-                if (!superAttributeName.equals("attribute")) {
-                    AttributeType<Boolean> superAttribute = tx.getAttributeType(superAttributeName);
-                    subAttribute.sup(superAttribute);
-                }
+        private List<String> lines(String fileName) throws IOException {
+            Path file = schemaRoot.resolve(fileName);
+            if (!Files.exists(file)) {
+                problem(fileName, -1, "missing schema file");
+                return Collections.emptyList();
             }
-            else {
-                throw new RuntimeException("Unhandled attribute type valuetype: " + valuetype);
+            List<String> lines = new ArrayList<>(Files.readAllLines(file, StandardCharsets.UTF_8));
+            // a trailing empty line would otherwise be reported
+            while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+                lines.remove(lines.size() - 1);
             }
-        });
-
-        tx.commit();
-    }
+            return lines;
+        }
 
-    private static void importEntities(GraknClient.Session session, Path schemaRoot) throws IOException {
-        Path entityHierarchy = schemaRoot.resolve("entity");
-        Stream<String> lines = Files.lines(entityHierarchy);
-
-        GraknClient.Transaction tx = session.transaction().write();
-        lines.forEach(line -> {
-            String[] split = line.split(",");
-            String subEntityName = split[0];
-            String superEntityName = split[1];
-            EntityType.Remote subEntity = tx.putEntityType(Label.of(subEntityName));
-            EntityType.Remote superEntity = tx.getEntityType(superEntityName);
-            subEntity.sup(superEntity);
-        });
-
-        tx.commit();
-    }
+        /**
+         * Check that every type, role and attribute type referred to is declared, once all the files are read
+         */
+        private void check() {
+            checkSupers("role", roles, "role");
+            checkSupers("attribute", attributes, "attribute");
+            checkSupers("entity", entities, "entity");
+            checkSupers("relation", relations, "relation");
+            relates.forEach((relation, relationRoles) -> {
+                for (String role : relationRoles) {
+                    if (!roles.containsKey(role)) {
+                        problems.add("relation: " + relation + " relates undeclared role: " + role);
+                    }
+                }
+            });
+            has.forEach((owner, owned) -> {
+                checkDeclared("has", owner);
+                for (String attribute : owned) {
+                    if (!attributes.containsKey(attribute)) {
+                        problems.add("has: " + owner + " owns undeclared attribute type: " + attribute);
+                    }
+                }
+            });
+            plays.forEach((player, played) -> {
+                checkDeclared("plays", player);
+                for (String role : played) {
+                    if (!roles.containsKey(role)) {
+                        problems.add("plays: " + player + " plays undeclared role: " + role);
+                    }
+                }
+            });
+        }
 
-    private static void importRoles(GraknClient.Transaction tx, Path schemaRoot) throws IOException {
-        Path roleHierarchy = schemaRoot.resolve("role");
-        Stream<String> lines = Files.lines(roleHierarchy);
+        private void checkSupers(String fileName, Map<String, String> hierarchy, String root) {
+            hierarchy.forEach((label, sup) -> {
+                if (!sup.equals(root) && !hierarchy.containsKey(sup)) {
+                    problems.add(fileName + ": " + label + " has undeclared super type: " + sup);
+                }
+            });
+        }
 
-        lines.forEach(line -> {
-            String[] split = line.split(",");
-            String subRoleName = split[0];
-            String superRoleName = split[1];
-            Role.Remote subRole = tx.putRole(subRoleName);
-            Role superRole = tx.getRole(superRoleName);
-            subRole.sup(superRole);
-        });
+        private void checkDeclared(String fileName, String type) {
+            boolean declared = attributes.containsKey(type) || entities.containsKey(type) || relations.containsKey(type);
+            if (!declared && !type.startsWith("@")) {
+                problems.add(fileName + ": undeclared type: " + type);
+            }
+        }
 
-    }
+        private void problem(String fileName, int line, String problem) {
+            problems.add(fileName + (line >= 0 ? " line " + (line + 1) : "") + ": " + problem);
+        }
 
-    private static void importRelations(GraknClient.Transaction tx, Path schemaRoot) throws IOException {
-        Path relationHierarchy = schemaRoot.resolve("relation");
-        Stream<String> lines = Files.lines(relationHierarchy);
+        int types() {
+            return roles.size() + attributes.size() + entities.size() + relations.size();
+        }
 
-        lines.forEach(line -> {
-            String[] split = line.split(",");
-            String relName = split[0];
-            String superName = split[1];
+        String toGraql() {
+            StringBuilder define = new StringBuilder("define\n");
+            roles.forEach((role, sup) -> statement(define, role, Collections.singletonList("sub " + sup)));
+            attributes.forEach((attribute, sup) -> {
+                List<String> properties = new ArrayList<>(Arrays.asList("sub " + sup, "value " + valueTypes.get(attribute)));
+                statement(define, attribute, hasPlays(attribute, properties));
+            });
+            entities.forEach((entity, sup) -> statement(define, entity, hasPlays(entity, new ArrayList<>(Collections.singletonList("sub " + sup)))));
+            relations.forEach((relation, sup) -> {
+                List<String> properties = new ArrayList<>(Collections.singletonList("sub " + sup));
+                for (String role : relates.get(relation)) {
+                    properties.add("relates " + role);
+                }
+                statement(define, relation, hasPlays(relation, properties));
+            });
+
+            // implicit relations are not declared, and only appear as owners or players
+            Set<String> implicitTypes = new LinkedHashSet<>();
+            implicitTypes.addAll(has.keySet());
+            implicitTypes.addAll(plays.keySet());
+            for (String type : implicitTypes) {
+                if (type.startsWith("@")) {
+                    statement(define, type, hasPlays(type, new ArrayList<>()));
+                }
+            }
 
-            RelationType.Remote relationType = tx.putRelationType(relName);
-            RelationType superType = tx.getRelationType(superName);
-            relationType.sup(superType);
+            rules.forEach(define::append);
+            return define.toString();
+        }
 
-            for (int i = 2; i < split.length; i++) {
-                Role role = tx.getRole(split[i]);
-                relationType.relates(role);
+        private List<String> hasPlays(String type, List<String> properties) {
+            for (String role : plays.getOrDefault(type, Collections.emptySet())) {
+                properties.add("plays " + role);
             }
+            for (String attribute : has.getOrDefault(type, Collections.emptySet())) {
+                properties.add("has " + attribute);
+            }
+            return properties;
+        }
 
-        });
-
+        private static void statement(StringBuilder define, String label, List<String> properties) {
+            define.append(label).append(' ').append(String.join(", ", properties)).append(";\n");
+        }
     }
 }
@@ -0,0 +1,94 @@
+package migrate.importer;
+
+import grakn.client.GraknClient;
+import grakn.client.concept.SchemaConcept;
+import grakn.client.concept.type.AttributeType;
+import grakn.client.concept.type.EntityType;
+import grakn.client.concept.type.RelationType;
+import grakn.client.concept.type.Role;
+import graql.lang.Graql;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Every type and role of the target keyspace, loaded once after the schema has been imported.
+ * <p>
+ * The schema does not change during a data import, so rather than asking the server for a type or role by label
+ * in every transaction (one round trip each), the cached concept is bound to the transaction with `asRemote`,
+ * which does not contact the server. Safe to share between import workers
+ */
+class SchemaCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaCache.class);
+
+    private final Map<String, SchemaConcept<?>> types;
+    private final Map<String, Role> roles;
+    private final LongAdder rpcsSaved = new LongAdder();
+
+    private SchemaCache(Map<String, SchemaConcept<?>> types, Map<String, Role> roles) {
+        this.types = types;
+        this.roles = roles;
+    }
+
+    static SchemaCache load(GraknClient.Session session) {
+        Map<String, SchemaConcept<?>> types = new HashMap<>();
+        Map<String, Role> roles = new HashMap<>();
+        try (GraknClient.Transaction tx = session.transaction().read()) {
+            tx.stream(Graql.parse("match $x sub thing; get;").asGet()).get()
+                    .map(answer -> answer.get("x").asSchemaConcept())
+                    .forEach(type -> types.put(type.label().toString(), type));
+            tx.stream(Graql.parse("match $x sub role; get;").asGet()).get()
+                    .map(answer -> answer.get("x").asRole())
+                    .forEach(role -> roles.put(role.label().toString(), role));
+        }
+        LOG.info("Cached schema: " + types.size() + " types, " + roles.size() + " roles");
+        return new SchemaCache(types, roles);
+    }
+
+    EntityType.Remote entityType(GraknClient.Transaction tx, String label) {
+        SchemaConcept<?> type = types.get(label);
+        if (type == null) {
+            return tx.getEntityType(label);
+        }
+        rpcsSaved.increment();
+        return type.asEntityType().asRemote(tx);
+    }
+
+    RelationType.Remote relationType(GraknClient.Transaction tx, String label) {
+        SchemaConcept<?> type = types.get(label);
+        if (type == null) {
+            return tx.getRelationType(label);
+        }
+        rpcsSaved.increment();
+        return type.asRelationType().asRemote(tx);
+    }
+
+    @SuppressWarnings("unchecked")
+    <D> AttributeType.Remote<D> attributeType(GraknClient.Transaction tx, String label) {
+        SchemaConcept<?> type = types.get(label);
+        if (type == null) {
+            return tx.getAttributeType(label);
+        }
+        rpcsSaved.increment();
+        return ((AttributeType<D>) type.asAttributeType()).asRemote(tx);
+    }
+
+    Role.Remote role(GraknClient.Transaction tx, String label) {
+        Role role = roles.get(label);
+        if (role == null) {
+            return tx.getRole(label);
+        }
+        rpcsSaved.increment();
+        return role.asRemote(tx);
+    }
+
+    /**
+     * @return number of schema lookups answered from the cache instead of by the server
+     */
+    long rpcsSaved() {
+        return rpcsSaved.sum();
+    }
+}
@@ -0,0 +1,127 @@
+package migrate.importer;
+
+import migrate.common.ChecksumManifest;
+import migrate.common.DataFileWriter;
+import migrate.common.ExternalSort;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class AttributeLoaderTest {
+
+    @Test
+    public void duplicateValuesAreGroupedUnderOneLine() throws IOException {
+        Path attributeFile = Files.createTempFile("attribute", ".data");
+        Path groupedFile = Files.createTempFile("attribute", ".grouped");
+        try {
+            Files.write(attributeFile, Arrays.asList("V1,red", "V2,blue", "V3,red", "V4,a\\,b", "V5,blue", "V6,red"), StandardCharsets.UTF_8);
+            // a sort buffer of 2 lines forces the sort to spill and merge runs
+            AttributeLoader loader = new AttributeLoader(null, null, 10, new ExternalSort(2), null, null, null, null);
+
+            long lines = loader.groupByValue(attributeFile, groupedFile);
+
+            assertEquals(6, lines);
+            List<String> grouped = Files.readAllLines(groupedFile, StandardCharsets.UTF_8);
+            assertEquals(Arrays.asList("V4,a\\,b", "V2 V5,blue", "V1 V3 V6,red"), grouped);
+        } finally {
+            Files.delete(attributeFile);
+            Files.delete(groupedFile);
+        }
+    }
+
+    @Test
+    public void valuesAreDecodedToTheirValueClass() throws IOException {
+        assertEquals(-42L, decode(Long.class, "-42"));
+        assertEquals(Long.MAX_VALUE, decode(Long.class, "9223372036854775807"));
+        assertEquals(2.5, decode(Double.class, "2.5"));
+        assertEquals(-1.0E-10, decode(Double.class, "-1.0E-10"));
+        assertEquals(true, decode(Boolean.class, "true"));
+        assertEquals(false, decode(Boolean.class, "false"));
+        assertEquals(LocalDateTime.of(2020, 2, 29, 13, 45, 30), decode(LocalDateTime.class, "2020-02-29T13:45:30"));
+        assertEquals("plain", decode(String.class, "plain"));
+    }
+
+    @Test
+    public void escapedStringsAreUnescaped() throws IOException {
+        assertEquals("a,b", decode(String.class, "a\\,b"));
+        assertEquals("back\\slash", decode(String.class, "back\\\\slash"));
+        assertEquals("two\nlines", decode(String.class, "two\\nlines"));
+        assertEquals("one, two\\three\nfour", decode(String.class, "one\\, two\\\\three\\nfour"));
+    }
+
+    @Test
+    public void emptyStringsAreGroupedAndDecoded() throws IOException {
+        Path attributeFile = Files.createTempFile("attribute", ".data");
+        Path groupedFile = Files.createTempFile("attribute", ".grouped");
+        try {
+            Files.write(attributeFile, Arrays.asList("V1,", "V2,x", "V3,"), StandardCharsets.UTF_8);
+            AttributeLoader loader = new AttributeLoader(null, null, 10, new ExternalSort(2), null, null, null, null);
+            loader.groupByValue(attributeFile, groupedFile);
+
+            assertEquals(Arrays.asList("V1 V3,", "V2,x"), Files.readAllLines(groupedFile, StandardCharsets.UTF_8));
+            try (DataFileTokenizer line = new DataFileTokenizer(groupedFile)) {
+                line.nextLine();
+                assertEquals("V1 V3", line.nextField().toString());
+                DataFileTokenizer.Token value = line.nextField();
+                assertEquals("", AttributeLoader.decoder(String.class).decode(value));
+                assertEquals(ChecksumManifest.valueDigest(""), ChecksumManifest.valueDigest(value));
+            }
+        } finally {
+            Files.delete(attributeFile);
+            Files.delete(groupedFile);
+        }
+    }
+
+    @Test
+    public void valuesRoundTripThroughTheExportedTextFormat() throws IOException {
+        for (Object value : new Object[]{
+                LocalDateTime.of(1970, 1, 1, 0, 0),
+                LocalDateTime.of(2020, 2, 29, 13, 45, 30, 123_000_000),
+                LocalDateTime.of(1, 12, 31, 23, 59, 59, 999_999_999),
+                "a, b,, c\\,",
+                "multi\nline\r\n",
+                "",
+                Long.MIN_VALUE,
+                0.1,
+                false}) {
+            Path file = Files.createTempFile("attribute", ".data");
+            try {
+                try (DataFileWriter writer = DataFileWriter.Format.TEXT.open(file)) {
+                    writer.attribute("V1", value);
+                }
+                assertEquals(value, decodeLine(file, value.getClass()));
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * @param field - value field of an attribute line, as written by the exporter
+     */
+    private static Object decode(Class<?> valueClass, String field) throws IOException {
+        Path file = Files.createTempFile("attribute", ".data");
+        try {
+            Files.write(file, ("V1," + field + "\n").getBytes(StandardCharsets.UTF_8));
+            return decodeLine(file, valueClass);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Object decodeLine(Path file, Class<?> valueClass) throws IOException {
+        try (DataFileTokenizer line = new DataFileTokenizer(file)) {
+            line.nextLine();
+            line.nextField();
+            return AttributeLoader.decoder(valueClass).decode(line.nextField());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package migrate.importer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BatchSizeControllerTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    public void fastCommitsGrowTheBatchUpToTheMaximum() {
+        BatchSizeController controller = new BatchSizeController("test", "test", 100, new BatchSizeController.Limits(true, 1000, 1000, Long.MAX_VALUE));
+        // 1ms per record: the ideal batch is 1000 records, reached by doubling
+        controller.committed(100, 100 * MS);
+        assertEquals(200, controller.batchSize());
+        controller.committed(200, 200 * MS);
+        assertEquals(400, controller.batchSize());
+        controller.committed(400, 400 * MS);
+        controller.committed(800, 800 * MS);
+        assertEquals(1000, controller.batchSize());
+        controller.committed(1000, 1000 * MS);
+        assertEquals(1000, controller.batchSize());
+    }
+
+    @Test
+    public void slowCommitsShrinkTheBatch() {
+        BatchSizeController controller = new BatchSizeController("test", "test", 1000, new BatchSizeController.Limits(true, 1000, 10_000, Long.MAX_VALUE));
+        // 4ms per record: the ideal batch is 250 records, reached by halving
+        controller.committed(1000, 4000 * MS);
+        assertEquals(500, controller.batchSize());
+        controller.committed(500, 2000 * MS);
+        assertEquals(250, controller.batchSize());
+        // commits close to the target change nothing
+        controller.committed(250, 1050 * MS);
+        assertEquals(250, controller.batchSize());
+    }
+
+    @Test
+    public void failedCommitsBackOffSharply() {
+        BatchSizeController controller = new BatchSizeController("test", "test", 1000, new BatchSizeController.Limits(true, 1000, 10_000, Long.MAX_VALUE));
+        controller.failed();
+        assertEquals(250, controller.batchSize());
+        controller.failed();
+        controller.failed();
+        controller.failed();
+        controller.failed();
+        assertEquals(1, controller.batchSize());
+    }
+
+    @Test
+    public void fixedLimitsKeepTheConfiguredSize() {
+        BatchSizeController controller = new BatchSizeController("test", "test", 1000, BatchSizeController.Limits.fixed());
+        controller.committed(1000, 1 * MS);
+        controller.failed();
+        assertEquals(1000, controller.batchSize());
+        assertEquals(Long.MAX_VALUE, controller.maxBatchBytes());
+    }
+}
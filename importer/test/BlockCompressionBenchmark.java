@@ -0,0 +1,120 @@
+package migrate.importer;
+
+import migrate.common.DataFileWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Compare the size on disk and the read throughput of uncompressed and block compressed text data files, for
+ * attribute, relation and ownership files of the same records and a few block sizes. Files are read as the importer
+ * reads them: compressed files are staged to uncompressed text, with one thread and with one thread per core, and
+ * every file is then tokenized line by line.
+ * <p>
+ * eg. `bazel run //importer/test:block-compression-benchmark -- 2000000`
+ */
+public class BlockCompressionBenchmark {
+    private static final int[] BLOCK_SIZES = {64 << 10, 1 << 20, 8 << 20};
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        Path directory = Files.createTempDirectory("block-compression-benchmark");
+        ExecutorService blockThreads = Executors.newFixedThreadPool(cores);
+        try {
+            measure(directory, "attribute", records, cores, blockThreads, (writer, i) ->
+                    writer.attribute("V" + (4096 + i * 4L), i % 2 == 0 ? (Object) ("name-" + i) : (Object) (long) i));
+            measure(directory, "relation", records, cores, blockThreads, (writer, i) -> {
+                Map<String, List<String>> rolePlayers = new LinkedHashMap<>();
+                rolePlayers.put("employee", Arrays.asList("V" + (8192 + i * 8L)));
+                rolePlayers.put("employer", Arrays.asList("V" + (16384 + (i % 1000) * 8L), "V" + (16392 + (i % 1000) * 8L)));
+                writer.relation("V" + (4096 + i * 4L), rolePlayers);
+            });
+            measure(directory, "ownership", records, cores, blockThreads, (writer, i) ->
+                    writer.ownership("V" + (4096 + i * 4L), "V" + (8192 + (i / 3) * 8L)));
+        } finally {
+            blockThreads.shutdown();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    private interface Record {
+        void write(DataFileWriter writer, int index) throws IOException;
+    }
+
+    private static void measure(Path directory, String kind, int records, int cores, ExecutorService blockThreads, Record record) throws IOException {
+        // staged under the name of their phase directory, as by the importer
+        Path phase = Files.createDirectories(directory.resolve(kind));
+        Path staging = directory.resolve("staging");
+        Path text = phase.resolve(kind + ".txt");
+        write(text, 0, records, record);
+        long textBytes = Files.size(text);
+        long textNanos = read(text, staging, Runnable::run, records);
+        System.out.println(String.format("%-10s text %8.1f MB %40s %8.1f MB/sec", kind, textBytes / (1024.0 * 1024), "", textBytes / (1024.0 * 1024) / (textNanos / 1e9)));
+
+        for (int blockSize : BLOCK_SIZES) {
+            Path compressed = phase.resolve(kind + "." + blockSize);
+            long start = System.nanoTime();
+            write(compressed, blockSize, records, record);
+            long writeNanos = System.nanoTime() - start;
+            long compressedBytes = Files.size(compressed);
+            long oneThreadNanos = read(compressed, staging, Runnable::run, records);
+            long parallelNanos = read(compressed, staging, blockThreads, records);
+            System.out.println(String.format("%-10s %4d KB blocks %8.1f MB (%4.1f%%), written in %5.1fs | read %8.1f MB/sec, %2d threads %8.1f MB/sec (%.2fx text)",
+                    kind, blockSize >> 10, compressedBytes / (1024.0 * 1024), 100.0 * compressedBytes / textBytes, writeNanos / 1e9,
+                    textBytes / (1024.0 * 1024) / (oneThreadNanos / 1e9), cores, textBytes / (1024.0 * 1024) / (parallelNanos / 1e9),
+                    (double) textNanos / parallelNanos));
+            Files.delete(compressed);
+        }
+        Files.delete(text);
+    }
+
+    private static void write(Path file, int blockSize, int records, Record record) throws IOException {
+        try (DataFileWriter writer = DataFileWriter.Format.TEXT.open(file, blockSize)) {
+            for (int i = 0; i < records; i++) {
+                record.write(writer, i);
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds to stage the file as the importer does, and to tokenize every field of every line
+     */
+    private static long read(Path file, Path staging, Executor blockThreads, int records) throws IOException {
+        long start = System.nanoTime();
+        Path textFile = ImportWorkerPool.textFile(file, staging, blockThreads);
+        long lines = 0;
+        long fields = 0;
+        try (DataFileTokenizer line = new DataFileTokenizer(textFile)) {
+            while (line.nextLine()) {
+                lines++;
+                do {
+                    while (line.nextField() != null) {
+                        fields++;
+                    }
+                } while (line.nextGroup());
+            }
+        } finally {
+            if (!textFile.equals(file)) {
+                Files.delete(textFile);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        if (lines != records || fields < records) {
+            throw new IllegalStateException(file + " lines read: " + lines + ", expected: " + records);
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,100 @@
+package migrate.importer;
+
+import migrate.common.MigrationMetrics;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommitRetryTest {
+
+    @Test
+    public void backoffIsJitteredWithinADoublingBound() {
+        CommitRetry retry = new CommitRetry(5, 100, new MigrationMetrics());
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            long bound = 100L << (attempt - 1);
+            for (int i = 0; i < 1000; i++) {
+                long backoff = retry.backoff(attempt);
+                assertTrue(backoff >= 0 && backoff <= bound);
+            }
+        }
+        // the bound stops doubling at the maximum wait
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(retry.backoff(40) <= 30_000);
+        }
+    }
+
+    @Test
+    public void transactionIsAttemptedUpToTheLimit() {
+        MigrationMetrics metrics = new MigrationMetrics();
+        CommitRetry retry = new CommitRetry(3, 1, metrics);
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retry.run("test", "test", () -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("server busy");
+            });
+            fail("expected the last failure");
+        } catch (IllegalStateException e) {
+            assertEquals("server busy", e.getMessage());
+        }
+        assertEquals(3, attempts.get());
+        assertEquals(2, metrics.counter(MigrationMetrics.Metric.RETRIES, "test", "test").value());
+
+        attempts.set(0);
+        retry.run("test", "test", () -> {
+            if (attempts.incrementAndGet() < 2) {
+                throw new IllegalStateException("server busy");
+            }
+        });
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void localFileFailuresAreNotRetried() {
+        CommitRetry retry = new CommitRetry(3, 1, new MigrationMetrics());
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            retry.run("test", "test", () -> {
+                attempts.incrementAndGet();
+                throw new UncheckedIOException(new IOException("disk full"));
+            });
+            fail("expected the failure");
+        } catch (UncheckedIOException e) {
+            assertEquals(1, attempts.get());
+        }
+    }
+
+    @Test
+    public void failuresAfterTheCommitAreNotRetried() {
+        CommitRetry retry = new CommitRetry(3, 1, new MigrationMetrics());
+        AtomicInteger commits = new AtomicInteger();
+        try {
+            retry.run("test", "test", () -> {
+                commits.incrementAndGet();
+                CommitRetry.afterCommit(() -> {
+                    throw new IllegalArgumentException("Concept ID too long");
+                });
+            });
+            fail("expected the failure");
+        } catch (CommitRetry.CommittedException e) {
+            assertEquals(1, commits.get());
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        // local file failures keep their type
+        try {
+            CommitRetry.afterCommit(() -> {
+                throw new UncheckedIOException(new IOException("disk full"));
+            });
+            fail("expected the failure");
+        } catch (UncheckedIOException e) {
+            assertEquals("disk full", e.getCause().getMessage());
+        }
+    }
+}
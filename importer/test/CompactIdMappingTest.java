@@ -0,0 +1,78 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompactIdMappingTest {
+
+    @Test
+    public void encodedIdsRoundTrip() {
+        for (String id : new String[]{"V0", "V1", "V123456", "a999999999999999", "Z42"}) {
+            long encoded = CompactIdMapping.encode(id);
+            assertTrue(encoded != 0);
+            assertEquals(id, CompactIdMapping.decode(encoded));
+        }
+    }
+
+    @Test
+    public void idsOutsideEncodingAreRejected() {
+        for (String id : new String[]{"", "V", "V01", "1234", "V12a", "VV12", "V1234567890123456"}) {
+            assertEquals(0L, CompactIdMapping.encode(id));
+        }
+    }
+
+    @Test
+    public void unencodableIdsUseFallback() {
+        CompactIdMapping mapping = new CompactIdMapping();
+        mapping.put("V007", ConceptId.of("V1"));
+        mapping.put("V8", ConceptId.of("not-a-number"));
+        mapping.put("V9", ConceptId.of("V10"));
+
+        assertEquals("V1", mapping.get("V007").getValue());
+        assertEquals("not-a-number", mapping.get("V8").getValue());
+        assertEquals("V10", mapping.get("V9").getValue());
+        assertNull(mapping.get("V10"));
+        assertFalse(mapping.contains("V11"));
+        assertEquals(3, mapping.size());
+    }
+
+    @Test
+    public void concurrentWritersAndReadersSeeAllMappings() throws Exception {
+        CompactIdMapping mapping = new CompactIdMapping();
+        int threads = 8;
+        int perThread = 100_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * perThread;
+            futures.add(executor.submit(() -> {
+                for (int i = offset; i < offset + perThread; i++) {
+                    mapping.put("V" + i, ConceptId.of("V" + (i + 1_000_000_000L)));
+                    // read back a mapping written earlier by this thread while other stripes are being resized
+                    int earlier = offset + (i - offset) / 2;
+                    assertEquals("V" + (earlier + 1_000_000_000L), mapping.get("V" + earlier).getValue());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threads * perThread, mapping.size());
+        for (int i = 0; i < threads * perThread; i++) {
+            assertEquals("V" + (i + 1_000_000_000L), mapping.get("V" + i).getValue());
+        }
+    }
+}
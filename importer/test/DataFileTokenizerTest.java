@@ -0,0 +1,156 @@
+package migrate.importer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DataFileTokenizerTest {
+
+    @Test
+    public void escapedValuesAreDecoded() throws IOException {
+        Path file = dataFile("V1,plain\nV2,one\\, two\\\\three\\nfour\nV3,C:\\temp,\nV4,caf\u00e9 \\, cr\\r\n");
+        try (DataFileTokenizer line = new DataFileTokenizer(file)) {
+            List<String> values = new ArrayList<>();
+            while (line.nextLine()) {
+                line.nextField();
+                values.add(line.nextField().toString());
+            }
+            assertEquals(4, values.size());
+            assertEquals("plain", values.get(0));
+            assertEquals("one, two\\three\nfour", values.get(1));
+            // backslashes the exporter did not write as escapes are kept
+            assertEquals("C:\\temp", values.get(2));
+            assertEquals("caf\u00e9 , cr\r", values.get(3));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void lineEndingInACommaEndsWithAnEmptyField() throws IOException {
+        Path file = dataFile("V1,\nV2,,\r\nV3\n\n");
+        try (DataFileTokenizer line = new DataFileTokenizer(file)) {
+            assertTrue(line.nextLine());
+            assertEquals("V1", line.nextField().toString());
+            assertEquals("", line.nextField().toString());
+            assertNull(line.nextField());
+
+            assertTrue(line.nextLine());
+            assertEquals("V2", line.nextField().toString());
+            assertEquals("", line.nextField().toString());
+            assertEquals("", line.nextField().toString());
+            assertNull(line.nextField());
+
+            // without a comma, the line has no empty field
+            assertTrue(line.nextLine());
+            assertEquals("V3", line.nextField().toString());
+            assertNull(line.nextField());
+
+            assertTrue(line.nextLine());
+            assertNull(line.nextField());
+            assertFalse(line.nextLine());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void unescapedExportsKeepTheirBackslashes() throws IOException {
+        Path file = dataFile("V1,C:\\new\\reports\\\nV2,a\\,b\n");
+        try (DataFileTokenizer line = new DataFileTokenizer(file, false)) {
+            assertTrue(line.nextLine());
+            line.nextField();
+            assertEquals("C:\\new\\reports\\", line.nextField().toString());
+
+            // values were not escaped, so a comma always ends the field
+            assertTrue(line.nextLine());
+            line.nextField();
+            assertEquals("a\\", line.nextField().toString());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void rangesSplitAtAnyOffsetReadEveryLineOnce() throws IOException {
+        Path file = dataFile("V1\nV22\nV333\n\nV4444\nV5");
+        long size = Files.size(file);
+        for (long chunk = 1; chunk <= size; chunk++) {
+            List<String> ids = new ArrayList<>();
+            for (long from = 0; from < size; from += chunk) {
+                try (DataFileTokenizer line = new DataFileTokenizer(file, from, from + chunk)) {
+                    while (line.nextLine()) {
+                        assertTrue(line.lineStart() >= from && line.lineStart() < from + chunk);
+                        DataFileTokenizer.Token id = line.nextField();
+                        ids.add(id == null ? "" : id.toString());
+                    }
+                }
+            }
+            assertEquals("chunks of " + chunk + " bytes", Arrays.asList("V1", "V22", "V333", "", "V4444", "V5"), ids);
+        }
+        Files.delete(file);
+    }
+
+    @Test
+    public void relationGroupsAreSplitIntoRolesAndPlayers() throws IOException {
+        Path file = dataFile("R1,(employee,V1,V2),(employer,V3),\r\nR2,(friend,V4),\n");
+        try (DataFileTokenizer line = new DataFileTokenizer(file)) {
+            assertTrue(line.nextLine());
+            assertTrue(line.nextField().contentEquals("R1"));
+            assertTrue(line.nextGroup());
+            assertTrue(line.nextField().contentEquals("employee"));
+            assertEquals("V1", line.nextField().toString());
+            assertEquals("V2", line.nextField().toString());
+            assertNull(line.nextField());
+            assertTrue(line.nextGroup());
+            assertTrue(line.nextField().contentEquals("employer"));
+            assertEquals("V3", line.nextField().toString());
+            assertNull(line.nextField());
+            assertFalse(line.nextGroup());
+
+            assertTrue(line.nextLine());
+            assertTrue(line.nextField().contentEquals("R2"));
+            assertTrue(line.nextGroup());
+            assertFalse(line.nextField().contentEquals("employee"));
+            assertFalse(line.nextLine());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void offsetsCoverEachLine() throws IOException {
+        Path file = dataFile("1\n-22\r\n333");
+        try (DataFileTokenizer line = new DataFileTokenizer(file)) {
+            long[] expected = {1, -22, 333};
+            long[] starts = {0, 2, 7};
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue(line.nextLine());
+                assertEquals(starts[i], line.lineStart());
+                assertEquals(expected[i], line.nextField().parseLong());
+                assertNull(line.nextField());
+            }
+            assertEquals(Files.size(file), line.offset());
+            assertFalse(line.nextLine());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static Path dataFile(String content) throws IOException {
+        Path file = Files.createTempFile("tokenizer", ".data");
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,168 @@
+package migrate.importer;
+
+import migrate.common.BinaryDataFileReader;
+import migrate.common.DataFileWriter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Compare the size on disk and the parse throughput of the text and the binary data file formats, for attribute,
+ * relation and ownership files of the same records. Text files are parsed with the importer's tokenizer into the
+ * strings and values the loaders use, binary files with the binary reader.
+ * <p>
+ * eg. `bazel run //importer/test:export-format-benchmark -- 2000000`
+ */
+public class ExportFormatBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        Path directory = Files.createTempDirectory("export-format-benchmark");
+        try {
+            measure(directory, "attribute", records, (writer, i) ->
+                    writer.attribute("V" + (4096 + i * 4L), i % 2 == 0 ? (Object) ("name-" + i) : (Object) (long) i),
+                    ExportFormatBenchmark::parseAttribute);
+            measure(directory, "relation", records, (writer, i) -> {
+                Map<String, List<String>> rolePlayers = new LinkedHashMap<>();
+                rolePlayers.put("employee", Arrays.asList("V" + (8192 + i * 8L)));
+                rolePlayers.put("employer", Arrays.asList("V" + (16384 + (i % 1000) * 8L), "V" + (16392 + (i % 1000) * 8L)));
+                writer.relation("V" + (4096 + i * 4L), rolePlayers);
+            }, ExportFormatBenchmark::parseRelation);
+            measure(directory, "ownership", records, (writer, i) ->
+                    writer.ownership("V" + (4096 + i * 4L), "V" + (8192 + (i / 3) * 8L)), ExportFormatBenchmark::parseOwnership);
+        } finally {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> file.toFile().delete());
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private interface Record {
+        void write(DataFileWriter writer, int index) throws IOException;
+    }
+
+    private interface TextParser {
+        void parse(DataFileTokenizer line, Blackhole blackhole);
+    }
+
+    private static void measure(Path directory, String kind, int records, Record record, TextParser textParser) throws IOException {
+        Path text = directory.resolve(kind + ".txt");
+        Path binary = directory.resolve(kind + ".bin");
+        for (DataFileWriter.Format format : DataFileWriter.Format.values()) {
+            try (DataFileWriter writer = format.open(format == DataFileWriter.Format.TEXT ? text : binary)) {
+                for (int i = 0; i < records; i++) {
+                    record.write(writer, i);
+                }
+            }
+        }
+
+        Blackhole blackhole = new Blackhole();
+        long start = System.nanoTime();
+        long parsed = 0;
+        try (DataFileTokenizer line = new DataFileTokenizer(text)) {
+            while (line.nextLine()) {
+                textParser.parse(line, blackhole);
+                parsed++;
+            }
+        }
+        long textNanos = System.nanoTime() - start;
+        check(kind, parsed, records);
+
+        start = System.nanoTime();
+        parsed = 0;
+        try (BinaryDataFileReader reader = new BinaryDataFileReader(Files.newInputStream(binary))) {
+            while (reader.next(blackhole)) {
+                parsed++;
+            }
+        }
+        long binaryNanos = System.nanoTime() - start;
+        check(kind, parsed, records);
+
+        long textBytes = Files.size(text);
+        long binaryBytes = Files.size(binary);
+        System.out.println(String.format("%-10s text %8.1f MB, %10.0f records/sec | binary %8.1f MB (%4.1f%%), %10.0f records/sec (%.2fx) [%d]",
+                kind, textBytes / (1024.0 * 1024), records / (textNanos / 1e9),
+                binaryBytes / (1024.0 * 1024), 100.0 * binaryBytes / textBytes, records / (binaryNanos / 1e9),
+                (double) textNanos / binaryNanos, blackhole.consumed));
+    }
+
+    private static void check(String kind, long parsed, int records) {
+        if (parsed != records) {
+            throw new IllegalStateException(kind + " records parsed: " + parsed + ", expected: " + records);
+        }
+    }
+
+    private static void parseAttribute(DataFileTokenizer line, Blackhole blackhole) {
+        blackhole.consume(line.nextField().toString());
+        DataFileTokenizer.Token value = line.nextField();
+        // values are decoded by their type, as the attribute loader does
+        blackhole.consume(value.charAt(0) == 'n' ? value.toString() : (Object) value.parseLong());
+    }
+
+    private static void parseRelation(DataFileTokenizer line, Blackhole blackhole) {
+        blackhole.consume(line.nextField().toString());
+        while (line.nextGroup()) {
+            blackhole.consume(line.nextField().toString());
+            DataFileTokenizer.Token player;
+            while ((player = line.nextField()) != null) {
+                blackhole.consume(player.toString());
+            }
+        }
+    }
+
+    private static void parseOwnership(DataFileTokenizer line, Blackhole blackhole) {
+        blackhole.consume(line.nextField().toString());
+        blackhole.consume(line.nextField().toString());
+    }
+
+    /**
+     * Keeps the parsed records observable, so that parsing them is not optimised away
+     */
+    private static class Blackhole implements DataFileWriter {
+        private long consumed;
+
+        void consume(Object parsed) {
+            consumed += parsed.hashCode() & 1;
+        }
+
+        @Override
+        public void entity(String id) {
+            consume(id);
+        }
+
+        @Override
+        public void attribute(String id, Object value) {
+            consume(id);
+            consume(value);
+        }
+
+        @Override
+        public void relation(String id, Map<String, ? extends Collection<String>> rolePlayers) {
+            consume(id);
+            for (Map.Entry<String, ? extends Collection<String>> roleEntry : rolePlayers.entrySet()) {
+                consume(roleEntry.getKey());
+                for (String player : roleEntry.getValue()) {
+                    consume(player);
+                }
+            }
+        }
+
+        @Override
+        public void ownership(String attributeId, String ownerId) {
+            consume(attributeId);
+            consume(ownerId);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
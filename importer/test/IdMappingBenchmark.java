@@ -0,0 +1,80 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Compare the heap used per million old->new concept ID mappings of the previous HashMap<String, ConceptId>
+ * and the ID mapping implementations, and the time to insert and look up all of them. The mapped store keeps its
+ * mappings off-heap, in a file sized for them up front as the importer does, so only its insert and lookup times compare.
+ * <p>
+ * Run with a fixed heap, eg. `bazel run //importer/test:id-mapping-benchmark -- 5000000`
+ */
+public class IdMappingBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int mappings = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+
+        measure("HashMap<String, ConceptId>", mappings, HashMap<String, ConceptId>::new, Map::put, Map::get);
+        measure("InMemoryIdMapping", mappings, InMemoryIdMapping::new, IdMapping::put, IdMapping::get);
+        measure("CompactIdMapping", mappings, CompactIdMapping::new, IdMapping::put, IdMapping::get);
+
+        Path file = Files.createTempFile("id-mapping-benchmark", ".idmap");
+        MappedIdMapping[] mapped = new MappedIdMapping[1];
+        measure("MappedIdMapping", mappings, () -> mapped[0] = new MappedIdMapping(file, mappings), IdMapping::put, IdMapping::get);
+        mapped[0].close();
+        Files.delete(file);
+    }
+
+    private static <M> void measure(String name, int mappings, Supplier<M> create, Insert<M> put, Lookup<M> get) {
+        long before = usedHeap();
+        M mapping = create.get();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < mappings; i++) {
+            put.accept(mapping, "V" + (4096 + i * 4L), ConceptId.of("V" + (8192 + i * 8L)));
+        }
+        long insertNanos = System.nanoTime() - start;
+
+        // measured before the lookups, which keep the mapping reachable
+        long used = usedHeap() - before;
+
+        start = System.nanoTime();
+        long found = 0;
+        for (int i = 0; i < mappings; i++) {
+            if (get.apply(mapping, "V" + (4096 + i * 4L)) != null) {
+                found++;
+            }
+        }
+        long lookupNanos = System.nanoTime() - start;
+        if (found != mappings) {
+            throw new IllegalStateException(name + " lost mappings: found " + found + " of " + mappings);
+        }
+
+        System.out.println(String.format("%-28s %8.1f MB per million mappings, insert %6.0f ns/op, lookup %6.0f ns/op",
+                name, used / (mappings / 1_000_000.0) / (1024 * 1024),
+                (double) insertNanos / mappings, (double) lookupNanos / mappings));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    interface Insert<M> {
+        void accept(M mapping, String oldId, ConceptId newId);
+    }
+
+    interface Lookup<M> {
+        ConceptId apply(M mapping, String oldId);
+    }
+}
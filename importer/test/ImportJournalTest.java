@@ -0,0 +1,203 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ImportJournalTest {
+
+    @Test
+    public void committedCheckpointsAreRestored() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try (ImportJournal journal = ImportJournal.create(directory, new InMemoryIdMapping())) {
+            journal.completePhase(ImportJournal.SCHEMA_PHASE);
+            journal.startingCounts(Arrays.asList(1, 2, 3));
+            journal.checkpoint("entity", "person").mapped("V1", ConceptId.of("V100")).mapped("V2", ConceptId.of("V200"))
+                    .counted("entity", "person", 2, 0).commit(0, 6);
+            journal.checkpoint("entity", "person").mapped("V3", ConceptId.of("V300")).counted("entity", "person", 1, 0).commit(6, 9);
+            journal.checkpoint("incomplete-relation", "-").mapped("V4", ConceptId.of("V400"))
+                    .deferred(new IncompleteRelationLoader.DeferredRolePlayer("V4", "friend", "V5")).commit(0, 0);
+        }
+
+        IdMapping idRemapping = new InMemoryIdMapping();
+        try (ImportJournal journal = ImportJournal.resume(directory, idRemapping)) {
+            assertEquals(4, idRemapping.size());
+            assertEquals(ConceptId.of("V300"), idRemapping.get("V3"));
+            assertTrue(journal.isComplete(ImportJournal.SCHEMA_PHASE));
+            assertFalse(journal.isComplete(ImportJournal.DATA_PHASE));
+            assertEquals(Arrays.asList(1, 2, 3), journal.startingCounts());
+
+            ImportJournal.Ranges committed = journal.committed("entity", "person");
+            assertTrue(committed.contains(0) && committed.contains(8));
+            assertFalse(committed.contains(9));
+            assertNull(journal.committed("entity", "company"));
+            assertEquals("V5", journal.deferredRolePlayers().get(0).rolePlayerId());
+            assertEquals(3, journal.imported().entry("entity", "person").records());
+        }
+        delete(directory);
+    }
+
+    @Test
+    public void tornCheckpointIsIgnoredAndCutOff() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try (ImportJournal journal = ImportJournal.create(directory, new InMemoryIdMapping())) {
+            journal.checkpoint("entity", "person").mapped("V1", ConceptId.of("V100")).counted("entity", "person", 1, 0).commit(0, 3);
+        }
+        // a crash in the middle of writing the next checkpoint
+        Files.write(directory.resolve("journal"), "M\tV2\tV200\nK\tentity\tperson\t2\t0\nM\tV3\tV3".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        IdMapping idRemapping = new InMemoryIdMapping();
+        try (ImportJournal journal = ImportJournal.resume(directory, idRemapping)) {
+            assertEquals(1, idRemapping.size());
+            journal.checkpoint("entity", "person").mapped("V4", ConceptId.of("V400")).commit(3, 6);
+        }
+
+        // the partial checkpoint must not be attributed to the checkpoint appended after resuming
+        IdMapping resumedAgain = new InMemoryIdMapping();
+        try (ImportJournal journal = ImportJournal.resume(directory, resumedAgain)) {
+            // nor its records counted
+            assertEquals(1, journal.imported().entry("entity", "person").records());
+        }
+        assertEquals(2, resumedAgain.size());
+        assertNull(resumedAgain.get("V2"));
+        assertEquals(ConceptId.of("V400"), resumedAgain.get("V4"));
+        delete(directory);
+    }
+
+    @Test
+    public void incompleteSetsAreSaved() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        Map<String, Set<String>> rolePlayers = new HashMap<>();
+        rolePlayers.put("employee", new HashSet<>(Arrays.asList("V1", "V2")));
+        rolePlayers.put("employer", Collections.singleton("V3"));
+        try (ImportJournal journal = ImportJournal.create(directory, new InMemoryIdMapping())) {
+            journal.completeDataPhase(
+                    Collections.singletonList(new Import.IncompleteRelation("employment", "V9", rolePlayers)),
+                    Collections.singletonList(new Import.IncompleteOwnership("V9", "V7", "name")));
+        }
+
+        try (ImportJournal journal = ImportJournal.resume(directory, new InMemoryIdMapping())) {
+            assertTrue(journal.isComplete(ImportJournal.DATA_PHASE));
+            List<Import.IncompleteRelation> relations = journal.incompleteRelations();
+            assertEquals(1, relations.size());
+            assertEquals("employment", relations.get(0).relationType());
+            assertEquals(rolePlayers, relations.get(0).oldIdsPerRole());
+            List<Import.IncompleteOwnership> ownerships = journal.incompleteOwnerships();
+            assertEquals("V9", ownerships.get(0).ownerId());
+            assertEquals("V7", ownerships.get(0).attributeId());
+            assertEquals("name", ownerships.get(0).attributeType());
+        }
+        delete(directory);
+    }
+
+    @Test
+    public void mappingsSyncedToTheMappedStoreAreNotRestoredAgain() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        Path storeFile = directory.resolve("idmap");
+        MappedIdMapping store = new MappedIdMapping(storeFile, 100);
+        ImportJournal journal = ImportJournal.create(directory, store);
+        // loaders put the mappings of a transaction in the store before journaling it
+        store.put("V1", ConceptId.of("V100"));
+        journal.checkpoint("entity", "person").mapped("V1", ConceptId.of("V100")).commit(0, 3);
+        journal.completePhase(ImportJournal.SCHEMA_PHASE);
+        store.put("V2", ConceptId.of("V200"));
+        journal.checkpoint("entity", "person").mapped("V2", ConceptId.of("V200")).commit(3, 6);
+        // the import dies: the journal is not closed, so the store was last synced when the phase completed
+        store.close();
+
+        CountingIdMapping reopened = new CountingIdMapping(new MappedIdMapping(storeFile, 100));
+        try (ImportJournal resumed = ImportJournal.resume(directory, reopened)) {
+            assertEquals(1, reopened.puts);
+            assertEquals(2, reopened.size());
+            assertEquals(ConceptId.of("V100"), reopened.get("V1"));
+            assertTrue(resumed.committed("entity", "person").contains(5));
+        }
+        // closing the journal synced the store to its end
+        CountingIdMapping reopenedAgain = new CountingIdMapping(reopened);
+        try (ImportJournal resumed = ImportJournal.resume(directory, reopenedAgain)) {
+            assertEquals(0, reopenedAgain.puts);
+        }
+        reopened.close();
+        delete(directory);
+    }
+
+    /**
+     * Counts the mappings restored into a store
+     */
+    private static class CountingIdMapping implements IdMapping {
+        private final IdMapping store;
+        private int puts;
+
+        CountingIdMapping(IdMapping store) {
+            this.store = store;
+        }
+
+        @Override
+        public void put(String oldId, ConceptId newId) {
+            puts++;
+            store.put(oldId, newId);
+        }
+
+        @Override
+        public ConceptId get(String oldId) {
+            return store.get(oldId);
+        }
+
+        @Override
+        public long size() {
+            return store.size();
+        }
+
+        @Override
+        public long journalOffset() {
+            return store.journalOffset();
+        }
+
+        @Override
+        public void sync(long journalOffset) {
+            store.sync(journalOffset);
+        }
+
+        @Override
+        public void close() {
+            store.close();
+        }
+    }
+
+    @Test
+    public void rangesMergeWhenOverlapping() {
+        ImportJournal.Ranges ranges = new ImportJournal.Ranges();
+        ranges.add(10, 20);
+        ranges.add(30, 40);
+        ranges.add(15, 32);
+        ranges.add(50, 50);
+        assertTrue(ranges.contains(10) && ranges.contains(25) && ranges.contains(39));
+        assertFalse(ranges.contains(9) || ranges.contains(40) || ranges.contains(50));
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
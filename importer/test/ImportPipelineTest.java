@@ -0,0 +1,347 @@
+package migrate.importer;
+
+import migrate.common.DataFileWriter;
+import migrate.common.MigrationMetrics;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImportPipelineTest {
+
+    @Test
+    public void everyParsedRecordIsWrittenOnce() throws IOException {
+        Path file = dataFile(10_000);
+        try (ImportPipeline pipeline = pipeline(2, 3, BatchSizeController.Limits.fixed())) {
+            List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+            long count = pipeline.run("test", "test", file, 64, pipeline.writersPerFile(), null, line -> {
+                int value = (int) line.nextField().parseLong();
+                // skipped lines are not handed to the writers
+                return value % 10 == 0 ? null : value;
+            }, batch -> written.addAll(batch.records()));
+
+            assertEquals(9_000, count);
+            assertEquals(9_000, written.size());
+            assertEquals(9_000, new HashSet<>(written).size());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void committedRangesAreParsedButNotWritten() throws IOException {
+        Path file = dataFile(1_000);
+        try (ImportPipeline pipeline = pipeline(4, 2, BatchSizeController.Limits.fixed())) {
+            // find the byte ranges of each batch of 100 lines
+            List<ImportPipeline.Batch<String>> batches = Collections.synchronizedList(new ArrayList<>());
+            pipeline.run("test", "test", file, 100, 2, null, line -> line.nextField().toString(), batches::add);
+            assertEquals(10, batches.size());
+            assertEquals(Files.size(file), batches.stream().mapToLong(ImportPipeline.Batch::end).max().getAsLong());
+
+            ImportJournal.Ranges committed = new ImportJournal.Ranges();
+            for (ImportPipeline.Batch<String> batch : batches) {
+                if (!batch.records().contains("150") && !batch.records().contains("950")) {
+                    committed.add(batch.start(), batch.end());
+                }
+            }
+            AtomicInteger parsed = new AtomicInteger();
+            Set<String> written = Collections.synchronizedSet(new HashSet<>());
+            long count = pipeline.run("test", "test", file, 100, 2, committed, line -> {
+                parsed.incrementAndGet();
+                return line.nextField().toString();
+            }, batch -> written.addAll(batch.records()));
+
+            assertEquals(1_000, parsed.get());
+            assertEquals(200, count);
+            assertTrue(written.contains("100") && written.contains("199") && written.contains("999"));
+            assertFalse(written.contains("99") || written.contains("200"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void batchesAreCappedInBytes() throws IOException {
+        // lines of 2 to 4 bytes, with their line feed
+        Path file = dataFile(1_000);
+        BatchSizeController.Limits limits = new BatchSizeController.Limits(false, 0, Integer.MAX_VALUE, 40);
+        try (ImportPipeline pipeline = pipeline(4, 1, limits)) {
+            List<ImportPipeline.Batch<String>> batches = Collections.synchronizedList(new ArrayList<>());
+            long count = pipeline.run("test", "test", file, 100, 1, null, line -> line.nextField().toString(), batches::add);
+
+            assertEquals(1_000, count);
+            for (ImportPipeline.Batch<String> batch : batches) {
+                assertTrue(batch.end() - batch.start() < 40 + 4);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void fullQueueBlocksTheReader() throws IOException {
+        Path file = dataFile(1_000);
+        int queueCapacity = 2;
+        try (ImportPipeline pipeline = pipeline(queueCapacity, 1, BatchSizeController.Limits.fixed())) {
+            AtomicInteger parsed = new AtomicInteger();
+            AtomicInteger writtenBatches = new AtomicInteger();
+            Set<Integer> maxAhead = Collections.synchronizedSet(new HashSet<>());
+            pipeline.run("test", "test", file, 10, 1, null, line -> {
+                parsed.incrementAndGet();
+                return line.nextField().toString();
+            }, batch -> {
+                sleep(2);
+                writtenBatches.incrementAndGet();
+                // batches parsed but not written yet: queued, plus the one being built and the one being offered
+                maxAhead.add(parsed.get() / 10 - writtenBatches.get());
+            });
+            int ahead = Collections.max(maxAhead);
+            assertTrue("reader was " + ahead + " batches ahead", ahead <= queueCapacity + 2);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void writerFailureIsRethrownWithoutHanging() throws IOException {
+        Path file = dataFile(100_000);
+        try (ImportPipeline pipeline = pipeline(1, 2, BatchSizeController.Limits.fixed())) {
+            AtomicInteger batches = new AtomicInteger();
+            pipeline.run("test", "test", file, 10, 2, null, line -> line.nextField().toString(), batch -> {
+                // failures of the importer's own files are not retried
+                if (batches.incrementAndGet() == 5) {
+                    throw new UncheckedIOException(new IOException("journal write failed"));
+                }
+            });
+            fail("expected the writer failure");
+        } catch (UncheckedIOException e) {
+            assertEquals("journal write failed", e.getCause().getMessage());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void failedCommitsAreRetried() throws IOException {
+        Path file = dataFile(1_000);
+        MigrationMetrics metrics = new MigrationMetrics();
+        try (ImportPipeline pipeline = pipeline(4, 2, BatchSizeController.Limits.fixed(), metrics, quarantineFile(), 10)) {
+            AtomicInteger attempts = new AtomicInteger();
+            Set<String> written = Collections.synchronizedSet(new HashSet<>());
+            long count = pipeline.run("test", "test", file, 100, 2, null, line -> line.nextField().toString(), batch -> {
+                if (attempts.incrementAndGet() % 4 == 0) {
+                    throw new IllegalStateException("server busy");
+                }
+                written.addAll(batch.records());
+            });
+
+            assertEquals(1_000, count);
+            assertEquals(1_000, written.size());
+            assertTrue(metrics.counter(MigrationMetrics.Metric.RETRIES, "test", "test").value() > 0);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void poisonedRecordIsQuarantinedAndTheRestWritten() throws IOException {
+        Path file = dataFile(1_000);
+        Path quarantineFile = quarantineFile();
+        try (ImportPipeline pipeline = pipeline(4, 2, BatchSizeController.Limits.fixed(), new MigrationMetrics(), quarantineFile, 10)) {
+            Set<String> written = Collections.synchronizedSet(new HashSet<>());
+            List<ImportPipeline.Batch<String>> committed = Collections.synchronizedList(new ArrayList<>());
+            long count = pipeline.run("test", "test", file, 100, 2, null, line -> line.nextField().toString(), batch -> {
+                if (batch.records().contains("537")) {
+                    throw new IllegalArgumentException("bad value");
+                }
+                written.addAll(batch.records());
+                committed.add(batch);
+            });
+
+            assertEquals(999, count);
+            assertEquals(999, written.size());
+            assertFalse(written.contains("537"));
+
+            // the committed parts of the split batch cover every line but the poisoned one, without overlapping
+            long poisonedLine = 0;
+            for (int i = 0; i < 537; i++) {
+                poisonedLine += Integer.toString(i).length() + 1;
+            }
+            committed.sort(Comparator.comparing(ImportPipeline.Batch::start));
+            long end = 0;
+            for (ImportPipeline.Batch<String> batch : committed) {
+                assertTrue(batch.start() >= end);
+                assertFalse(batch.start() <= poisonedLine && poisonedLine < batch.end());
+                end = batch.end();
+            }
+        } finally {
+            Files.delete(file);
+        }
+        List<String> quarantined = Files.readAllLines(quarantineFile, StandardCharsets.UTF_8);
+        Files.delete(quarantineFile);
+        assertEquals(1, quarantined.size());
+        assertTrue(quarantined.get(0).startsWith("test\ttest\tjava.lang.IllegalArgumentException: bad value\t"));
+        assertTrue(quarantined.get(0).endsWith("\t537"));
+    }
+
+    @Test
+    public void tooManyQuarantinedRecordsStopTheImport() throws IOException {
+        Path file = dataFile(1_000);
+        Path quarantineFile = quarantineFile();
+        try (ImportPipeline pipeline = pipeline(4, 1, BatchSizeController.Limits.fixed(), new MigrationMetrics(), quarantineFile, 2)) {
+            pipeline.run("test", "test", file, 100, 1, null, line -> line.nextField().toString(), batch -> {
+                if (batch.records().stream().anyMatch(value -> value.endsWith("00"))) {
+                    throw new IllegalArgumentException("bad value");
+                }
+            });
+            fail("expected the import to stop");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().startsWith("More than 2 records could not be written"));
+        } finally {
+            Files.delete(file);
+            Files.delete(quarantineFile);
+        }
+    }
+
+    @Test
+    public void readerFailureIsRethrown() throws IOException {
+        Path file = dataFile(1_000);
+        try (ImportPipeline pipeline = pipeline(4, 2, BatchSizeController.Limits.fixed())) {
+            pipeline.run("test", "test", file, 10, 2, null, line -> {
+                String value = line.nextField().toString();
+                if (value.equals("500")) {
+                    throw new NumberFormatException("bad line");
+                }
+                return value;
+            }, batch -> { });
+            fail("expected the parse failure");
+        } catch (NumberFormatException e) {
+            assertEquals("bad line", e.getMessage());
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void binaryRecordsAreReadAsTheyAreAndJournaledByTheirOffset() throws IOException {
+        Path file = binaryEntityFile(1_000);
+        try (ImportPipeline pipeline = pipeline(4, 2, BatchSizeController.Limits.fixed())) {
+            List<ImportPipeline.Batch<String>> batches = Collections.synchronizedList(new ArrayList<>());
+            pipeline.run("test", "test", file, 100, 2, null, line -> {
+                throw new AssertionError("binary file read as text");
+            }, entityParser(), batches::add);
+            assertEquals(10, batches.size());
+            assertEquals(Files.size(file), batches.stream().mapToLong(ImportPipeline.Batch::end).max().getAsLong());
+
+            ImportJournal.Ranges committed = new ImportJournal.Ranges();
+            for (ImportPipeline.Batch<String> batch : batches) {
+                if (!batch.records().contains("V150") && !batch.records().contains("V950")) {
+                    committed.add(batch.start(), batch.end());
+                }
+            }
+            Set<String> written = Collections.synchronizedSet(new HashSet<>());
+            long count = pipeline.run("test", "test", file, 100, 2, committed, line -> null, entityParser(), batch -> written.addAll(batch.records()));
+
+            assertEquals(200, count);
+            assertTrue(written.contains("V100") && written.contains("V199") && written.contains("V999"));
+            assertFalse(written.contains("V99") || written.contains("V200"));
+
+            try {
+                pipeline.run("test", "test", file, 100, 1, null, line -> null, batch -> { });
+                fail("expected a binary file to need a record parser");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Binary data file must be decoded to text"));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void poisonedBinaryRecordIsQuarantinedAsText() throws IOException {
+        Path file = binaryEntityFile(1_000);
+        Path quarantineFile = quarantineFile();
+        try (ImportPipeline pipeline = pipeline(4, 2, BatchSizeController.Limits.fixed(), new MigrationMetrics(), quarantineFile, 10)) {
+            long count = pipeline.run("test", "test", file, 100, 2, null, line -> null, entityParser(), batch -> {
+                if (batch.records().contains("V537")) {
+                    throw new IllegalArgumentException("bad value");
+                }
+            });
+            assertEquals(999, count);
+        } finally {
+            Files.delete(file);
+        }
+        List<String> quarantined = Files.readAllLines(quarantineFile, StandardCharsets.UTF_8);
+        Files.delete(quarantineFile);
+        assertEquals(1, quarantined.size());
+        assertTrue(quarantined.get(0), quarantined.get(0).endsWith("bad value\tV537"));
+    }
+
+    private static ImportPipeline pipeline(int queueCapacity, int writersPerFile, BatchSizeController.Limits limits) throws IOException {
+        Path quarantineFile = quarantineFile();
+        quarantineFile.toFile().deleteOnExit();
+        return pipeline(queueCapacity, writersPerFile, limits, new MigrationMetrics(), quarantineFile, 10);
+    }
+
+    private static ImportPipeline pipeline(int queueCapacity, int writersPerFile, BatchSizeController.Limits limits, MigrationMetrics metrics,
+                                           Path quarantineFile, int maxQuarantined) throws IOException {
+        return new ImportPipeline(queueCapacity, writersPerFile, limits, metrics, new CommitRetry(3, 1, metrics),
+                Quarantine.create(quarantineFile, maxQuarantined), true);
+    }
+
+    private static Path quarantineFile() throws IOException {
+        return Files.createTempFile("pipeline", ".quarantine");
+    }
+
+    private static Path dataFile(int lines) throws IOException {
+        Path file = Files.createTempFile("pipeline", ".data");
+        List<String> content = new ArrayList<>();
+        for (int i = 0; i < lines; i++) {
+            content.add(Integer.toString(i));
+        }
+        Files.write(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static Path binaryEntityFile(int records) throws IOException {
+        Path file = Files.createTempFile("pipeline", ".data");
+        try (DataFileWriter writer = DataFileWriter.Format.BINARY.open(file)) {
+            for (int i = 0; i < records; i++) {
+                writer.entity("V" + i);
+            }
+        }
+        return file;
+    }
+
+    private static ImportPipeline.RecordParser<String> entityParser() {
+        return new ImportPipeline.RecordParser<String>() {
+            @Override
+            public void entity(String id) {
+                parsed(id);
+            }
+        };
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package migrate.importer;
+
+import migrate.common.DataFileWriter;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ImportPlanTest {
+
+    @Test
+    public void incompleteRelationsAndCyclesAreFoundInFileOrder() throws IOException {
+        Path data = Files.createTempDirectory("plan");
+        try {
+            write(data, "entity", "person", "V1\nV2\nV3\n");
+            write(data, "attribute", "name", "V10,alice\nV11,bob\\, jr\n");
+            // R2 and R3 play in each other, R4 plays in R5 which comes later, R6 only plays complete relations
+            write(data, "relation", "friendship",
+                    "R1,(friend,V1,V2),\n" +
+                    "R2,(friend,V3),(group,R3),\n" +
+                    "R3,(group,R2),\n" +
+                    "R4,(friend,V1),(group,R5),\n" +
+                    "R5,(friend,V2),\n" +
+                    "R6,(group,R1,R5,V3),\n");
+            write(data, "ownership", "name", "V10,R2\nV11,V1\nV10,R5\n");
+
+            // ranges shorter than a line, so that most lines start in one range and end in another
+            for (long chunkBytes : new long[]{5, 1 << 20}) {
+                ImportPlan.Report report = new ImportPlan(data, 3, chunkBytes, data.resolveSibling(data.getFileName() + ".staging")).scan();
+
+                assertEquals(3, report.type(EntityLoader.STAGE, "person").records());
+                assertEquals(2, report.type(AttributeLoader.STAGE, "name").records());
+                assertEquals(6, report.type(RelationLoader.STAGE, "friendship").records());
+                assertEquals(11, report.ids());
+
+                assertEquals(3, report.incompleteRelations());
+                assertEquals(3, report.type(RelationLoader.STAGE, "friendship").incomplete());
+                assertEquals(1, report.cycles());
+                assertEquals(2, report.largestCycle());
+                assertEquals(1, report.incompleteOwnerships());
+
+                // every ID has the form of a Grakn concept ID
+                assertEquals(CompactIdMapping.tableBytes(11), report.compactIdStoreBytes());
+                report.log();
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(data)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void binaryAndCompressedFilesAreDecodedToTheStagingPath() throws IOException {
+        Path data = Files.createTempDirectory("plan");
+        Path staging = Files.createTempDirectory("plan-staging");
+        try {
+            Map<String, List<String>> players = new LinkedHashMap<>();
+            players.put("friend", Arrays.asList("V1", "V2"));
+            try (DataFileWriter entities = DataFileWriter.Format.BINARY.open(Files.createDirectories(data.resolve("entity")).resolve("person"), 64)) {
+                entities.entity("V1");
+                entities.entity("V2");
+            }
+            try (DataFileWriter relations = DataFileWriter.Format.TEXT.open(Files.createDirectories(data.resolve("relation")).resolve("friendship"), 64)) {
+                relations.relation("R1", players);
+                relations.relation("R2", Collections.singletonMap("group", Collections.singletonList("R3")));
+                relations.relation("R3", players);
+            }
+            try (DataFileWriter ownerships = DataFileWriter.Format.BINARY.open(Files.createDirectories(data.resolve("ownership")).resolve("name"))) {
+                ownerships.ownership("V10", "R2");
+            }
+
+            ImportPlan.Report report = new ImportPlan(data, 2, 1 << 20, staging).scan();
+
+            assertEquals(2, report.type(EntityLoader.STAGE, "person").records());
+            assertEquals(3, report.type(RelationLoader.STAGE, "friendship").records());
+            assertEquals(1, report.type(OwnershipLoader.STAGE, "name").records());
+            assertEquals(1, report.incompleteRelations());
+            assertEquals(1, report.incompleteOwnerships());
+            // the decoded files are deleted once the scan is done
+            try (Stream<Path> files = Files.walk(staging)) {
+                assertFalse(files.anyMatch(Files::isRegularFile));
+            }
+        } finally {
+            for (Path directory : new Path[]{data, staging}) {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+                }
+            }
+        }
+    }
+
+    private static void write(Path data, String phase, String type, String content) throws IOException {
+        Path directory = Files.createDirectories(data.resolve(phase));
+        Files.write(directory.resolve(type), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
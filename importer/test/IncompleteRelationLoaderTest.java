@@ -0,0 +1,141 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+import migrate.common.ChecksumManifest;
+import migrate.common.MigrationMetrics;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IncompleteRelationLoaderTest {
+
+    @Test
+    public void relationsWithoutAnyExistingRolePlayerAreLeftOutOfTheirTransaction() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        IdMapping idRemapping = new InMemoryIdMapping();
+        idRemapping.put("V1", ConceptId.of("V100"));
+        try (ImportJournal journal = ImportJournal.create(directory, new InMemoryIdMapping())) {
+            IncompleteRelationLoader loader = new IncompleteRelationLoader(idRemapping, null, 100, journal, new MigrationMetrics(),
+                    new CommitRetry(1, 0, new MigrationMetrics()));
+            IncompleteRelationLoader.Plan plan = loader.plan(Arrays.asList(
+                    relation("r1", "V1"),
+                    // its only role player does not exist anywhere in the data
+                    relation("r2", "V999"),
+                    // only plays a role in the skipped relation
+                    relation("r3", "r2"),
+                    // keeps its existing role player, the skipped one is deferred and dropped
+                    relation("r4", "r2", "V1"),
+                    // cycle whose relations are each other's role players, created in one transaction
+                    relation("r5", "r6"),
+                    relation("r6", "r5")
+            ));
+
+            assertEquals(Arrays.asList("r2", "r3"), ids(plan.skipped()));
+            assertEquals(1, plan.batches().size());
+            assertEquals(new HashSet<>(Arrays.asList("r1", "r4", "r5", "r6")), new HashSet<>(ids(plan.batches().get(0))));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void relationWhoseOnlyRolePlayerIsMissingDoesNotHoldBackTheBatch() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try (ImportJournal journal = ImportJournal.create(directory, new InMemoryIdMapping())) {
+            IncompleteRelationLoader loader = new IncompleteRelationLoader(new InMemoryIdMapping(), null, 2, journal, new MigrationMetrics(),
+                    new CommitRetry(1, 0, new MigrationMetrics()));
+            // the relations of the chain are skipped in turn, as each only has the previous one as role player
+            IncompleteRelationLoader.Plan plan = loader.plan(Arrays.asList(relation("r1", "missing"), relation("r2", "r1"), relation("r3", "r2")));
+
+            assertEquals(Arrays.asList("r1", "r2", "r3"), ids(plan.skipped()));
+            assertTrue(plan.batches().isEmpty());
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void skippedRelationsAreJournaledAsMismatches() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try (ImportJournal journal = ImportJournal.create(directory, new InMemoryIdMapping())) {
+            journal.checkpoint("skipped-relation", "-").skipped("relation", "marriage", "r2", 7).commit(0, 0);
+        }
+        try (ImportJournal journal = ImportJournal.resume(directory, new InMemoryIdMapping())) {
+            assertEquals(Collections.singleton("r2"), journal.skippedRelations());
+            assertEquals(1, journal.skipped().entry("relation", "marriage").records());
+
+            ChecksumManifest exported = new ChecksumManifest();
+            exported.add("relation", "marriage", 1, 7);
+            assertFalse(Import.verifyManifest(exported, journal.imported(), journal.skipped()));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void ownershipsOfSkippedRelationsAreSkippedInsteadOfFailingTheirBatch() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        IdMapping idRemapping = new InMemoryIdMapping();
+        idRemapping.put("V1", ConceptId.of("V100"));
+        List<Import.IncompleteRelation> relations = Collections.singletonList(relation("r1", "missing"));
+        List<Import.IncompleteOwnership> ownerships = Arrays.asList(
+                // owned by the skipped relation
+                new Import.IncompleteOwnership("r1", "V1", "name"),
+                // its attribute was quarantined
+                new Import.IncompleteOwnership("V1", "V2", "name"));
+        try (ImportJournal journal = ImportJournal.create(directory, new InMemoryIdMapping())) {
+            // nothing is left to write, so no transaction is opened
+            new IncompleteRelationLoader(idRemapping, null, 100, journal, new MigrationMetrics(),
+                    new CommitRetry(1, 0, new MigrationMetrics())).importRelations(null, relations);
+            OwnershipLoader loader = new OwnershipLoader(idRemapping, 100, null, directory, directory, null, null, journal);
+            assertEquals(0, loader.importOwnerships(null, ownerships));
+
+            assertEquals(2, journal.skipped().entry("ownership", "name").records());
+            assertTrue(journal.skippedIds("ownership").contains(OwnershipLoader.ownershipId(ownerships.get(0))));
+        }
+        try (ImportJournal journal = ImportJournal.resume(directory, idRemapping)) {
+            // a resumed import does not count them again
+            OwnershipLoader loader = new OwnershipLoader(idRemapping, 100, null, directory, directory, null, null, journal);
+            assertEquals(0, loader.importOwnerships(null, ownerships));
+            assertEquals(2, journal.skipped().entry("ownership", "name").records());
+
+            ChecksumManifest exported = new ChecksumManifest();
+            exported.add("ownership", "name", 2, 0);
+            assertFalse(Import.verifyManifest(exported, journal.imported(), journal.skipped()));
+        } finally {
+            delete(directory);
+        }
+    }
+
+    private static List<String> ids(List<Import.IncompleteRelation> relations) {
+        return relations.stream().map(Import.IncompleteRelation::oldId).collect(Collectors.toList());
+    }
+
+    private static Import.IncompleteRelation relation(String id, String... rolePlayers) {
+        Map<String, Set<String>> oldIdsPerRole = new HashMap<>();
+        oldIdsPerRole.put("role", new HashSet<>(Arrays.asList(rolePlayers)));
+        return new Import.IncompleteRelation("relation", id, oldIdsPerRole);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package migrate.importer;
+
+import grakn.client.concept.ConceptId;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MappedIdMappingTest {
+
+    @Test
+    public void mappingsAreStoredAndOverwritten() throws IOException {
+        Path file = Files.createTempFile("idmap", ".idmap");
+        MappedIdMapping mapping = new MappedIdMapping(file, 10);
+        mapping.put("V1", ConceptId.of("V100"));
+        mapping.put("V2", ConceptId.of("V200"));
+        mapping.put("V1", ConceptId.of("V101"));
+
+        assertEquals("V101", mapping.get("V1").getValue());
+        assertEquals("V200", mapping.get("V2").getValue());
+        assertTrue(mapping.contains("V2"));
+        assertFalse(mapping.contains("V3"));
+        assertNull(mapping.get("V3"));
+        assertEquals(2, mapping.size());
+        mapping.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void tableGrowsPastItsLoadFactor() throws IOException {
+        Path file = Files.createTempFile("idmap", ".idmap");
+        MappedIdMapping mapping = new MappedIdMapping(file, 0);
+        long initialBytes = Files.size(file);
+        // the smallest table holds 1024 slots, resized when 70% full
+        int mappings = 2000;
+        for (int i = 0; i < mappings; i++) {
+            mapping.put("V" + i, ConceptId.of("V" + (i + 1_000_000)));
+        }
+
+        assertEquals(mappings, mapping.size());
+        for (int i = 0; i < mappings; i++) {
+            assertEquals("V" + (i + 1_000_000), mapping.get("V" + i).getValue());
+        }
+        assertEquals(MappedIdMapping.fileBytes(0, mappings), Files.size(file));
+        assertTrue(Files.size(file) > initialBytes);
+        // the larger table was moved over the original file
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".resize")));
+        mapping.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void mappingsSurviveReopening() throws IOException {
+        Path file = Files.createTempFile("idmap", ".idmap");
+        MappedIdMapping mapping = new MappedIdMapping(file, 0);
+        for (int i = 0; i < 1000; i++) {
+            mapping.put("V" + i, ConceptId.of("V" + (i + 1_000_000)));
+        }
+        mapping.sync(42);
+        mapping.close();
+
+        MappedIdMapping reopened = new MappedIdMapping(file, 0);
+        assertEquals(1000, reopened.size());
+        assertEquals(42, reopened.journalOffset());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("V" + (i + 1_000_000), reopened.get("V" + i).getValue());
+        }
+        reopened.put("V1000", ConceptId.of("V1001000"));
+        assertEquals(1001, reopened.size());
+        reopened.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void idsLongerThanASlotAreRejected() throws IOException {
+        Path file = Files.createTempFile("idmap", ".idmap");
+        MappedIdMapping mapping = new MappedIdMapping(file, 10);
+        StringBuilder longId = new StringBuilder("V");
+        while (longId.length() <= MappedIdMapping.MAX_ID_BYTES) {
+            longId.append('1');
+        }
+        try {
+            mapping.put(longId.toString(), ConceptId.of("V1"));
+            fail("Expected the long old ID to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mapping.put("V1", ConceptId.of(longId.toString()));
+            fail("Expected the long new ID to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mapping.get(longId.toString());
+            fail("Expected the long ID lookup to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        // before its record is written
+        try {
+            mapping.checkId(longId.toString());
+            fail("Expected the long ID to be rejected when checked");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("--id-store=memory or compact"));
+        }
+        mapping.checkId("V1");
+        assertEquals(0, mapping.size());
+        mapping.close();
+        Files.delete(file);
+    }
+
+    @Test
+    public void concurrentWritersAndReadersSeeAllMappings() throws Exception {
+        Path file = Files.createTempFile("idmap", ".idmap");
+        MappedIdMapping mapping = new MappedIdMapping(file, 0);
+        int threads = 8;
+        int perThread = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * perThread;
+            futures.add(executor.submit(() -> {
+                for (int i = offset; i < offset + perThread; i++) {
+                    mapping.put("V" + i, ConceptId.of("V" + (i + 1_000_000_000L)));
+                    // read back a mapping written earlier by this thread while the table is being resized
+                    int earlier = offset + (i - offset) / 2;
+                    assertEquals("V" + (earlier + 1_000_000_000L), mapping.get("V" + earlier).getValue());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threads * perThread, mapping.size());
+        for (int i = 0; i < threads * perThread; i++) {
+            assertEquals("V" + (i + 1_000_000_000L), mapping.get("V" + i).getValue());
+        }
+        mapping.close();
+        Files.delete(file);
+    }
+}
@@ -0,0 +1,74 @@
+package migrate.importer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RelationDependencyGraphTest {
+
+    @Test
+    public void componentsAreInDependencyOrder() {
+        // chain: r1 -> r2 -> r3, where r3 only has an entity as role player
+        List<Import.IncompleteRelation> relations = Arrays.asList(
+                relation("r1", "r2"),
+                relation("r2", "r3"),
+                relation("r3", "V1")
+        );
+
+        List<List<String>> components = componentIds(relations);
+        assertEquals(Arrays.asList(Arrays.asList("r3"), Arrays.asList("r2"), Arrays.asList("r1")), components);
+    }
+
+    @Test
+    public void cyclesFormOneComponent() {
+        // r1 <-> r2 cycle, r3 depends on the cycle, r4 depends on itself
+        List<Import.IncompleteRelation> relations = Arrays.asList(
+                relation("r3", "r1"),
+                relation("r1", "r2", "V1"),
+                relation("r2", "r1"),
+                relation("r4", "r4", "r3")
+        );
+
+        List<List<String>> components = componentIds(relations);
+        assertEquals(3, components.size());
+        assertEquals(new HashSet<>(Arrays.asList("r1", "r2")), new HashSet<>(components.get(0)));
+        assertEquals(Arrays.asList("r3"), components.get(1));
+        assertEquals(Arrays.asList("r4"), components.get(2));
+    }
+
+    @Test
+    public void longChainsDoNotOverflowTheStack() {
+        int length = 200_000;
+        List<Import.IncompleteRelation> relations = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            relations.add(relation("r" + i, "r" + (i + 1)));
+        }
+
+        List<List<String>> components = componentIds(relations);
+        assertEquals(length, components.size());
+        assertEquals("r" + (length - 1), components.get(0).get(0));
+        assertTrue(components.stream().allMatch(component -> component.size() == 1));
+    }
+
+    private static List<List<String>> componentIds(List<Import.IncompleteRelation> relations) {
+        return new RelationDependencyGraph(relations).stronglyConnectedComponents().stream()
+                .map(component -> component.stream().map(Import.IncompleteRelation::oldId).collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    private static Import.IncompleteRelation relation(String id, String... rolePlayers) {
+        Map<String, Set<String>> oldIdsPerRole = new HashMap<>();
+        oldIdsPerRole.put("role", new HashSet<>(Arrays.asList(rolePlayers)));
+        return new Import.IncompleteRelation("relation", id, oldIdsPerRole);
+    }
+}
@@ -0,0 +1,100 @@
+package migrate.importer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SchemaTest {
+
+    @Test
+    public void schemaFilesAreCompiledIntoOneDefine() throws IOException {
+        Path schemaRoot = schema();
+        try {
+            String define = Schema.define(schemaRoot);
+            assertEquals("define\n" +
+                    "partner sub role;\n" +
+                    "husband sub partner;\n" +
+                    "wife sub partner;\n" +
+                    "name sub attribute, value string;\n" +
+                    "nickname sub name, value string;\n" +
+                    "person sub entity, plays husband, plays wife, has name, has nickname;\n" +
+                    "marriage sub relation, relates husband, relates wife, has name;\n" +
+                    "@has-name has nickname;\n" +
+                    "spouse-name sub rule, when { $m (husband: $x, wife: $y) isa marriage; $x has name $n; }, then { $y has nickname $n; };\n",
+                    define);
+        } finally {
+            delete(schemaRoot);
+        }
+    }
+
+    @Test
+    public void inconsistentSchemaFilesAreRejectedUpFront() throws IOException {
+        Path schemaRoot = schema();
+        try {
+            write(schemaRoot, "entity", "person,entity", "employee,worker");
+            write(schemaRoot, "has", "person,name", "person,age");
+            write(schemaRoot, "rule", "spouse-name", "{ $m (husband: $x, wife: $y) isa marriage; $x has name $n;", "$y has nickname $n;");
+            try {
+                Schema.define(schemaRoot);
+                fail("Expected the schema files to be rejected");
+            } catch (IllegalStateException e) {
+                String message = e.getMessage();
+                assertTrue(message, message.contains("3 problems"));
+                assertTrue(message, message.contains("rule line 2: spouse-name has a malformed pattern"));
+                assertTrue(message, message.contains("entity: employee has undeclared super type: worker"));
+                assertTrue(message, message.contains("has: person owns undeclared attribute type: age"));
+            }
+        } finally {
+            delete(schemaRoot);
+        }
+    }
+
+    @Test
+    public void rulePatternsAreUnwrappedFromTheirExportedBraces() {
+        String statements = "$m (husband: $x, wife: $y) isa marriage; $x has name \"{ }\";";
+        assertEquals(statements, Schema.Definition.statements(statements));
+        assertEquals(statements, Schema.Definition.statements("{ " + statements + " }"));
+        assertEquals(statements, Schema.Definition.statements("{ " + statements + " };"));
+        // a disjunction keeps its braces
+        assertEquals("{ $x isa person; } or { $x isa marriage; };", Schema.Definition.statements("{ $x isa person; } or { $x isa marriage; };"));
+
+        assertNull(Schema.Definition.statements("{ $x isa person;"));
+        assertNull(Schema.Definition.statements("$x isa person; }"));
+        assertNull(Schema.Definition.statements("$x isa person"));
+        assertNull(Schema.Definition.statements("{ }"));
+    }
+
+    private static Path schema() throws IOException {
+        Path schemaRoot = Files.createTempDirectory("schema");
+        write(schemaRoot, "role", "partner,role", "husband,partner", "wife,partner", "@has-name-owner,@has-attribute-owner");
+        write(schemaRoot, "attribute", "name,attribute,String", "nickname,name,String");
+        write(schemaRoot, "entity", "person,entity");
+        write(schemaRoot, "relation", "marriage,relation,husband,wife", "@has-name,@has-attribute,@has-name-owner,@has-name-value");
+        write(schemaRoot, "has", "person,name", "person,nickname", "marriage,name", "@has-name,nickname");
+        write(schemaRoot, "plays", "person,husband", "person,wife", "person,@has-name-owner");
+        // as exported: `Pattern.toString()` puts the statements of a conjunction in braces
+        write(schemaRoot, "rule", "spouse-name", "{ $m (husband: $x, wife: $y) isa marriage; $x has name $n; }", "{ $y has nickname $n; };");
+        return schemaRoot;
+    }
+
+    private static void write(Path schemaRoot, String fileName, String... lines) throws IOException {
+        Files.write(schemaRoot.resolve(fileName), Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+}